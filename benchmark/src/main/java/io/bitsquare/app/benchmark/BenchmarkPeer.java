@@ -0,0 +1,243 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.btc.BitcoinNetwork;
+import io.bitsquare.btc.BlockChainService;
+import io.bitsquare.btc.FeePolicy;
+import io.bitsquare.btc.UserAgent;
+import io.bitsquare.btc.WalletService;
+import io.bitsquare.common.timeout.TimeoutService;
+import io.bitsquare.crypto.EncryptionService;
+import io.bitsquare.crypto.SignatureService;
+import io.bitsquare.fiat.FiatAccount;
+import io.bitsquare.fiat.FiatAccountType;
+import io.bitsquare.locale.Country;
+import io.bitsquare.locale.Region;
+import io.bitsquare.network.NetworkException;
+import io.bitsquare.network.Peer;
+import io.bitsquare.network.tomp2p.InboundMessageQueue;
+import io.bitsquare.network.tomp2p.PeerConnectionPool;
+import io.bitsquare.network.tomp2p.TomP2PNode;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.offer.tomp2p.OfferIndex;
+import io.bitsquare.offer.tomp2p.TomP2POfferBookService;
+import io.bitsquare.persistence.Persistence;
+import io.bitsquare.trade.Trade;
+import io.bitsquare.trade.handlers.MessageHandler;
+import io.bitsquare.trade.protocol.availability.CheckOfferAvailabilityModel;
+import io.bitsquare.trade.protocol.placeoffer.PlaceOfferModel;
+import io.bitsquare.trade.protocol.trade.offerer.models.BuyerAsOffererModel;
+import io.bitsquare.trade.protocol.trade.taker.models.SellerAsTakerModel;
+import io.bitsquare.trade.tomp2p.TomP2PTradeMessageService;
+import io.bitsquare.user.User;
+import io.bitsquare.util.Utilities;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.testing.FakeTxBuilder;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.security.KeyPair;
+
+import java.util.Currency;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.tomp2p.dht.PeerBuilderDHT;
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+/**
+ * One simulated user: a TomP2P peer on loopback with the real trade message and offer book services on top of it,
+ * a wallet service with a wallet on the simulated block chain and its own user and persistence, like the app has.
+ * Like the UI thread in the app, a single thread executes all the handlers of a peer.
+ */
+class BenchmarkPeer {
+    private static final Country COUNTRY = new Country("DE", "Germany", new Region("EU", "Europe"));
+
+    private final String name;
+    private final File dir;
+    private final PeerDHT peerDHT;
+    private final ExecutorService executor;
+    private final InboundMessageQueue inboundMessageQueue;
+    private final Persistence persistence;
+    private final User user;
+    private final TomP2PNode tomP2PNode;
+    private final TomP2PTradeMessageService tradeMessageService;
+    private final TomP2POfferBookService offerBookService;
+    private final SimulatedBlockChain blockChain;
+    private final WalletService walletService;
+    private final BlockChainService blockChainService = new BlockChainService();
+    private final SignatureService signatureService = new SignatureService();
+    private final EncryptionService encryptionService = new EncryptionService();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    BenchmarkPeer(String name, int port, PeerAddress bootstrapAddress, SimulatedBlockChain blockChain,
+                  PeerConnectionPool connectionPool, TimeoutService timeoutService)
+            throws IOException, NetworkException {
+        this(name, port, bootstrapAddress, blockChain, connectionPool, timeoutService,
+                new OfferIndex(OfferIndex.DEFAULT_SHARDS));
+    }
+
+    BenchmarkPeer(String name, int port, PeerAddress bootstrapAddress, SimulatedBlockChain blockChain,
+                  PeerConnectionPool connectionPool, TimeoutService timeoutService, OfferIndex offerIndex)
+            throws IOException, NetworkException {
+        this.name = name;
+        this.blockChain = blockChain;
+
+        dir = Files.createTempDirectory(name).toFile();
+        persistence = new Persistence(dir, "benchmark");
+        persistence.init();
+
+        // All peers use a bank account with the same id, as the taker looks up his account by the id in the offer
+        user = new User();
+        user.applyPersistedUser(null);
+        user.setAccountID(name);
+        user.setBankAccount(new FiatAccount(FiatAccountType.SEPA, Currency.getInstance("EUR"), COUNTRY, "Bank",
+                name, "DE89370400440532013000", "COBADEFFXXX"));
+
+        peerDHT = new PeerBuilderDHT(new PeerBuilder(Number160.createHash(name)).ports(port).start()).start();
+        if (bootstrapAddress != null)
+            peerDHT.peer().bootstrap().peerAddress(bootstrapAddress).start().awaitUninterruptibly();
+
+        executor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat(name).setDaemon(true).build());
+
+        inboundMessageQueue = new InboundMessageQueue(InboundMessageQueue.DEFAULT_WORKERS,
+                InboundMessageQueue.DEFAULT_QUEUE_CAPACITY, InboundMessageQueue.DEFAULT_MAX_MESSAGES_PER_SECOND);
+        tomP2PNode = new TomP2PNode(user.getMessageKeyPair(), peerDHT, connectionPool, inboundMessageQueue);
+        tradeMessageService = new TomP2PTradeMessageService(tomP2PNode, timeoutService, encryptionService);
+        tradeMessageService.setExecutor(executor);
+        tomP2PNode.startMessaging(tradeMessageService);
+
+        offerBookService = new TomP2POfferBookService(tomP2PNode, offerIndex);
+        offerBookService.setExecutor(executor);
+
+        walletService = new WalletService(BitcoinNetwork.REGTEST, new FeePolicy(BitcoinNetwork.REGTEST),
+                signatureService, persistence, new UserAgent("", ""), dir, name);
+        Wallet wallet = blockChain.createWallet();
+        // Like the wallet app kit setup in the wallet service
+        wallet.allowSpendingUnconfirmedTransactions();
+        walletService.initialize(wallet, blockChain.createBroadcaster(wallet));
+    }
+
+    // A transaction which pays the given amount to the address of the trade with the given id
+    Transaction createFundingTx(String tradeId, Coin amount) {
+        return FakeTxBuilder.createFakeTx(blockChain.getParams(), amount,
+                walletService.getAddressEntry(tradeId).getAddress());
+    }
+
+    void execute(Runnable runnable) {
+        executor.execute(runnable);
+    }
+
+    void addMessageHandler(MessageHandler messageHandler) {
+        tradeMessageService.addMessageHandler(messageHandler);
+    }
+
+    // Number of entries this peer stores for other peers under the given location keys
+    int getNumStoredEntries(Set<Number160> locationKeys) {
+        return (int) peerDHT.storageLayer().get().keySet().stream()
+                .filter(key -> locationKeys.contains(key.locationKey()))
+                .count();
+    }
+
+    void shutDown() {
+        executor.shutdownNow();
+        walletService.shutDown();
+        tomP2PNode.getConnectionPool().closeAll();
+        inboundMessageQueue.shutDown();
+        peerDHT.shutdown().awaitUninterruptibly();
+        Utilities.removeDirectory(dir);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Models of the protocols, set up like the trade manager does
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    PlaceOfferModel createPlaceOfferModel(Offer offer) {
+        return new PlaceOfferModel(offer, walletService, offerBookService);
+    }
+
+    CheckOfferAvailabilityModel createCheckOfferAvailabilityModel(Offer offer) {
+        return new CheckOfferAvailabilityModel(offer, tradeMessageService);
+    }
+
+    BuyerAsOffererModel createBuyerAsOffererModel(Trade trade) {
+        return new BuyerAsOffererModel(trade, tradeMessageService, walletService, blockChainService,
+                signatureService, user, persistence);
+    }
+
+    SellerAsTakerModel createSellerAsTakerModel(Trade trade, Peer offererPeer) {
+        return new SellerAsTakerModel(trade, offererPeer, tradeMessageService, walletService, blockChainService,
+                signatureService, user, persistence);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Getters
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    String getName() {
+        return name;
+    }
+
+    KeyPair getMessageKeyPair() {
+        return user.getMessageKeyPair();
+    }
+
+    User getUser() {
+        return user;
+    }
+
+    PeerAddress getPeerAddress() {
+        return peerDHT.peerAddress();
+    }
+
+    TomP2PNode getTomP2PNode() {
+        return tomP2PNode;
+    }
+
+    TomP2PTradeMessageService getTradeMessageService() {
+        return tradeMessageService;
+    }
+
+    TomP2POfferBookService getOfferBookService() {
+        return offerBookService;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.arbitration.Arbitrator;
+import io.bitsquare.arbitration.Reputation;
+import io.bitsquare.common.timeout.TimeoutService;
+import io.bitsquare.fiat.FiatAccount;
+import io.bitsquare.network.Peer;
+import io.bitsquare.offer.Direction;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.trade.Trade;
+import io.bitsquare.trade.listeners.SendMessageListener;
+import io.bitsquare.trade.protocol.availability.CheckOfferAvailabilityModel;
+import io.bitsquare.trade.protocol.availability.CheckOfferAvailabilityProtocol;
+import io.bitsquare.trade.protocol.availability.messages.ReportOfferAvailabilityMessage;
+import io.bitsquare.trade.protocol.placeoffer.PlaceOfferProtocol;
+import io.bitsquare.trade.protocol.trade.offerer.BuyerAsOffererProtocol;
+import io.bitsquare.trade.protocol.trade.taker.SellerAsTakerProtocol;
+import io.bitsquare.util.Utilities;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs one trade between two benchmark peers with the real protocols, set up like the trade manager does it:
+ * place offer -> check availability -> take offer -> deposit -> deposit confirmation -> payout.
+ * The phases end at the trade states the protocols set. The user actions (starting and confirming the bank transfer)
+ * are done right away on the thread of the peer.
+ */
+class BenchmarkTrade {
+    private static final Logger log = LoggerFactory.getLogger(BenchmarkTrade.class);
+
+    private static final Coin AMOUNT = Coin.COIN.divide(10);
+    private static final Coin SECURITY_DEPOSIT = Coin.COIN.divide(100);
+    // Enough for the fees, the trade amount and the security deposit
+    private static final Coin FUNDING_AMOUNT = Coin.COIN;
+    private static final Arbitrator ARBITRATOR = new Arbitrator(new ECKey().getPubKey(),
+            "messagePubKeyAsHex",
+            "Arbitrator",
+            Arbitrator.ID_TYPE.REAL_LIFE_ID,
+            new ArrayList<>(Arrays.asList(Locale.ENGLISH)),
+            new Reputation(),
+            Coin.parseCoin("0.1"),
+            new ArrayList<>(Arrays.asList(Arbitrator.METHOD.TLS_NOTARY)),
+            new ArrayList<>(Arrays.asList(Arbitrator.ID_VERIFICATION.PASSPORT)),
+            "https://bitsquare.io",
+            "Arbitrator description");
+
+    enum Phase {
+        PLACE_OFFER,
+        CHECK_AVAILABILITY,
+        TAKE_OFFER,
+        DEPOSIT,
+        DEPOSIT_CONFIRMATION,
+        PAYOUT
+    }
+
+    interface Listener {
+        void onPhaseCompleted(Phase phase, long duration);
+
+        void onCompleted(BenchmarkTrade trade, long duration);
+
+        void onFailed(BenchmarkTrade trade, String reason);
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final BenchmarkPeer offerer;
+    private final BenchmarkPeer taker;
+    private final SimulatedBlockChain blockChain;
+    private final TimeoutService timeoutService;
+    private final Listener listener;
+
+    private Offer offer;
+    private volatile boolean offerOpen;
+    private BuyerAsOffererProtocol buyerAsOffererProtocol;
+    private CheckOfferAvailabilityProtocol checkOfferAvailabilityProtocol;
+    private SellerAsTakerProtocol sellerAsTakerProtocol;
+    private Phase phase;
+    private long startTime;
+    private long phaseStartTime;
+    private boolean done;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    BenchmarkTrade(BenchmarkPeer offerer, BenchmarkPeer taker, SimulatedBlockChain blockChain,
+                   TimeoutService timeoutService, Listener listener) {
+        this.offerer = offerer;
+        this.taker = taker;
+        this.blockChain = blockChain;
+        this.timeoutService = timeoutService;
+        this.listener = listener;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    String getId() {
+        return id;
+    }
+
+    synchronized boolean isDone() {
+        return done;
+    }
+
+    // Called on the offerers thread
+    void start() {
+        // Both get the funds for this trade before we start measuring
+        blockChain.mineBlock(offerer.createFundingTx(id, FUNDING_AMOUNT), taker.createFundingTx(id, FUNDING_AMOUNT));
+
+        startTime = System.nanoTime();
+        startPhase(Phase.PLACE_OFFER);
+        FiatAccount fiatAccount = offerer.getUser().getCurrentBankAccount().get();
+        offer = new Offer(id,
+                offerer.getUser().getMessagePubKey(),
+                Direction.BUY,
+                3000000,
+                AMOUNT,
+                AMOUNT,
+                fiatAccount.getFiatAccountType(),
+                fiatAccount.getCurrency(),
+                fiatAccount.getCountry(),
+                fiatAccount.getUid(),
+                new ArrayList<>(Arrays.asList(ARBITRATOR)),
+                SECURITY_DEPOSIT,
+                new ArrayList<>(Arrays.asList(fiatAccount.getCountry())),
+                new ArrayList<>(Arrays.asList(Locale.ENGLISH)));
+
+        new PlaceOfferProtocol(offerer.createPlaceOfferModel(offer),
+                timeoutService,
+                transaction -> {
+                    Trade trade = new Trade(offer);
+                    trade.stateProperty().addListener((ov, oldValue, newValue) -> onOffererTradeStateChanged(newValue));
+                    buyerAsOffererProtocol = new BuyerAsOffererProtocol(offerer.createBuyerAsOffererModel(trade),
+                            timeoutService);
+                    offerOpen = true;
+                    // The taker works on his own copy of the offer, like one he got from the offer book
+                    Offer takersOffer = (Offer) Utilities.copy(offer);
+                    taker.execute(() -> checkOfferAvailability(takersOffer));
+                },
+                this::fail
+        ).placeOffer();
+    }
+
+    // Called on the offerers thread, like the trade manager answers the request
+    void reportOfferAvailability(Peer sender) {
+        offerer.getTradeMessageService().sendMessage(sender, new ReportOfferAvailabilityMessage(id, offerOpen),
+                new SendMessageListener() {
+                    @Override
+                    public void handleResult() {
+                    }
+
+                    @Override
+                    public void handleFault() {
+                        fail("Sending ReportOfferAvailabilityMessage failed");
+                    }
+                });
+    }
+
+    void fail(String reason) {
+        synchronized (this) {
+            if (done)
+                return;
+            done = true;
+        }
+        log.warn("Trade " + id + " failed in phase " + phase + ": " + reason);
+        listener.onFailed(this, reason);
+    }
+
+    void cleanup() {
+        if (checkOfferAvailabilityProtocol != null)
+            checkOfferAvailabilityProtocol.cleanup();
+        if (sellerAsTakerProtocol != null)
+            sellerAsTakerProtocol.cleanup();
+        if (buyerAsOffererProtocol != null)
+            buyerAsOffererProtocol.cleanup();
+        removeOffer();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Taker
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void checkOfferAvailability(Offer takersOffer) {
+        completePhase(Phase.PLACE_OFFER);
+        startPhase(Phase.CHECK_AVAILABILITY);
+        CheckOfferAvailabilityModel model = taker.createCheckOfferAvailabilityModel(takersOffer);
+        checkOfferAvailabilityProtocol = new CheckOfferAvailabilityProtocol(model, timeoutService,
+                () -> {
+                    if (takersOffer.getState() == Offer.State.AVAILABLE)
+                        takeOffer(takersOffer, model.getPeer());
+                    else
+                        fail("Offer is " + takersOffer.getState());
+                },
+                this::fail);
+        checkOfferAvailabilityProtocol.checkOfferAvailability();
+    }
+
+    private void takeOffer(Offer takersOffer, Peer offererPeer) {
+        completePhase(Phase.CHECK_AVAILABILITY);
+        startPhase(Phase.TAKE_OFFER);
+        Trade trade = new Trade(takersOffer);
+        trade.setTradeAmount(AMOUNT);
+        trade.stateProperty().addListener((ov, oldValue, newValue) -> onTakerTradeStateChanged(newValue));
+        sellerAsTakerProtocol = new SellerAsTakerProtocol(taker.createSellerAsTakerModel(trade, offererPeer),
+                timeoutService);
+        sellerAsTakerProtocol.takeAvailableOffer();
+    }
+
+    private void onTakerTradeStateChanged(Trade.State state) {
+        switch (state) {
+            case TAKE_OFFER_FEE_PUBLISHED:
+                completePhase(Phase.TAKE_OFFER);
+                startPhase(Phase.DEPOSIT);
+                break;
+            case FIAT_PAYMENT_STARTED:
+                // The user confirms the receipt of the bank transfer
+                taker.execute(sellerAsTakerProtocol::onFiatPaymentReceived);
+                break;
+            case TAKE_OFFER_FEE_PUBLISH_FAILED:
+            case MESSAGE_SENDING_FAILED:
+            case FAULT:
+                fail("Taker trade state " + state + ": " + state.getErrorMessage());
+                break;
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Offerer
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void onOffererTradeStateChanged(Trade.State state) {
+        switch (state) {
+            case DEPOSIT_PUBLISHED:
+                completePhase(Phase.DEPOSIT);
+                startPhase(Phase.DEPOSIT_CONFIRMATION);
+                removeOffer();
+                break;
+            case DEPOSIT_CONFIRMED:
+                completePhase(Phase.DEPOSIT_CONFIRMATION);
+                startPhase(Phase.PAYOUT);
+                // The user starts the bank transfer
+                offerer.execute(buyerAsOffererProtocol::onFiatPaymentStarted);
+                break;
+            case PAYOUT_PUBLISHED:
+                completePhase(Phase.PAYOUT);
+                synchronized (this) {
+                    if (done)
+                        return;
+                    done = true;
+                }
+                listener.onCompleted(this, (System.nanoTime() - startTime) / 1000000);
+                break;
+            case TAKE_OFFER_FEE_PUBLISH_FAILED:
+            case MESSAGE_SENDING_FAILED:
+            case FAULT:
+                fail("Offerer trade state " + state + ": " + state.getErrorMessage());
+                break;
+        }
+    }
+
+    // Like the trade manager, we remove the offer as soon as the deposit is published
+    private void removeOffer() {
+        if (offerOpen) {
+            offerOpen = false;
+            offerer.getOfferBookService().removeOffer(offer, () -> {
+            }, (message, throwable) -> log.warn("Removing offer failed: " + message));
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private synchronized void startPhase(Phase phase) {
+        this.phase = phase;
+        phaseStartTime = System.nanoTime();
+    }
+
+    private void completePhase(Phase phase) {
+        long duration;
+        synchronized (this) {
+            if (done || this.phase != phase)
+                return;
+            duration = (System.nanoTime() - phaseStartTime) / 1000000;
+        }
+        listener.onPhaseCompleted(phase, duration);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.common.metrics.LatencyStatistics;
+import io.bitsquare.network.BootstrapNodes;
+import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.MonitoredEventExecutorGroup;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.tomp2p.connection.ChannelClientConfiguration;
+import net.tomp2p.connection.ChannelServerConfiguration;
+import net.tomp2p.dht.FutureGet;
+import net.tomp2p.dht.PeerBuilderDHT;
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.futures.FutureBootstrap;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.Data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.core.env.Environment;
+
+/**
+ * Starts a number of bootstrap node instances sharing one event executor group, like a multi instance bootstrap node,
+ * and lets a number of simulated clients join over loopback. Every client picks its instance by its peer id, like
+ * the app does. Reports the join latency overall and per instance. If a join fails or the p99 is above the given
+ * limit the test fails. It also fails if data put by a client of one instance cannot be read by a client of another
+ * instance, as the instances must form a single DHT.
+ */
+public class BootstrapLoadTest {
+    private static final Logger log = LoggerFactory.getLogger(BootstrapLoadTest.class);
+
+    public static final String NODES_KEY = "benchmark.bootstrapNodes";
+    public static final String CLIENTS_KEY = "benchmark.clients";
+    public static final String CONCURRENCY_KEY = "benchmark.concurrency";
+    public static final String PORT_KEY = "benchmark.port";
+    public static final String MAX_P99_KEY = "benchmark.maxP99";
+
+    public static final int DEFAULT_NODES = 4;
+    public static final int DEFAULT_CLIENTS = 200;
+    public static final int DEFAULT_CONCURRENCY = 20;
+    public static final int DEFAULT_PORT = 7600;
+    public static final long DEFAULT_MAX_P99 = 0;
+
+    // The simulated clients share a small group, so only the bootstrap nodes vary
+    private static final int CLIENT_EXECUTORS = 8;
+
+    private final int numNodes;
+    private final int numClients;
+    private final int concurrency;
+    private final int port;
+    private final long maxP99;
+    private final int eventExecutorGroupSize;
+
+    private final List<PeerDHT> nodes = new ArrayList<>();
+    private final List<PeerDHT> clients = new ArrayList<>();
+    private final LatencyStatistics joinStatistics;
+    // By instance name
+    private final Map<String, LatencyStatistics> instanceStatistics = new LinkedHashMap<>();
+    private final AtomicInteger numFailedJoins = new AtomicInteger();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public BootstrapLoadTest(Environment env) {
+        numNodes = env.getProperty(NODES_KEY, Integer.class, DEFAULT_NODES);
+        numClients = env.getProperty(CLIENTS_KEY, Integer.class, DEFAULT_CLIENTS);
+        concurrency = env.getProperty(CONCURRENCY_KEY, Integer.class, DEFAULT_CONCURRENCY);
+        port = env.getProperty(PORT_KEY, Integer.class, DEFAULT_PORT);
+        maxP99 = env.getProperty(MAX_P99_KEY, Long.class, DEFAULT_MAX_P99);
+        eventExecutorGroupSize = env.getProperty(MonitoredEventExecutorGroup.SIZE_KEY, Integer.class,
+                MonitoredEventExecutorGroup.AUTOMATIC_SIZE);
+
+        if (numNodes < 1)
+            throw new IllegalArgumentException("At least 1 bootstrap node is needed");
+
+        joinStatistics = new LatencyStatistics(Math.max(numClients, 1));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return true if all clients joined and the p99 limit (if set) was not exceeded
+     */
+    public boolean run() throws Exception {
+        MonitoredEventExecutorGroup nodeGroup = MonitoredEventExecutorGroup.create(
+                MonitoredEventExecutorGroup.Role.BOOTSTRAP_NODE, eventExecutorGroupSize);
+        MonitoredEventExecutorGroup clientGroup = new MonitoredEventExecutorGroup(CLIENT_EXECUTORS);
+        try {
+            List<Node> instances = BootstrapNodes.instancesOf(Node.at("bootstrap", "127.0.0.1", port), numNodes);
+            for (Node instance : instances) {
+                nodes.add(createPeer(instance.getName(), instance.getPort(), nodeGroup));
+                instanceStatistics.put(instance.getName(), new LatencyStatistics(Math.max(numClients, 1)));
+            }
+            connectNodes();
+            log.info("Started " + numNodes + " bootstrap nodes using " + nodeGroup.getSize() + " event executors");
+
+            for (int i = 0; i < numClients; i++)
+                clients.add(createPeer("client-" + i, port + numNodes + i, clientGroup));
+            log.info("Started " + numClients + " clients");
+
+            long startTime = System.nanoTime();
+            joinClients(instances);
+            long duration = (System.nanoTime() - startTime) / 1000000;
+
+            boolean sharedData = checkSharedData(instances);
+            return report(duration, nodeGroup) && sharedData;
+        } finally {
+            clients.stream().forEach(peer -> peer.shutdown().awaitUninterruptibly());
+            nodes.stream().forEach(peer -> peer.shutdown().awaitUninterruptibly());
+            clientGroup.shutdownGracefully().awaitUninterruptibly();
+            nodeGroup.shutdownGracefully().awaitUninterruptibly();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void joinClients(List<Node> instances) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch latch = new CountDownLatch(numClients);
+        for (PeerDHT client : clients) {
+            executor.execute(() -> {
+                try {
+                    Node instance = BootstrapNodes.selectInstance(instances, client.peerID().toString());
+                    PeerDHT node = nodes.get(instances.indexOf(instance));
+                    long startTime = System.nanoTime();
+                    FutureBootstrap futureBootstrap = client.peer().bootstrap().peerAddress(node.peerAddress())
+                            .start();
+                    if (futureBootstrap.awaitUninterruptibly().isSuccess()) {
+                        long latency = (System.nanoTime() - startTime) / 1000000;
+                        joinStatistics.record(latency);
+                        instanceStatistics.get(instance.getName()).record(latency);
+                    }
+                    else {
+                        log.warn("Join of " + client.peerID() + " failed: " + futureBootstrap.failedReason());
+                        numFailedJoins.incrementAndGet();
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        executor.shutdown();
+    }
+
+    // Same as the bootstrap node does with its instances
+    private void connectNodes() throws IOException {
+        PeerDHT first = nodes.get(0);
+        for (PeerDHT node : nodes.subList(1, nodes.size())) {
+            FutureBootstrap futureBootstrap = node.peer().bootstrap().peerAddress(first.peerAddress()).start();
+            if (!futureBootstrap.awaitUninterruptibly().isSuccess())
+                throw new IOException("Node " + node.peerID() + " could not bootstrap to " + first.peerID() + ": " +
+                        futureBootstrap.failedReason());
+        }
+    }
+
+    // A client of the first instance puts data, which a client of each other instance must be able to get
+    private boolean checkSharedData(List<Node> instances) throws IOException, ClassNotFoundException {
+        Map<Node, PeerDHT> clientByInstance = new LinkedHashMap<>();
+        clients.stream().forEach(client -> clientByInstance.putIfAbsent(
+                BootstrapNodes.selectInstance(instances, client.peerID().toString()), client));
+        if (clientByInstance.size() < 2) {
+            log.info("Shared data check skipped, the clients did not use at least 2 instances");
+            return true;
+        }
+
+        List<Node> usedInstances = new ArrayList<>(clientByInstance.keySet());
+        PeerDHT writer = clientByInstance.get(usedInstances.get(0));
+        Number160 locationKey = Number160.createHash("BootstrapLoadTest");
+        String value = "Put by a client of " + usedInstances.get(0).getName();
+        if (!writer.put(locationKey).data(new Data(value)).start().awaitUninterruptibly().isSuccess()) {
+            log.error("Client of " + usedInstances.get(0).getName() + " could not put the data");
+            return false;
+        }
+
+        boolean success = true;
+        for (Node instance : usedInstances.subList(1, usedInstances.size())) {
+            FutureGet futureGet = clientByInstance.get(instance).get(locationKey).start();
+            futureGet.awaitUninterruptibly();
+            if (!futureGet.isSuccess() || futureGet.data() == null || !value.equals(futureGet.data().object())) {
+                log.error("Client of " + instance.getName() + " could not get the data put by a client of " +
+                        usedInstances.get(0).getName());
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    private boolean report(long duration, MonitoredEventExecutorGroup nodeGroup) {
+        StringBuilder sb = new StringBuilder("\n");
+        sb.append(String.format("%d clients joining %d bootstrap nodes with concurrency %d%n", numClients, numNodes,
+                concurrency));
+        sb.append(String.format("Joins: %d succeeded, %d failed in %d ms (%.2f joins/s)%n",
+                joinStatistics.getCount(), numFailedJoins.get(), duration,
+                joinStatistics.getCount() * 1000d / Math.max(duration, 1)));
+        sb.append(String.format("%-20s %s%n", "JOIN", joinStatistics));
+        instanceStatistics.forEach((name, statistics) -> sb.append(String.format("%-20s %s%n", name, statistics)));
+        sb.append(String.format("%-20s %s%n", "node executors", nodeGroup));
+        log.info(sb.toString());
+
+        boolean success = numFailedJoins.get() == 0;
+        if (maxP99 > 0 && joinStatistics.getPercentile(99) > maxP99) {
+            log.error("p99 of join latency " + joinStatistics.getPercentile(99) + " ms is above limit of " +
+                    maxP99 + " ms");
+            success = false;
+        }
+        return success;
+    }
+
+    private PeerDHT createPeer(String name, int port, MonitoredEventExecutorGroup eventExecutorGroup)
+            throws Exception {
+        ChannelClientConfiguration clientConf = PeerBuilder.createDefaultChannelClientConfiguration();
+        clientConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
+        ChannelServerConfiguration serverConf = PeerBuilder.createDefaultChannelServerConfiguration();
+        serverConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
+
+        Peer peer = new PeerBuilder(Number160.createHash(name))
+                .ports(port)
+                .channelClientConfiguration(clientConf)
+                .channelServerConfiguration(serverConf)
+                .start();
+        return new PeerBuilderDHT(peer).start();
+    }
+}
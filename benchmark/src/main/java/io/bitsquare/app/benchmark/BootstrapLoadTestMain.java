@@ -0,0 +1,70 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.app.BitsquareEnvironment;
+import io.bitsquare.app.BitsquareExecutable;
+import io.bitsquare.network.tomp2p.MonitoredEventExecutorGroup;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import static io.bitsquare.app.benchmark.BootstrapLoadTest.*;
+
+public class BootstrapLoadTestMain extends BitsquareExecutable {
+
+    public static void main(String[] args) throws Exception {
+        new BootstrapLoadTestMain().execute(args);
+    }
+
+    protected void customizeOptionParsing(OptionParser parser) {
+        parser.accepts(NODES_KEY, description("Number of bootstrap node instances", DEFAULT_NODES))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(CLIENTS_KEY, description("Number of simulated clients", DEFAULT_CLIENTS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(CONCURRENCY_KEY, description("Number of clients joining at the same time",
+                DEFAULT_CONCURRENCY))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(PORT_KEY, description("Port of the first bootstrap node, the others and the clients use the " +
+                "following ports", DEFAULT_PORT))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(MAX_P99_KEY, description("Fail if the p99 of the join latency in ms is above that value. " +
+                "0 means no limit", DEFAULT_MAX_P99))
+                .withRequiredArg()
+                .ofType(long.class);
+        parser.accepts(MonitoredEventExecutorGroup.SIZE_KEY, description("Number of event executor threads shared " +
+                "by the bootstrap nodes, 0 sizes it by the number of cores",
+                MonitoredEventExecutorGroup.AUTOMATIC_SIZE))
+                .withRequiredArg()
+                .ofType(int.class);
+    }
+
+    protected void doExecute(OptionSet options) {
+        boolean success;
+        try {
+            success = new BootstrapLoadTest(new BitsquareEnvironment(options)).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            success = false;
+        }
+        System.exit(success ? EXIT_SUCCESS : EXIT_FAILURE);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.common.metrics.LatencyStatistics;
+import io.bitsquare.network.tomp2p.MonitoredEventExecutorGroup;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.tomp2p.connection.ChannelClientConfiguration;
+import net.tomp2p.connection.ChannelServerConfiguration;
+import net.tomp2p.futures.FutureDirect;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.core.env.Environment;
+
+/**
+ * Simulates a number of peers sending direct messages to one node, like a bootstrap node serving the network, and
+ * measures the message latency and the memory and threads used for several sizes of the nodes event executor group.
+ */
+public class EventExecutorBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(EventExecutorBenchmark.class);
+
+    public static final String SIZES_KEY = "benchmark.eventExecutorSizes";
+    public static final String PEERS_KEY = "benchmark.peers";
+    public static final String MESSAGES_KEY = "benchmark.messages";
+    public static final String PORT_KEY = "benchmark.port";
+
+    public static final String DEFAULT_SIZES = "4,16,64,250";
+    public static final int DEFAULT_PEERS = 50;
+    public static final int DEFAULT_MESSAGES = 100;
+    public static final int DEFAULT_PORT = 7500;
+
+    // The simulated peers share a small group, so only the node under test varies
+    private static final int CLIENT_EXECUTORS = 8;
+    private static final int PAYLOAD_SIZE = 2000;
+
+    private final List<Integer> sizes = new ArrayList<>();
+    private final int numPeers;
+    private final int numMessages;
+    private final int port;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public EventExecutorBenchmark(Environment env) {
+        for (String size : env.getProperty(SIZES_KEY, DEFAULT_SIZES).split(","))
+            sizes.add(Integer.parseInt(size.trim()));
+        numPeers = env.getProperty(PEERS_KEY, Integer.class, DEFAULT_PEERS);
+        numMessages = env.getProperty(MESSAGES_KEY, Integer.class, DEFAULT_MESSAGES);
+        port = env.getProperty(PORT_KEY, Integer.class, DEFAULT_PORT);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void run() throws Exception {
+        StringBuilder sb = new StringBuilder("\n");
+        sb.append(String.format("%d peers sending %d messages each%n", numPeers, numMessages));
+        for (int size : sizes)
+            sb.append(String.format("size %-5d %s%n", size, run(size)));
+        log.info(sb.toString());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private String run(int size) throws Exception {
+        System.gc();
+        long memoryBefore = getUsedMemory();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        MonitoredEventExecutorGroup nodeGroup = new MonitoredEventExecutorGroup(size);
+        MonitoredEventExecutorGroup clientGroup = new MonitoredEventExecutorGroup(CLIENT_EXECUTORS);
+        Peer node = createPeer("node", port, nodeGroup);
+        node.objectDataReply((sender, request) -> request);
+
+        List<Peer> peers = new ArrayList<>();
+        for (int i = 0; i < numPeers; i++)
+            peers.add(createPeer("peer-" + i, port + 1 + i, clientGroup));
+
+        LatencyStatistics latency = new LatencyStatistics(numPeers * numMessages);
+        int maxQueueLength = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(numPeers);
+        CountDownLatch latch = new CountDownLatch(numPeers);
+        for (Peer peer : peers) {
+            executor.execute(() -> {
+                byte[] payload = new byte[PAYLOAD_SIZE];
+                for (int i = 0; i < numMessages; i++) {
+                    long startTime = System.nanoTime();
+                    FutureDirect futureDirect = peer.sendDirect(node.peerAddress()).object(payload).start();
+                    if (futureDirect.awaitUninterruptibly().isSuccess())
+                        latency.record((System.nanoTime() - startTime) / 1000000);
+                }
+                latch.countDown();
+            });
+        }
+        while (latch.getCount() > 0) {
+            maxQueueLength = Math.max(maxQueueLength, nodeGroup.getQueueLength());
+            Thread.sleep(10);
+        }
+
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+        long memory = getUsedMemory() - memoryBefore;
+        executor.shutdown();
+        for (Peer peer : peers)
+            peer.shutdown().awaitUninterruptibly();
+        node.shutdown().awaitUninterruptibly();
+        nodeGroup.shutdownGracefully().awaitUninterruptibly();
+        clientGroup.shutdownGracefully().awaitUninterruptibly();
+
+        long failed = (long) numPeers * numMessages - latency.getCount();
+        return String.format("threads=%d, memory=%d KB, maxQueueLength=%d, failed=%d, latency %s", threads,
+                memory / 1024, maxQueueLength, failed, latency);
+    }
+
+    private Peer createPeer(String name, int port, MonitoredEventExecutorGroup eventExecutorGroup)
+            throws Exception {
+        ChannelClientConfiguration clientConf = PeerBuilder.createDefaultChannelClientConfiguration();
+        clientConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
+        ChannelServerConfiguration serverConf = PeerBuilder.createDefaultChannelServerConfiguration();
+        serverConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
+
+        return new PeerBuilder(Number160.createHash(name))
+                .ports(port)
+                .channelClientConfiguration(clientConf)
+                .channelServerConfiguration(serverConf)
+                .start();
+    }
+
+    private long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
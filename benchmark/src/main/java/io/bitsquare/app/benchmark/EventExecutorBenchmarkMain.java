@@ -0,0 +1,59 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.app.BitsquareEnvironment;
+import io.bitsquare.app.BitsquareExecutable;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import static io.bitsquare.app.benchmark.EventExecutorBenchmark.*;
+
+public class EventExecutorBenchmarkMain extends BitsquareExecutable {
+
+    public static void main(String[] args) throws Exception {
+        new EventExecutorBenchmarkMain().execute(args);
+    }
+
+    protected void customizeOptionParsing(OptionParser parser) {
+        parser.accepts(SIZES_KEY, description("Comma separated sizes of the event executor group", DEFAULT_SIZES))
+                .withRequiredArg();
+        parser.accepts(PEERS_KEY, description("Number of simulated peers", DEFAULT_PEERS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(MESSAGES_KEY, description("Number of messages sent by each peer", DEFAULT_MESSAGES))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(PORT_KEY, description("Port of the node, the peers use the following ports", DEFAULT_PORT))
+                .withRequiredArg()
+                .ofType(int.class);
+    }
+
+    protected void doExecute(OptionSet options) {
+        boolean success;
+        try {
+            new EventExecutorBenchmark(new BitsquareEnvironment(options)).run();
+            success = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            success = false;
+        }
+        System.exit(success ? EXIT_SUCCESS : EXIT_FAILURE);
+    }
+}
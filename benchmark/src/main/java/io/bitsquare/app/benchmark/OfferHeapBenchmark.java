@@ -0,0 +1,304 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.arbitration.Arbitrator;
+import io.bitsquare.arbitration.Reputation;
+import io.bitsquare.fiat.FiatAccountType;
+import io.bitsquare.locale.Country;
+import io.bitsquare.locale.CountryUtil;
+import io.bitsquare.offer.Direction;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.util.DSAKeyUtil;
+
+import org.bitcoinj.core.Coin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import java.security.PublicKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.core.env.Environment;
+
+/**
+ * Measures the serialized size and the heap usage of a received offer book, once with offers which keep their own
+ * countries, languages and arbitrators when they get deserialized (reproduced by LegacyOffer), and once with the
+ * current Offer, which replaces them with shared instances. The serialized form is the same for both. Every offer gets
+ * serialized on its own like it is stored in the DHT and the book is built by deserializing them, like a client
+ * receiving the offers.
+ */
+public class OfferHeapBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(OfferHeapBenchmark.class);
+
+    public static final String OFFERS_KEY = "benchmark.offers";
+    public static final String OFFERERS_KEY = "benchmark.offerers";
+    public static final String ARBITRATORS_KEY = "benchmark.arbitrators";
+
+    public static final int DEFAULT_OFFERS = 10000;
+    public static final int DEFAULT_OFFERERS = 100;
+    public static final int DEFAULT_ARBITRATORS = 5;
+
+    private static final List<String> CURRENCY_CODES = Arrays.asList("EUR", "USD", "GBP", "CHF", "JPY");
+    private static final List<Locale> LANGUAGES = Arrays.asList(Locale.ENGLISH, Locale.GERMAN, Locale.FRENCH,
+            Locale.ITALIAN, new Locale("es", ""));
+    private static final Coin AMOUNT = Coin.COIN.divide(10);
+    private static final Coin SECURITY_DEPOSIT = Coin.COIN.divide(100);
+
+    private final int numOffers;
+    private final int numOfferers;
+    private final int numArbitrators;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public OfferHeapBenchmark(Environment env) {
+        numOffers = env.getProperty(OFFERS_KEY, Integer.class, DEFAULT_OFFERS);
+        numOfferers = env.getProperty(OFFERERS_KEY, Integer.class, DEFAULT_OFFERERS);
+        numArbitrators = env.getProperty(ARBITRATORS_KEY, Integer.class, DEFAULT_ARBITRATORS);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void run() throws Exception {
+        log.info("Offer heap benchmark with " + numOffers + " offers of " + numOfferers + " offerers and " +
+                numArbitrators + " arbitrators");
+
+        List<Offer> offers = createOffers();
+        List<byte[]> legacyBytes = serialize(offers.stream().map(LegacyOffer::new).collect(Collectors.toList()));
+        List<byte[]> bytes = serialize(offers);
+        offers.clear();
+
+        // Warm up the deserialization with a run we don't report
+        measure("warm up", legacyBytes.subList(0, Math.min(1000, numOffers)));
+        measure("warm up", bytes.subList(0, Math.min(1000, numOffers)));
+
+        long[] before = measure("before", legacyBytes);
+        long[] after = measure("after", bytes);
+        log.info(String.format("after/before: %.1f%% of the bytes, %.1f%% of the heap", after[0] * 100d / before[0],
+                after[1] * 100d / before[1]));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Every offerer has its own key and settings, the arbitrators are shared by all offerers
+    private List<Offer> createOffers() throws Exception {
+        Random random = new Random(1);
+        List<Country> countries = CountryUtil.getAllEuroCountries();
+
+        List<Arbitrator> arbitrators = new ArrayList<>();
+        for (int i = 0; i < numArbitrators; i++) {
+            byte[] pubKey = new byte[33];
+            random.nextBytes(pubKey);
+            arbitrators.add(new Arbitrator(pubKey,
+                    "messagePubKeyAsHex" + i,
+                    "Arbitrator " + i,
+                    Arbitrator.ID_TYPE.REAL_LIFE_ID,
+                    new ArrayList<>(LANGUAGES.subList(0, 1 + i % LANGUAGES.size())),
+                    new Reputation(),
+                    Coin.parseCoin("0.1"),
+                    new ArrayList<>(Arrays.asList(Arbitrator.METHOD.TLS_NOTARY)),
+                    new ArrayList<>(Arrays.asList(Arbitrator.ID_VERIFICATION.PASSPORT)),
+                    "https://bitsquare.io",
+                    "Arbitrator description"));
+        }
+
+        List<PublicKey> publicKeys = new ArrayList<>();
+        for (int i = 0; i < numOfferers; i++)
+            publicKeys.add(DSAKeyUtil.generateKeyPair().getPublic());
+
+        List<Offer> offers = new ArrayList<>();
+        for (int i = 0; i < numOffers; i++) {
+            int offerer = i % numOfferers;
+            Country country = countries.get(offerer % countries.size());
+            List<Country> acceptedCountries = new ArrayList<>();
+            for (int j = 0; j < 5; j++)
+                acceptedCountries.add(countries.get((offerer + j) % countries.size()));
+
+            offers.add(new Offer(UUID.randomUUID().toString(),
+                    publicKeys.get(offerer),
+                    random.nextBoolean() ? Direction.BUY : Direction.SELL,
+                    1000000 + random.nextInt(1000000),
+                    AMOUNT,
+                    AMOUNT,
+                    FiatAccountType.SEPA,
+                    Currency.getInstance(CURRENCY_CODES.get(offerer % CURRENCY_CODES.size())),
+                    country,
+                    "bankAccountUID" + offerer,
+                    new ArrayList<>(arbitrators.subList(0, 1 + offerer % numArbitrators)),
+                    SECURITY_DEPOSIT,
+                    acceptedCountries,
+                    new ArrayList<>(LANGUAGES.subList(0, 1 + offerer % 2))));
+        }
+        return offers;
+    }
+
+    private static List<byte[]> serialize(List<? extends Serializable> objects) throws IOException {
+        List<byte[]> result = new ArrayList<>();
+        for (Serializable object : objects) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+                out.writeObject(object);
+            }
+            result.add(bos.toByteArray());
+        }
+        return result;
+    }
+
+    // Returns the serialized bytes and the heap used by the deserialized book
+    private static long[] measure(String name, List<byte[]> serialized) throws Exception {
+        long numBytes = serialized.stream().mapToLong(e -> e.length).sum();
+
+        long usedBefore = getUsedHeap();
+        long startTime = System.nanoTime();
+        List<Object> book = new ArrayList<>(serialized.size());
+        for (byte[] bytes : serialized) {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                book.add(in.readObject());
+            }
+        }
+        long duration = (System.nanoTime() - startTime) / 1000000;
+        long usedHeap = getUsedHeap() - usedBefore;
+
+        if (!name.equals("warm up")) {
+            log.info(String.format("%-7s %d offers: %d bytes serialized (%d per offer), %.1f MB heap (%d bytes per " +
+                            "offer), deserialized in %d ms", name, book.size(), numBytes,
+                    numBytes / Math.max(book.size(), 1), usedHeap / (1024d * 1024d),
+                    usedHeap / Math.max(book.size(), 1), duration));
+        }
+        // Keep the book reachable until it got measured
+        book.clear();
+        return new long[]{numBytes, usedHeap};
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // An offer which keeps its own country, locale and arbitrator objects when it is deserialized
+    private static class LegacyOffer implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Direction direction;
+        private final Currency currency;
+        private final String id;
+        private final Date creationDate;
+        private final long fiatPrice;
+        private final Coin amount;
+        private final Coin minAmount;
+        private final PublicKey messagePublicKey;
+        private final FiatAccountType fiatAccountType;
+        private final Country bankAccountCountry;
+        private final Coin securityDeposit;
+        private final List<Country> acceptedCountries;
+        private final List<Locale> acceptedLanguageLocales;
+        private final String bankAccountUID;
+        private final List<LegacyArbitrator> arbitrators;
+        private String offerFeePaymentTxID;
+        private Offer.State state;
+
+        LegacyOffer(Offer offer) {
+            direction = offer.getDirection();
+            currency = offer.getCurrency();
+            id = offer.getId();
+            creationDate = offer.getCreationDate();
+            fiatPrice = offer.getPrice().value;
+            amount = offer.getAmount();
+            minAmount = offer.getMinAmount();
+            messagePublicKey = offer.getMessagePublicKey();
+            fiatAccountType = offer.getFiatAccountType();
+            bankAccountCountry = offer.getBankAccountCountry();
+            securityDeposit = offer.getSecurityDeposit();
+            acceptedCountries = offer.getAcceptedCountries();
+            acceptedLanguageLocales = offer.getAcceptedLanguageLocales();
+            bankAccountUID = offer.getBankAccountId();
+            arbitrators = offer.getArbitrators().stream().map(LegacyArbitrator::new).collect(Collectors.toList());
+            offerFeePaymentTxID = offer.getOfferFeePaymentTxID();
+            state = offer.getState();
+        }
+    }
+
+    // An arbitrator which does not get interned when it is deserialized
+    private static class LegacyArbitrator implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final String pubKeyAsHex;
+        private final byte[] pubKey;
+        private final String messagePubKeyAsHex;
+        private final String name;
+        private final Arbitrator.ID_TYPE idType;
+        private final List<Locale> languages;
+        private final Reputation reputation;
+        private final Coin fee;
+        private final List<Arbitrator.METHOD> arbitrationMethods;
+        private final List<Arbitrator.ID_VERIFICATION> idVerifications;
+        private final String webUrl;
+        private final String description;
+
+        LegacyArbitrator(Arbitrator arbitrator) {
+            id = arbitrator.getId();
+            pubKeyAsHex = arbitrator.getPubKeyAsHex();
+            pubKey = arbitrator.getPubKey();
+            messagePubKeyAsHex = arbitrator.getMessagePubKeyAsHex();
+            name = arbitrator.getName();
+            idType = arbitrator.getIdType();
+            languages = arbitrator.getLanguages();
+            reputation = arbitrator.getReputation();
+            fee = arbitrator.getFee();
+            arbitrationMethods = arbitrator.getArbitrationMethods();
+            idVerifications = arbitrator.getIdVerifications();
+            webUrl = arbitrator.getWebUrl();
+            description = arbitrator.getDescription();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.app.BitsquareEnvironment;
+import io.bitsquare.app.BitsquareExecutable;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import static io.bitsquare.app.benchmark.OfferHeapBenchmark.*;
+
+public class OfferHeapBenchmarkMain extends BitsquareExecutable {
+
+    public static void main(String[] args) throws Exception {
+        new OfferHeapBenchmarkMain().execute(args);
+    }
+
+    protected void customizeOptionParsing(OptionParser parser) {
+        parser.accepts(OFFERS_KEY, description("Number of offers in the book", DEFAULT_OFFERS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(OFFERERS_KEY, description("Number of offerers the offers belong to", DEFAULT_OFFERERS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(ARBITRATORS_KEY, description("Number of arbitrators the offerers choose from",
+                DEFAULT_ARBITRATORS))
+                .withRequiredArg()
+                .ofType(int.class);
+    }
+
+    protected void doExecute(OptionSet options) {
+        boolean success;
+        try {
+            new OfferHeapBenchmark(new BitsquareEnvironment(options)).run();
+            success = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            success = false;
+        }
+        System.exit(success ? EXIT_SUCCESS : EXIT_FAILURE);
+    }
+}
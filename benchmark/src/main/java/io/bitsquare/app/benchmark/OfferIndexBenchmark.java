@@ -0,0 +1,247 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.arbitration.Arbitrator;
+import io.bitsquare.common.metrics.LatencyStatistics;
+import io.bitsquare.common.timeout.TimeoutService;
+import io.bitsquare.fiat.FiatAccountType;
+import io.bitsquare.locale.Country;
+import io.bitsquare.locale.Region;
+import io.bitsquare.network.tomp2p.PeerConnectionPool;
+import io.bitsquare.offer.Direction;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.offer.OfferBookService;
+import io.bitsquare.offer.tomp2p.OfferIndex;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+
+import com.google.common.base.Charsets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.HashSet;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.tomp2p.peers.Number160;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.core.env.Environment;
+
+/**
+ * Publishes offers of one currency from a number of peers on loopback and measures for several numbers of offer
+ * index shards how the stored offers are spread over the peers (the replication load) and how long it takes to
+ * fetch one side and both sides of the market.
+ */
+public class OfferIndexBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(OfferIndexBenchmark.class);
+
+    public static final String SHARDS_KEY = "benchmark.shards";
+    public static final String PEERS_KEY = "benchmark.peers";
+    public static final String OFFERS_KEY = "benchmark.offers";
+    public static final String QUERIES_KEY = "benchmark.queries";
+    public static final String PORT_KEY = "benchmark.port";
+
+    public static final String DEFAULT_SHARDS = "1,4,16";
+    public static final int DEFAULT_PEERS = 20;
+    public static final int DEFAULT_OFFERS = 400;
+    public static final int DEFAULT_QUERIES = 50;
+    public static final int DEFAULT_PORT = 7700;
+
+    // All offers are in one currency, the case where sharding matters
+    private static final String CURRENCY_CODE = "EUR";
+    private static final Coin AMOUNT = Coin.COIN.divide(10);
+    private static final Coin SECURITY_DEPOSIT = Coin.COIN.divide(100);
+    private static final Country COUNTRY = new Country("DE", "Germany", new Region("EU", "Europe"));
+    private static final long QUERY_TIMEOUT = 30 * 1000;
+
+    private final List<Integer> shards = new ArrayList<>();
+    private final int numPeers;
+    private final int numOffers;
+    private final int numQueries;
+    private final int port;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public OfferIndexBenchmark(Environment env) {
+        for (String numShards : env.getProperty(SHARDS_KEY, DEFAULT_SHARDS).split(","))
+            shards.add(Integer.parseInt(numShards.trim()));
+        numPeers = env.getProperty(PEERS_KEY, Integer.class, DEFAULT_PEERS);
+        numOffers = env.getProperty(OFFERS_KEY, Integer.class, DEFAULT_OFFERS);
+        numQueries = env.getProperty(QUERIES_KEY, Integer.class, DEFAULT_QUERIES);
+        port = env.getProperty(PORT_KEY, Integer.class, DEFAULT_PORT);
+
+        if (numPeers < 2)
+            throw new IllegalArgumentException("At least 2 peers are needed");
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void run() throws Exception {
+        StringBuilder sb = new StringBuilder("\n");
+        sb.append(String.format("%d peers publishing %d offers%n", numPeers, numOffers));
+        for (int numShards : shards)
+            sb.append(String.format("shards %-4d %s%n", numShards, run(numShards)));
+        log.info(sb.toString());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private String run(int numShards) throws Exception {
+        OfferIndex offerIndex = new OfferIndex(numShards);
+        SimulatedBlockChain blockChain = new SimulatedBlockChain(TradeBenchmark.DEFAULT_BLOCK_INTERVAL);
+        TimeoutService timeoutService = new TimeoutService();
+        List<BenchmarkPeer> peers = new ArrayList<>();
+        try {
+            for (int i = 0; i < numPeers; i++) {
+                peers.add(new BenchmarkPeer("offer-peer-" + i,
+                        port + i,
+                        peers.isEmpty() ? null : peers.get(0).getPeerAddress(),
+                        blockChain,
+                        new PeerConnectionPool(PeerConnectionPool.DEFAULT_MAX_SIZE,
+                                PeerConnectionPool.DEFAULT_IDLE_TIMEOUT),
+                        timeoutService,
+                        offerIndex));
+            }
+
+            int numFailedPuts = publishOffers(peers);
+
+            // Every peer only stores what it is responsible for, the publishing peers don't keep a copy
+            Set<Number160> locationKeys = new HashSet<>(offerIndex.getLocationKeys(CURRENCY_CODE));
+            IntSummaryStatistics storedEntries = peers.stream()
+                    .mapToInt(peer -> peer.getNumStoredEntries(locationKeys))
+                    .summaryStatistics();
+            long numStoringPeers = peers.stream()
+                    .filter(peer -> peer.getNumStoredEntries(locationKeys) > 0)
+                    .count();
+
+            BenchmarkPeer reader = peers.get(peers.size() - 1);
+            AtomicInteger numOneSide = new AtomicInteger();
+            LatencyStatistics oneSide = query(reader, numOneSide,
+                    () -> reader.getOfferBookService().getOffers(CURRENCY_CODE, Direction.SELL));
+            AtomicInteger numBothSides = new AtomicInteger();
+            LatencyStatistics bothSides = query(reader, numBothSides,
+                    () -> reader.getOfferBookService().getOffers(CURRENCY_CODE));
+
+            return String.format("failed puts=%d, stored entries per peer min=%d, mean=%.1f, max=%d, " +
+                            "peers storing offers=%d%n           one side: %d offers, %s%n" +
+                            "           both sides: %d offers, %s",
+                    numFailedPuts, storedEntries.getMin(), storedEntries.getAverage(), storedEntries.getMax(),
+                    numStoringPeers, numOneSide.get(), oneSide, numBothSides.get(), bothSides);
+        } finally {
+            peers.stream().forEach(BenchmarkPeer::shutDown);
+            timeoutService.shutDown();
+            blockChain.shutDown();
+        }
+    }
+
+    // Returns the number of failed puts
+    private int publishOffers(List<BenchmarkPeer> peers) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(numOffers);
+        AtomicInteger numFailed = new AtomicInteger();
+        for (int i = 0; i < numOffers; i++) {
+            BenchmarkPeer peer = peers.get(i % peers.size());
+            Offer offer = createOffer(peer, i % 2 == 0 ? Direction.BUY : Direction.SELL);
+            peer.getOfferBookService().addOffer(offer,
+                    latch::countDown,
+                    (message, throwable) -> {
+                        numFailed.incrementAndGet();
+                        latch.countDown();
+                    });
+        }
+        latch.await();
+        return numFailed.get();
+    }
+
+    private LatencyStatistics query(BenchmarkPeer reader, AtomicInteger numOffersReceived, Runnable query)
+            throws InterruptedException {
+        BlockingQueue<List<Offer>> results = new ArrayBlockingQueue<>(1);
+        OfferBookService.Listener listener = new OfferBookService.Listener() {
+            @Override
+            public void onOfferAdded(Offer offer) {
+            }
+
+            @Override
+            public void onOffersReceived(List<Offer> offers) {
+                results.offer(offers);
+            }
+
+            @Override
+            public void onOfferRemoved(Offer offer) {
+            }
+        };
+
+        LatencyStatistics latency = new LatencyStatistics(numQueries);
+        reader.getOfferBookService().addListener(listener);
+        try {
+            for (int i = 0; i < numQueries; i++) {
+                long startTime = System.nanoTime();
+                query.run();
+                List<Offer> offers = results.poll(QUERY_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (offers != null) {
+                    latency.record((System.nanoTime() - startTime) / 1000000);
+                    numOffersReceived.set(offers.size());
+                }
+            }
+        } finally {
+            reader.getOfferBookService().removeListener(listener);
+        }
+        return latency;
+    }
+
+    private Offer createOffer(BenchmarkPeer peer, Direction direction) {
+        Offer offer = new Offer(UUID.randomUUID().toString(),
+                peer.getMessageKeyPair().getPublic(),
+                direction,
+                3000000,
+                AMOUNT,
+                AMOUNT,
+                FiatAccountType.SEPA,
+                Currency.getInstance(CURRENCY_CODE),
+                COUNTRY,
+                "bankAccountUID",
+                new ArrayList<>(Arrays.asList(new Arbitrator())),
+                SECURITY_DEPOSIT,
+                new ArrayList<>(Arrays.asList(COUNTRY)),
+                new ArrayList<>(Arrays.asList(Locale.ENGLISH)));
+        // Received offers get verified, so they need the id of a fee tx
+        offer.setOfferFeePaymentTxID(Sha256Hash.create(offer.getId().getBytes(Charsets.UTF_8)).toString());
+        return offer;
+    }
+}
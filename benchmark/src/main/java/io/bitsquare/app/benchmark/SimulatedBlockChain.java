@@ -0,0 +1,179 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.app.benchmark;
+
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionBroadcaster;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.testing.FakeTxBuilder;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A block chain which lives only in memory. There is no proof of work and no network involved, so the costs we
+ * measure are the wallet operations only.
+ * Broadcast transactions are delivered to the interested wallets right away, like a peer group does, and get mined
+ * into a block at the given interval. A transaction gets into the block after the next interval at the earliest, so
+ * the protocols have time to register their confidence listeners after the broadcast completed.
+ * We use the regtest parameters, so the fee policy of the wallet service can be used as it is.
+ */
+class SimulatedBlockChain {
+    private static final Logger log = LoggerFactory.getLogger(SimulatedBlockChain.class);
+
+    private final NetworkParameters params = RegTestParams.get();
+    private final MemoryBlockStore blockStore;
+    private final List<Wallet> wallets = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor;
+
+    @GuardedBy("this") private List<Transaction> broadcastTransactions = new ArrayList<>();
+    @GuardedBy("this") private List<Transaction> nextBlockTransactions = new ArrayList<>();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    SimulatedBlockChain(long blockInterval) {
+        blockStore = new MemoryBlockStore(params);
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("SimulatedBlockChain").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(this::mineBroadcastTransactions, blockInterval, blockInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    NetworkParameters getParams() {
+        return params;
+    }
+
+    Wallet createWallet() {
+        Wallet wallet = new Wallet(params);
+        wallets.add(wallet);
+        return wallet;
+    }
+
+    /**
+     * @return a broadcaster for the transactions of the given wallet. That wallet keeps the instance it broadcasts,
+     * the other wallets get their own copy as if they received it from the network.
+     */
+    TransactionBroadcaster createBroadcaster(Wallet wallet) {
+        return transaction -> broadcastTransaction(wallet, transaction);
+    }
+
+    /**
+     * Mines a block with the given transactions on top of the chain head and delivers it to all wallets.
+     */
+    synchronized StoredBlock mineBlock(Transaction... transactions) {
+        Transaction[] blockTransactions = new Transaction[transactions.length];
+        for (int i = 0; i < transactions.length; i++)
+            blockTransactions[i] = copy(transactions[i]);
+        StoredBlock storedBlock = FakeTxBuilder.createFakeBlock(blockStore, blockTransactions).storedBlock;
+        for (Wallet wallet : wallets) {
+            for (Transaction transaction : transactions) {
+                // The wallet uses its own instance if it knows the transaction already
+                if (wallet.isTransactionRelevant(transaction))
+                    wallet.receiveFromBlock(copy(transaction), storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN,
+                            0);
+            }
+            wallet.notifyNewBestBlock(storedBlock);
+        }
+        log.trace("Mined block at height " + storedBlock.getHeight());
+        return storedBlock;
+    }
+
+    int getChainHeight() {
+        try {
+            return blockStore.getChainHead().getHeight();
+        } catch (BlockStoreException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void shutDown() {
+        executor.shutdownNow();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private ListenableFuture<Transaction> broadcastTransaction(Wallet sender, Transaction transaction) {
+        SettableFuture<Transaction> future = SettableFuture.create();
+        try {
+            sender.receivePending(transaction, null);
+            for (Wallet wallet : wallets) {
+                if (wallet != sender && wallet.isPendingTransactionRelevant(transaction))
+                    wallet.receivePending(copy(transaction), null);
+            }
+        } catch (VerificationException e) {
+            future.setException(e);
+            return future;
+        }
+
+        synchronized (this) {
+            broadcastTransactions.add(transaction);
+        }
+        future.set(transaction);
+        return future;
+    }
+
+    private void mineBroadcastTransactions() {
+        List<Transaction> transactions;
+        synchronized (this) {
+            transactions = nextBlockTransactions;
+            nextBlockTransactions = broadcastTransactions;
+            broadcastTransactions = new ArrayList<>();
+        }
+        // An exception would cancel the scheduled mining, so we only log it
+        try {
+            if (!transactions.isEmpty())
+                mineBlock(transactions.toArray(new Transaction[transactions.size()]));
+        } catch (Throwable t) {
+            log.error("Mining block failed: " + t.getMessage(), t);
+        }
+    }
+
+    private Transaction copy(Transaction transaction) {
+        return new Transaction(params, transaction.bitcoinSerialize());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.network.tomp2p.DiskStorage;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.util.Random;
+
+import net.tomp2p.dht.Storage;
+import net.tomp2p.dht.StorageMemory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.core.env.Environment;
+
+/**
+ * Compares the put and get throughput of the disk backed DHT storage of the bootstrap nodes with the in-memory
+ * default and measures how long the disk storage needs to load its entries after a restart.
+ */
+public class StorageBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(StorageBenchmark.class);
+
+    public static final String ENTRIES_KEY = "benchmark.entries";
+    public static final String PAYLOAD_SIZE_KEY = "benchmark.payloadSize";
+    public static final String LOCATION_KEYS_KEY = "benchmark.locationKeys";
+
+    public static final int DEFAULT_ENTRIES = 50000;
+    public static final int DEFAULT_PAYLOAD_SIZE = 1000;
+    // Like currencies, each has many offers
+    public static final int DEFAULT_LOCATION_KEYS = 50;
+
+    private final int numEntries;
+    private final int payloadSize;
+    private final int numLocationKeys;
+    private final Number640[] keys;
+    private final Data[] values;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public StorageBenchmark(Environment env) {
+        numEntries = env.getProperty(ENTRIES_KEY, Integer.class, DEFAULT_ENTRIES);
+        payloadSize = env.getProperty(PAYLOAD_SIZE_KEY, Integer.class, DEFAULT_PAYLOAD_SIZE);
+        numLocationKeys = env.getProperty(LOCATION_KEYS_KEY, Integer.class, DEFAULT_LOCATION_KEYS);
+
+        Random random = new Random(1);
+        keys = new Number640[numEntries];
+        values = new Data[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            keys[i] = new Number640(new Number160(i % numLocationKeys), Number160.ZERO, new Number160(random),
+                    Number160.ZERO);
+            byte[] payload = new byte[payloadSize];
+            random.nextBytes(payload);
+            values[i] = new Data(payload).ttlSeconds(24 * 60 * 60);
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void run() throws IOException {
+        log.info("Storage benchmark with " + numEntries + " entries of " + payloadSize + " bytes under " +
+                numLocationKeys + " location keys");
+
+        // Warm up the JIT with a run we don't report
+        run("warm up", new StorageMemory(), false);
+
+        run("memory", new StorageMemory(), true);
+
+        File dir = Files.createTempDirectory("storage-benchmark").toFile();
+        try {
+            run("disk", new DiskStorage(dir), true);
+
+            DiskStorage reloaded = new DiskStorage(dir);
+            log.info(String.format("disk: reloaded %d entries (%d MB) in %d ms", reloaded.getNumLoaded(),
+                    reloaded.getFile().length() / (1024 * 1024), reloaded.getLoadDuration()));
+            reloaded.close();
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files)
+                    Files.delete(file.toPath());
+            }
+            Files.delete(dir.toPath());
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void run(String name, Storage storage, boolean report) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < numEntries; i++)
+            storage.put(keys[i], values[i]);
+        long putDuration = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < numEntries; i++) {
+            if (storage.get(keys[(i * 7919) % numEntries]) != null)
+                found++;
+        }
+        long getDuration = System.nanoTime() - startTime;
+
+        // For the disk storage that rewrites the log, like at a shut down
+        storage.close();
+
+        if (found != numEntries)
+            throw new IllegalStateException(name + ": found only " + found + " of " + numEntries + " entries");
+
+        if (report)
+            log.info(String.format("%s: %.0f puts/s, %.0f gets/s", name, numEntries * 1e9 / putDuration,
+                    numEntries * 1e9 / getDuration));
+    }
+}
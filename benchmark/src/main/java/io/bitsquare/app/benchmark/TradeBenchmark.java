@@ -0,0 +1,288 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.common.metrics.LatencyStatistics;
+import io.bitsquare.common.timeout.TimeoutService;
+import io.bitsquare.network.tomp2p.PeerConnectionPool;
+import io.bitsquare.trade.protocol.availability.messages.RequestIsOfferAvailableMessage;
+import io.bitsquare.trade.tomp2p.MessageCodec;
+import io.bitsquare.trade.tomp2p.TomP2PTradeMessageService;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.core.env.Environment;
+
+/**
+ * Starts a number of peers in this process, connected over loopback, and lets them trade with each other.
+ * After a warm up it runs the given number of trades with the given concurrency and reports the throughput and the
+ * latency percentiles of the phases. If a trade fails or the p99 of the trade duration is above the given limit the
+ * benchmark fails, so it can be used as a regression gate.
+ */
+public class TradeBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(TradeBenchmark.class);
+
+    public static final String PEERS_KEY = "benchmark.peers";
+    public static final String TRADES_KEY = "benchmark.trades";
+    public static final String WARMUP_TRADES_KEY = "benchmark.warmupTrades";
+    public static final String CONCURRENCY_KEY = "benchmark.concurrency";
+    public static final String PORT_KEY = "benchmark.port";
+    public static final String MAX_P99_KEY = "benchmark.maxP99";
+    public static final String BLOCK_INTERVAL_KEY = "benchmark.blockInterval";
+
+    public static final int DEFAULT_PEERS = 4;
+    public static final int DEFAULT_TRADES = 200;
+    public static final int DEFAULT_WARMUP_TRADES = 20;
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int DEFAULT_PORT = 7400;
+    public static final long DEFAULT_MAX_P99 = 0;
+    public static final long DEFAULT_BLOCK_INTERVAL = 100;
+
+    private static final long TRADE_TIMEOUT = 60 * 1000;
+
+    private final int numPeers;
+    private final int numTrades;
+    private final int numWarmupTrades;
+    private final int concurrency;
+    private final int port;
+    private final long maxP99;
+    private final int connectionPoolSize;
+    private final int compressionThreshold;
+    private final SimulatedBlockChain blockChain;
+
+    private final TimeoutService timeoutService = new TimeoutService();
+    private final List<BenchmarkPeer> peers = new ArrayList<>();
+    private final Map<String, BenchmarkTrade> openTrades = new ConcurrentHashMap<>();
+    private final Map<String, TimeoutService.Deadline> deadlines = new ConcurrentHashMap<>();
+    private final Map<BenchmarkTrade.Phase, LatencyStatistics> phaseStatistics =
+            new EnumMap<>(BenchmarkTrade.Phase.class);
+    private final LatencyStatistics tradeStatistics = new LatencyStatistics();
+    private final AtomicInteger numFailedTrades = new AtomicInteger();
+    private volatile boolean recording;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public TradeBenchmark(Environment env) {
+        numPeers = env.getProperty(PEERS_KEY, Integer.class, DEFAULT_PEERS);
+        numTrades = env.getProperty(TRADES_KEY, Integer.class, DEFAULT_TRADES);
+        numWarmupTrades = env.getProperty(WARMUP_TRADES_KEY, Integer.class, DEFAULT_WARMUP_TRADES);
+        concurrency = env.getProperty(CONCURRENCY_KEY, Integer.class, DEFAULT_CONCURRENCY);
+        port = env.getProperty(PORT_KEY, Integer.class, DEFAULT_PORT);
+        maxP99 = env.getProperty(MAX_P99_KEY, Long.class, DEFAULT_MAX_P99);
+        // Run with a pool size of 0 to compare with a new connection per message
+        connectionPoolSize = env.getProperty(PeerConnectionPool.MAX_SIZE_KEY, Integer.class,
+                PeerConnectionPool.DEFAULT_MAX_SIZE);
+        // Run with -1 to see the bytes on the wire without compression
+        compressionThreshold = env.getProperty(TomP2PTradeMessageService.COMPRESSION_THRESHOLD_KEY, Integer.class,
+                MessageCodec.DEFAULT_COMPRESSION_THRESHOLD);
+
+        blockChain = new SimulatedBlockChain(env.getProperty(BLOCK_INTERVAL_KEY, Long.class,
+                DEFAULT_BLOCK_INTERVAL));
+
+        if (numPeers < 2)
+            throw new IllegalArgumentException("At least 2 peers are needed for trading");
+
+        for (BenchmarkTrade.Phase phase : BenchmarkTrade.Phase.values())
+            phaseStatistics.put(phase, new LatencyStatistics(Math.max(numTrades, 1)));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return true if all trades completed and the p99 limit (if set) was not exceeded
+     */
+    public boolean run() throws Exception {
+        try {
+            startPeers();
+
+            log.info("Warm up with " + numWarmupTrades + " trades");
+            runTrades(numWarmupTrades);
+
+            log.info("Run " + numTrades + " trades with concurrency " + concurrency);
+            peers.stream().forEach(e -> {
+                e.getTomP2PNode().getSendLatency().reset();
+                e.getTomP2PNode().getRepublishLatency().reset();
+            });
+            long numHandshakes = getNumHandshakes();
+            recording = true;
+            long startTime = System.nanoTime();
+            runTrades(numTrades);
+            long duration = (System.nanoTime() - startTime) / 1000000;
+            recording = false;
+
+            return report(duration, getNumHandshakes() - numHandshakes);
+        } finally {
+            shutDown();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void startPeers() throws Exception {
+        for (int i = 0; i < numPeers; i++) {
+            BenchmarkPeer peer = new BenchmarkPeer("benchmark-peer-" + i,
+                    port + i,
+                    peers.isEmpty() ? null : peers.get(0).getPeerAddress(),
+                    blockChain,
+                    new PeerConnectionPool(connectionPoolSize, PeerConnectionPool.DEFAULT_IDLE_TIMEOUT),
+                    timeoutService);
+            // The protocols handle the trade messages, only the availability requests are answered by the trade
+            // manager in the app. Requests for offers we don't know get no answer, so the taker runs into a timeout.
+            peer.addMessageHandler((message, sender) -> {
+                if (message instanceof RequestIsOfferAvailableMessage) {
+                    BenchmarkTrade trade = openTrades.get(((RequestIsOfferAvailableMessage) message).offerId);
+                    if (trade != null)
+                        trade.reportOfferAvailability(sender);
+                }
+            });
+            peer.getTradeMessageService().setCompressionThreshold(compressionThreshold);
+            peers.add(peer);
+        }
+        log.info("Started " + numPeers + " peers, chain height is " + blockChain.getChainHeight());
+    }
+
+    private void runTrades(int numTrades) throws InterruptedException {
+        Semaphore permits = new Semaphore(concurrency);
+        CountDownLatch completedLatch = new CountDownLatch(numTrades);
+        for (int i = 0; i < numTrades; i++) {
+            permits.acquire();
+
+            BenchmarkPeer offerer = peers.get(i % numPeers);
+            BenchmarkPeer taker = peers.get((i + 1 + (i / numPeers) % (numPeers - 1)) % numPeers);
+            BenchmarkTrade trade = new BenchmarkTrade(offerer, taker, blockChain, timeoutService,
+                    new BenchmarkTrade.Listener() {
+                        @Override
+                        public void onPhaseCompleted(BenchmarkTrade.Phase phase, long duration) {
+                            if (recording)
+                                phaseStatistics.get(phase).record(duration);
+                        }
+
+                        @Override
+                        public void onCompleted(BenchmarkTrade trade, long duration) {
+                            if (recording)
+                                tradeStatistics.record(duration);
+                            onTradeDone(trade);
+                        }
+
+                        @Override
+                        public void onFailed(BenchmarkTrade trade, String reason) {
+                            numFailedTrades.incrementAndGet();
+                            onTradeDone(trade);
+                        }
+
+                        private void onTradeDone(BenchmarkTrade trade) {
+                            openTrades.remove(trade.getId());
+                            TimeoutService.Deadline deadline = deadlines.remove(trade.getId());
+                            if (deadline != null)
+                                deadline.cancel();
+                            trade.cleanup();
+                            permits.release();
+                            completedLatch.countDown();
+                        }
+                    });
+
+            openTrades.put(trade.getId(), trade);
+            deadlines.put(trade.getId(), timeoutService.arm(TRADE_TIMEOUT, "Trade " + trade.getId(),
+                    expired -> trade.fail("Timeout")));
+            offerer.execute(trade::start);
+        }
+        completedLatch.await();
+    }
+
+    private long getNumHandshakes() {
+        return peers.stream().mapToLong(e -> e.getTomP2PNode().getNumHandshakes()).sum();
+    }
+
+    private boolean report(long duration, long numHandshakes) {
+        StringBuilder sb = new StringBuilder("\n");
+        sb.append(String.format("Trades: %d completed, %d failed in %d ms (%.2f trades/s)%n",
+                tradeStatistics.getCount(), numFailedTrades.get(), duration,
+                tradeStatistics.getCount() * 1000d / Math.max(duration, 1)));
+        for (BenchmarkTrade.Phase phase : BenchmarkTrade.Phase.values())
+            sb.append(String.format("%-20s %s%n", phase, phaseStatistics.get(phase)));
+        sb.append(String.format("%-20s %s%n", "TRADE", tradeStatistics));
+        sb.append(String.format("Connection pool size %d: %d handshakes (%.2f per trade)%n", connectionPoolSize,
+                numHandshakes, numHandshakes / (double) Math.max(tradeStatistics.getCount(), 1)));
+        for (BenchmarkPeer peer : peers) {
+            sb.append(String.format("%-20s send %s%n", peer, peer.getTomP2PNode().getSendLatency()));
+            sb.append(String.format("%-20s republish %s%n", peer, peer.getTomP2PNode().getRepublishLatency()));
+        }
+        appendMessageSizes(sb);
+        log.info(sb.toString());
+
+        boolean success = numFailedTrades.get() == 0;
+        if (maxP99 > 0 && tradeStatistics.getPercentile(99) > maxP99) {
+            log.error("p99 of trade duration " + tradeStatistics.getPercentile(99) + " ms is above limit of " +
+                    maxP99 + " ms");
+            success = false;
+        }
+        return success;
+    }
+
+    // Bytes on the wire per message type over all peers, including the warm up
+    private void appendMessageSizes(StringBuilder sb) {
+        Map<String, long[]> sizes = new TreeMap<>();
+        for (BenchmarkPeer peer : peers) {
+            peer.getTradeMessageService().getMessageSizeStatistics().forEach((type, statistics) -> {
+                long[] size = sizes.computeIfAbsent(type, k -> new long[3]);
+                size[0] += statistics.getCount();
+                size[1] += statistics.getSerializedBytes();
+                size[2] += statistics.getEncodedBytes();
+            });
+        }
+
+        long serializedBytes = 0;
+        long encodedBytes = 0;
+        sb.append(String.format("Compression threshold %d%n", compressionThreshold));
+        for (Map.Entry<String, long[]> entry : sizes.entrySet()) {
+            long[] size = entry.getValue();
+            sb.append(String.format("%-40s count=%d, avg serialized=%d, avg on wire=%d%n", entry.getKey(), size[0],
+                    size[1] / size[0], size[2] / size[0]));
+            serializedBytes += size[1];
+            encodedBytes += size[2];
+        }
+        sb.append(String.format("Total bytes: %d serialized, %d on wire (%.1f%%)%n", serializedBytes, encodedBytes,
+                encodedBytes * 100d / Math.max(serializedBytes, 1)));
+    }
+
+    private void shutDown() {
+        blockChain.shutDown();
+        timeoutService.shutDown();
+        peers.stream().forEach(BenchmarkPeer::shutDown);
+    }
+}
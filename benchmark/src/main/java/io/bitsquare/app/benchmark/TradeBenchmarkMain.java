@@ -0,0 +1,83 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.benchmark;
+
+import io.bitsquare.app.BitsquareEnvironment;
+import io.bitsquare.app.BitsquareExecutable;
+import io.bitsquare.network.tomp2p.PeerConnectionPool;
+import io.bitsquare.trade.tomp2p.MessageCodec;
+import io.bitsquare.trade.tomp2p.TomP2PTradeMessageService;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import static io.bitsquare.app.benchmark.TradeBenchmark.*;
+
+public class TradeBenchmarkMain extends BitsquareExecutable {
+
+    public static void main(String[] args) throws Exception {
+        new TradeBenchmarkMain().execute(args);
+    }
+
+    protected void customizeOptionParsing(OptionParser parser) {
+        parser.accepts(PEERS_KEY, description("Number of peers", DEFAULT_PEERS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(TRADES_KEY, description("Number of measured trades", DEFAULT_TRADES))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(WARMUP_TRADES_KEY, description("Number of trades before measuring", DEFAULT_WARMUP_TRADES))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(CONCURRENCY_KEY, description("Number of trades running at the same time",
+                DEFAULT_CONCURRENCY))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(PORT_KEY, description("Port of the first peer, the others use the following ports",
+                DEFAULT_PORT))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(MAX_P99_KEY, description("Fail if the p99 of the trade duration in ms is above that value. " +
+                "0 means no limit", DEFAULT_MAX_P99))
+                .withRequiredArg()
+                .ofType(long.class);
+        parser.accepts(BLOCK_INTERVAL_KEY, description("Interval in ms at which the simulated block chain mines the " +
+                "broadcast transactions", DEFAULT_BLOCK_INTERVAL))
+                .withRequiredArg()
+                .ofType(long.class);
+        parser.accepts(PeerConnectionPool.MAX_SIZE_KEY, description("Max number of pooled connections per peer. " +
+                "0 opens a new connection for every message", PeerConnectionPool.DEFAULT_MAX_SIZE))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(TomP2PTradeMessageService.COMPRESSION_THRESHOLD_KEY, description("Compress messages larger " +
+                "than that number of bytes, -1 disables compression", MessageCodec.DEFAULT_COMPRESSION_THRESHOLD))
+                .withRequiredArg()
+                .ofType(int.class);
+    }
+
+    protected void doExecute(OptionSet options) {
+        boolean success;
+        try {
+            success = new TradeBenchmark(new BitsquareEnvironment(options)).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            success = false;
+        }
+        System.exit(success ? EXIT_SUCCESS : EXIT_FAILURE);
+    }
+}
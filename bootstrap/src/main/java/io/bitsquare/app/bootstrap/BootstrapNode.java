@@ -17,11 +17,25 @@
 
 package io.bitsquare.app.bootstrap;
 
+import io.bitsquare.network.BootstrapNodes;
 import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.DiskStorage;
+import io.bitsquare.network.tomp2p.MonitoredEventExecutorGroup;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import net.tomp2p.connection.ChannelClientConfiguration;
 import net.tomp2p.connection.ChannelServerConfiguration;
 import net.tomp2p.dht.PeerBuilderDHT;
+import net.tomp2p.futures.FutureBootstrap;
+import net.tomp2p.dht.PeerDHT;
 import net.tomp2p.nat.PeerBuilderNAT;
 import net.tomp2p.p2p.Peer;
 import net.tomp2p.p2p.PeerBuilder;
@@ -33,17 +47,25 @@ import net.tomp2p.peers.PeerStatistic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.netty.util.concurrent.DefaultEventExecutorGroup;
 import org.springframework.core.env.Environment;
 
+/**
+ * Starts one or several bootstrap node instances. The instances listen on consecutive ports and share the event
+ * executors, so a host can serve more peers without configuring more processes. Clients pick an instance by their
+ * peer id (see BootstrapNodes.selectInstance). The other instances bootstrap to the first one, so all instances and
+ * their clients form a single DHT.
+ */
 public class BootstrapNode {
     private static final Logger log = LoggerFactory.getLogger(BootstrapNode.class);
 
-    private static Peer peer = null;
-    private static boolean running = true;
+    // The full peer list is available from the metrics server, we only log a summary
+    private static final long SUMMARY_INTERVAL = 60 * 1000;
 
     private final Environment env;
-    private boolean noPeersInfoPrinted;
+    private final List<Peer> peers = new ArrayList<>();
+    // By instance name
+    private final Map<String, BootstrapNodeMetrics> metrics = new LinkedHashMap<>();
+    private MetricsServer metricsServer;
 
     public BootstrapNode(Environment env) {
         this.env = env;
@@ -52,75 +74,114 @@ public class BootstrapNode {
     public void start() {
         String name = env.getRequiredProperty(Node.NAME_KEY);
         int port = env.getProperty(Node.PORT_KEY, Integer.class, Node.DEFAULT_PORT);
+        int numInstances = env.getProperty(BootstrapNodes.INSTANCES_KEY, Integer.class,
+                BootstrapNodes.DEFAULT_INSTANCES);
+        int eventExecutorGroupSize = env.getProperty(MonitoredEventExecutorGroup.SIZE_KEY, Integer.class,
+                MonitoredEventExecutorGroup.AUTOMATIC_SIZE);
+        int metricsPort = env.getProperty(MetricsServer.PORT_KEY, Integer.class, MetricsServer.DEFAULT_PORT);
+        String storageDir = env.getProperty(DiskStorage.DIR_KEY);
 
         try {
-            Number160 peerId = Number160.createHash(name);
-
-            DefaultEventExecutorGroup eventExecutorGroup = new DefaultEventExecutorGroup(250);
-            ChannelClientConfiguration clientConf = PeerBuilder.createDefaultChannelClientConfiguration();
-            clientConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
-
-            ChannelServerConfiguration serverConf = PeerBuilder.createDefaultChannelServerConfiguration();
-            serverConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
-            serverConf.connectionTimeoutTCPMillis(5000);
-
-            peer = new PeerBuilder(peerId)
-                    .ports(port)
-                    .channelClientConfiguration(clientConf)
-                    .channelServerConfiguration(serverConf)
-                    .start();
-            
-            /*peer.objectDataReply((sender, request) -> {
-                log.trace("received request: " + request.toString());
-                return "pong";
-            });*/
-
-            new PeerBuilderDHT(peer).start();
-            new PeerBuilderNAT(peer).start();
-
-            peer.peerBean().peerMap().addPeerMapChangeListener(new PeerMapChangeListener() {
-                @Override
-                public void peerInserted(PeerAddress peerAddress, boolean verified) {
-                    log.debug("Peer inserted: peerAddress=" + peerAddress + ", verified=" + verified);
-                }
-
-                @Override
-                public void peerRemoved(PeerAddress peerAddress, PeerStatistic peerStatistics) {
-                    log.debug("Peer removed: peerAddress=" + peerAddress + ", peerStatistics=" + peerStatistics);
-                }
-
-                @Override
-                public void peerUpdated(PeerAddress peerAddress, PeerStatistic peerStatistics) {
-                    // log.debug("Peer updated: peerAddress=" + peerAddress + ", peerStatistics=" + peerStatistics);
-                }
-            });
-
-            log.info("Bootstrap node started with name " + name + " and port " + port);
-            new Thread(() -> {
-                while (running) {
-                    if (peer.peerBean().peerMap().all().size() > 0) {
-                        noPeersInfoPrinted = false;
-                        log.info("Number of peers online = " + peer.peerBean().peerMap().all().size());
-                        for (PeerAddress peerAddress : peer.peerBean().peerMap().all()) {
-                            log.info("Peer: " + peerAddress.toString());
-                        }
-                    }
-                    else if (noPeersInfoPrinted) {
-                        log.info("No peers online");
-                        noPeersInfoPrinted = true;
-                    }
-                    try {
-                        Thread.sleep(10000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                        return;
-                    }
-                }
-            }).start();
-
+            MonitoredEventExecutorGroup eventExecutorGroup = MonitoredEventExecutorGroup.create(
+                    MonitoredEventExecutorGroup.Role.BOOTSTRAP_NODE, eventExecutorGroupSize);
+
+            // The ip is not used, we only need the names and ports of the instances
+            for (Node instance : BootstrapNodes.instancesOf(Node.at(name, "127.0.0.1", port), numInstances)) {
+                File instanceStorageDir = storageDir != null ?
+                        (numInstances > 1 ? new File(storageDir, instance.getName()) : new File(storageDir)) : null;
+                startInstance(instance, eventExecutorGroup, instanceStorageDir);
+            }
+            connectInstances();
+
+            log.info("Bootstrap node started with name " + name + " and port " + port + ", " + numInstances +
+                    " instance(s) using " + eventExecutorGroup.getSize() + " event executors");
+
+            if (metricsPort > 0) {
+                metricsServer = new MetricsServer(metrics);
+                metricsServer.start(metricsPort);
+            }
+
+            peers.get(0).connectionBean().timer().scheduleWithFixedDelay(this::logSummary,
+                    SUMMARY_INTERVAL, SUMMARY_INTERVAL, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
-            if (peer != null)
-                peer.shutdown().awaitUninterruptibly();
+            log.error("Cannot start bootstrap node: " + e.getMessage());
+            if (metricsServer != null)
+                metricsServer.stop();
+            peers.stream().forEach(peer -> peer.shutdown().awaitUninterruptibly());
         }
     }
+
+    private void startInstance(Node instance, MonitoredEventExecutorGroup eventExecutorGroup, File storageDir)
+            throws IOException {
+        Number160 peerId = Number160.createHash(instance.getName());
+
+        ChannelClientConfiguration clientConf = PeerBuilder.createDefaultChannelClientConfiguration();
+        clientConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
+
+        ChannelServerConfiguration serverConf = PeerBuilder.createDefaultChannelServerConfiguration();
+        RequestCountingFilter requestCountingFilter = new RequestCountingFilter(
+                new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
+        serverConf.pipelineFilter(requestCountingFilter);
+        serverConf.connectionTimeoutTCPMillis(5000);
+
+        Peer peer = new PeerBuilder(peerId)
+                .ports(instance.getPort())
+                .channelClientConfiguration(clientConf)
+                .channelServerConfiguration(serverConf)
+                .start();
+        peers.add(peer);
+
+        /*peer.objectDataReply((sender, request) -> {
+            log.trace("received request: " + request.toString());
+            return "pong";
+        });*/
+
+        // Without a storage dir the data is kept in memory only and is gone after a restart
+        PeerDHT peerDHT;
+        if (storageDir != null)
+            peerDHT = new PeerBuilderDHT(peer).storage(new DiskStorage(storageDir)).start();
+        else
+            peerDHT = new PeerBuilderDHT(peer).start();
+        new PeerBuilderNAT(peer).start();
+
+        BootstrapNodeMetrics instanceMetrics = new BootstrapNodeMetrics(peerDHT, eventExecutorGroup,
+                requestCountingFilter);
+        metrics.put(instance.getName(), instanceMetrics);
+        peer.peerBean().peerMap().addPeerMapChangeListener(instanceMetrics);
+        peer.peerBean().peerMap().addPeerMapChangeListener(new PeerMapChangeListener() {
+            @Override
+            public void peerInserted(PeerAddress peerAddress, boolean verified) {
+                log.debug("Peer inserted: peerAddress=" + peerAddress + ", verified=" + verified);
+            }
+
+            @Override
+            public void peerRemoved(PeerAddress peerAddress, PeerStatistic peerStatistics) {
+                log.debug("Peer removed: peerAddress=" + peerAddress + ", peerStatistics=" + peerStatistics);
+            }
+
+            @Override
+            public void peerUpdated(PeerAddress peerAddress, PeerStatistic peerStatistics) {
+                // log.debug("Peer updated: peerAddress=" + peerAddress + ", peerStatistics=" + peerStatistics);
+            }
+        });
+
+        log.info("Started instance " + instance.getName() + " on port " + instance.getPort());
+    }
+
+    // Without that the instances would be separate overlays and data stored by a client of one instance would not be
+    // found by the clients of the others
+    private void connectInstances() throws IOException {
+        Peer first = peers.get(0);
+        for (Peer peer : peers.subList(1, peers.size())) {
+            FutureBootstrap futureBootstrap = peer.bootstrap().peerAddress(first.peerAddress()).start();
+            if (!futureBootstrap.awaitUninterruptibly().isSuccess())
+                throw new IOException("Instance " + peer.peerID() + " could not bootstrap to " + first.peerID() +
+                        ": " + futureBootstrap.failedReason());
+        }
+    }
+
+    private void logSummary() {
+        metrics.forEach((instanceName, instanceMetrics) -> log.info(instanceName + ": " +
+                instanceMetrics.getSummary()));
+    }
 }
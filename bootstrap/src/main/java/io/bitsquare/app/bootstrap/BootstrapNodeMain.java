@@ -19,7 +19,10 @@ package io.bitsquare.app.bootstrap;
 
 import io.bitsquare.app.BitsquareEnvironment;
 import io.bitsquare.app.BitsquareExecutable;
+import io.bitsquare.network.BootstrapNodes;
 import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.DiskStorage;
+import io.bitsquare.network.tomp2p.MonitoredEventExecutorGroup;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -37,6 +40,21 @@ public class BootstrapNodeMain extends BitsquareExecutable {
         parser.accepts(Node.PORT_KEY, description("Port to listen on", Node.DEFAULT_PORT))
                 .withRequiredArg()
                 .ofType(int.class);
+        parser.accepts(BootstrapNodes.INSTANCES_KEY, description("Number of instances to start on consecutive ports, " +
+                "they share the event executors", BootstrapNodes.DEFAULT_INSTANCES))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(MonitoredEventExecutorGroup.SIZE_KEY, description("Number of event executor threads, " +
+                "0 sizes it by the number of cores", MonitoredEventExecutorGroup.AUTOMATIC_SIZE))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(DiskStorage.DIR_KEY, description("Directory of the DHT storage, if not set the data is only " +
+                "kept in memory", null))
+                .withRequiredArg();
+        parser.accepts(MetricsServer.PORT_KEY, description("Port of the metrics server on localhost, " +
+                "0 disables it", MetricsServer.DEFAULT_PORT))
+                .withRequiredArg()
+                .ofType(int.class);
     }
 
     protected void doExecute(OptionSet options) {
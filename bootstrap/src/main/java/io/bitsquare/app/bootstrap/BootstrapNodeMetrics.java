@@ -0,0 +1,151 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.bootstrap;
+
+import io.bitsquare.common.metrics.RateStatistics;
+import io.bitsquare.network.tomp2p.MonitoredEventExecutorGroup;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMapChangeListener;
+import net.tomp2p.peers.PeerStatistic;
+
+/**
+ * Collects the metrics of a bootstrap node: peer map, peer map changes, DHT storage, event executors and incoming
+ * requests by RPC type.
+ * The counters are updated as things happen, everything else is only calculated when it is queried.
+ */
+class BootstrapNodeMetrics implements PeerMapChangeListener {
+    // We only list the location keys with the most entries
+    private static final int MAX_LOCATION_KEYS = 20;
+
+    private final PeerDHT peerDHT;
+    private final MonitoredEventExecutorGroup eventExecutorGroup;
+    private final RequestCountingFilter requestCountingFilter;
+    private final RateStatistics peerInserts = new RateStatistics();
+    private final RateStatistics peerRemoves = new RateStatistics();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    BootstrapNodeMetrics(PeerDHT peerDHT, MonitoredEventExecutorGroup eventExecutorGroup,
+                         RequestCountingFilter requestCountingFilter) {
+        this.peerDHT = peerDHT;
+        this.eventExecutorGroup = eventExecutorGroup;
+        this.requestCountingFilter = requestCountingFilter;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // PeerMapChangeListener implementation
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void peerInserted(PeerAddress peerAddress, boolean verified) {
+        peerInserts.record();
+    }
+
+    @Override
+    public void peerRemoved(PeerAddress peerAddress, PeerStatistic peerStatistics) {
+        peerRemoves.record();
+    }
+
+    @Override
+    public void peerUpdated(PeerAddress peerAddress, PeerStatistic peerStatistics) {
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        List<PeerAddress> peers = peerDHT.peerBean().peerMap().all();
+        metrics.put("peers", peers.size());
+        // Peers which are only reachable over a relay
+        metrics.put("relayedPeers", peers.stream().filter(PeerAddress::isRelayed).count());
+        metrics.put("peerInserts", toMap(peerInserts));
+        metrics.put("peerRemoves", toMap(peerRemoves));
+
+        Map<String, Object> eventExecutors = new LinkedHashMap<>();
+        eventExecutors.put("size", eventExecutorGroup.getSize());
+        eventExecutors.put("active", eventExecutorGroup.getNumActiveExecutors());
+        eventExecutors.put("queueLength", eventExecutorGroup.getQueueLength());
+        metrics.put("eventExecutors", eventExecutors);
+
+        Map<String, Object> requests = new LinkedHashMap<>();
+        requestCountingFilter.getRequests().forEach((type, statistics) -> requests.put(type, toMap(statistics)));
+        metrics.put("requests", requests);
+
+        metrics.put("storage", getStorageMetrics());
+        return metrics;
+    }
+
+    List<String> getPeers() {
+        return peerDHT.peerBean().peerMap().all().stream().map(PeerAddress::toString).collect(Collectors.toList());
+    }
+
+    // One line for the log
+    String getSummary() {
+        return "peers=" + peerDHT.peerBean().peerMap().all().size() +
+                ", inserts=" + peerInserts +
+                ", removes=" + peerRemoves +
+                ", " + eventExecutorGroup;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private Map<String, Object> getStorageMetrics() {
+        Map<Number160, Integer> entriesPerLocationKey = new HashMap<>();
+        for (Number640 key : peerDHT.storageLayer().get().keySet())
+            entriesPerLocationKey.merge(key.locationKey(), 1, Integer::sum);
+
+        Map<String, Integer> topLocationKeys = new LinkedHashMap<>();
+        entriesPerLocationKey.entrySet().stream()
+                .sorted(Map.Entry.<Number160, Integer>comparingByValue().reversed())
+                .limit(MAX_LOCATION_KEYS)
+                .forEach(e -> topLocationKeys.put(e.getKey().toString(), e.getValue()));
+
+        Map<String, Object> storage = new LinkedHashMap<>();
+        storage.put("entries", entriesPerLocationKey.values().stream().mapToInt(Integer::intValue).sum());
+        storage.put("locationKeys", entriesPerLocationKey.size());
+        storage.put("entriesPerLocationKey", topLocationKeys);
+        return storage;
+    }
+
+    private static Map<String, Object> toMap(RateStatistics statistics) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", statistics.getCount());
+        map.put("perSecond", statistics.getRate());
+        return map;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.bootstrap;
+
+import io.bitsquare.util.Utilities;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Small HTTP server on the loopback interface which serves the metrics of the bootstrap node instances as JSON:
+ * /health, /metrics and /peers (the full peer lists, which we don't log anymore).
+ * Uses the HTTP server of the JDK, so we don't need another dependency.
+ */
+class MetricsServer {
+    private static final Logger log = LoggerFactory.getLogger(MetricsServer.class);
+
+    static final String PORT_KEY = "metrics.port";
+    // Disabled by default
+    static final int DEFAULT_PORT = 0;
+
+    // By instance name
+    private final Map<String, BootstrapNodeMetrics> metrics;
+    private HttpServer server;
+    private ExecutorService executor;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    MetricsServer(Map<String, BootstrapNodeMetrics> metrics) {
+        this.metrics = metrics;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/health", exchange -> respond(exchange, () -> {
+            Map<String, Object> health = new LinkedHashMap<>();
+            health.put("status", "UP");
+            health.put("instances", metrics.size());
+            health.put("peers", metrics.values().stream().mapToInt(e -> e.getPeers().size()).sum());
+            return health;
+        }));
+        server.createContext("/metrics",
+                exchange -> respond(exchange, () -> collect(BootstrapNodeMetrics::getMetrics)));
+        server.createContext("/peers", exchange -> respond(exchange, () -> collect(BootstrapNodeMetrics::getPeers)));
+
+        executor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("MetricsServer").setDaemon(true).build());
+        server.setExecutor(executor);
+        server.start();
+        log.info("Metrics server listening on http://localhost:" + port + "/metrics");
+    }
+
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private Map<String, Object> collect(Function<BootstrapNodeMetrics, Object> function) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        metrics.forEach((name, instanceMetrics) -> result.put(name, function.apply(instanceMetrics)));
+        return result;
+    }
+
+    private void respond(HttpExchange exchange, Supplier<Object> supplier) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = Utilities.objectToJson(supplier.get());
+        } catch (Throwable t) {
+            log.error("Cannot create metrics for " + exchange.getRequestURI() + ": " + t.getMessage());
+            status = 500;
+            body = "{\"error\": \"" + t.getClass().getSimpleName() + "\"}";
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.bootstrap;
+
+import io.bitsquare.common.metrics.RateStatistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import net.tomp2p.connection.PipelineFilter;
+import net.tomp2p.message.Message;
+import net.tomp2p.rpc.RPC;
+import net.tomp2p.utils.Pair;
+
+/**
+ * Adds a handler in front of the dispatcher of the server channels which counts the incoming requests by RPC type.
+ * The given filter is applied first, so it can be used together with the EventExecutorGroupFilter.
+ */
+class RequestCountingFilter implements PipelineFilter {
+    private static final String HANDLER_NAME = "requestCounter";
+    private static final String DISPATCHER_NAME = "dispatcher";
+
+    private final PipelineFilter filter;
+    private final Map<String, RateStatistics> requests = new ConcurrentHashMap<>();
+    private final ChannelHandler handler = new RequestCounter();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    RequestCountingFilter(PipelineFilter filter) {
+        this.filter = filter;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // PipelineFilter implementation
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public Map<String, Pair<EventExecutorGroup, ChannelHandler>> filter(
+            Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers, boolean tcp, boolean client) {
+        Map<String, Pair<EventExecutorGroup, ChannelHandler>> filtered = filter.filter(channelHandlers, tcp, client);
+        if (client)
+            return filtered;
+
+        // Counting is cheap, so it runs on the I/O thread and does not need an executor
+        Map<String, Pair<EventExecutorGroup, ChannelHandler>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Pair<EventExecutorGroup, ChannelHandler>> entry : filtered.entrySet()) {
+            if (entry.getKey().equals(DISPATCHER_NAME))
+                result.put(HANDLER_NAME, new Pair<>(null, handler));
+            result.put(entry.getKey(), entry.getValue());
+        }
+        result.putIfAbsent(HANDLER_NAME, new Pair<>(null, handler));
+        return result;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Getters
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    Map<String, RateStatistics> getRequests() {
+        return new TreeMap<>(requests);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static String getName(byte command) {
+        RPC.Commands[] commands = RPC.Commands.values();
+        return command >= 0 && command < commands.length ? commands[command].name() : "UNKNOWN_" + command;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @ChannelHandler.Sharable
+    private class RequestCounter extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof Message)
+                requests.computeIfAbsent(getName(((Message) msg).command()), k -> new RateStatistics()).record();
+            ctx.fireChannelRead(msg);
+        }
+    }
+}
@@ -21,6 +21,15 @@ import io.bitsquare.BitsquareException;
 import io.bitsquare.btc.BitcoinNetwork;
 import io.bitsquare.network.BootstrapNodes;
 import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.InboundMessageQueue;
+import io.bitsquare.network.tomp2p.MonitoredEventExecutorGroup;
+import io.bitsquare.network.tomp2p.PeerConnectionPool;
+import io.bitsquare.offer.OfferBook;
+import io.bitsquare.offer.tomp2p.OfferIndex;
+import io.bitsquare.offer.tomp2p.OfferVerifier;
+import io.bitsquare.trade.TradeLatencyMonitor;
+import io.bitsquare.trade.tomp2p.MessageCodec;
+import io.bitsquare.trade.tomp2p.TomP2PTradeMessageService;
 import io.bitsquare.util.joptsimple.EnumValueConverter;
 
 import java.io.File;
@@ -137,8 +146,69 @@ public class BitsquareAppMain extends BitsquareExecutable {
         parser.accepts(BOOTSTRAP_NODE_PORT_KEY, description("", BootstrapNodes.DEFAULT.getPort()))
                 .withRequiredArg()
                 .ofType(int.class);
+        parser.accepts(BootstrapNodes.INSTANCES_KEY, description("Number of instances each bootstrap node runs " +
+                "on consecutive ports", BootstrapNodes.DEFAULT_INSTANCES))
+                .withRequiredArg()
+                .ofType(int.class);
         parser.accepts(NETWORK_INTERFACE_KEY, description("Network interface", null))
                 .withRequiredArg();
+        parser.accepts(PeerConnectionPool.MAX_SIZE_KEY,
+                description("Max number of connections kept open for reuse, 0 disables the pool",
+                        PeerConnectionPool.DEFAULT_MAX_SIZE))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(PeerConnectionPool.IDLE_TIMEOUT_KEY,
+                description("Time in ms after which an unused connection gets closed",
+                        PeerConnectionPool.DEFAULT_IDLE_TIMEOUT))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(MonitoredEventExecutorGroup.SIZE_KEY,
+                description("Number of network event executor threads, 0 sizes it by the number of cores",
+                        MonitoredEventExecutorGroup.AUTOMATIC_SIZE))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(InboundMessageQueue.WORKERS_KEY,
+                description("Number of threads processing incoming messages", InboundMessageQueue.DEFAULT_WORKERS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(InboundMessageQueue.QUEUE_CAPACITY_KEY,
+                description("Max number of queued incoming messages per priority",
+                        InboundMessageQueue.DEFAULT_QUEUE_CAPACITY))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(InboundMessageQueue.MAX_MESSAGES_PER_SECOND_KEY,
+                description("Max number of messages per second we accept from a peer, 0 means no limit",
+                        InboundMessageQueue.DEFAULT_MAX_MESSAGES_PER_SECOND))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(TradeLatencyMonitor.ENABLED_KEY,
+                description("Record trade timelines and log latency statistics", TradeLatencyMonitor.DEFAULT_ENABLED))
+                .withRequiredArg()
+                .ofType(boolean.class);
+        parser.accepts(TomP2PTradeMessageService.COALESCING_KEY,
+                description("Replace queued trade messages by newer ones of the same type",
+                        TomP2PTradeMessageService.DEFAULT_COALESCING))
+                .withRequiredArg()
+                .ofType(boolean.class);
+        parser.accepts(TomP2PTradeMessageService.COMPRESSION_THRESHOLD_KEY,
+                description("Compress messages larger than that number of bytes, -1 disables compression",
+                        MessageCodec.DEFAULT_COMPRESSION_THRESHOLD))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(OfferIndex.SHARDS_KEY,
+                description("Number of DHT location keys the offers of a currency and direction are spread over",
+                        OfferIndex.DEFAULT_SHARDS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(OfferVerifier.PARALLELISM_KEY,
+                description("Number of threads verifying received offers, 0 uses one per processor",
+                        OfferVerifier.DEFAULT_PARALLELISM))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(OfferBook.CURRENCIES_KEY,
+                description("Comma separated currency codes of offer books to keep updated in addition to the " +
+                        "currencies of the bank accounts", OfferBook.DEFAULT_CURRENCIES))
+                .withRequiredArg();
     }
 
     @Override
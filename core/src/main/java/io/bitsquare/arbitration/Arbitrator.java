@@ -19,14 +19,26 @@ package io.bitsquare.arbitration;
 
 import org.bitcoinj.core.Coin;
 
+import com.google.common.collect.MapMaker;
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Arbitrator implements Serializable {
     private static final long serialVersionUID = -2625059604136756635L;
+    private static final Logger log = LoggerFactory.getLogger(Arbitrator.class);
+    private static final ConcurrentMap<String, Arbitrator> INTERNED = new MapMaker().weakValues().makeMap();
 
     private String id;
     private String pubKeyAsHex;
@@ -91,6 +103,24 @@ public class Arbitrator implements Serializable {
         id = name;
     }
 
+    // Offers carry the arbitrators they accept, so a received offer book holds the same arbitrator many times.
+    // Deserialized arbitrators get replaced by one shared instance per id, key and profile. The instances are
+    // weakly referenced, so arbitrators which are not used anymore get collected.
+    // The key is the hash of the whole serialized form, as offers come from untrusted peers and any difference in the
+    // profile (e.g. the messagePubKeyAsHex or fee) must lead to a separate instance.
+    private Object readResolve() {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+            objectOutputStream.writeObject(this);
+        } catch (IOException e) {
+            log.warn("Cannot serialize arbitrator " + id + ", so we don't share it. " + e.getMessage());
+            return this;
+        }
+        String key = Hashing.sha256().hashBytes(byteArrayOutputStream.toByteArray()).toString();
+        Arbitrator interned = INTERNED.putIfAbsent(key, this);
+        return interned != null ? interned : this;
+    }
+
     @Override
     public int hashCode() {
         if (id != null) {
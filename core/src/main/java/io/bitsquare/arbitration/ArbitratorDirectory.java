@@ -0,0 +1,202 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.arbitration;
+
+import io.bitsquare.persistence.Persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+/**
+ * Local copy of the arbitrators published in the DHT, by the content hash of their stored data.
+ * It gets refreshed incrementally: only the entries with an unknown content hash have to be fetched and
+ * deserialized, entries which are missing in several consecutive refreshes get dropped. The arbitrators are indexed
+ * by language, so the views can query them locally without a DHT lookup.
+ * The entries are persisted, the indexes get rebuilt when they are loaded.
+ */
+public class ArbitratorDirectory {
+    // A single digest might miss an entry, e.g. if it was answered by a peer which has not got all replicas yet
+    static final int MISSES_BEFORE_DROP = 3;
+
+    private final Persistence persistence;
+    private Map<String, Arbitrator> entries;
+    // Number of consecutive refreshes which did not contain the entry, by content hash
+    private final Map<String, Integer> misses = new HashMap<>();
+
+    // Content hashes by language
+    private final Map<String, Set<String>> byLanguage = new HashMap<>();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public ArbitratorDirectory(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    // Without persistence the entries are only kept in memory, used by tests
+    public ArbitratorDirectory() {
+        this(null);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Update
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized Set<String> getContentHashes() {
+        return new HashSet<>(getEntries().keySet());
+    }
+
+    public synchronized boolean contains(String contentHash) {
+        return getEntries().containsKey(contentHash);
+    }
+
+    /**
+     * Applies the result of a refresh.
+     *
+     * Entries which are not contained get dropped after MISSES_BEFORE_DROP consecutive refreshes.
+     *
+     * @param contentHashes all content hashes which are currently stored in the DHT
+     * @param added         the arbitrators of the content hashes we did not know yet
+     * @return true if the directory changed
+     */
+    public synchronized boolean update(Set<String> contentHashes, Map<String, Arbitrator> added) {
+        boolean changed = false;
+        Iterator<String> iterator = getEntries().keySet().iterator();
+        while (iterator.hasNext()) {
+            String contentHash = iterator.next();
+            if (contentHashes.contains(contentHash)) {
+                misses.remove(contentHash);
+            }
+            else if (misses.merge(contentHash, 1, Integer::sum) >= MISSES_BEFORE_DROP) {
+                misses.remove(contentHash);
+                iterator.remove();
+                changed = true;
+            }
+        }
+
+        for (Map.Entry<String, Arbitrator> entry : added.entrySet()) {
+            if (contentHashes.contains(entry.getKey()) && !getEntries().containsKey(entry.getKey())) {
+                getEntries().put(entry.getKey(), entry.getValue());
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            rebuildIndexes();
+            persist();
+        }
+        return changed;
+    }
+
+    public synchronized void put(String contentHash, Arbitrator arbitrator) {
+        getEntries().put(contentHash, arbitrator);
+        addToIndexes(contentHash, arbitrator);
+        persist();
+    }
+
+    public synchronized void remove(String contentHash) {
+        misses.remove(contentHash);
+        if (getEntries().remove(contentHash) != null) {
+            rebuildIndexes();
+            persist();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Queries
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized boolean isEmpty() {
+        return getEntries().isEmpty();
+    }
+
+    public synchronized List<Arbitrator> getArbitrators() {
+        return new ArrayList<>(getEntries().values());
+    }
+
+    // The arbitrators speaking the language of the given locale, all arbitrators if it is null.
+    // The result is in the order the arbitrators got added to the directory.
+    public synchronized List<Arbitrator> getArbitrators(Locale languageLocale) {
+        if (languageLocale == null)
+            return getArbitrators();
+
+        // Loading the entries builds the indexes
+        Map<String, Arbitrator> allEntries = getEntries();
+        Set<String> contentHashes = byLanguage.getOrDefault(languageLocale.getLanguage(), Collections.emptySet());
+        return allEntries.entrySet().stream()
+                .filter(e -> contentHashes.contains(e.getKey()))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
+    }
+
+    // The current version of the given arbitrators, matched by id. Arbitrators we don't know are returned unchanged.
+    public synchronized List<Arbitrator> getCurrentVersions(List<Arbitrator> arbitrators) {
+        Map<String, Arbitrator> byId = new HashMap<>();
+        getEntries().values().stream().filter(e -> e.getId() != null).forEach(e -> byId.put(e.getId(), e));
+        return arbitrators.stream()
+                .map(e -> byId.getOrDefault(e.getId(), e))
+                .collect(Collectors.toList());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Arbitrator> getEntries() {
+        if (entries == null) {
+            Object persisted = persistence != null ? persistence.read(this, "entries") : null;
+            entries = persisted instanceof Map ? (Map<String, Arbitrator>) persisted : new LinkedHashMap<>();
+            rebuildIndexes();
+        }
+        return entries;
+    }
+
+    private void rebuildIndexes() {
+        byLanguage.clear();
+        entries.forEach(this::addToIndexes);
+    }
+
+    private void addToIndexes(String contentHash, Arbitrator arbitrator) {
+        if (arbitrator.getLanguages() != null)
+            arbitrator.getLanguages().stream().forEach(e ->
+                    byLanguage.computeIfAbsent(e.getLanguage(), k -> new HashSet<>()).add(contentHash));
+    }
+
+    private void persist() {
+        if (persistence != null)
+            persistence.write(this, "entries", entries);
+    }
+}
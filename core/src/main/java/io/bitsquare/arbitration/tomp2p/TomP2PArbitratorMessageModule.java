@@ -17,9 +17,11 @@
 
 package io.bitsquare.arbitration.tomp2p;
 
+import io.bitsquare.arbitration.ArbitratorDirectory;
 import io.bitsquare.arbitration.ArbitratorMessageModule;
 import io.bitsquare.arbitration.ArbitratorMessageService;
 import io.bitsquare.network.tomp2p.TomP2PNode;
+import io.bitsquare.persistence.Persistence;
 
 import com.google.inject.Injector;
 import com.google.inject.Provider;
@@ -52,9 +54,13 @@ class ArbitratorMessageServiceProvider implements Provider<ArbitratorMessageServ
     private final ArbitratorMessageService arbitratorMessageService;
 
     @Inject
-    public ArbitratorMessageServiceProvider(TomP2PNode tomP2PNode) {
-        arbitratorMessageService = new TomP2PArbitratorMessageService(tomP2PNode);
-        arbitratorMessageService.setExecutor(Platform::runLater);
+    public ArbitratorMessageServiceProvider(TomP2PNode tomP2PNode, ArbitratorDirectory arbitratorDirectory,
+                                            Persistence persistence) {
+        TomP2PArbitratorMessageService tomP2PArbitratorMessageService =
+                new TomP2PArbitratorMessageService(tomP2PNode, arbitratorDirectory, persistence);
+        tomP2PArbitratorMessageService.setExecutor(Platform::runLater);
+        tomP2PNode.getRepublishScheduler().addSource(tomP2PArbitratorMessageService::getRepublishEntries);
+        arbitratorMessageService = tomP2PArbitratorMessageService;
     }
 
     public ArbitratorMessageService get() {
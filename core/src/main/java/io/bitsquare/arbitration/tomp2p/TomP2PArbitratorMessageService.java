@@ -18,23 +18,33 @@
 package io.bitsquare.arbitration.tomp2p;
 
 import io.bitsquare.arbitration.Arbitrator;
+import io.bitsquare.arbitration.ArbitratorDirectory;
 import io.bitsquare.arbitration.ArbitratorMessageService;
 import io.bitsquare.arbitration.listeners.ArbitratorListener;
+import io.bitsquare.network.tomp2p.RepublishScheduler;
 import io.bitsquare.network.tomp2p.TomP2PNode;
+import io.bitsquare.persistence.Persistence;
 
 import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
+import net.tomp2p.dht.FutureDigest;
 import net.tomp2p.dht.FutureGet;
 import net.tomp2p.dht.FuturePut;
 import net.tomp2p.dht.FutureRemove;
 import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
 import net.tomp2p.storage.Data;
 
 import org.slf4j.Logger;
@@ -47,7 +57,12 @@ public class TomP2PArbitratorMessageService implements ArbitratorMessageService
     private static final String ARBITRATORS_ROOT = "ArbitratorsRoot";
 
     private final TomP2PNode tomP2PNode;
+    private final ArbitratorDirectory arbitratorDirectory;
+    private final Persistence persistence;
     private final List<ArbitratorListener> arbitratorListeners = new ArrayList<>();
+    // The serialized arbitrators we added, by content hash, so they get republished. They are persisted, otherwise
+    // our arbitrator would not be republished anymore after a restart and expire in the DHT.
+    private Map<String, byte[]> addedArbitrators;
     private Executor executor;
 
 
@@ -55,8 +70,16 @@ public class TomP2PArbitratorMessageService implements ArbitratorMessageService
     // Constructor
     ///////////////////////////////////////////////////////////////////////////////////////////
 
+    // Without persistence, used by tests
     public TomP2PArbitratorMessageService(TomP2PNode tomP2PNode) {
+        this(tomP2PNode, new ArbitratorDirectory(), null);
+    }
+
+    public TomP2PArbitratorMessageService(TomP2PNode tomP2PNode, ArbitratorDirectory arbitratorDirectory,
+                                          Persistence persistence) {
         this.tomP2PNode = tomP2PNode;
+        this.arbitratorDirectory = arbitratorDirectory;
+        this.persistence = persistence;
     }
 
 
@@ -91,6 +114,8 @@ public class TomP2PArbitratorMessageService implements ArbitratorMessageService
                     }));
 
                     if (future.isSuccess()) {
+                        putAddedArbitrator(arbitratorData.hash().toString(), arbitratorData.toBytes());
+                        arbitratorDirectory.put(arbitratorData.hash().toString(), arbitrator);
                         log.trace("Add arbitrator to DHT was successful. Stored data: [key: " + locationKey + ", " +
                                 "values: " + arbitratorData + "]");
                     }
@@ -107,6 +132,8 @@ public class TomP2PArbitratorMessageService implements ArbitratorMessageService
     public void removeArbitrator(Arbitrator arbitrator) throws IOException {
         Number160 locationKey = Number160.createHash(ARBITRATORS_ROOT);
         final Data arbitratorData = new Data(arbitrator);
+        removeAddedArbitrator(arbitratorData.hash().toString());
+        arbitratorDirectory.remove(arbitratorData.hash().toString());
         FutureRemove removeFuture = tomP2PNode.removeFromDataMap(locationKey, arbitratorData);
         removeFuture.addListener(new BaseFutureAdapter<BaseFuture>() {
             @Override
@@ -136,38 +163,21 @@ public class TomP2PArbitratorMessageService implements ArbitratorMessageService
         });
     }
 
+    // Answers from the local directory right away. The directory gets refreshed and if that changed anything the
+    // listeners receive the arbitrators again.
     public void getArbitrators(Locale languageLocale) {
-        Number160 locationKey = Number160.createHash(ARBITRATORS_ROOT);
-        FutureGet futureGet = tomP2PNode.getDataMap(locationKey);
-        futureGet.addListener(new BaseFutureAdapter<BaseFuture>() {
-            @Override
-            public void operationComplete(BaseFuture future) throws Exception {
-                executor.execute(() -> arbitratorListeners.stream().forEach(listener ->
-                {
-                    List<Arbitrator> arbitrators = new ArrayList<>();
-                    for (Data arbitratorData : futureGet.dataMap().values()) {
-                        try {
-                            Object arbitratorDataObject = arbitratorData.object();
-                            if (arbitratorDataObject instanceof Arbitrator) {
-                                arbitrators.add((Arbitrator) arbitratorDataObject);
-                            }
-                        } catch (ClassNotFoundException | IOException e) {
-                            e.printStackTrace();
-                            log.error("Get arbitrators from DHT failed with exception:" + e.getMessage());
-                        }
-                    }
+        notifyArbitratorsReceived(languageLocale);
+        refreshDirectory(() -> notifyArbitratorsReceived(languageLocale));
+    }
 
-                    listener.onArbitratorsReceived(arbitrators);
-                }));
-                if (future.isSuccess()) {
-                    log.trace("Get arbitrators from DHT was successful. Stored data: [key: " + locationKey + ", " +
-                            "values: " + futureGet.dataMap() + "]");
-                }
-                else {
-                    log.error("Get arbitrators from DHT failed with reason:" + future.failedReason());
-                }
-            }
-        });
+
+    // The arbitrators we added, for the RepublishScheduler
+    public synchronized List<RepublishScheduler.Entry> getRepublishEntries() {
+        Number160 locationKey = Number160.createHash(ARBITRATORS_ROOT);
+        return getAddedArbitrators().values().stream()
+                .map(Data::new)
+                .map(e -> new RepublishScheduler.Entry(locationKey, e.hash(), e))
+                .collect(Collectors.toList());
     }
 
 
@@ -183,4 +193,121 @@ public class TomP2PArbitratorMessageService implements ArbitratorMessageService
         arbitratorListeners.remove(listener);
     }
 
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private synchronized void putAddedArbitrator(String contentHash, byte[] bytes) {
+        getAddedArbitrators().put(contentHash, bytes);
+        persistAddedArbitrators();
+    }
+
+    private synchronized void removeAddedArbitrator(String contentHash) {
+        if (getAddedArbitrators().remove(contentHash) != null)
+            persistAddedArbitrators();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, byte[]> getAddedArbitrators() {
+        if (addedArbitrators == null) {
+            Object persisted = persistence != null ? persistence.read(this, "addedArbitrators") : null;
+            addedArbitrators = persisted instanceof Map ? (Map<String, byte[]>) persisted : new HashMap<>();
+        }
+        return addedArbitrators;
+    }
+
+    private void persistAddedArbitrators() {
+        if (persistence != null)
+            persistence.write(this, "addedArbitrators", addedArbitrators);
+    }
+
+    private void notifyArbitratorsReceived(Locale languageLocale) {
+        executor.execute(() -> {
+            List<Arbitrator> arbitrators = arbitratorDirectory.getArbitrators(languageLocale);
+            arbitratorListeners.stream().forEach(listener -> listener.onArbitratorsReceived(arbitrators));
+        });
+    }
+
+    // An empty directory gets all entries. Otherwise we get the digest of the stored entries and only the entries
+    // with a content key we don't know yet.
+    private void refreshDirectory(Runnable changeHandler) {
+        Number160 locationKey = Number160.createHash(ARBITRATORS_ROOT);
+        if (arbitratorDirectory.isEmpty()) {
+            FutureGet futureGet = tomP2PNode.getDataMap(locationKey);
+            futureGet.addListener(new BaseFutureAdapter<BaseFuture>() {
+                @Override
+                public void operationComplete(BaseFuture future) throws Exception {
+                    if (future.isSuccess()) {
+                        Set<Number160> contentKeys = futureGet.dataMap().keySet().stream()
+                                .map(Number640::contentKey)
+                                .collect(Collectors.toSet());
+                        applyRefresh(contentKeys, futureGet.dataMap(), changeHandler);
+                    }
+                    else {
+                        log.error("Get arbitrators from DHT failed with reason:" + future.failedReason());
+                    }
+                }
+            });
+            return;
+        }
+
+        FutureDigest futureDigest = tomP2PNode.getDigest(locationKey);
+        futureDigest.addListener(new BaseFutureAdapter<BaseFuture>() {
+            @Override
+            public void operationComplete(BaseFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    log.error("Get digest of arbitrators from DHT failed with reason:" + future.failedReason());
+                    return;
+                }
+
+                Set<Number160> contentKeys = futureDigest.digest().keyDigest().keySet().stream()
+                        .map(Number640::contentKey)
+                        .collect(Collectors.toSet());
+                List<Number160> unknownContentKeys = contentKeys.stream()
+                        .filter(e -> !arbitratorDirectory.contains(e.toString()))
+                        .collect(Collectors.toList());
+                if (unknownContentKeys.isEmpty()) {
+                    applyRefresh(contentKeys, Collections.emptyMap(), changeHandler);
+                    return;
+                }
+
+                FutureGet futureGet = tomP2PNode.getDataMap(locationKey, unknownContentKeys);
+                futureGet.addListener(new BaseFutureAdapter<BaseFuture>() {
+                    @Override
+                    public void operationComplete(BaseFuture future) throws Exception {
+                        if (future.isSuccess())
+                            applyRefresh(contentKeys, futureGet.dataMap(), changeHandler);
+                        else
+                            log.error("Get arbitrators from DHT failed with reason:" + future.failedReason());
+                    }
+                });
+            }
+        });
+    }
+
+    // Only deserializes the entries the directory does not contain yet
+    private void applyRefresh(Set<Number160> contentKeys, Map<Number640, Data> dataMap, Runnable changeHandler) {
+        Map<String, Arbitrator> added = new HashMap<>();
+        for (Map.Entry<Number640, Data> entry : dataMap.entrySet()) {
+            String contentHash = entry.getKey().contentKey().toString();
+            if (arbitratorDirectory.contains(contentHash))
+                continue;
+
+            try {
+                Object arbitratorDataObject = entry.getValue().object();
+                if (arbitratorDataObject instanceof Arbitrator)
+                    added.put(contentHash, (Arbitrator) arbitratorDataObject);
+            } catch (ClassNotFoundException | IOException e) {
+                log.error("Get arbitrators from DHT failed with exception:" + e.getMessage());
+            }
+        }
+
+        Set<String> contentHashes = contentKeys.stream().map(Number160::toString).collect(Collectors.toSet());
+        if (arbitratorDirectory.update(contentHashes, added)) {
+            log.trace("Arbitrator directory refreshed: " + added.size() + " added, " +
+                    arbitratorDirectory.getContentHashes().size() + " in total");
+            changeHandler.run();
+        }
+    }
 }
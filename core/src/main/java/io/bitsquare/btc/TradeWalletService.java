@@ -29,12 +29,12 @@ import org.bitcoinj.core.InsufficientMoneyException;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionBroadcaster;
 import org.bitcoinj.core.TransactionInput;
 import org.bitcoinj.core.TransactionOutPoint;
 import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.core.Wallet;
 import org.bitcoinj.crypto.TransactionSignature;
-import org.bitcoinj.kits.WalletAppKit;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.script.ScriptBuilder;
 
@@ -80,13 +80,14 @@ public class TradeWalletService {
 
     private final NetworkParameters params;
     private final Wallet wallet;
-    private final WalletAppKit walletAppKit;
+    private final TransactionBroadcaster transactionBroadcaster;
     private final FeePolicy feePolicy;
 
-    public TradeWalletService(NetworkParameters params, Wallet wallet, WalletAppKit walletAppKit, FeePolicy feePolicy) {
+    public TradeWalletService(NetworkParameters params, Wallet wallet, TransactionBroadcaster transactionBroadcaster,
+                              FeePolicy feePolicy) {
         this.params = params;
         this.wallet = wallet;
-        this.walletAppKit = walletAppKit;
+        this.transactionBroadcaster = transactionBroadcaster;
         this.feePolicy = feePolicy;
     }
 
@@ -110,7 +111,7 @@ public class TradeWalletService {
     }
 
     public void broadcastCreateOfferFeeTx(Transaction createOfferFeeTx, FutureCallback<Transaction> callback) {
-        ListenableFuture<Transaction> future = walletAppKit.peerGroup().broadcastTransaction(createOfferFeeTx);
+        ListenableFuture<Transaction> future = transactionBroadcaster.broadcastTransaction(createOfferFeeTx);
         Futures.addCallback(future, callback);
     }
 
@@ -131,7 +132,7 @@ public class TradeWalletService {
     }
 
     public void broadcastTakeOfferFeeTx(Transaction takeOfferFeeTx, FutureCallback<Transaction> callback) throws InsufficientMoneyException {
-        ListenableFuture<Transaction> future = walletAppKit.peerGroup().broadcastTransaction(takeOfferFeeTx);
+        ListenableFuture<Transaction> future = transactionBroadcaster.broadcastTransaction(takeOfferFeeTx);
         Futures.addCallback(future, callback);
     }
 
@@ -371,7 +372,7 @@ public class TradeWalletService {
 
         // Broadcast depositTx
         printTxWithInputs("depositTx", depositTx);
-        ListenableFuture<Transaction> broadcastComplete = walletAppKit.peerGroup().broadcastTransaction(depositTx);
+        ListenableFuture<Transaction> broadcastComplete = transactionBroadcaster.broadcastTransaction(depositTx);
         Futures.addCallback(broadcastComplete, callback);
     }
 
@@ -465,7 +466,7 @@ public class TradeWalletService {
 
         printTxWithInputs("payoutTx", payoutTx);
 
-        ListenableFuture<Transaction> broadcastComplete = walletAppKit.peerGroup().broadcastTransaction(payoutTx);
+        ListenableFuture<Transaction> broadcastComplete = transactionBroadcaster.broadcastTransaction(payoutTx);
         Futures.addCallback(broadcastComplete, callback);
     }
 
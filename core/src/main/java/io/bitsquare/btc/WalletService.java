@@ -31,6 +31,7 @@ import org.bitcoinj.core.DownloadListener;
 import org.bitcoinj.core.InsufficientMoneyException;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionBroadcaster;
 import org.bitcoinj.core.TransactionConfidence;
 import org.bitcoinj.core.TransactionInput;
 import org.bitcoinj.core.TransactionOutput;
@@ -153,9 +154,7 @@ public class WalletService {
                 if (params != RegTestParams.get())
                     walletAppKit.peerGroup().setMaxConnections(11);
                 walletAppKit.peerGroup().setBloomFilterFalsePositiveRate(0.00001);
-                initWallet();
-
-                tradeWalletService = new TradeWalletService(params, wallet, walletAppKit, feePolicy);
+                initWallet(walletAppKit.wallet(), walletAppKit.peerGroup());
 
                 status.onCompleted();
             }
@@ -206,8 +205,17 @@ public class WalletService {
         return status.mergeWith(downloadProgress).timeout(30, TimeUnit.SECONDS);
     }
 
-    private void initWallet() {
-        wallet = walletAppKit.wallet();
+    /**
+     * Uses the given wallet instead of starting the wallet app kit. Transactions are broadcast with the given
+     * broadcaster, so the wallet does not need to be connected to the bitcoin network (used by the benchmark, which
+     * runs on a simulated block chain).
+     */
+    public void initialize(Wallet wallet, TransactionBroadcaster transactionBroadcaster) {
+        initWallet(wallet, transactionBroadcaster);
+    }
+
+    private void initWallet(Wallet wallet, TransactionBroadcaster transactionBroadcaster) {
+        this.wallet = wallet;
         wallet.addEventListener(walletEventListener);
 
         Serializable serializable = persistence.read(this, "addressEntryList");
@@ -229,6 +237,8 @@ public class WalletService {
             lock.unlock();
             saveAddressInfoList();
         }
+
+        tradeWalletService = new TradeWalletService(params, wallet, transactionBroadcaster, feePolicy);
     }
 
     public void shutDown() {
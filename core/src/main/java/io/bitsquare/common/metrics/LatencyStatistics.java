@@ -0,0 +1,118 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.common.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples (in ms) and calculates percentiles of them.
+ * Only the last MAX_SAMPLES samples are kept, so it can be used for long running processes as well. Count, mean and
+ * max are calculated over all recorded samples.
+ */
+public class LatencyStatistics {
+    public static final int DEFAULT_MAX_SAMPLES = 4096;
+
+    private final long[] samples;
+    private int numSamples;
+    private int nextIndex;
+    private long count;
+    private long sum;
+    private long max;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public LatencyStatistics() {
+        this(DEFAULT_MAX_SAMPLES);
+    }
+
+    public LatencyStatistics(int maxSamples) {
+        if (maxSamples <= 0)
+            throw new IllegalArgumentException("maxSamples must be > 0");
+        samples = new long[maxSamples];
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized void record(long latency) {
+        samples[nextIndex] = latency;
+        nextIndex = (nextIndex + 1) % samples.length;
+        numSamples = Math.min(numSamples + 1, samples.length);
+        count++;
+        sum += latency;
+        max = Math.max(max, latency);
+    }
+
+    public synchronized void reset() {
+        numSamples = 0;
+        nextIndex = 0;
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return count > 0 ? (double) sum / count : 0;
+    }
+
+    /**
+     * @param percentile value between 0 and 100
+     * @return the sample at the given percentile (nearest rank) or 0 if nothing was recorded yet
+     */
+    public long getPercentile(double percentile) {
+        return getPercentiles(percentile)[0];
+    }
+
+    // Sorts the samples only once for several percentiles
+    public synchronized long[] getPercentiles(double... percentiles) {
+        long[] result = new long[percentiles.length];
+        if (numSamples == 0)
+            return result;
+
+        long[] sorted = Arrays.copyOf(samples, numSamples);
+        Arrays.sort(sorted);
+        for (int i = 0; i < percentiles.length; i++) {
+            if (percentiles[i] < 0 || percentiles[i] > 100)
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+
+            int rank = (int) Math.ceil(percentiles[i] / 100 * numSamples);
+            result[i] = sorted[Math.max(rank - 1, 0)];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        long[] percentiles = getPercentiles(50, 90, 99);
+        return String.format("count=%d, mean=%.1f ms, p50=%d ms, p90=%d ms, p99=%d ms, max=%d ms",
+                getCount(), getMean(), percentiles[0], percentiles[1], percentiles[2], getMax());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.common.metrics;
+
+/**
+ * Counts events and calculates the rate per second over a sliding window of one second buckets.
+ * The count is over all recorded events.
+ */
+public class RateStatistics {
+    public static final int DEFAULT_WINDOW = 60;
+
+    private final long[] buckets;
+    // The second each bucket belongs to, so we can detect outdated buckets without a timer
+    private final long[] bucketSeconds;
+    private long count;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public RateStatistics() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public RateStatistics(int windowInSeconds) {
+        if (windowInSeconds <= 0)
+            throw new IllegalArgumentException("windowInSeconds must be > 0");
+        buckets = new long[windowInSeconds];
+        bucketSeconds = new long[windowInSeconds];
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void record() {
+        record(System.currentTimeMillis());
+    }
+
+    public synchronized void record(long now) {
+        long second = now / 1000;
+        int index = (int) (second % buckets.length);
+        if (bucketSeconds[index] != second) {
+            bucketSeconds[index] = second;
+            buckets[index] = 0;
+        }
+        buckets[index]++;
+        count++;
+    }
+
+    public double getRate() {
+        return getRate(System.currentTimeMillis());
+    }
+
+    // Events per second within the window ending at now
+    public synchronized double getRate(long now) {
+        long second = now / 1000;
+        long sum = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            if (second - bucketSeconds[i] < buckets.length)
+                sum += buckets[i];
+        }
+        return sum / (double) buckets.length;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, rate=%.2f/s", getCount(), getRate());
+    }
+}
@@ -38,6 +38,7 @@ public class TaskRunner<T extends SharedTaskModel> {
     private boolean isCanceled;
 
     private Class<? extends Task> currentTask;
+    private long currentTaskStartTime;
 
     public TaskRunner(T sharedModel, ResultHandler resultHandler, ErrorMessageHandler errorMessageHandler) {
         this.sharedModel = sharedModel;
@@ -59,6 +60,7 @@ public class TaskRunner<T extends SharedTaskModel> {
                 try {
                     currentTask = tasks.poll();
                     log.trace("Run task: " + currentTask.getSimpleName());
+                    currentTaskStartTime = System.currentTimeMillis();
                     currentTask.getDeclaredConstructor(TaskRunner.class, sharedModel.getClass()).newInstance(this, sharedModel).run();
                 } catch (Throwable throwable) {
                     throwable.printStackTrace();
@@ -77,10 +79,15 @@ public class TaskRunner<T extends SharedTaskModel> {
 
     void handleComplete() {
         log.trace("Task completed: " + currentTask.getSimpleName());
+        onTaskCompleted(currentTask, System.currentTimeMillis() - currentTaskStartTime, true);
         persistModel();
         next();
     }
 
+    // Hook for measuring the duration of the tasks
+    protected void onTaskCompleted(Class<? extends Task> task, long duration, boolean success) {
+    }
+
     protected void persistModel() {
        // sharedModel.persist();
     }
@@ -88,6 +95,7 @@ public class TaskRunner<T extends SharedTaskModel> {
     void handleErrorMessage(String errorMessage) {
         log.error("Task failed: " + currentTask.getSimpleName());
         log.error("errorMessage: " + errorMessage);
+        onTaskCompleted(currentTask, System.currentTimeMillis() - currentTaskStartTime, false);
         failed = true;
         errorMessageHandler.handleErrorMessage(errorMessage);
     }
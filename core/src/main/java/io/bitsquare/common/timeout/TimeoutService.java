@@ -0,0 +1,145 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.common.timeout;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared timeout scheduler for the protocols. It is backed by a single hashed wheel timer thread, so arming and
+ * cancelling a deadline is O(1) and thousands of concurrently armed deadlines don't cost more than one thread.
+ * The resolution is TICK_DURATION, which is fine for protocol steps which take seconds.
+ * Expired handlers are executed on the executor (the UI thread in the app), same as the message handlers. As the
+ * handler runs later than the expiry, the step might have completed meanwhile, so handlers must check that the
+ * expired deadline is still the one they wait for.
+ */
+public class TimeoutService {
+    private static final Logger log = LoggerFactory.getLogger(TimeoutService.class);
+
+    private static final long TICK_DURATION = 100;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private final HashedWheelTimer timer;
+    private final AtomicInteger numArmedDeadlines = new AtomicInteger();
+    private final AtomicLong numExpiredDeadlines = new AtomicLong();
+    private Executor executor = Runnable::run;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public TimeoutService() {
+        timer = new HashedWheelTimer(
+                new ThreadFactoryBuilder().setNameFormat("TimeoutService").setDaemon(true).build(),
+                TICK_DURATION, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void shutDown() {
+        timer.stop();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Arms a deadline. If it is not cancelled before the delay has passed, the handler gets called with the reason.
+     *
+     * @param delay   delay in milliseconds
+     * @param reason  describes the step which did not complete in time, passed to the handler
+     * @param handler called at expiry with the expired deadline
+     * @return the deadline, which must be cancelled when the step completed
+     */
+    public Deadline arm(long delay, String reason, TimeoutHandler handler) {
+        Deadline deadline = new Deadline(reason);
+        numArmedDeadlines.incrementAndGet();
+        deadline.timeout = timer.newTimeout(timeout -> {
+            if (deadline.setDone()) {
+                numExpiredDeadlines.incrementAndGet();
+                log.warn("Timeout after " + delay + " ms: " + reason);
+                executor.execute(() -> handler.handleTimeout(deadline));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return deadline;
+    }
+
+    public int getNumArmedDeadlines() {
+        return numArmedDeadlines.get();
+    }
+
+    public long getNumExpiredDeadlines() {
+        return numExpiredDeadlines.get();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public interface TimeoutHandler {
+        void handleTimeout(Deadline deadline);
+    }
+
+    public class Deadline {
+        private final String reason;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private Timeout timeout;
+
+        private Deadline(String reason) {
+            this.reason = reason;
+        }
+
+        public void cancel() {
+            if (setDone())
+                timeout.cancel();
+        }
+
+        public boolean isDone() {
+            return done.get();
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        private boolean setDone() {
+            if (done.compareAndSet(false, true)) {
+                numArmedDeadlines.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
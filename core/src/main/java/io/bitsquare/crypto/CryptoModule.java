@@ -33,5 +33,6 @@ public class CryptoModule extends BitsquareModule {
     protected void configure() {
         bind(SignatureService.class).in(Singleton.class);
         bind(HashService.class).in(Singleton.class);
+        bind(EncryptionService.class).in(Singleton.class);
     }
 }
@@ -0,0 +1,87 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.crypto;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.spongycastle.math.ec.ECPoint;
+
+/**
+ * Encrypts data to an EC public key (ECIES like): a shared secret is derived with ECDH from a fresh ephemeral key
+ * and the receivers key and used for AES-GCM. The result is the ephemeral public key, the IV and the cipher text.
+ * Only the owner of the private key can decrypt it.
+ */
+public class EncryptionService {
+    private static final int PUB_KEY_LENGTH = 33;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    // 128 bit keys work without the unlimited strength policy files
+    private static final int KEY_LENGTH = 16;
+
+    private final SecureRandom random = new SecureRandom();
+
+    public byte[] encrypt(byte[] pubKey, byte[] data) throws GeneralSecurityException {
+        ECKey ephemeralKey = new ECKey(random);
+        byte[] secretKey = deriveKey(ECKey.fromPublicOnly(pubKey).getPubKeyPoint(), ephemeralKey);
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+
+        byte[] cipherText = createCipher(Cipher.ENCRYPT_MODE, secretKey, iv).doFinal(data);
+
+        byte[] ephemeralPubKey = ephemeralKey.getPubKey();
+        byte[] result = new byte[PUB_KEY_LENGTH + IV_LENGTH + cipherText.length];
+        System.arraycopy(ephemeralPubKey, 0, result, 0, PUB_KEY_LENGTH);
+        System.arraycopy(iv, 0, result, PUB_KEY_LENGTH, IV_LENGTH);
+        System.arraycopy(cipherText, 0, result, PUB_KEY_LENGTH + IV_LENGTH, cipherText.length);
+        return result;
+    }
+
+    public byte[] decrypt(ECKey key, byte[] encrypted) throws GeneralSecurityException {
+        if (encrypted.length < PUB_KEY_LENGTH + IV_LENGTH)
+            throw new GeneralSecurityException("Encrypted data too short");
+
+        ECKey ephemeralKey = ECKey.fromPublicOnly(Arrays.copyOfRange(encrypted, 0, PUB_KEY_LENGTH));
+        byte[] secretKey = deriveKey(ephemeralKey.getPubKeyPoint(), key);
+        byte[] iv = Arrays.copyOfRange(encrypted, PUB_KEY_LENGTH, PUB_KEY_LENGTH + IV_LENGTH);
+
+        return createCipher(Cipher.DECRYPT_MODE, secretKey, iv)
+                .doFinal(encrypted, PUB_KEY_LENGTH + IV_LENGTH, encrypted.length - PUB_KEY_LENGTH - IV_LENGTH);
+    }
+
+    private byte[] deriveKey(ECPoint publicPoint, ECKey privateKey) {
+        ECPoint sharedPoint = publicPoint.multiply(privateKey.getPrivKey()).normalize();
+        byte[] hash = Sha256Hash.create(sharedPoint.getAffineXCoord().getEncoded()).getBytes();
+        return Arrays.copyOf(hash, KEY_LENGTH);
+    }
+
+    private Cipher createCipher(int mode, byte[] secretKey, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, new SecretKeySpec(secretKey, "AES"), new GCMParameterSpec(TAG_LENGTH, iv));
+        return cipher;
+    }
+}
@@ -27,6 +27,7 @@ import io.bitsquare.offer.OfferBook;
 import io.bitsquare.user.Preferences;
 import io.bitsquare.trade.TradeManager;
 import io.bitsquare.user.User;
+import io.bitsquare.util.Utilities;
 import io.bitsquare.common.handlers.ErrorMessageHandler;
 import io.bitsquare.common.handlers.ResultHandler;
 import io.bitsquare.common.viewfx.model.Activatable;
@@ -38,11 +39,15 @@ import org.bitcoinj.utils.Fiat;
 
 import com.google.inject.Inject;
 
+import java.util.stream.Collectors;
+
+import javafx.animation.AnimationTimer;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.beans.value.ChangeListener;
+import javafx.collections.ListChangeListener;
 import javafx.collections.transformation.FilteredList;
 import javafx.collections.transformation.SortedList;
 
@@ -55,6 +60,10 @@ import org.slf4j.LoggerFactory;
  */
 class OfferBookDataModel implements Activatable, DataModel {
     private static final Logger log = LoggerFactory.getLogger(OfferBookDataModel.class);
+    // Rows which become visible are refreshed at once, the interval only catches up with expired cache entries
+    private static final int AVAILABILITY_REFRESH_INTERVAL = 10 * 1000;
+    // Roughly the number of rows visible in the offer table
+    private static final int MAX_REFRESHED_OFFERS = 20;
 
     private final User user;
     private final OfferBook offerBook;
@@ -66,6 +75,7 @@ class OfferBookDataModel implements Activatable, DataModel {
     private final SortedList<OfferBookListItem> sortedItems;
     // private OfferBookInfo offerBookInfo;
     private final ChangeListener<FiatAccount> bankAccountChangeListener;
+    private final ListChangeListener<OfferBookListItem> sortedItemsChangeListener;
 
     private final ObjectProperty<Coin> amountAsCoin = new SimpleObjectProperty<>();
     private final ObjectProperty<Fiat> priceAsFiat = new SimpleObjectProperty<>();
@@ -76,6 +86,7 @@ class OfferBookDataModel implements Activatable, DataModel {
     final StringProperty btcCode = new SimpleStringProperty();
     final ObjectProperty<Country> bankAccountCountry = new SimpleObjectProperty<>();
     private Direction direction;
+    private AnimationTimer availabilityRefreshTimer;
 
 
     @Inject
@@ -90,6 +101,7 @@ class OfferBookDataModel implements Activatable, DataModel {
         this.filteredItems = new FilteredList<>(offerBook.getOfferBookListItems());
         this.sortedItems = new SortedList<>(filteredItems);
         this.bankAccountChangeListener = (observableValue, oldValue, newValue) -> setBankAccount(newValue);
+        this.sortedItemsChangeListener = change -> refreshOfferAvailability();
     }
 
     @Override
@@ -104,10 +116,22 @@ class OfferBookDataModel implements Activatable, DataModel {
 
         setBankAccount(user.getCurrentBankAccount().get());
         applyFilter();
+
+        sortedItems.addListener(sortedItemsChangeListener);
+        refreshOfferAvailability();
+        availabilityRefreshTimer = Utilities.setInterval(AVAILABILITY_REFRESH_INTERVAL, (animationTimer) -> {
+            refreshOfferAvailability();
+            return null;
+        });
     }
 
     @Override
     public void deactivate() {
+        if (availabilityRefreshTimer != null) {
+            availabilityRefreshTimer.stop();
+            availabilityRefreshTimer = null;
+        }
+        sortedItems.removeListener(sortedItemsChangeListener);
         offerBook.removeClient();
         user.currentBankAccountProperty().removeListener(bankAccountChangeListener);
         btcCode.unbind();
@@ -117,6 +141,15 @@ class OfferBookDataModel implements Activatable, DataModel {
         tradeManager.removeOpenOffer(offer, resultHandler, errorMessageHandler);
     }
 
+    // Only the offers displayed at the top of the sorted and filtered list get refreshed. The tradeManager skips the
+    // ones with a fresh cached result, so only rows which became visible or got stale cause a request.
+    private void refreshOfferAvailability() {
+        tradeManager.refreshOfferAvailability(sortedItems.stream()
+                .limit(MAX_REFRESHED_OFFERS)
+                .map(OfferBookListItem::getOffer)
+                .collect(Collectors.toList()));
+    }
+
     void calculateVolume() {
         try {
             if (priceAsFiat.get() != null &&
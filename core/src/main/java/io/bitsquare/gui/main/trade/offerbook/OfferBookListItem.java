@@ -42,7 +42,7 @@ public class OfferBookListItem {
     // Setters
     ///////////////////////////////////////////////////////////////////////////////////////////
 
-    void setBankAccountCountry(Country bankAccountCountry) {
+    public void setBankAccountCountry(Country bankAccountCountry) {
         this.bankAccountCountry.set(bankAccountCountry);
     }
 
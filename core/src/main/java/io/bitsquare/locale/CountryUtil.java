@@ -24,7 +24,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class CountryUtil {
@@ -49,6 +51,10 @@ public class CountryUtil {
     private static final String[][] regionCodeToName = new String[][]{
             {"NA", "North America"}, {"SA", "South America"}, {"AF", "Africa"}, {"EU", "Europe"}, {"AS", "Asia"},
             {"OC", "Oceania"}};
+    // Only known codes get a shared instance, as the codes of received offers are not trusted and must not grow the map
+    private static final Set<String> countryCodes = getAllCountryLocales().stream().map(Locale::getCountry)
+            .collect(Collectors.toSet());
+    private static final Map<String, Country> countriesByCode = new ConcurrentHashMap<>();
 
     public static List<Region> getAllRegions() {
         final List<Region> allRegions = new ArrayList<>();
@@ -111,6 +117,26 @@ public class CountryUtil {
         return allCountries;
     }
 
+    // One shared instance per known country code. Unknown codes get a new instance.
+    public static Country getCountry(String countryCode) {
+        if (!countryCodes.contains(countryCode))
+            return createCountry(countryCode);
+
+        return countriesByCode.computeIfAbsent(countryCode, CountryUtil::createCountry);
+    }
+
+    // Used to resolve the countries of received offers. A country with an unknown code is kept as it is.
+    public static Country getSharedCountry(Country country) {
+        return countryCodes.contains(country.getCode()) ? getCountry(country.getCode()) : country;
+    }
+
+    private static Country createCountry(String countryCode) {
+        Locale locale = new Locale("", countryCode, "");
+        String regionCode = getRegionCode(locale.getCountry());
+        final Region region = new Region(regionCode, getRegionName(regionCode));
+        return new Country(locale.getCountry(), locale.getDisplayCountry(), region);
+    }
+
     public static Country getDefaultCountry() {
         final Locale locale = new Locale("", Locale.getDefault().getCountry());
         String regionCode = getRegionCode(locale.getCountry());
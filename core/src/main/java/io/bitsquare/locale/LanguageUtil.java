@@ -21,10 +21,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class LanguageUtil {
+    // Only known codes get a shared instance, as the codes of received offers are not trusted and must not grow the map
+    private static final Set<String> languageCodes = getAllLanguageLocales().stream().map(Locale::getLanguage)
+            .collect(Collectors.toSet());
+    private static final Map<String, Locale> languageLocalesByCode = new ConcurrentHashMap<>();
 
     public static List<Locale> getAllLanguageLocales() {
         List<Locale> allLocales = Arrays.asList(Locale.getAvailableLocales());
@@ -37,6 +43,19 @@ public class LanguageUtil {
         return allLocales;
     }
 
+    // One shared instance per known language code. Unknown codes get a new instance.
+    public static Locale getLanguageLocale(String languageCode) {
+        if (!languageCodes.contains(languageCode))
+            return new Locale(languageCode, "");
+
+        return languageLocalesByCode.computeIfAbsent(languageCode, code -> new Locale(code, ""));
+    }
+
+    // Used to resolve the languages of received offers. A locale with an unknown language is kept as it is.
+    public static Locale getSharedLanguageLocale(Locale locale) {
+        return languageCodes.contains(locale.getLanguage()) ? getLanguageLocale(locale.getLanguage()) : locale;
+    }
+
     public static Locale getDefaultLanguageLocale() {
         return new Locale(Locale.getDefault().getLanguage(), "");
     }
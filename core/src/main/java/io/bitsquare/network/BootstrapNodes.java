@@ -17,11 +17,24 @@
 
 package io.bitsquare.network;
 
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 public interface BootstrapNodes {
 
+    String INSTANCES_KEY = "bootstrap.node.instances";
+
+    /**
+     * Number of instances each public bootstrap node runs, on consecutive ports.
+     */
+    int DEFAULT_INSTANCES = 1;
+
     Node DIGITAL_OCEAN_1 = Node.at("digitalocean1.bitsquare.io", "188.226.179.109");
 
     /**
@@ -43,4 +56,27 @@ public interface BootstrapNodes {
                 DIGITAL_OCEAN_1
         );
     }
+
+    /**
+     * The instances of a bootstrap node host, started by one process on consecutive ports. The first instance is the
+     * node itself, the others get the instance number appended to the name.
+     */
+    static List<Node> instancesOf(Node node, int numInstances) {
+        List<Node> instances = new ArrayList<>();
+        instances.add(node);
+        for (int i = 1; i < numInstances; i++)
+            instances.add(Node.at(node.getName() + "-" + i, node.getIp(), node.getPort() + i));
+        return instances;
+    }
+
+    /**
+     * Picks the instance a peer uses by rendezvous hashing of its id, so a peer always uses the same instance and
+     * the peers are spread evenly. If instances are added or removed, only the peers of these instances move.
+     */
+    static Node selectInstance(List<Node> instances, String peerId) {
+        return instances.stream()
+                .max(Comparator.comparingLong(node -> Hashing.sha256()
+                        .hashString(peerId + "/" + node.getName(), StandardCharsets.UTF_8).asLong()))
+                .get();
+    }
 }
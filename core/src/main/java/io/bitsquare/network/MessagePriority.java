@@ -0,0 +1,34 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network;
+
+/**
+ * Order in which incoming messages get processed if they queue up. Messages of a running trade (deposit, payout)
+ * must not wait behind a flood of offer availability requests.
+ */
+public enum MessagePriority {
+    TRADE, AVAILABILITY, OTHER;
+
+    /**
+     * Implemented by the objects we put on the wire, so the priority is known before the message gets decoded.
+     * As it is set by the sender the receiver has to verify it after decoding.
+     */
+    public interface Prioritized {
+        MessagePriority getPriority();
+    }
+}
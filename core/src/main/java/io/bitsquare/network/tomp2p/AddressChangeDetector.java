@@ -0,0 +1,126 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import net.tomp2p.peers.PeerAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detects changes of our peer address (updated by TomP2P after a discovery or relay change) and of the local network
+ * interfaces, so we can publish our new address right away.
+ * Both are cheap in-memory or interface table reads, done every few seconds on the timer of TomP2P. A change is only
+ * reported once two checks in a row, at least the debounce delay apart, see the same state, so a flapping WiFi does
+ * not cause a burst of re-publishes.
+ */
+class AddressChangeDetector {
+    private static final Logger log = LoggerFactory.getLogger(AddressChangeDetector.class);
+
+    static final long CHECK_INTERVAL = 5 * 1000;
+    static final long DEBOUNCE_DELAY = 2 * 1000;
+
+    interface Listener {
+        /**
+         * @param interfacesChanged true if the local network changed, in that case our peer address is probably
+         *                          outdated and needs to be discovered again
+         * @param detectionTime     when the change was seen first
+         */
+        void onAddressChanged(boolean interfacesChanged, long detectionTime);
+    }
+
+    private final Supplier<PeerAddress> peerAddressSupplier;
+    private final Supplier<String> networkFingerprintSupplier;
+    private final Listener listener;
+
+    private PeerAddress reportedPeerAddress;
+    private String reportedNetworkFingerprint;
+    private PeerAddress pendingPeerAddress;
+    private String pendingNetworkFingerprint;
+    private long pendingSince;
+    private ScheduledFuture<?> scheduledFuture;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    AddressChangeDetector(Supplier<PeerAddress> peerAddressSupplier, Supplier<String> networkFingerprintSupplier,
+                          Listener listener) {
+        this.peerAddressSupplier = peerAddressSupplier;
+        this.networkFingerprintSupplier = networkFingerprintSupplier;
+        this.listener = listener;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Package scope
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    synchronized void start(ScheduledExecutorService timer) {
+        reportedPeerAddress = peerAddressSupplier.get();
+        reportedNetworkFingerprint = networkFingerprintSupplier.get();
+        scheduledFuture = timer.scheduleWithFixedDelay(() -> check(System.currentTimeMillis()),
+                CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (scheduledFuture != null)
+            scheduledFuture.cancel(false);
+    }
+
+    synchronized void check(long now) {
+        PeerAddress peerAddress = peerAddressSupplier.get();
+        String networkFingerprint = networkFingerprintSupplier.get();
+        boolean addressChanged = !peerAddress.equals(reportedPeerAddress);
+        boolean interfacesChanged = !networkFingerprint.equals(reportedNetworkFingerprint);
+        if (!addressChanged && !interfacesChanged) {
+            pendingSince = 0;
+            return;
+        }
+
+        if (pendingSince == 0 || !peerAddress.equals(pendingPeerAddress) ||
+                !networkFingerprint.equals(pendingNetworkFingerprint)) {
+            // New change or still changing, wait until it is stable
+            if (pendingSince == 0)
+                pendingSince = now;
+            pendingPeerAddress = peerAddress;
+            pendingNetworkFingerprint = networkFingerprint;
+            return;
+        }
+
+        if (now - pendingSince >= DEBOUNCE_DELAY) {
+            log.info("Address changed: peerAddress=" + peerAddress + ", network changed=" + interfacesChanged);
+            long detectionTime = pendingSince;
+            reportedPeerAddress = peerAddress;
+            reportedNetworkFingerprint = networkFingerprint;
+            pendingSince = 0;
+            listener.onAddressChanged(interfacesChanged, detectionTime);
+        }
+    }
+
+    // After a new discovery we don't want to report the address it found as another change
+    synchronized void setReportedPeerAddress(PeerAddress peerAddress) {
+        reportedPeerAddress = peerAddress;
+    }
+}
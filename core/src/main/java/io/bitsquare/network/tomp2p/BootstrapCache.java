@@ -0,0 +1,226 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import io.bitsquare.network.BootstrapState;
+import io.bitsquare.network.Node;
+import io.bitsquare.persistence.Persistence;
+
+import java.io.Serializable;
+
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers how we got connected the last time (direct, port forwarding or relay), together with our external
+ * address and the relay peers, so the next start can try that path first.
+ * The entries are keyed by the network interface and a fingerprint of the local network, so a laptop moving between
+ * networks does not try a path which only worked on another network.
+ * It also keeps the connection latency of the bootstrap nodes, so we prefer the fastest ones.
+ */
+public class BootstrapCache {
+    private static final Logger log = LoggerFactory.getLogger(BootstrapCache.class);
+
+    private static final int MAX_ENTRIES = 10;
+    private static final long UNKNOWN_LATENCY = -1;
+    private static final long FAILED = Long.MAX_VALUE;
+
+    private final Persistence persistence;
+    private Map<String, Entry> entries;
+    private Map<String, Long> nodeLatencies;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public BootstrapCache(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Returns null if we have not been connected with that key yet
+    public synchronized Entry get(String key) {
+        return getEntries().get(key);
+    }
+
+    public synchronized void put(String key, Entry entry) {
+        Map<String, Entry> entries = getEntries();
+        entries.put(key, entry);
+        while (entries.size() > MAX_ENTRIES) {
+            String oldest = Collections.min(entries.entrySet(),
+                    Comparator.comparingLong(e -> e.getValue().getDate())).getKey();
+            entries.remove(oldest);
+        }
+        persistence.write(this, "entries", entries);
+    }
+
+    public synchronized void remove(String key) {
+        if (getEntries().remove(key) != null)
+            persistence.write(this, "entries", entries);
+    }
+
+    public synchronized void recordLatency(Node node, long latency) {
+        Map<String, Long> latencies = getNodeLatencies();
+        Long previous = latencies.get(getKey(node));
+        // Smoothed, so a single slow answer does not move a node to the end
+        latencies.put(getKey(node), previous == null || previous == FAILED ? latency : (previous * 3 + latency) / 4);
+        persistence.write(this, "nodeLatencies", latencies);
+    }
+
+    public synchronized void recordFailure(Node node) {
+        getNodeLatencies().put(getKey(node), FAILED);
+        persistence.write(this, "nodeLatencies", nodeLatencies);
+    }
+
+    // Returns -1 if we have never been connected to that node, Long.MAX_VALUE if the last attempt failed
+    public synchronized long getLatency(Node node) {
+        Long latency = getNodeLatencies().get(getKey(node));
+        return latency != null ? latency : UNKNOWN_LATENCY;
+    }
+
+    // Fastest nodes first, then the ones we don't know yet, the ones which failed the last time at the end
+    public synchronized List<Node> sortByLatency(List<Node> nodes) {
+        List<Node> result = new ArrayList<>(nodes);
+        result.sort(Comparator.comparingLong(node -> {
+            long latency = getLatency(node);
+            return latency == UNKNOWN_LATENCY ? FAILED - 1 : latency;
+        }));
+        return result;
+    }
+
+    // The network interface we bind to plus the fingerprint of the local network
+    public static String createKey(String networkInterface) {
+        return networkInterface + ":" + getLocalNetworkFingerprint();
+    }
+
+    // A hash over the addresses and prefix lengths of all local interfaces which are up. Any change of the local
+    // network (other WiFi, VPN up, new DHCP lease) results in another fingerprint.
+    public static String getLocalNetworkFingerprint() {
+        List<String> addresses = new ArrayList<>();
+        try {
+            for (NetworkInterface net : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!net.isUp() || net.isLoopback())
+                    continue;
+
+                for (InterfaceAddress address : net.getInterfaceAddresses())
+                    addresses.add(net.getName() + "/" + address.getAddress().getHostAddress() + "/" +
+                            address.getNetworkPrefixLength());
+            }
+        } catch (SocketException e) {
+            log.warn("Cannot read local network interfaces: " + e.getMessage());
+        }
+        Collections.sort(addresses);
+        return Number160.createHash(String.join(",", addresses)).toString();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Long> getNodeLatencies() {
+        if (nodeLatencies == null) {
+            Serializable persisted = persistence.read(this, "nodeLatencies");
+            nodeLatencies = persisted instanceof Map ? (Map<String, Long>) persisted : new HashMap<>();
+        }
+        return nodeLatencies;
+    }
+
+    private static String getKey(Node node) {
+        return node.getIp() + ":" + node.getPort();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Entry> getEntries() {
+        if (entries == null) {
+            Serializable persisted = persistence.read(this, "entries");
+            entries = persisted instanceof Map ? (Map<String, Entry>) persisted : new HashMap<>();
+        }
+        return entries;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 4718403386152826453L;
+
+        private final BootstrapState state;
+        private final String externalAddress;
+        private final ArrayList<PeerAddress> relays;
+        private final long date;
+
+        public Entry(BootstrapState state, String externalAddress, List<PeerAddress> relays) {
+            this.state = state;
+            this.externalAddress = externalAddress;
+            this.relays = new ArrayList<>(relays);
+            this.date = System.currentTimeMillis();
+        }
+
+        public BootstrapState getState() {
+            return state;
+        }
+
+        public String getExternalAddress() {
+            return externalAddress;
+        }
+
+        public List<PeerAddress> getRelays() {
+            return relays;
+        }
+
+        public long getDate() {
+            return date;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "state=" + state +
+                    ", externalAddress='" + externalAddress + '\'' +
+                    ", relays=" + relays +
+                    ", date=" + date +
+                    '}';
+        }
+    }
+}
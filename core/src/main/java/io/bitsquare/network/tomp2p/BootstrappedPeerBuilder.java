@@ -17,6 +17,7 @@
 
 package io.bitsquare.network.tomp2p;
 
+import io.bitsquare.network.BootstrapNodes;
 import io.bitsquare.network.BootstrapState;
 import io.bitsquare.network.Node;
 
@@ -31,6 +32,15 @@ import java.net.UnknownHostException;
 
 import java.security.KeyPair;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
 import javax.inject.Inject;
 
 import javafx.beans.property.ObjectProperty;
@@ -42,9 +52,11 @@ import net.tomp2p.connection.ChannelServerConfiguration;
 import net.tomp2p.dht.PeerBuilderDHT;
 import net.tomp2p.dht.PeerDHT;
 import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.BaseFutureListener;
 import net.tomp2p.futures.FutureBootstrap;
 import net.tomp2p.futures.FutureDiscover;
+import net.tomp2p.futures.FuturePeerConnection;
 import net.tomp2p.nat.FutureNAT;
 import net.tomp2p.nat.FutureRelayNAT;
 import net.tomp2p.nat.PeerBuilderNAT;
@@ -54,6 +66,7 @@ import net.tomp2p.p2p.PeerBuilder;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerMapChangeListener;
+import net.tomp2p.peers.PeerSocketAddress;
 import net.tomp2p.peers.PeerStatistic;
 import net.tomp2p.relay.tcp.TCPRelayClientConfig;
 
@@ -62,8 +75,6 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.netty.util.concurrent.DefaultEventExecutorGroup;
-
 
 /**
  * Creates a DHT peer and bootstraps to the network via a bootstrap node
@@ -76,11 +87,20 @@ public class BootstrappedPeerBuilder {
     static final String NETWORK_INTERFACE_UNSPECIFIED = "<unspecified>";
     static final String USE_MANUAL_PORT_FORWARDING_KEY = "node.useManualPortForwarding";
 
+    // We race at most that many bootstrap nodes, the fastest ones we know
+    private static final int MAX_RACING_BOOTSTRAP_NODES = 3;
+    private static final int BACKUP_CONNECTION_TIMEOUT = 5 * 60 * 1000;
+
     private KeyPair keyPair;
     private final int port;
     private boolean useManualPortForwarding;
     private final Node bootstrapNode;
     private final String networkInterface;
+    private final int eventExecutorGroupSize;
+    private final int bootstrapNodeInstances;
+    private final BootstrapCache bootstrapCache;
+    private final PeerMapCache peerMapCache;
+    private final List<Node> bootstrapNodes;
 
     private final SettableFuture<PeerDHT> settableFuture = SettableFuture.create();
 
@@ -88,6 +108,13 @@ public class BootstrappedPeerBuilder {
 
     private Peer peer;
     private PeerDHT peerDHT;
+    private MonitoredEventExecutorGroup eventExecutorGroup;
+    private String cacheKey;
+    private volatile Node selectedBootstrapNode;
+    private final List<Node> backupBootstrapNodes = new CopyOnWriteArrayList<>();
+    private final List<FuturePeerConnection> bootstrapNodeConnections = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean connected = new AtomicBoolean();
+    private final AtomicInteger pendingSteps = new AtomicInteger();
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -98,11 +125,29 @@ public class BootstrappedPeerBuilder {
     public BootstrappedPeerBuilder(@Named(Node.PORT_KEY) int port,
                                    @Named(USE_MANUAL_PORT_FORWARDING_KEY) boolean useManualPortForwarding,
                                    @Named(BOOTSTRAP_NODE_KEY) Node bootstrapNode,
-                                   @Named(NETWORK_INTERFACE_KEY) String networkInterface) {
+                                   @Named(NETWORK_INTERFACE_KEY) String networkInterface,
+                                   @Named(MonitoredEventExecutorGroup.SIZE_KEY) int eventExecutorGroupSize,
+                                   @Named(BootstrapNodes.INSTANCES_KEY) int bootstrapNodeInstances,
+                                   BootstrapCache bootstrapCache,
+                                   PeerMapCache peerMapCache) {
         this.port = port;
         this.useManualPortForwarding = useManualPortForwarding;
         this.bootstrapNode = bootstrapNode;
         this.networkInterface = networkInterface;
+        this.eventExecutorGroupSize = eventExecutorGroupSize;
+        this.bootstrapNodeInstances = bootstrapNodeInstances;
+        this.bootstrapCache = bootstrapCache;
+        this.peerMapCache = peerMapCache;
+
+        // If the default bootstrap node is used we race all the public ones, a node set by the user is used alone
+        if (BootstrapNodes.all().contains(bootstrapNode)) {
+            bootstrapNodes = new ArrayList<>(BootstrapNodes.all());
+            bootstrapNodes.remove(bootstrapNode);
+            bootstrapNodes.add(0, bootstrapNode);
+        }
+        else {
+            bootstrapNodes = Collections.singletonList(bootstrapNode);
+        }
     }
 
 
@@ -121,7 +166,9 @@ public class BootstrappedPeerBuilder {
 
     public SettableFuture<PeerDHT> start() {
         try {
-            DefaultEventExecutorGroup eventExecutorGroup = new DefaultEventExecutorGroup(250);
+            eventExecutorGroup = MonitoredEventExecutorGroup.create(MonitoredEventExecutorGroup.Role.CLIENT,
+                    eventExecutorGroupSize);
+            log.info("Using " + eventExecutorGroup.getSize() + " event executors");
             ChannelClientConfiguration clientConf = PeerBuilder.createDefaultChannelClientConfiguration();
             clientConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
 
@@ -171,7 +218,8 @@ public class BootstrappedPeerBuilder {
                 }
             });
 
-            discoverExternalAddress();
+            peerMapCache.start(peer);
+            selectBootstrapNode();
         } catch (IOException e) {
             handleError(BootstrapState.PEER_CREATION_FAILED, "Cannot create a peer with port: " +
                     port + ". Exception: " + e);
@@ -181,8 +229,95 @@ public class BootstrappedPeerBuilder {
     }
 
     public void shutDown() {
+        bootstrapNodeConnections.stream().forEach(this::closeConnection);
+        peerMapCache.shutDown();
         if (peerDHT != null)
             peerDHT.shutdown();
+        if (eventExecutorGroup != null)
+            eventExecutorGroup.shutdownGracefully();
+    }
+
+    // We open a connection to the known bootstrap nodes concurrently and continue with the first one which answers.
+    // The others are kept connected as backups in case bootstrapping to the selected one fails. The connection
+    // latencies are stored, so the next start races the fastest nodes.
+    private void selectBootstrapNode() {
+        List<Node> instances = bootstrapNodes.stream().map(this::selectInstance).collect(Collectors.toList());
+        if (instances.size() == 1) {
+            selectedBootstrapNode = instances.get(0);
+            discoverExternalAddress();
+            return;
+        }
+
+        List<Node> candidates = bootstrapCache.sortByLatency(instances);
+        candidates = candidates.subList(0, Math.min(candidates.size(), MAX_RACING_BOOTSTRAP_NODES));
+        log.info("Connecting to bootstrap nodes " + candidates);
+        AtomicInteger pendingNodes = new AtomicInteger(candidates.size());
+        long startTime = System.currentTimeMillis();
+        for (Node node : candidates) {
+            PeerAddress peerAddress = getPeerAddress(node);
+            if (peerAddress == null) {
+                bootstrapCache.recordFailure(node);
+                onBootstrapNodeFailed(node, pendingNodes);
+                continue;
+            }
+
+            FuturePeerConnection futurePeerConnection = peer.createPeerConnection(peerAddress,
+                    BACKUP_CONNECTION_TIMEOUT);
+            bootstrapNodeConnections.add(futurePeerConnection);
+            futurePeerConnection.addListener(new BaseFutureAdapter<FuturePeerConnection>() {
+                @Override
+                public void operationComplete(FuturePeerConnection future) throws Exception {
+                    if (future.isSuccess()) {
+                        long latency = System.currentTimeMillis() - startTime;
+                        bootstrapCache.recordLatency(node, latency);
+                        peer.peerBean().peerMap().peerFound(peerAddress, null, null, null);
+                        pendingNodes.decrementAndGet();
+                        onBootstrapNodeConnected(node, latency);
+                    }
+                    else {
+                        bootstrapCache.recordFailure(node);
+                        onBootstrapNodeFailed(node, pendingNodes);
+                    }
+                }
+            });
+        }
+    }
+
+    // A bootstrap node host can run several instances, we always use the same one of them
+    private Node selectInstance(Node node) {
+        if (bootstrapNodeInstances <= 1)
+            return node;
+
+        return BootstrapNodes.selectInstance(BootstrapNodes.instancesOf(node, bootstrapNodeInstances),
+                peer.peerID().toString());
+    }
+
+    private synchronized void onBootstrapNodeConnected(Node node, long latency) {
+        if (selectedBootstrapNode == null) {
+            log.info("Using bootstrap node " + node + " (connected in " + latency + " ms)");
+            selectedBootstrapNode = node;
+            discoverExternalAddress();
+        }
+        else {
+            log.info("Bootstrap node " + node + " connected in " + latency + " ms, kept as backup");
+            backupBootstrapNodes.add(node);
+        }
+    }
+
+    private synchronized void onBootstrapNodeFailed(Node node, AtomicInteger pendingNodes) {
+        log.warn("Cannot connect to bootstrap node " + node);
+        if (pendingNodes.decrementAndGet() == 0 && selectedBootstrapNode == null)
+            handleError(BootstrapState.DISCOVERY_FAILED, "Cannot connect to any of the bootstrap nodes.");
+    }
+
+    private void closeConnection(FuturePeerConnection futurePeerConnection) {
+        futurePeerConnection.addListener(new BaseFutureAdapter<FuturePeerConnection>() {
+            @Override
+            public void operationComplete(FuturePeerConnection future) throws Exception {
+                if (future.isSuccess() && future.object() != null)
+                    future.object().close();
+            }
+        });
     }
 
     // We need to discover our external address and test if we are reachable for other nodes
@@ -197,59 +332,160 @@ public class BootstrappedPeerBuilder {
     // tested successfully our reachability (the additional discover is done internally from startSetupPortforwarding)
     // 4. If the port forwarding failed we can try as last resort to open a permanent TCP connection to the
     // bootstrap node and use that peer as relay
+    //
+    // Each step normally waits for the previous one to fail. If the bootstrap cache tells us that automatic port
+    // forwarding or a relay was needed the last time on this network, we start that step right away, racing it
+    // against the discovery. Whichever step succeeds first wins.
 
     private void discoverExternalAddress() {
+        cacheKey = BootstrapCache.createKey(networkInterface);
+        BootstrapCache.Entry cachedEntry = bootstrapCache.get(cacheKey);
+        BootstrapState cachedState = cachedEntry != null ? cachedEntry.getState() : null;
+        if (cachedEntry != null)
+            log.info("Last successful bootstrap on this network: " + cachedEntry);
+        // When racing, the steps don't run one after the other anymore, so we don't report the next step on failures
+        boolean racing = cachedState == BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_SUCCEEDED ||
+                cachedState == BootstrapState.RELAY_SUCCEEDED;
+
+        PeerNAT peerNAT = new PeerBuilderNAT(peer).start();
+        pendingSteps.set(3);
+
         FutureDiscover futureDiscover = peer.discover().peerAddress(getBootstrapAddress()).start();
         setState(BootstrapState.DISCOVERY_STARTED, "Starting discovery...");
-        PeerNAT peerNAT = new PeerBuilderNAT(peer).start();
-        FutureNAT futureNAT = peerNAT.startSetupPortforwarding(futureDiscover);
-        FutureRelayNAT futureRelayNAT = peerNAT.startRelay(new TCPRelayClientConfig(), futureDiscover, futureNAT);
+        // Needs to be added before the NAT steps add their listeners, so a successful discovery is reported first
+        BootstrapState discoveryState = useManualPortForwarding ?
+                BootstrapState.DISCOVERY_MANUAL_PORT_FORWARDING_SUCCEEDED : BootstrapState.DISCOVERY_DIRECT_SUCCEEDED;
+        addStepListener(futureDiscover, discoveryState,
+                racing ? null : BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_STARTED,
+                "Configuring automatic port forwarding");
+
+        FutureNAT futureNAT;
+        if (cachedState == BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_SUCCEEDED) {
+            setState(BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_STARTED,
+                    "Configuring automatic port forwarding (worked last time)");
+            futureNAT = peerNAT.startSetupPortforwarding(new FutureDiscover().failed("Skipped, using cached path"));
+        }
+        else {
+            futureNAT = peerNAT.startSetupPortforwarding(futureDiscover);
+        }
+        addStepListener(futureNAT, BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_SUCCEEDED,
+                racing ? null : BootstrapState.RELAY_STARTED, "Starting relay mode");
+
+        FutureRelayNAT futureRelayNAT;
+        if (cachedState == BootstrapState.RELAY_SUCCEEDED) {
+            setState(BootstrapState.RELAY_STARTED, "Starting relay mode (worked last time)");
+            // The relay candidates are taken from the peer map, so we add the relays we used the last time
+            cachedEntry.getRelays().stream()
+                    .forEach(relay -> peer.peerBean().peerMap().peerFound(relay, null, null, null));
+            futureRelayNAT = peerNAT.startRelay(new TCPRelayClientConfig(),
+                    new FutureDiscover().failed("Skipped, using cached path"),
+                    new FutureNAT().failed("Skipped, using cached path"));
+        }
+        else {
+            futureRelayNAT = peerNAT.startRelay(new TCPRelayClientConfig(), futureDiscover, futureNAT);
+        }
+        addStepListener(futureRelayNAT, BootstrapState.RELAY_SUCCEEDED, null, null);
+    }
 
-        futureRelayNAT.addListener(new BaseFutureListener<BaseFuture>() {
+    // The nextState is reported if the step failed and we are still waiting for the others
+    private void addStepListener(BaseFuture future, BootstrapState successState, BootstrapState nextState,
+                                 String nextMessage) {
+        future.addListener(new BaseFutureListener<BaseFuture>() {
             @Override
-            public void operationComplete(BaseFuture futureRelayNAT) throws Exception {
-                if (futureDiscover.isSuccess()) {
-                    if (useManualPortForwarding) {
-                        setState(BootstrapState.DISCOVERY_MANUAL_PORT_FORWARDING_SUCCEEDED,
-                                "Now visible to the Bitsquare network (with manual port forwarding).");
-                        bootstrap();
-                    }
-                    else {
-                        setState(BootstrapState.DISCOVERY_DIRECT_SUCCEEDED, "Now visible to the Bitsquare network.");
-                        bootstrap();
-                    }
+            public void operationComplete(BaseFuture future) throws Exception {
+                if (future.isSuccess())
+                    onStepSucceeded(successState);
+                else
+                    onStepFailed("Bootstrap has failed. " + future.failedReason(), nextState, nextMessage);
+            }
+
+            @Override
+            public void exceptionCaught(Throwable t) throws Exception {
+                onStepFailed("Exception at bootstrap: " + t.getMessage(), nextState, nextMessage);
+            }
+        });
+    }
+
+    private void onStepSucceeded(BootstrapState state) {
+        if (!connected.compareAndSet(false, true))
+            return;
+
+        switch (state) {
+            case DISCOVERY_MANUAL_PORT_FORWARDING_SUCCEEDED:
+                setState(state, "Now visible to the Bitsquare network (with manual port forwarding).");
+                break;
+            case DISCOVERY_DIRECT_SUCCEEDED:
+                setState(state, "Now visible to the Bitsquare network.");
+                break;
+            case DISCOVERY_AUTO_PORT_FORWARDING_SUCCEEDED:
+                setState(state, "Now visible to the Bitsquare network (with automatic port forwarding).");
+                break;
+            default:
+                setState(state, "Bootstrap using relay was successful.");
+                break;
+        }
+
+        bootstrapCache.put(cacheKey, new BootstrapCache.Entry(state,
+                peer.peerAddress().inetAddress().getHostAddress(), getRelays()));
+        bootstrap();
+    }
+
+    private void onStepFailed(String errorMessage, BootstrapState nextState, String nextMessage) {
+        int pending = pendingSteps.decrementAndGet();
+        if (connected.get())
+            return;
+
+        if (pending == 0) {
+            // All attempts failed. Give up...
+            bootstrapCache.remove(cacheKey);
+            handleError(BootstrapState.RELAY_FAILED, errorMessage);
+        }
+        else if (nextState != null) {
+            setState(nextState, nextMessage);
+        }
+    }
+
+    // The peers in our peer map whose addresses we announce as our relay addresses
+    private List<PeerAddress> getRelays() {
+        Collection<PeerSocketAddress> relayAddresses = peer.peerAddress().peerSocketAddresses();
+        return peer.peerBean().peerMap().all().stream()
+                .filter(e -> relayAddresses.contains(e.peerSocketAddress()))
+                .collect(Collectors.toList());
+    }
+
+    // We prefer the peers of our last session which answered our ping, so the bootstrap node only gets the load
+    // of peers which don't know anybody else
+    private void bootstrap() {
+        List<PeerAddress> livePeers = peerMapCache.getLivePeers();
+        if (livePeers.isEmpty()) {
+            bootstrapToBootstrapNode();
+            return;
+        }
+
+        log.info("Bootstrapping to " + livePeers.size() + " peers of the last session");
+        FutureBootstrap futureBootstrap = peer.bootstrap().bootstrapTo(livePeers).start();
+        futureBootstrap.addListener(new BaseFutureListener<BaseFuture>() {
+            @Override
+            public void operationComplete(BaseFuture future) throws Exception {
+                if (futureBootstrap.isSuccess()) {
+                    settableFuture.set(peerDHT);
                 }
                 else {
-                    setState(BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_STARTED,
-                            "Configuring automatic port forwarding");
-                    if (futureNAT.isSuccess()) {
-                        setState(BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_SUCCEEDED,
-                                "Now visible to the Bitsquare network (with automatic port forwarding).");
-                        bootstrap();
-                    }
-                    else {
-                        if (futureRelayNAT.isSuccess()) {
-                            // relay mode succeeded
-                            setState(BootstrapState.RELAY_SUCCEEDED, "Bootstrap using relay was successful.");
-                            bootstrap();
-                        }
-                        else {
-                            // All attempts failed. Give up...
-                            handleError(BootstrapState.RELAY_FAILED, "Bootstrap using relay has failed " +
-                                    futureRelayNAT.failedReason());
-                        }
-                    }
+                    log.warn("Bootstrapping to the peers of the last session failed. " +
+                            futureBootstrap.failedReason());
+                    bootstrapToBootstrapNode();
                 }
             }
 
             @Override
             public void exceptionCaught(Throwable t) throws Exception {
-                handleError(BootstrapState.RELAY_FAILED, "Exception at bootstrap: " + t.getMessage());
+                log.warn("Exception at bootstrapping to the peers of the last session: " + t.getMessage());
+                bootstrapToBootstrapNode();
             }
         });
     }
 
-    private void bootstrap() {
+    private void bootstrapToBootstrapNode() {
         FutureBootstrap futureBootstrap = peer.bootstrap().peerAddress(getBootstrapAddress()).start();
         futureBootstrap.addListener(new BaseFutureListener<BaseFuture>() {
             @Override
@@ -257,6 +493,13 @@ public class BootstrappedPeerBuilder {
                 if (futureBootstrap.isSuccess()) {
                     settableFuture.set(peerDHT);
                 }
+                else if (!backupBootstrapNodes.isEmpty()) {
+                    // The backups are in the order they connected, so we take the fastest one
+                    Node failedNode = selectedBootstrapNode;
+                    selectedBootstrapNode = backupBootstrapNodes.remove(0);
+                    log.warn("Bootstrapping to " + failedNode + " failed, trying backup " + selectedBootstrapNode);
+                    bootstrapToBootstrapNode();
+                }
                 else {
                     handleError(BootstrapState.BOOT_STRAP_FAILED, "Bootstrapping failed. " +
                             futureBootstrap.failedReason());
@@ -270,20 +513,30 @@ public class BootstrappedPeerBuilder {
         });
     }
 
-    private PeerAddress getBootstrapAddress() {
+    PeerAddress getBootstrapAddress() {
+        return getPeerAddress(getBootstrapNode());
+    }
+
+    private PeerAddress getPeerAddress(Node node) {
         try {
-            return new PeerAddress(Number160.createHash(bootstrapNode.getName()),
-                    InetAddress.getByName(bootstrapNode.getIp()),
-                    bootstrapNode.getPort(),
-                    bootstrapNode.getPort());
+            return new PeerAddress(Number160.createHash(node.getName()),
+                    InetAddress.getByName(node.getIp()),
+                    node.getPort(),
+                    node.getPort());
         } catch (UnknownHostException e) {
             log.error("getBootstrapAddress failed: " + e.getMessage());
             return null;
         }
     }
 
+    // Null before start is called
+    public MonitoredEventExecutorGroup getEventExecutorGroup() {
+        return eventExecutorGroup;
+    }
+
+    // The bootstrap node we are using, the configured one as long as we have not selected one yet
     public Node getBootstrapNode() {
-        return bootstrapNode;
+        return selectedBootstrapNode != null ? selectedBootstrapNode : bootstrapNode;
     }
 
     public ObjectProperty<BootstrapState> getBootstrapState() {
@@ -0,0 +1,346 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.dht.StorageMemory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DHT storage for bootstrap and seed nodes which survives a restart.
+ * The entries are kept in memory like with the default storage. The storage file holds a snapshot of the entries,
+ * every put and remove after it is appended to a log file. The log gets flushed once per second, so a crash loses
+ * at most the changes of the last second (their owners republish them anyway).
+ * At start the snapshot and the logs are replayed (skipping expired entries) and a new snapshot is written, which is
+ * also done at close. When the log has grown too much a new log is started and the snapshot gets rewritten in the
+ * background, so puts and removes don't wait for it.
+ * Only the payload and the expiration of an entry are stored, which is all we use as we don't protect entries. Range
+ * removes are not logged, they are only reflected at the next snapshot.
+ */
+public class DiskStorage extends StorageMemory {
+    private static final Logger log = LoggerFactory.getLogger(DiskStorage.class);
+
+    public static final String DIR_KEY = "storage.dir";
+
+    private static final String FILE_NAME = "dht-storage.log";
+    // The records after the snapshot
+    private static final String LOG_FILE_NAME = FILE_NAME + ".tail";
+    // The records of the log which is merged into the snapshot in the background
+    private static final String COMPACTING_LOG_FILE_NAME = FILE_NAME + ".compacting";
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    // We rewrite the snapshot if there are that many more records than live entries
+    private static final int COMPACTION_THRESHOLD = 10000;
+    private static final long FLUSH_INTERVAL = 1000;
+
+    private final File file;
+    private final File logFile;
+    private final File compactingLogFile;
+    private final ScheduledExecutorService executor;
+    private DataOutputStream out;
+    private int numRecords;
+    private volatile boolean compacting;
+    private int numLoaded;
+    private long loadDuration;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public DiskStorage(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Cannot create storage directory " + dir);
+
+        file = new File(dir, FILE_NAME);
+        logFile = new File(dir, LOG_FILE_NAME);
+        compactingLogFile = new File(dir, COMPACTING_LOG_FILE_NAME);
+        load();
+
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("DiskStorage").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // StorageMemory overrides
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public synchronized Data put(Number640 key, Data value) {
+        Data previous = super.put(key, value);
+        append(PUT, key, value);
+        return previous;
+    }
+
+    @Override
+    public synchronized Data remove(Number640 key, boolean returnData) {
+        Data removed = super.remove(key, returnData);
+        append(REMOVE, key, null);
+        return removed;
+    }
+
+    @Override
+    public synchronized void close() {
+        // A running compaction does not need the lock, so we can wait for it here
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            compact();
+            out.close();
+        } catch (IOException e) {
+            log.error("Cannot write storage " + file + ": " + e.getMessage());
+        }
+        super.close();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Writes the buffered records to the log, done periodically
+    public synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            log.error("Cannot write to storage " + logFile + ": " + e.getMessage());
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Getters
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Number of entries loaded at start
+    public int getNumLoaded() {
+        return numLoaded;
+    }
+
+    public long getLoadDuration() {
+        return loadDuration;
+    }
+
+    // The snapshot, after a start or close it contains all entries
+    public File getFile() {
+        return file;
+    }
+
+    // The log the records get appended to
+    File getLogFile() {
+        return logFile;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void load() throws IOException {
+        long startTime = System.currentTimeMillis();
+        // Later records overwrite earlier ones. A compacting log which is still there might already be contained in
+        // the snapshot, replaying it again gives the same result.
+        Map<Number640, Record> records = new LinkedHashMap<>();
+        readRecords(file, records);
+        readRecords(compactingLogFile, records);
+        readRecords(logFile, records);
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Number640, Record> entry : records.entrySet()) {
+            Record record = entry.getValue();
+            if (record.expiration <= now)
+                continue;
+
+            Data data = new Data(record.bytes);
+            if (record.expiration != Long.MAX_VALUE)
+                data.ttlSeconds((int) Math.max(1, (record.expiration - now) / 1000));
+            super.put(entry.getKey(), data);
+            super.addTimeout(entry.getKey(), record.expiration);
+            numLoaded++;
+        }
+
+        compact();
+        loadDuration = System.currentTimeMillis() - startTime;
+        log.info("Loaded " + numLoaded + " entries from " + file + " in " + loadDuration + " ms");
+    }
+
+    private static void readRecords(File file, Map<Number640, Record> records) throws IOException {
+        if (!file.exists())
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte type = in.readByte();
+                Number640 key = readKey(in);
+                if (type == PUT) {
+                    long expiration = in.readLong();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    records.put(key, new Record(expiration, bytes));
+                }
+                else {
+                    records.remove(key);
+                }
+            }
+        } catch (EOFException e) {
+            // End of the log, or the last record was cut off by a crash
+        }
+    }
+
+    private void append(byte type, Number640 key, Data data) {
+        try {
+            writeRecord(out, type, key, data);
+            numRecords++;
+            if (!compacting && numRecords > map().size() + COMPACTION_THRESHOLD)
+                startCompaction();
+        } catch (IOException e) {
+            log.error("Cannot write to storage " + logFile + ": " + e.getMessage());
+        }
+    }
+
+    // Starts a new log and writes the snapshot in the background. Only copying the entries is done with the lock held.
+    private void startCompaction() throws IOException {
+        out.close();
+        if (compactingLogFile.exists()) {
+            // The last compaction failed, its log is still needed
+            try (OutputStream compactingOut = new FileOutputStream(compactingLogFile, true)) {
+                Files.copy(logFile.toPath(), compactingOut);
+            }
+            Files.delete(logFile.toPath());
+        }
+        else {
+            Files.move(logFile.toPath(), compactingLogFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        out = openLog();
+
+        Map<Number640, Data> entries = new LinkedHashMap<>(map());
+        numRecords = entries.size();
+        compacting = true;
+        executor.execute(() -> {
+            try {
+                writeSnapshot(entries);
+                Files.delete(compactingLogFile.toPath());
+            } catch (IOException e) {
+                log.error("Cannot write storage " + file + ": " + e.getMessage());
+            } finally {
+                compacting = false;
+            }
+        });
+    }
+
+    // Rewrites the snapshot with the live entries and starts an empty log
+    private void compact() throws IOException {
+        if (out != null)
+            out.close();
+
+        Map<Number640, Data> entries = map();
+        writeSnapshot(entries);
+        Files.deleteIfExists(compactingLogFile.toPath());
+        Files.deleteIfExists(logFile.toPath());
+
+        numRecords = entries.size();
+        out = openLog();
+    }
+
+    private void writeSnapshot(Map<Number640, Data> entries) throws IOException {
+        File tempFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try (DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)))) {
+            for (Map.Entry<Number640, Data> entry : entries.entrySet())
+                writeRecord(tempOut, PUT, entry.getKey(), entry.getValue());
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private DataOutputStream openLog() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, Number640 key, Data data) throws IOException {
+        out.writeByte(type);
+        out.write(key.locationKey().toByteArray());
+        out.write(key.domainKey().toByteArray());
+        out.write(key.contentKey().toByteArray());
+        out.write(key.versionKey().toByteArray());
+        if (type == PUT) {
+            byte[] bytes = data.toBytes();
+            out.writeLong(data.expirationMillis());
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static Number640 readKey(DataInputStream in) throws IOException {
+        return new Number640(readNumber160(in), readNumber160(in), readNumber160(in), readNumber160(in));
+    }
+
+    private static Number160 readNumber160(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[Number160.BYTE_ARRAY_SIZE];
+        in.readFully(bytes);
+        return new Number160(bytes);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class Record {
+        final long expiration;
+        final byte[] bytes;
+
+        Record(long expiration, byte[] bytes) {
+            this.expiration = expiration;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import io.bitsquare.network.MessageBroker;
+import io.bitsquare.network.MessagePriority;
+import io.bitsquare.network.Peer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import net.tomp2p.peers.PeerAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded, prioritized pipeline between the TomP2P reply handler and the message broker. Each sender is assigned to
+ * one of the workers by its peer ID, so the messages of a peer are passed to the broker in the order they arrived.
+ * Each worker has one queue per MessagePriority and always takes the highest priority first. Messages are rejected
+ * if the sender exceeds its rate limit and dropped if the queue of their priority is full, so a peer flooding us can
+ * neither exhaust our memory nor delay the messages of running trades. The broker may block a worker while its
+ * handlers are busy, then the queues fill up and the low priority messages get dropped first.
+ */
+public class InboundMessageQueue {
+    private static final Logger log = LoggerFactory.getLogger(InboundMessageQueue.class);
+
+    public static final String WORKERS_KEY = "network.inbound.workers";
+    public static final String QUEUE_CAPACITY_KEY = "network.inbound.queueCapacity";
+    public static final String MAX_MESSAGES_PER_SECOND_KEY = "network.inbound.maxMessagesPerSecond";
+
+    public static final int DEFAULT_WORKERS = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    public static final int DEFAULT_MAX_MESSAGES_PER_SECOND = 20;
+
+    // We allow a burst of that many seconds worth of messages
+    private static final int BURST_SECONDS = 2;
+    private static final long RATE_LIMITER_MAX_IDLE = 60 * 1000;
+    private static final int RATE_LIMITER_CLEANUP_SIZE = 1000;
+
+    private final int maxMessagesPerSecond;
+    private final Worker[] workers;
+    private final Map<MessagePriority, AtomicLong> numDropped = new EnumMap<>(MessagePriority.class);
+    private final Map<PeerAddress, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private final AtomicLong numRejected = new AtomicLong();
+    private final AtomicLong numProcessed = new AtomicLong();
+    private ExecutorService executor;
+    private MessageBroker messageBroker;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // The queueCapacity is shared by the workers
+    @Inject
+    public InboundMessageQueue(@Named(WORKERS_KEY) int numWorkers,
+                               @Named(QUEUE_CAPACITY_KEY) int queueCapacity,
+                               @Named(MAX_MESSAGES_PER_SECOND_KEY) int maxMessagesPerSecond) {
+        this.maxMessagesPerSecond = maxMessagesPerSecond;
+        workers = new Worker[Math.max(numWorkers, 1)];
+        for (int i = 0; i < workers.length; i++)
+            workers[i] = new Worker(Math.max(queueCapacity / workers.length, 1));
+        for (MessagePriority priority : MessagePriority.values())
+            numDropped.put(priority, new AtomicLong());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized void start(MessageBroker messageBroker) {
+        if (executor != null)
+            throw new IllegalStateException("Already started");
+
+        this.messageBroker = messageBroker;
+        executor = Executors.newFixedThreadPool(workers.length,
+                new ThreadFactoryBuilder().setNameFormat("InboundMessageQueue-%d").setDaemon(true).build());
+        for (Worker worker : workers)
+            executor.execute(worker::processMessages);
+    }
+
+    public synchronized void shutDown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    // Returns false if the message got rejected or dropped
+    public boolean add(Object message, PeerAddress sender, Peer peer) {
+        if (maxMessagesPerSecond > 0 && !getRateLimiter(sender).tryAcquire()) {
+            if (numRejected.incrementAndGet() % 100 == 1)
+                log.warn("Rejected message from " + sender + ", rate limit exceeded");
+            return false;
+        }
+
+        MessagePriority priority = message instanceof MessagePriority.Prioritized ?
+                ((MessagePriority.Prioritized) message).getPriority() : MessagePriority.OTHER;
+        Worker worker = workers[Math.floorMod(sender.peerId().hashCode(), workers.length)];
+        if (!worker.queues.get(priority).offer(new Entry(message, peer))) {
+            if (numDropped.get(priority).incrementAndGet() % 100 == 1)
+                log.warn("Dropped message, " + priority + " queue is full");
+            return false;
+        }
+
+        worker.available.release();
+        return true;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Getters
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public int getQueueLength(MessagePriority priority) {
+        int queueLength = 0;
+        for (Worker worker : workers)
+            queueLength += worker.queues.get(priority).size();
+        return queueLength;
+    }
+
+    public long getNumDropped(MessagePriority priority) {
+        return numDropped.get(priority).get();
+    }
+
+    public long getNumRejected() {
+        return numRejected.get();
+    }
+
+    public long getNumProcessed() {
+        return numProcessed.get();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private RateLimiter getRateLimiter(PeerAddress sender) {
+        if (rateLimiters.size() > RATE_LIMITER_CLEANUP_SIZE) {
+            long now = System.currentTimeMillis();
+            for (Iterator<RateLimiter> iterator = rateLimiters.values().iterator(); iterator.hasNext(); ) {
+                if (now - iterator.next().lastRefill > RATE_LIMITER_MAX_IDLE)
+                    iterator.remove();
+            }
+        }
+        return rateLimiters.computeIfAbsent(sender, k -> new RateLimiter(maxMessagesPerSecond));
+    }
+
+    private class Worker {
+        final Map<MessagePriority, BlockingQueue<Entry>> queues = new EnumMap<>(MessagePriority.class);
+        final Semaphore available = new Semaphore(0);
+
+        Worker(int queueCapacity) {
+            for (MessagePriority priority : MessagePriority.values())
+                queues.put(priority, new ArrayBlockingQueue<>(queueCapacity));
+        }
+
+        void processMessages() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    available.acquire();
+                    Entry entry = poll();
+                    if (entry == null)
+                        continue;
+
+                    try {
+                        messageBroker.handleMessage(entry.message, entry.peer);
+                    } catch (Throwable t) {
+                        log.error("Exception at handling message " + t.toString());
+                    }
+                    numProcessed.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Entry poll() {
+            for (MessagePriority priority : MessagePriority.values()) {
+                Entry entry = queues.get(priority).poll();
+                if (entry != null)
+                    return entry;
+            }
+            return null;
+        }
+    }
+
+    private static class Entry {
+        final Object message;
+        final Peer peer;
+
+        Entry(Object message, Peer peer) {
+            this.message = message;
+            this.peer = peer;
+        }
+    }
+
+    // Token bucket refilled with maxMessagesPerSecond tokens per second
+    private static class RateLimiter {
+        final int maxMessagesPerSecond;
+        final double capacity;
+        double tokens;
+        long lastRefill = System.currentTimeMillis();
+
+        RateLimiter(int maxMessagesPerSecond) {
+            this.maxMessagesPerSecond = maxMessagesPerSecond;
+            capacity = maxMessagesPerSecond * BURST_SECONDS;
+            tokens = capacity;
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * maxMessagesPerSecond / 1000d);
+            lastRefill = now;
+            if (tokens < 1)
+                return false;
+
+            tokens--;
+            return true;
+        }
+    }
+}
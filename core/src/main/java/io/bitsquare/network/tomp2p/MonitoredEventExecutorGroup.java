@@ -0,0 +1,106 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+/**
+ * The event executor group used for the TomP2P channel handlers, sized by the role of the node and the number of
+ * cores instead of a fixed 250 threads. A client only talks to a few peers at a time, while a bootstrap node serves
+ * all peers of the network. It reports the number of queued tasks, so we can see whether the size fits the load.
+ */
+public class MonitoredEventExecutorGroup extends DefaultEventExecutorGroup {
+
+    public static final String SIZE_KEY = "network.eventExecutors";
+    // Size the group by role and cores
+    public static final int AUTOMATIC_SIZE = 0;
+
+    public enum Role {
+        CLIENT(4, 2, 32),
+        BOOTSTRAP_NODE(32, 16, 512);
+
+        private final int min;
+        private final int perCore;
+        private final int max;
+
+        Role(int min, int perCore, int max) {
+            this.min = min;
+            this.perCore = perCore;
+            this.max = max;
+        }
+
+        public int getDefaultSize(int numCores) {
+            return Math.min(Math.max(numCores * perCore, min), max);
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public MonitoredEventExecutorGroup(int size) {
+        super(size, new ThreadFactoryBuilder().setNameFormat("EventExecutor-%d").setDaemon(true).build());
+    }
+
+    public static MonitoredEventExecutorGroup create(Role role, int configuredSize) {
+        int size = configuredSize > AUTOMATIC_SIZE ? configuredSize :
+                role.getDefaultSize(Runtime.getRuntime().availableProcessors());
+        return new MonitoredEventExecutorGroup(size);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Statistics
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public int getSize() {
+        return executorCount();
+    }
+
+    // Number of tasks waiting in the queues of all executors
+    public int getQueueLength() {
+        int queueLength = 0;
+        for (EventExecutor executor : this) {
+            if (executor instanceof SingleThreadEventExecutor)
+                queueLength += ((SingleThreadEventExecutor) executor).pendingTasks();
+        }
+        return queueLength;
+    }
+
+    // Number of executors with queued tasks, the ones which are busy
+    public int getNumActiveExecutors() {
+        int numActive = 0;
+        for (EventExecutor executor : this) {
+            if (executor instanceof SingleThreadEventExecutor
+                    && ((SingleThreadEventExecutor) executor).pendingTasks() > 0)
+                numActive++;
+        }
+        return numActive;
+    }
+
+    @Override
+    public String toString() {
+        return "EventExecutorGroup{size=" + getSize() + ", active=" + getNumActiveExecutors() +
+                ", queueLength=" + getQueueLength() + "}";
+    }
+}
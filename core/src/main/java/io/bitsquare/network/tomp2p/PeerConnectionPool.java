@@ -0,0 +1,194 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FuturePeerConnection;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.peers.PeerAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the connections we opened for direct messages open for reuse. A trade sends a handful of messages to the
+ * same peer within a short time, often over a relay, so we save a TCP (and relay) handshake for most of them.
+ * Connections which were not used within the idle timeout get closed by TomP2P, we drop them from the pool a bit
+ * earlier so we never hand out a connection which is about to be closed. If the pool is full the least recently
+ * used connection gets closed. A max size of 0 disables the pool.
+ */
+public class PeerConnectionPool {
+    private static final Logger log = LoggerFactory.getLogger(PeerConnectionPool.class);
+
+    public static final String MAX_SIZE_KEY = "network.connectionPool.maxSize";
+    public static final String IDLE_TIMEOUT_KEY = "network.connectionPool.idleTimeout";
+
+    public static final int DEFAULT_MAX_SIZE = 50;
+    public static final int DEFAULT_IDLE_TIMEOUT = 30000;
+
+    // We stop using a connection that long before TomP2P closes it
+    private static final long IDLE_MARGIN = 2000;
+
+    private final int maxSize;
+    private final int idleTimeout;
+    // access ordered, the eldest entry is the least recently used connection
+    private final Map<PeerAddress, PooledConnection> connections = new LinkedHashMap<>(16, 0.75f, true);
+    private long numOpened;
+    private long numReused;
+    private long numClosed;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public PeerConnectionPool(@Named(MAX_SIZE_KEY) int maxSize, @Named(IDLE_TIMEOUT_KEY) int idleTimeout) {
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    // Returns a live connection to that peer or opens a new one
+    public FuturePeerConnection acquire(Peer peer, PeerAddress peerAddress) {
+        List<FuturePeerConnection> toClose = new ArrayList<>();
+        FuturePeerConnection futurePeerConnection;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            removeExpired(now, toClose);
+
+            PooledConnection pooledConnection = connections.get(peerAddress);
+            if (pooledConnection != null) {
+                numReused++;
+            }
+            else {
+                if (connections.size() >= maxSize) {
+                    Iterator<PooledConnection> iterator = connections.values().iterator();
+                    toClose.add(iterator.next().futurePeerConnection);
+                    iterator.remove();
+                }
+                pooledConnection = new PooledConnection(peer.createPeerConnection(peerAddress, idleTimeout));
+                connections.put(peerAddress, pooledConnection);
+                numOpened++;
+            }
+            pooledConnection.lastUsed = now;
+            futurePeerConnection = pooledConnection.futurePeerConnection;
+        }
+
+        toClose.stream().forEach(this::close);
+        return futurePeerConnection;
+    }
+
+    // Called if sending over that connection failed, the next message opens a new connection
+    public void invalidate(PeerAddress peerAddress, FuturePeerConnection futurePeerConnection) {
+        synchronized (this) {
+            PooledConnection pooledConnection = connections.get(peerAddress);
+            if (pooledConnection == null || pooledConnection.futurePeerConnection != futurePeerConnection)
+                return;
+            connections.remove(peerAddress);
+        }
+        log.debug("Connection to " + peerAddress + " invalidated");
+        close(futurePeerConnection);
+    }
+
+    public void closeAll() {
+        List<FuturePeerConnection> toClose = new ArrayList<>();
+        synchronized (this) {
+            connections.values().stream().forEach(e -> toClose.add(e.futurePeerConnection));
+            connections.clear();
+        }
+        toClose.stream().forEach(this::close);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Getters
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized int getSize() {
+        return connections.size();
+    }
+
+    // Number of connections we opened, each one costs a handshake
+    public synchronized long getNumOpened() {
+        return numOpened;
+    }
+
+    public synchronized long getNumReused() {
+        return numReused;
+    }
+
+    public synchronized long getNumClosed() {
+        return numClosed;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void removeExpired(long now, List<FuturePeerConnection> toClose) {
+        for (Iterator<PooledConnection> iterator = connections.values().iterator(); iterator.hasNext(); ) {
+            PooledConnection pooledConnection = iterator.next();
+            // access order: all following entries are used more recently
+            if (now - pooledConnection.lastUsed < idleTimeout - IDLE_MARGIN)
+                break;
+            toClose.add(pooledConnection.futurePeerConnection);
+            iterator.remove();
+        }
+    }
+
+    private void close(FuturePeerConnection futurePeerConnection) {
+        synchronized (this) {
+            numClosed++;
+        }
+        futurePeerConnection.addListener(new BaseFutureAdapter<FuturePeerConnection>() {
+            @Override
+            public void operationComplete(FuturePeerConnection future) throws Exception {
+                if (future.isSuccess() && future.object() != null)
+                    future.object().close();
+            }
+        });
+    }
+
+    private static class PooledConnection {
+        final FuturePeerConnection futurePeerConnection;
+        long lastUsed;
+
+        PooledConnection(FuturePeerConnection futurePeerConnection) {
+            this.futurePeerConnection = futurePeerConnection;
+        }
+    }
+}
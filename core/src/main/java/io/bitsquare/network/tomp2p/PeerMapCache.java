@@ -0,0 +1,208 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import io.bitsquare.persistence.Persistence;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Serializable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureListener;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the verified peers of our peer map on shut down and periodically, so after a restart we don't need to
+ * rebuild our routing table from the bootstrap node alone.
+ * At start the persisted peers get pinged. The ones which answer are added to the peer map and we bootstrap to them,
+ * the bootstrap node is only used if none of them is reachable.
+ */
+public class PeerMapCache {
+    private static final Logger log = LoggerFactory.getLogger(PeerMapCache.class);
+
+    private static final long SAVE_INTERVAL = 5 * 60 * 1000;
+    // More are not needed to fill our routing table
+    private static final int MAX_PEERS = 200;
+    // Peers we have not seen for that long are not probed anymore
+    private static final long MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+    private final Persistence persistence;
+    // The entries read at start, used for the statistics of the peers we see again
+    private final Map<Number160, Entry> persistedEntries = new HashMap<>();
+    private final Set<Number160> failedPeers = ConcurrentHashMap.newKeySet();
+    private final List<PeerAddress> livePeers = new CopyOnWriteArrayList<>();
+    private Peer peer;
+    private ScheduledExecutorService executor;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public PeerMapCache(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Pings the persisted peers (asynchronously) and starts the periodic saving
+    @SuppressWarnings("unchecked")
+    public synchronized void start(Peer peer) {
+        this.peer = peer;
+
+        Serializable persisted = persistence.read(this, "peers");
+        if (persisted instanceof List) {
+            long now = System.currentTimeMillis();
+            ((List<Entry>) persisted).stream()
+                    .filter(e -> now - e.getLastSeen() < MAX_AGE)
+                    .sorted(Comparator.comparingLong(Entry::getLastSeen).reversed())
+                    .limit(MAX_PEERS)
+                    .forEach(e -> persistedEntries.put(e.getPeerAddress().peerId(), e));
+            log.info("Probing " + persistedEntries.size() + " peers from the last session");
+            persistedEntries.values().stream().forEach(e -> probe(e.getPeerAddress()));
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("PeerMapCache").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(this::save, SAVE_INTERVAL, SAVE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            save();
+        }
+    }
+
+    // The verified peers of our peer map, completed with the peers of the last session which did not fail at start
+    public synchronized void save() {
+        if (peer == null)
+            return;
+
+        long now = System.currentTimeMillis();
+        Map<Number160, Entry> entries = new HashMap<>();
+        for (PeerAddress peerAddress : peer.peerBean().peerMap().all()) {
+            Entry persistedEntry = persistedEntries.get(peerAddress.peerId());
+            entries.put(peerAddress.peerId(), new Entry(peerAddress, now,
+                    persistedEntry != null ? persistedEntry.getNumSessions() + 1 : 1));
+        }
+        persistedEntries.values().stream()
+                .filter(e -> !entries.containsKey(e.getPeerAddress().peerId()))
+                .filter(e -> !failedPeers.contains(e.getPeerAddress().peerId()))
+                .forEach(e -> entries.put(e.getPeerAddress().peerId(), e));
+
+        List<Entry> result = entries.values().stream()
+                .sorted(Comparator.comparingLong(Entry::getLastSeen).reversed())
+                .limit(MAX_PEERS)
+                .collect(Collectors.toCollection(ArrayList::new));
+        persistence.write(this, "peers", result);
+        log.debug("Saved " + result.size() + " peers");
+    }
+
+    // The persisted peers which answered our ping so far
+    public List<PeerAddress> getLivePeers() {
+        return new ArrayList<>(livePeers);
+    }
+
+    public int getNumFailedPeers() {
+        return failedPeers.size();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void probe(PeerAddress peerAddress) {
+        BaseFuture futurePing = peer.ping().peerAddress(peerAddress).start();
+        futurePing.addListener(new BaseFutureListener<BaseFuture>() {
+            @Override
+            public void operationComplete(BaseFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    livePeers.add(peerAddress);
+                    peer.peerBean().peerMap().peerFound(peerAddress, null, null, null);
+                }
+                else {
+                    failedPeers.add(peerAddress.peerId());
+                }
+            }
+
+            @Override
+            public void exceptionCaught(Throwable t) throws Exception {
+                failedPeers.add(peerAddress.peerId());
+            }
+        });
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = -6264094773920541723L;
+
+        private final PeerAddress peerAddress;
+        private final long lastSeen;
+        // Number of sessions in which the peer was in our peer map
+        private final int numSessions;
+
+        public Entry(PeerAddress peerAddress, long lastSeen, int numSessions) {
+            this.peerAddress = peerAddress;
+            this.lastSeen = lastSeen;
+            this.numSessions = numSessions;
+        }
+
+        public PeerAddress getPeerAddress() {
+            return peerAddress;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        public int getNumSessions() {
+            return numSessions;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.network.tomp2p;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.dht.FuturePut;
+import net.tomp2p.dht.StorageLayer;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMapChangeListener;
+import net.tomp2p.peers.PeerStatistic;
+import net.tomp2p.storage.Data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores our own DHT entries (open offers, our address, our arbitrator) again from time to time. The peers
+ * responsible for an entry come and go, and when the last of them is gone the entry is lost, while we still think
+ * it is published.
+ * The interval follows the churn we see in our peer map: we republish by the time about a quarter of the peers got
+ * replaced, within 5 minutes and 1 hour, with some jitter so not all peers republish at the same moment.
+ * Entries with the same location key are put together in one request. Normally they are put only if absent, the
+ * peers which still have an entry refuse it, so we can count the missing replicas. Once a day we put them
+ * unconditionally to extend their TTL.
+ */
+public class RepublishScheduler implements PeerMapChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(RepublishScheduler.class);
+
+    static final long MIN_INTERVAL = 5 * 60 * 1000;
+    static final long MAX_INTERVAL = 60 * 60 * 1000;
+    private static final double CHURN_THRESHOLD = 0.25;
+    private static final double JITTER = 0.2;
+    private static final long FULL_REPUBLISH_INTERVAL = 24 * 60 * 60 * 1000;
+    private static final int MAX_BATCH_SIZE = 20;
+
+    public interface Source {
+        List<Entry> getEntries() throws IOException;
+    }
+
+    private final TomP2PNode tomP2PNode;
+    private final List<Source> sources = new CopyOnWriteArrayList<>();
+    private final Random random = new Random();
+    private ScheduledExecutorService executor;
+    private int numRemovedPeers;
+    private long lastRoundTime;
+    private long lastFullRepublishTime;
+    private long interval = MAX_INTERVAL;
+
+    private final AtomicLong numRounds = new AtomicLong();
+    private final AtomicLong numPuts = new AtomicLong();
+    private final AtomicLong numRepublishedEntries = new AtomicLong();
+    private final AtomicLong numCheckedReplicas = new AtomicLong();
+    private final AtomicLong numMissingReplicas = new AtomicLong();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    RepublishScheduler(TomP2PNode tomP2PNode) {
+        this.tomP2PNode = tomP2PNode;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void addSource(Source source) {
+        sources.add(source);
+    }
+
+    // Called when we are bootstrapped, the entries got just published so we start with the first interval
+    synchronized void start() {
+        if (executor != null)
+            return;
+
+        lastRoundTime = System.currentTimeMillis();
+        lastFullRepublishTime = lastRoundTime;
+        tomP2PNode.addPeerMapChangeListener(this);
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("RepublishScheduler").setDaemon(true).build());
+        scheduleNextRound(getJitteredInterval(MIN_INTERVAL, random.nextDouble()));
+    }
+
+    public synchronized void shutDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            tomP2PNode.removePeerMapChangeListener(this);
+        }
+    }
+
+    @Override
+    public synchronized void peerInserted(PeerAddress peerAddress, boolean verified) {
+    }
+
+    @Override
+    public synchronized void peerRemoved(PeerAddress peerAddress, PeerStatistic peerStatistic) {
+        numRemovedPeers++;
+    }
+
+    @Override
+    public void peerUpdated(PeerAddress peerAddress, PeerStatistic peerStatistic) {
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Statistics
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public long getNumRounds() {
+        return numRounds.get();
+    }
+
+    public long getNumPuts() {
+        return numPuts.get();
+    }
+
+    public long getNumRepublishedEntries() {
+        return numRepublishedEntries.get();
+    }
+
+    // Replicas we checked with a put if absent
+    public long getNumCheckedReplicas() {
+        return numCheckedReplicas.get();
+    }
+
+    // Replicas which were gone when we republished
+    public long getNumMissingReplicas() {
+        return numMissingReplicas.get();
+    }
+
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Package scope for testing
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // The time it takes until about a quarter of the peers got replaced, at the given churn
+    static long getInterval(int numRemovedPeers, int numPeers, long elapsed) {
+        if (numRemovedPeers == 0 || elapsed <= 0)
+            return MAX_INTERVAL;
+
+        double churnPerMillisecond = numRemovedPeers / (double) Math.max(numPeers, 1) / elapsed;
+        long interval = (long) (CHURN_THRESHOLD / churnPerMillisecond);
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    // random is between 0 and 1
+    static long getJitteredInterval(long interval, double random) {
+        return (long) (interval * (1 - JITTER + 2 * JITTER * random));
+    }
+
+    // By location key and content key, entries of all sources with the same location key get merged
+    static Map<Number160, Map<Number160, Data>> groupByLocationKey(List<Entry> entries) {
+        Map<Number160, Map<Number160, Data>> result = new HashMap<>();
+        for (Entry entry : entries)
+            result.computeIfAbsent(entry.getLocationKey(), k -> new HashMap<>()).put(entry.getContentKey(),
+                    entry.getData());
+        return result;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private synchronized void scheduleNextRound(long delay) {
+        if (executor != null)
+            executor.schedule(this::republish, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void republish() {
+        long now = System.currentTimeMillis();
+        boolean fullRepublish;
+        synchronized (this) {
+            interval = getInterval(numRemovedPeers, tomP2PNode.getPeerMapSize(), now - lastRoundTime);
+            numRemovedPeers = 0;
+            lastRoundTime = now;
+            fullRepublish = now - lastFullRepublishTime >= FULL_REPUBLISH_INTERVAL;
+            if (fullRepublish)
+                lastFullRepublishTime = now;
+        }
+
+        try {
+            List<Entry> entries = new ArrayList<>();
+            for (Source source : sources) {
+                try {
+                    entries.addAll(source.getEntries());
+                } catch (IOException e) {
+                    log.error("Cannot get entries to republish: " + e.getMessage());
+                }
+            }
+
+            int numRoundPuts = 0;
+            for (Map.Entry<Number160, Map<Number160, Data>> location : groupByLocationKey(entries).entrySet()) {
+                for (Map<Number160, Data> batch : split(location.getValue())) {
+                    FuturePut futurePut = tomP2PNode.putDataMap(location.getKey(), batch, !fullRepublish);
+                    futurePut.addListener(new BaseFutureAdapter<FuturePut>() {
+                        @Override
+                        public void operationComplete(FuturePut future) throws Exception {
+                            if (future.isSuccess() && !fullRepublish)
+                                countMissingReplicas(future.rawResult());
+                            else if (!future.isSuccess())
+                                log.warn("Republish failed: " + future.failedReason());
+                        }
+                    });
+                    numRoundPuts++;
+                }
+            }
+
+            numRounds.incrementAndGet();
+            numPuts.addAndGet(numRoundPuts);
+            numRepublishedEntries.addAndGet(entries.size());
+            log.debug("Republished " + entries.size() + " entries with " + numRoundPuts + " puts" +
+                    (fullRepublish ? " (full)" : "") + ", " + numMissingReplicas.get() + " of " +
+                    numCheckedReplicas.get() + " replicas were missing so far, next round in " + interval / 1000 +
+                    " s");
+        } catch (Throwable t) {
+            log.error("Republish failed: " + t.getMessage());
+        }
+
+        scheduleNextRound(getJitteredInterval(getInterval(), random.nextDouble()));
+    }
+
+    private List<Map<Number160, Data>> split(Map<Number160, Data> dataMap) {
+        List<Map<Number160, Data>> batches = new ArrayList<>();
+        Map<Number160, Data> batch = new HashMap<>();
+        for (Map.Entry<Number160, Data> entry : dataMap.entrySet()) {
+            if (batch.size() == MAX_BATCH_SIZE) {
+                batches.add(batch);
+                batch = new HashMap<>();
+            }
+            batch.put(entry.getKey(), entry.getValue());
+        }
+        if (!batch.isEmpty())
+            batches.add(batch);
+        return batches;
+    }
+
+    // A peer which still has the entry refuses the put if absent
+    private void countMissingReplicas(Map<PeerAddress, Map<Number640, Byte>> rawResult) {
+        if (rawResult == null)
+            return;
+
+        for (Map<Number640, Byte> results : rawResult.values()) {
+            if (results == null)
+                continue;
+
+            for (Byte status : results.values()) {
+                if (status == StorageLayer.PutStatus.OK.ordinal()) {
+                    numMissingReplicas.incrementAndGet();
+                    numCheckedReplicas.incrementAndGet();
+                }
+                else if (status == StorageLayer.PutStatus.FAILED_NOT_ABSENT.ordinal()) {
+                    numCheckedReplicas.incrementAndGet();
+                }
+            }
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public static class Entry {
+        private final Number160 locationKey;
+        private final Number160 contentKey;
+        private final Data data;
+
+        public Entry(Number160 locationKey, Number160 contentKey, Data data) {
+            this.locationKey = locationKey;
+            this.contentKey = contentKey;
+            this.data = data;
+        }
+
+        public Number160 getLocationKey() {
+            return locationKey;
+        }
+
+        public Number160 getContentKey() {
+            return contentKey;
+        }
+
+        public Data getData() {
+            return data;
+        }
+    }
+}
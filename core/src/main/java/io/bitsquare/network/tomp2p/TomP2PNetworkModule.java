@@ -56,14 +56,41 @@ public class TomP2PNetworkModule extends NetworkModule {
                         env.getProperty(BOOTSTRAP_NODE_PORT_KEY, int.class, BootstrapNodes.DEFAULT.getPort())
                 )
         );
+        bind(int.class).annotatedWith(Names.named(BootstrapNodes.INSTANCES_KEY)).toInstance(
+                env.getProperty(BootstrapNodes.INSTANCES_KEY, int.class, BootstrapNodes.DEFAULT_INSTANCES));
         bindConstant().annotatedWith(Names.named(NETWORK_INTERFACE_KEY)).to(env.getProperty(NETWORK_INTERFACE_KEY, NETWORK_INTERFACE_UNSPECIFIED));
+        bind(int.class).annotatedWith(Names.named(MonitoredEventExecutorGroup.SIZE_KEY)).toInstance(
+                env.getProperty(MonitoredEventExecutorGroup.SIZE_KEY, int.class,
+                        MonitoredEventExecutorGroup.AUTOMATIC_SIZE));
+        bind(BootstrapCache.class).in(Singleton.class);
+        bind(PeerMapCache.class).in(Singleton.class);
         bind(BootstrappedPeerBuilder.class).in(Singleton.class);
+
+        bind(int.class).annotatedWith(Names.named(PeerConnectionPool.MAX_SIZE_KEY)).toInstance(
+                env.getProperty(PeerConnectionPool.MAX_SIZE_KEY, int.class, PeerConnectionPool.DEFAULT_MAX_SIZE));
+        bind(int.class).annotatedWith(Names.named(PeerConnectionPool.IDLE_TIMEOUT_KEY)).toInstance(
+                env.getProperty(PeerConnectionPool.IDLE_TIMEOUT_KEY, int.class,
+                        PeerConnectionPool.DEFAULT_IDLE_TIMEOUT));
+        bind(PeerConnectionPool.class).in(Singleton.class);
+
+        bind(int.class).annotatedWith(Names.named(InboundMessageQueue.WORKERS_KEY)).toInstance(
+                env.getProperty(InboundMessageQueue.WORKERS_KEY, int.class, InboundMessageQueue.DEFAULT_WORKERS));
+        bind(int.class).annotatedWith(Names.named(InboundMessageQueue.QUEUE_CAPACITY_KEY)).toInstance(
+                env.getProperty(InboundMessageQueue.QUEUE_CAPACITY_KEY, int.class,
+                        InboundMessageQueue.DEFAULT_QUEUE_CAPACITY));
+        bind(int.class).annotatedWith(Names.named(InboundMessageQueue.MAX_MESSAGES_PER_SECOND_KEY)).toInstance(
+                env.getProperty(InboundMessageQueue.MAX_MESSAGES_PER_SECOND_KEY, int.class,
+                        InboundMessageQueue.DEFAULT_MAX_MESSAGES_PER_SECOND));
+        bind(InboundMessageQueue.class).in(Singleton.class);
     }
 
     @Override
     protected void doClose(Injector injector) {
         super.doClose(injector);
 
+        injector.getInstance(TomP2PNode.class).getRepublishScheduler().shutDown();
+        injector.getInstance(PeerConnectionPool.class).closeAll();
+        injector.getInstance(InboundMessageQueue.class).shutDown();
         injector.getInstance(BootstrappedPeerBuilder.class).shutDown();
     }
 }
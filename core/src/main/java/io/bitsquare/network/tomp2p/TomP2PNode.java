@@ -18,6 +18,7 @@
 package io.bitsquare.network.tomp2p;
 
 import io.bitsquare.BitsquareException;
+import io.bitsquare.common.metrics.LatencyStatistics;
 import io.bitsquare.network.BootstrapState;
 import io.bitsquare.network.ClientNode;
 import io.bitsquare.network.ConnectionType;
@@ -34,22 +35,31 @@ import java.io.IOException;
 import java.security.KeyPair;
 import java.security.PublicKey;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
 import javax.inject.Inject;
 
+import net.tomp2p.dht.FutureDigest;
 import net.tomp2p.dht.FutureGet;
 import net.tomp2p.dht.FuturePut;
 import net.tomp2p.dht.FutureRemove;
 import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.dht.PutBuilder;
 import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.BaseFutureListener;
 import net.tomp2p.futures.FutureDirect;
+import net.tomp2p.futures.FutureDiscover;
+import net.tomp2p.futures.FuturePeerConnection;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMapChangeListener;
 import net.tomp2p.storage.Data;
 import net.tomp2p.utils.Utils;
 
@@ -66,17 +76,29 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * The fully bootstrapped P2PNode which is responsible himself for his availability in the messaging system. It saves
- * for instance the IP address periodically.
+ * for instance the IP address again when it changed.
  * This class is offering generic functionality of TomP2P needed for Bitsquare, like data and domain protection.
  * It does not handle any domain aspects of Bitsquare.
  */
 public class TomP2PNode implements ClientNode {
     private static final Logger log = LoggerFactory.getLogger(TomP2PNode.class);
 
+    // Replies to a direct message
+    public static final Boolean MESSAGE_ACCEPTED = true;
+    public static final Boolean MESSAGE_REJECTED = false;
+
     private KeyPair keyPair;
     private PeerAddress storedPeerAddress;
     private PeerDHT peerDHT;
     private BootstrappedPeerBuilder bootstrappedPeerBuilder;
+    private final PeerConnectionPool connectionPool;
+    private final InboundMessageQueue inboundMessageQueue;
+    // Sends without the pool open a new connection each time
+    private final AtomicLong numUnpooledSends = new AtomicLong();
+    private final LatencyStatistics sendLatency = new LatencyStatistics();
+    private final LatencyStatistics republishLatency = new LatencyStatistics();
+    private AddressChangeDetector addressChangeDetector;
+    private final RepublishScheduler republishScheduler = new RepublishScheduler(this);
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -84,15 +106,23 @@ public class TomP2PNode implements ClientNode {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     @Inject
-    public TomP2PNode(BootstrappedPeerBuilder bootstrappedPeerBuilder) {
+    public TomP2PNode(BootstrappedPeerBuilder bootstrappedPeerBuilder, PeerConnectionPool connectionPool,
+                      InboundMessageQueue inboundMessageQueue) {
         this.bootstrappedPeerBuilder = bootstrappedPeerBuilder;
+        this.connectionPool = connectionPool;
+        this.inboundMessageQueue = inboundMessageQueue;
+        republishScheduler.addSource(this::getAddressEntries);
     }
 
-    // for unit testing
-    TomP2PNode(KeyPair keyPair, PeerDHT peerDHT) {
+    // for unit testing and the benchmark. The caller owns the inbound message queue and has to shut it down.
+    public TomP2PNode(KeyPair keyPair, PeerDHT peerDHT, PeerConnectionPool connectionPool,
+                      InboundMessageQueue inboundMessageQueue) {
         this.keyPair = keyPair;
         this.peerDHT = peerDHT;
+        this.connectionPool = connectionPool;
+        this.inboundMessageQueue = inboundMessageQueue;
         peerDHT.peerBean().keyPair(keyPair);
+        republishScheduler.addSource(this::getAddressEntries);
     }
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -118,13 +148,14 @@ public class TomP2PNode implements ClientNode {
             public void onSuccess(@Nullable PeerDHT peerDHT) {
                 if (peerDHT != null) {
                     TomP2PNode.this.peerDHT = peerDHT;
-                    setupTimerForIPCheck();
+                    startAddressChangeDetection();
                     setupReplyHandler(messageBroker);
                     try {
                         storeAddress();
                     } catch (NetworkException e) {
                         bootstrapStateSubject.onError(e);
                     }
+                    republishScheduler.start();
                     bootstrapStateSubject.onCompleted();
                 }
                 else {
@@ -143,6 +174,12 @@ public class TomP2PNode implements ClientNode {
         return bootstrapStateSubject.asObservable();
     }
 
+    // Used instead of bootstrap if the peerDHT passed at the constructor is already bootstrapped (benchmark)
+    public void startMessaging(MessageBroker messageBroker) throws NetworkException {
+        setupReplyHandler(messageBroker);
+        storeAddress();
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Generic DHT methods
@@ -176,39 +213,127 @@ public class TomP2PNode implements ClientNode {
     }
 
     public FutureRemove removeFromDataMap(Number160 locationKey, Data data) {
-        Number160 contentKey = data.hash();
+        return removeFromDataMap(locationKey, data.hash());
+    }
+
+    public FutureRemove removeFromDataMap(Number160 locationKey, Number160 contentKey) {
         log.trace("removeFromDataMap with contentKey " + contentKey.toString());
         return peerDHT.remove(locationKey).contentKey(contentKey).start();
     }
 
+    // Puts several entries with the same location key in one request. If ifAbsent is set, peers which already have
+    // an entry don't overwrite it and report FAILED_NOT_ABSENT.
+    public FuturePut putDataMap(Number160 locationKey, Map<Number160, Data> dataMap, boolean ifAbsent) {
+        log.trace("putDataMap with " + dataMap.size() + " entries");
+        PutBuilder putBuilder = peerDHT.put(locationKey).dataMapContent(dataMap);
+        if (ifAbsent)
+            putBuilder.putIfAbsent();
+        return putBuilder.start();
+    }
+
     public FutureGet getDataMap(Number160 locationKey) {
         log.trace("getDataMap");
         return peerDHT.get(locationKey).all().start();
     }
 
+    // Gets only the entries with the given content keys
+    public FutureGet getDataMap(Number160 locationKey, Collection<Number160> contentKeys) {
+        log.trace("getDataMap with " + contentKeys.size() + " content keys");
+        return peerDHT.get(locationKey).contentKeys(contentKeys).start();
+    }
+
+    // Gets the content keys and hashes of the entries, without their data
+    public FutureDigest getDigest(Number160 locationKey) {
+        log.trace("getDigest");
+        return peerDHT.digest(locationKey).all().start();
+    }
+
     public FutureDirect sendData(PeerAddress peerAddress, Object payLoad) {
         log.trace("sendData");
-        FutureDirect futureDirect = peerDHT.peer().sendDirect(peerAddress).object(payLoad).start();
+        long startTime = System.currentTimeMillis();
+        FuturePeerConnection futurePeerConnection;
+        FutureDirect futureDirect;
+        if (connectionPool.isEnabled()) {
+            futurePeerConnection = connectionPool.acquire(peerDHT.peer(), peerAddress);
+            futureDirect = peerDHT.peer().sendDirect(futurePeerConnection).object(payLoad).start();
+        }
+        else {
+            futurePeerConnection = null;
+            numUnpooledSends.incrementAndGet();
+            futureDirect = peerDHT.peer().sendDirect(peerAddress).object(payLoad).start();
+        }
         futureDirect.addListener(new BaseFutureListener<BaseFuture>() {
             @Override
             public void operationComplete(BaseFuture future) throws Exception {
                 if (future.isSuccess()) {
+                    sendLatency.record(System.currentTimeMillis() - startTime);
                     log.debug("sendMessage completed");
                 }
                 else {
                     log.error("sendData failed with Reason " + futureDirect.failedReason());
+                    if (futurePeerConnection != null)
+                        connectionPool.invalidate(peerAddress, futurePeerConnection);
                 }
             }
 
             @Override
             public void exceptionCaught(Throwable t) throws Exception {
                 log.error("Exception at sendData " + t.toString());
+                if (futurePeerConnection != null)
+                    connectionPool.invalidate(peerAddress, futurePeerConnection);
             }
         });
 
         return futureDirect;
     }
 
+    public PeerAddress getPeerAddress() {
+        return peerDHT.peerAddress();
+    }
+
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    // Number of connections opened for direct messages
+    public long getNumHandshakes() {
+        return connectionPool.getNumOpened() + numUnpooledSends.get();
+    }
+
+    public PeerConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public InboundMessageQueue getInboundMessageQueue() {
+        return inboundMessageQueue;
+    }
+
+    // Time from sendData until the peer acknowledged the message
+    public LatencyStatistics getSendLatency() {
+        return sendLatency;
+    }
+
+    public RepublishScheduler getRepublishScheduler() {
+        return republishScheduler;
+    }
+
+    void addPeerMapChangeListener(PeerMapChangeListener listener) {
+        peerDHT.peerBean().peerMap().addPeerMapChangeListener(listener);
+    }
+
+    void removePeerMapChangeListener(PeerMapChangeListener listener) {
+        peerDHT.peerBean().peerMap().removePeerMapChangeListener(listener);
+    }
+
+    int getPeerMapSize() {
+        return peerDHT != null ? peerDHT.peerBean().peerMap().all().size() : 0;
+    }
+
+    // Time from detecting an address change until our new address was stored in the DHT
+    public LatencyStatistics getRepublishLatency() {
+        return republishLatency;
+    }
+
 //
 //    public FuturePut putDomainProtectedData(Number160 locationKey, Data data) {
 //        log.trace("putDomainProtectedData");
@@ -290,40 +415,68 @@ public class TomP2PNode implements ClientNode {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     private void setupReplyHandler(MessageBroker messageBroker) {
+        if (messageBroker != null)
+            inboundMessageQueue.start(messageBroker);
+
         peerDHT.peer().objectDataReply((sender, request) -> {
             log.debug("handleMessage peerAddress " + sender);
             log.debug("handleMessage message " + request);
 
             if (!sender.equals(peerDHT.peer().peerAddress())) {
-                if (messageBroker != null)
-                    messageBroker.handleMessage(request, new TomP2PPeer(sender));
+                // If we can't take it we tell the sender, it will retry later
+                if (messageBroker != null && !inboundMessageQueue.add(request, sender, new TomP2PPeer(sender)))
+                    return MESSAGE_REJECTED;
             }
             else {
                 throw new RuntimeException("Received msg from myself. That must never happen.");
             }
 
-            return true;
+            return MESSAGE_ACCEPTED;
         });
     }
 
-    private void setupTimerForIPCheck() {
-        Timer timer = new Timer();
-        long checkIfIPChangedPeriod = 600 * 1000;
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (storedPeerAddress != null && peerDHT != null
-                        && !storedPeerAddress.equals(peerDHT.peerAddress()))
-                    try {
-                        storeAddress();
-                    } catch (NetworkException e) {
-                        e.printStackTrace();
-                    }
-            }
-        }, checkIfIPChangedPeriod, checkIfIPChangedPeriod);
+    private void startAddressChangeDetection() {
+        addressChangeDetector = new AddressChangeDetector(peerDHT::peerAddress,
+                BootstrapCache::getLocalNetworkFingerprint,
+                this::onAddressChanged);
+        addressChangeDetector.start(peerDHT.peer().connectionBean().timer());
+    }
+
+    private void onAddressChanged(boolean interfacesChanged, long detectionTime) {
+        PeerAddress bootstrapAddress = bootstrappedPeerBuilder != null ?
+                bootstrappedPeerBuilder.getBootstrapAddress() : null;
+        if (interfacesChanged && bootstrapAddress != null) {
+            // Our local address changed, so we let the bootstrap node tell us our new external address first
+            FutureDiscover futureDiscover = peerDHT.peer().discover().peerAddress(bootstrapAddress).start();
+            futureDiscover.addListener(new BaseFutureAdapter<FutureDiscover>() {
+                @Override
+                public void operationComplete(FutureDiscover future) throws Exception {
+                    if (!future.isSuccess())
+                        log.warn("Discovery after network change failed: " + future.failedReason());
+                    addressChangeDetector.setReportedPeerAddress(peerDHT.peerAddress());
+                    republishAddress(detectionTime);
+                }
+            });
+        }
+        else {
+            republishAddress(detectionTime);
+        }
+    }
+
+    private void republishAddress(long detectionTime) {
+        try {
+            storeAddress(detectionTime);
+        } catch (NetworkException e) {
+            log.error("Re-publishing our address failed: " + e.getMessage());
+        }
     }
 
     private void storeAddress() throws NetworkException {
+        storeAddress(0);
+    }
+
+    // The detectionTime of an address change, used for the re-publish latency, 0 for the initial store
+    private void storeAddress(long detectionTime) throws NetworkException {
         try {
             FuturePut futurePut = saveAddress();
             futurePut.addListener(new BaseFutureListener<BaseFuture>() {
@@ -332,6 +485,10 @@ public class TomP2PNode implements ClientNode {
                     if (future.isSuccess()) {
                         storedPeerAddress = peerDHT.peerAddress();
                         log.debug("storedPeerAddress = " + storedPeerAddress);
+                        if (detectionTime > 0) {
+                            republishLatency.record(System.currentTimeMillis() - detectionTime);
+                            log.info("Re-published our address. Latency: " + republishLatency);
+                        }
                     }
                     else {
                         log.error("storedPeerAddress not successful");
@@ -353,6 +510,17 @@ public class TomP2PNode implements ClientNode {
         }
     }
 
+    // Our address is stored without content key (see putDomainProtectedData)
+    private List<RepublishScheduler.Entry> getAddressEntries() throws IOException {
+        if (peerDHT == null || keyPair == null || storedPeerAddress == null)
+            return Collections.emptyList();
+
+        return Collections.singletonList(new RepublishScheduler.Entry(
+                Utils.makeSHAHash(keyPair.getPublic().getEncoded()),
+                Number160.ZERO,
+                new Data(new TomP2PPeer(peerDHT.peerAddress()))));
+    }
+
     private FuturePut saveAddress() throws IOException {
         Number160 locationKey = Utils.makeSHAHash(keyPair.getPublic().getEncoded());
         Data data = new Data(new TomP2PPeer(peerDHT.peerAddress()));
@@ -44,6 +44,22 @@ public class TomP2PPeer implements Peer, Serializable {
         return peerAddress;
     }
 
+    // Peers get created per incoming message, so we compare by address
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof TomP2PPeer))
+            return false;
+
+        return Objects.equal(peerAddress, ((TomP2PPeer) o).peerAddress);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(peerAddress);
+    }
+
     public String toString() {
         return Objects.toStringHelper(this)
                 .add("peerAddress", peerAddress)
@@ -21,11 +21,15 @@ import io.bitsquare.arbitration.Arbitrator;
 import io.bitsquare.btc.Restrictions;
 import io.bitsquare.fiat.FiatAccountType;
 import io.bitsquare.locale.Country;
+import io.bitsquare.locale.CountryUtil;
+import io.bitsquare.locale.LanguageUtil;
 
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.utils.ExchangeRate;
 import org.bitcoinj.utils.Fiat;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 import java.security.PublicKey;
@@ -34,6 +38,7 @@ import java.util.Currency;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.stream.Collectors;
 
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -43,8 +48,12 @@ import org.slf4j.LoggerFactory;
 
 import static com.google.common.base.Preconditions.*;
 
-//TODO flatten down?
-
+/**
+ * The serialized form is kept as it is, as offers are persisted and exchanged with peers running older versions.
+ * A received offer replaces its countries and languages with the shared instances of CountryUtil and LanguageUtil
+ * when it gets deserialized, so a big offer book does not hold a copy of those objects per offer. Received
+ * arbitrators get interned by the Arbitrator itself.
+ */
 public class Offer implements Serializable {
     private static final long serialVersionUID = -971164804305475826L;
     private transient static final Logger log = LoggerFactory.getLogger(Offer.class);
@@ -72,11 +81,11 @@ public class Offer implements Serializable {
     //TODO use hex string
     private final PublicKey messagePublicKey;
     private final FiatAccountType fiatAccountType;
-    private final Country bankAccountCountry;
+    private Country bankAccountCountry;
 
     private final Coin securityDeposit;
-    private final List<Country> acceptedCountries;
-    private final List<Locale> acceptedLanguageLocales;
+    private List<Country> acceptedCountries;
+    private List<Locale> acceptedLanguageLocales;
     private final String bankAccountUID;
     private final List<Arbitrator> arbitrators;
 
@@ -128,6 +137,19 @@ public class Offer implements Serializable {
     }
 
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (bankAccountCountry != null)
+            bankAccountCountry = CountryUtil.getSharedCountry(bankAccountCountry);
+        if (acceptedCountries != null)
+            acceptedCountries = acceptedCountries.stream().map(CountryUtil::getSharedCountry)
+                    .collect(Collectors.toList());
+        if (acceptedLanguageLocales != null)
+            acceptedLanguageLocales = acceptedLanguageLocales.stream()
+                    .map(LanguageUtil::getSharedLanguageLocale).collect(Collectors.toList());
+    }
+
+
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Setters
     ///////////////////////////////////////////////////////////////////////////////////////////
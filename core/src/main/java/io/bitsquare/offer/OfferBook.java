@@ -21,17 +21,26 @@ import io.bitsquare.fiat.FiatAccount;
 import io.bitsquare.gui.main.trade.offerbook.OfferBookListItem;
 import io.bitsquare.locale.Country;
 import io.bitsquare.locale.CurrencyUtil;
+import io.bitsquare.trade.OfferAvailabilityCache;
 import io.bitsquare.trade.TradeManager;
 import io.bitsquare.user.User;
 import io.bitsquare.util.Utilities;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import javafx.animation.AnimationTimer;
 import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
 import org.slf4j.Logger;
@@ -45,19 +54,31 @@ import static com.google.common.base.Preconditions.checkArgument;
  * As it is used only by the Buy and Sell UIs we treat it as local UI model.
  * It also use OfferRepository.Listener as the lists items class and we don't want to get any dependency out of the
  * package for that.
+ * <p>
+ * There is a book for every currency of the user's bank accounts and for the configured currencies, each with its
+ * own list and invalidation listener, all updated concurrently while the offer book is used. The list exposed to the
+ * UI shows the book of the currency of the current bank account, so switching the account does not need to wait
+ * for a fetch from the DHT.
  */
 public class OfferBook {
 
     private static final Logger log = LoggerFactory.getLogger(OfferBook.class);
     private static final int POLLING_INTERVAL = 1000;
 
+    public static final String CURRENCIES_KEY = "offer.book.currencies";
+    // Only the currencies of the bank accounts
+    public static final String DEFAULT_CURRENCIES = "";
+
     private final OfferBookService offerBookService;
     private final User user;
+    private final OfferAvailabilityCache offerAvailabilityCache;
+    private final Set<String> configuredFiatCodes;
 
     private final ObservableList<OfferBookListItem> offerBookListItems = FXCollections.observableArrayList();
+    private final Map<String, CurrencyBook> currencyBooks = new HashMap<>();
     private final OfferBookService.Listener offerBookServiceListener;
     private final ChangeListener<FiatAccount> bankAccountChangeListener;
-    private final ChangeListener<Number> invalidationListener;
+    private final ListChangeListener<FiatAccount> fiatAccountsChangeListener;
     private String fiatCode;
     private AnimationTimer pollingTimer;
     private Country country;
@@ -69,24 +90,46 @@ public class OfferBook {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     @Inject
-    OfferBook(OfferBookService offerBookService, User user, TradeManager tradeManager) {
+    OfferBook(OfferBookService offerBookService, User user, TradeManager tradeManager,
+              OfferAvailabilityCache offerAvailabilityCache, @Named(CURRENCIES_KEY) String currencies) {
         this.offerBookService = offerBookService;
         this.user = user;
+        this.offerAvailabilityCache = offerAvailabilityCache;
+        this.configuredFiatCodes = Arrays.stream(currencies.split(","))
+                .map(String::trim)
+                .filter(e -> !e.isEmpty())
+                .map(String::toUpperCase)
+                .collect(Collectors.toSet());
 
         bankAccountChangeListener = (observableValue, oldValue, newValue) -> setBankAccount(newValue);
-        invalidationListener = (ov, oldValue, newValue) -> requestGetOffers();
+        fiatAccountsChangeListener = change -> updateCurrencyBooks();
 
         offerBookServiceListener = new OfferBookService.Listener() {
             @Override
             public void onOfferAdded(Offer offer) {
-                addOfferToOfferBookListItems(offer);
+                CurrencyBook currencyBook = currencyBooks.get(offer.getCurrency().getCurrencyCode());
+                if (currencyBook != null)
+                    currencyBook.addOffer(offer);
             }
 
             @Override
             public void onOffersReceived(List<Offer> offers) {
-                //TODO use deltas instead replacing the whole list
-                offerBookListItems.clear();
-                offers.stream().forEach(e -> addOfferToOfferBookListItems(e));
+                // We only use the variant with the currency
+            }
+
+            @Override
+            public void onOffersReceived(String fiatCode, List<Offer> offers) {
+                CurrencyBook currencyBook = currencyBooks.get(fiatCode);
+                if (currencyBook != null)
+                    currencyBook.setOffers(offers);
+            }
+
+            @Override
+            public void onGetOffersFailed(String fiatCode) {
+                // We request them again at the next poll
+                CurrencyBook currencyBook = currencyBooks.get(fiatCode);
+                if (currencyBook != null)
+                    currencyBook.fetchFailed = true;
             }
 
             @Override
@@ -97,7 +140,9 @@ public class OfferBook {
                 // clean up possible references in tradeManager 
                 tradeManager.onOfferRemovedFromRemoteOfferBook(offer);
 
-                offerBookListItems.removeIf(item -> item.getOffer().getId().equals(offer.getId()));
+                CurrencyBook currencyBook = currencyBooks.get(offer.getCurrency().getCurrencyCode());
+                if (currencyBook != null)
+                    currencyBook.removeOffer(offer);
             }
         };
     }
@@ -125,10 +170,15 @@ public class OfferBook {
     // Getter
     ///////////////////////////////////////////////////////////////////////////////////////////
 
+    // The offers of the currency of the current bank account
     public ObservableList<OfferBookListItem> getOfferBookListItems() {
         return offerBookListItems;
     }
 
+    public Set<String> getFiatCodes() {
+        return new HashSet<>(currencyBooks.keySet());
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Private
@@ -140,36 +190,58 @@ public class OfferBook {
             country = fiatAccount.getCountry();
             fiatCode = fiatAccount.getCurrency().getCurrencyCode();
 
-            // TODO check why that was used (probably just for update triggering, if so refactor that)
-            //offerBookListItems.stream().forEach(e -> e.setBankAccountCountry(country));
+            // Items keep the country they were created with, so we update the ones of all books we hold
+            currencyBooks.values().stream().forEach(book -> book.items.stream()
+                    .forEach(item -> item.setBankAccountCountry(country)));
         }
         else {
             fiatCode = CurrencyUtil.getDefaultCurrency().getCurrencyCode();
         }
+
+        updateCurrencyBooks();
+        offerBookListItems.setAll(currencyBooks.get(fiatCode).items);
+    }
+
+    // Starts a book for every currency we want to watch which has none yet and stops the ones we don't need anymore
+    private void updateCurrencyBooks() {
+        Set<String> fiatCodes = new HashSet<>(configuredFiatCodes);
+        user.getFiatAccounts().stream().forEach(e -> fiatCodes.add(e.getCurrency().getCurrencyCode()));
+        fiatCodes.add(fiatCode);
+
+        currencyBooks.keySet().removeIf(code -> {
+            if (fiatCodes.contains(code))
+                return false;
+
+            currencyBooks.get(code).stop();
+            return true;
+        });
+        fiatCodes.stream()
+                .filter(code -> !currencyBooks.containsKey(code))
+                .forEach(code -> {
+                    CurrencyBook currencyBook = new CurrencyBook(code);
+                    currencyBooks.put(code, currencyBook);
+                    currencyBook.start();
+                });
     }
 
     private void addListeners() {
         log.debug("addListeners ");
         user.currentBankAccountProperty().addListener(bankAccountChangeListener);
+        user.getFiatAccounts().addListener(fiatAccountsChangeListener);
         offerBookService.addListener(offerBookServiceListener);
-        offerBookService.invalidationTimestampProperty().addListener(invalidationListener);
     }
 
     private void removeListeners() {
         log.debug("removeListeners ");
         user.currentBankAccountProperty().removeListener(bankAccountChangeListener);
+        user.getFiatAccounts().removeListener(fiatAccountsChangeListener);
         offerBookService.removeListener(offerBookServiceListener);
-        offerBookService.invalidationTimestampProperty().removeListener(invalidationListener);
     }
 
-    private void addOfferToOfferBookListItems(Offer offer) {
-        if (offer != null) {
-            offerBookListItems.add(new OfferBookListItem(offer, country));
-        }
-    }
-
-    private void requestGetOffers() {
-        offerBookService.getOffers(fiatCode);
+    private OfferBookListItem createOfferBookListItem(Offer offer) {
+        // Offers are re-created at each fetch from the DHT, so we apply the last known availability state
+        offerAvailabilityCache.applyTo(offer);
+        return new OfferBookListItem(offer, country);
     }
 
 
@@ -181,17 +253,77 @@ public class OfferBook {
     private void startPolling() {
         addListeners();
         setBankAccount(user.getCurrentBankAccount().get());
+        // The books of the last session still have their offers, so they can be shown until the fetch completed
+        currencyBooks.values().stream().forEach(CurrencyBook::start);
         pollingTimer = Utilities.setInterval(POLLING_INTERVAL, (animationTimer) -> {
-            offerBookService.requestInvalidationTimeStampFromDHT(fiatCode);
+            currencyBooks.keySet().stream().forEach(offerBookService::requestInvalidationTimeStampFromDHT);
+            currencyBooks.values().stream()
+                    .filter(e -> e.started && e.fetchFailed)
+                    .forEach(CurrencyBook::requestOffers);
             return null;
         });
-
-        offerBookService.getOffers(fiatCode);
     }
 
     private void stopPolling() {
         pollingTimer.stop();
         removeListeners();
+        currencyBooks.values().stream().forEach(CurrencyBook::stop);
     }
 
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // The offers of one currency. It fetches them again whenever the invalidation timestamp of its currency changes.
+    private class CurrencyBook {
+        private final String fiatCode;
+        private final ObservableList<OfferBookListItem> items = FXCollections.observableArrayList();
+        private final ChangeListener<Number> invalidationListener;
+        private boolean started;
+        private boolean fetchFailed;
+
+        CurrencyBook(String fiatCode) {
+            this.fiatCode = fiatCode;
+            invalidationListener = (ov, oldValue, newValue) -> requestOffers();
+
+            // The list of the UI follows the book of the current currency
+            items.addListener((ListChangeListener<OfferBookListItem>) change -> {
+                if (fiatCode.equals(OfferBook.this.fiatCode))
+                    offerBookListItems.setAll(items);
+            });
+        }
+
+        void start() {
+            if (started)
+                return;
+
+            started = true;
+            offerBookService.invalidationTimestampProperty(fiatCode).addListener(invalidationListener);
+            requestOffers();
+        }
+
+        void stop() {
+            started = false;
+            offerBookService.invalidationTimestampProperty(fiatCode).removeListener(invalidationListener);
+        }
+
+        void setOffers(List<Offer> offers) {
+            //TODO use deltas instead replacing the whole list
+            items.setAll(offers.stream().map(OfferBook.this::createOfferBookListItem).collect(Collectors.toList()));
+        }
+
+        void addOffer(Offer offer) {
+            items.add(createOfferBookListItem(offer));
+        }
+
+        void removeOffer(Offer offer) {
+            items.removeIf(item -> item.getOffer().getId().equals(offer.getId()));
+        }
+
+        private void requestOffers() {
+            fetchFailed = false;
+            offerBookService.getOffers(fiatCode);
+        }
+    }
 }
@@ -31,6 +31,8 @@ public interface OfferBookService {
 
     void getOffers(String fiatCode);
 
+    void getOffers(String fiatCode, Direction direction);
+
     void addOffer(Offer offer, ResultHandler resultHandler, FaultHandler faultHandler);
 
     void removeOffer(Offer offer, ResultHandler resultHandler, FaultHandler faultHandler);
@@ -39,7 +41,8 @@ public interface OfferBookService {
 
     void removeListener(Listener listener);
 
-    LongProperty invalidationTimestampProperty();
+    // Time of the last change of the offers of that currency
+    LongProperty invalidationTimestampProperty(String fiatCode);
 
     void requestInvalidationTimeStampFromDHT(String fiatCode);
 
@@ -48,6 +51,16 @@ public interface OfferBookService {
 
         void onOffersReceived(List<Offer> offers);
 
+        // With the currency the offers got requested for, so a listener watching several currencies knows which
+        // one an (also empty) result belongs to
+        default void onOffersReceived(String fiatCode, List<Offer> offers) {
+            onOffersReceived(offers);
+        }
+
         void onOfferRemoved(Offer offer);
+
+        // The offers of that currency could not be fetched completely, the last received ones are still the latest
+        default void onGetOffersFailed(String fiatCode) {
+        }
     }
 }
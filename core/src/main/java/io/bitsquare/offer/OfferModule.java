@@ -20,6 +20,7 @@ package io.bitsquare.offer;
 import io.bitsquare.BitsquareModule;
 
 import com.google.inject.Singleton;
+import com.google.inject.name.Names;
 
 import org.springframework.core.env.Environment;
 
@@ -33,6 +34,8 @@ public abstract class OfferModule extends BitsquareModule {
     protected void configure() {
         bind(OfferBook.class).in(Singleton.class);
         bind(OfferBook.class).in(Singleton.class);
+        bind(String.class).annotatedWith(Names.named(OfferBook.CURRENCIES_KEY)).toInstance(
+                env.getProperty(OfferBook.CURRENCIES_KEY, OfferBook.DEFAULT_CURRENCIES));
 
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.offer.Direction;
+import io.bitsquare.offer.Offer;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.tomp2p.peers.Number160;
+
+/**
+ * Maps offers to the location keys they are stored under in the DHT. Offers are stored by currency and direction,
+ * so a reader only fetches the side of the market it needs. With more than 1 shard the offers of a market are spread
+ * by their id over several location keys, so a popular currency does not put all the load on the same peers.
+ * Readers have to query all shards of a market and merge the results.
+ */
+public class OfferIndex {
+
+    public static final String SHARDS_KEY = "offer.index.shards";
+    public static final int DEFAULT_SHARDS = 1;
+
+    private final int numShards;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public OfferIndex(int numShards) {
+        if (numShards < 1)
+            throw new IllegalArgumentException("At least 1 shard is needed");
+
+        this.numShards = numShards;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public Number160 getLocationKey(Offer offer) {
+        return getLocationKey(offer.getCurrency().getCurrencyCode(), offer.getDirection(), getShard(offer.getId()));
+    }
+
+    // The location keys of all shards of one side of a market
+    public List<Number160> getLocationKeys(String currencyCode, Direction direction) {
+        List<Number160> locationKeys = new ArrayList<>();
+        for (int shard = 0; shard < numShards; shard++)
+            locationKeys.add(getLocationKey(currencyCode, direction, shard));
+        return locationKeys;
+    }
+
+    // The location keys of all shards of both sides of a market
+    public List<Number160> getLocationKeys(String currencyCode) {
+        List<Number160> locationKeys = new ArrayList<>();
+        for (Direction direction : Direction.values())
+            locationKeys.addAll(getLocationKeys(currencyCode, direction));
+        return locationKeys;
+    }
+
+    public int getShard(String offerId) {
+        return Hashing.consistentHash(Hashing.sha256().hashString(offerId, StandardCharsets.UTF_8), numShards);
+    }
+
+    public int getNumShards() {
+        return numShards;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private Number160 getLocationKey(String currencyCode, Direction direction, int shard) {
+        return Number160.createHash(currencyCode + "/" + direction + "/" + shard);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.offer.Offer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.Data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Deserializes and verifies the offers received from the DHT in parallel on its own fork-join pool, so neither the
+ * network threads nor the UI thread do that work. Invalid offers get dropped.
+ * The result is cached by the content hash of the stored data, so an offer gets deserialized and verified only once
+ * per session and later fetches return the same offer object.
+ */
+public class OfferVerifier {
+    private static final Logger log = LoggerFactory.getLogger(OfferVerifier.class);
+
+    public static final String PARALLELISM_KEY = "offer.verification.parallelism";
+    // 0 uses one thread per processor
+    public static final int DEFAULT_PARALLELISM = 0;
+
+    private static final int MAX_CACHED_RESULTS = 50000;
+    private static final Pattern TX_ID_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private final ForkJoinPool pool;
+    // Empty if the offer was rejected
+    private final Cache<Number160, Optional<Offer>> results =
+            CacheBuilder.newBuilder().maximumSize(MAX_CACHED_RESULTS).build();
+    private final AtomicLong numVerified = new AtomicLong();
+    private final AtomicLong numRejected = new AtomicLong();
+    private final AtomicLong numCacheHits = new AtomicLong();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public OfferVerifier(@Named(PARALLELISM_KEY) int parallelism) {
+        pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    public void shutDown() {
+        pool.shutdownNow();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Completes on a thread of the pool with the valid offers, in no particular order
+    public CompletableFuture<List<Offer>> verify(Collection<Data> offerData) {
+        List<Data> data = new ArrayList<>(offerData);
+        // A parallel stream started from a task of our pool runs on that pool
+        return CompletableFuture.supplyAsync(() -> data.parallelStream()
+                .map(this::getVerifiedOffer)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList()), pool);
+    }
+
+    // Throws if the offer is not valid. Offers carry no signature of their owner, so we cannot check here who published
+    // it. A forged offer can't do more than fail a take attempt, as the trade protocol verifies the offerers account
+    // and signatures.
+    public static void verify(Offer offer) throws Exception {
+        offer.validate();
+
+        checkNotNull(offer.getOfferFeePaymentTxID(), "OfferFeePaymentTxID is null");
+        checkArgument(TX_ID_PATTERN.matcher(offer.getOfferFeePaymentTxID()).matches(),
+                "OfferFeePaymentTxID is not a transaction id");
+        checkArgument(!offer.getArbitrators().isEmpty(), "No arbitrators");
+        checkArgument(!offer.getAcceptedCountries().isEmpty(), "No accepted countries");
+        checkArgument(!offer.getAcceptedLanguageLocales().isEmpty(), "No accepted languages");
+    }
+
+    public long getNumVerified() {
+        return numVerified.get();
+    }
+
+    public long getNumRejected() {
+        return numRejected.get();
+    }
+
+    public long getNumCacheHits() {
+        return numCacheHits.get();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private Optional<Offer> getVerifiedOffer(Data data) {
+        // We hash the data ourselves instead of trusting the content key it got stored with
+        Number160 contentHash = data.hash();
+        Optional<Offer> result = results.getIfPresent(contentHash);
+        if (result != null) {
+            numCacheHits.incrementAndGet();
+            return result;
+        }
+
+        result = deserializeAndVerify(data, contentHash);
+        results.put(contentHash, result);
+        return result;
+    }
+
+    private Optional<Offer> deserializeAndVerify(Data data, Number160 contentHash) {
+        numVerified.incrementAndGet();
+        try {
+            Object object = data.object();
+            if (!(object instanceof Offer))
+                throw new IllegalArgumentException("Data is not an offer: " + object);
+
+            Offer offer = (Offer) object;
+            verify(offer);
+            return Optional.of(offer);
+        } catch (Exception e) {
+            numRejected.incrementAndGet();
+            log.warn("Rejected offer with content hash " + contentHash + ": " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+}
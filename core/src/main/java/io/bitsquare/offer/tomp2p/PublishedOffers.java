@@ -0,0 +1,129 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.persistence.Persistence;
+
+import java.io.Serializable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import net.tomp2p.peers.Number160;
+
+/**
+ * The serialized form, content key and location key of our offers as they got stored in the DHT, by offer id.
+ * The offer is serialized once when it gets published. Removing and republishing use the stored data, so they
+ * don't depend on the offer serializing to the same bytes again (mutable and transient fields of the offer, or a
+ * changed number of offer index shards, would make a removal miss the stored offer).
+ */
+public class PublishedOffers {
+
+    private final Persistence persistence;
+    private Map<String, Entry> entries;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public PublishedOffers(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    // Without persistence the entries are only kept in memory, used by tests and benchmarks
+    public PublishedOffers() {
+        this(null);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Returns null if we have not published that offer
+    public synchronized Entry get(String offerId) {
+        return getEntries().get(offerId);
+    }
+
+    public synchronized void put(String offerId, Entry entry) {
+        getEntries().put(offerId, entry);
+        persist();
+    }
+
+    public synchronized void remove(String offerId) {
+        if (getEntries().remove(offerId) != null)
+            persist();
+    }
+
+    public synchronized Map<String, Entry> getAll() {
+        return new HashMap<>(getEntries());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Entry> getEntries() {
+        if (entries == null) {
+            Object persisted = persistence != null ? persistence.read(this, "entries") : null;
+            entries = persisted instanceof Map ? (Map<String, Entry>) persisted : new HashMap<>();
+        }
+        return entries;
+    }
+
+    private void persist() {
+        if (persistence != null)
+            persistence.write(this, "entries", entries);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 2316405795367521847L;
+
+        private final Number160 locationKey;
+        private final Number160 contentKey;
+        private final byte[] bytes;
+
+        public Entry(Number160 locationKey, Number160 contentKey, byte[] bytes) {
+            this.locationKey = locationKey;
+            this.contentKey = contentKey;
+            this.bytes = bytes;
+        }
+
+        public Number160 getLocationKey() {
+            return locationKey;
+        }
+
+        public Number160 getContentKey() {
+            return contentKey;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -17,7 +17,9 @@
 
 package io.bitsquare.offer.tomp2p;
 
+import io.bitsquare.network.tomp2p.RepublishScheduler;
 import io.bitsquare.network.tomp2p.TomP2PNode;
+import io.bitsquare.offer.Direction;
 import io.bitsquare.offer.Offer;
 import io.bitsquare.offer.OfferBookService;
 import io.bitsquare.common.handlers.FaultHandler;
@@ -26,9 +28,14 @@ import io.bitsquare.common.handlers.ResultHandler;
 import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javafx.beans.property.LongProperty;
 import javafx.beans.property.SimpleLongProperty;
@@ -41,6 +48,7 @@ import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.BaseFutureListener;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.storage.Data;
 
 import org.slf4j.Logger;
@@ -50,14 +58,38 @@ public class TomP2POfferBookService implements OfferBookService {
 
     private static final Logger log = LoggerFactory.getLogger(TomP2POfferBookService.class);
 
+    // the offer is default 30 days valid
+    private static final int OFFER_TTL = 30 * 24 * 60 * 60;
+    private static final int MAX_GET_OFFERS_ATTEMPTS = 3;
+
     private final List<Listener> offerRepositoryListeners = new ArrayList<>();
-    private final LongProperty invalidationTimestamp = new SimpleLongProperty(0);
+    private final Map<String, LongProperty> invalidationTimestamps = new ConcurrentHashMap<>();
 
     private final TomP2PNode tomP2PNode;
+    private final OfferIndex offerIndex;
+    private final PublishedOffers publishedOffers;
+    private final OfferVerifier offerVerifier;
     private Executor executor;
 
     public TomP2POfferBookService(TomP2PNode tomP2PNode) {
+        this(tomP2PNode, new OfferIndex(OfferIndex.DEFAULT_SHARDS));
+    }
+
+    public TomP2POfferBookService(TomP2PNode tomP2PNode, OfferIndex offerIndex) {
+        this(tomP2PNode, offerIndex, new PublishedOffers());
+    }
+
+    // The verifier created here is not shut down, its pool only has daemon threads which end when they are idle
+    public TomP2POfferBookService(TomP2PNode tomP2PNode, OfferIndex offerIndex, PublishedOffers publishedOffers) {
+        this(tomP2PNode, offerIndex, publishedOffers, new OfferVerifier(OfferVerifier.DEFAULT_PARALLELISM));
+    }
+
+    public TomP2POfferBookService(TomP2PNode tomP2PNode, OfferIndex offerIndex, PublishedOffers publishedOffers,
+                                  OfferVerifier offerVerifier) {
         this.tomP2PNode = tomP2PNode;
+        this.offerIndex = offerIndex;
+        this.publishedOffers = publishedOffers;
+        this.offerVerifier = offerVerifier;
     }
 
     public void setExecutor(Executor executor) {
@@ -66,13 +98,14 @@ public class TomP2POfferBookService implements OfferBookService {
 
     @Override
     public void addOffer(Offer offer, ResultHandler resultHandler, FaultHandler faultHandler) {
-        Number160 locationKey = Number160.createHash(offer.getCurrency().getCurrencyCode());
+        Number160 locationKey = offerIndex.getLocationKey(offer);
         try {
+            // The offer gets serialized only here, removing and republishing use the stored bytes and keys
             final Data offerData = new Data(offer);
+            final PublishedOffers.Entry entry = new PublishedOffers.Entry(locationKey, offerData.hash(),
+                    offerData.toBytes());
 
-            // the offer is default 30 days valid
-            int defaultOfferTTL = 30 * 24 * 60 * 60;
-            offerData.ttlSeconds(defaultOfferTTL);
+            offerData.ttlSeconds(OFFER_TTL);
             log.trace("Add offer to DHT requested. Added data: [locationKey: " + locationKey +
                     ", hash: " + offerData.hash().toString() + "]");
             FuturePut futurePut = tomP2PNode.addProtectedData(locationKey, offerData);
@@ -80,6 +113,7 @@ public class TomP2POfferBookService implements OfferBookService {
                 @Override
                 public void operationComplete(BaseFuture future) throws Exception {
                     if (future.isSuccess()) {
+                        publishedOffers.put(offer.getId(), entry);
                         executor.execute(() -> {
                             resultHandler.handleResult();
                             offerRepositoryListeners.stream().forEach(listener -> {
@@ -113,12 +147,26 @@ public class TomP2POfferBookService implements OfferBookService {
     }
 
     public void removeOffer(Offer offer, ResultHandler resultHandler, FaultHandler faultHandler) {
-        Number160 locationKey = Number160.createHash(offer.getCurrency().getCurrencyCode());
+        PublishedOffers.Entry entry = publishedOffers.get(offer.getId());
         try {
-            final Data offerData = new Data(offer);
+            final Number160 locationKey;
+            final Number160 contentKey;
+            final Data offerData;
+            if (entry != null) {
+                locationKey = entry.getLocationKey();
+                contentKey = entry.getContentKey();
+                offerData = new Data(entry.getBytes());
+            }
+            else {
+                // Not published by us or published before we stored the entries, so we can only hope that the
+                // offer serializes to the same bytes again
+                locationKey = offerIndex.getLocationKey(offer);
+                offerData = new Data(offer);
+                contentKey = offerData.hash();
+            }
             log.trace("Remove offer from DHT requested. Removed data: [locationKey: " + locationKey +
-                    ", hash: " + offerData.hash().toString() + "]");
-            FutureRemove futureRemove = tomP2PNode.removeFromDataMap(locationKey, offerData);
+                    ", hash: " + contentKey + "]");
+            FutureRemove futureRemove = tomP2PNode.removeFromDataMap(locationKey, contentKey);
             futureRemove.addListener(new BaseFutureListener<BaseFuture>() {
                 @Override
                 public void operationComplete(BaseFuture future) throws Exception {
@@ -126,6 +174,7 @@ public class TomP2POfferBookService implements OfferBookService {
                     // it might change in future to something like foundAndRemoved and notFound
                     // See discussion at: https://github.com/tomp2p/TomP2P/issues/57#issuecomment-62069840
                     log.trace("isRemoved? " + futureRemove.isRemoved());
+                    publishedOffers.remove(offer.getId());
                     executor.execute(() -> {
                         resultHandler.handleResult();
                         offerRepositoryListeners.stream().forEach(listener -> {
@@ -160,47 +209,104 @@ public class TomP2POfferBookService implements OfferBookService {
         }
     }
 
+    // Our published offers, for the RepublishScheduler
+    public List<RepublishScheduler.Entry> getRepublishEntries() {
+        List<RepublishScheduler.Entry> entries = new ArrayList<>();
+        for (PublishedOffers.Entry entry : publishedOffers.getAll().values()) {
+            Data offerData = new Data(entry.getBytes());
+            offerData.ttlSeconds(OFFER_TTL);
+            entries.add(new RepublishScheduler.Entry(entry.getLocationKey(), entry.getContentKey(), offerData));
+        }
+        return entries;
+    }
+
     public void getOffers(String currencyCode) {
-        Number160 locationKey = Number160.createHash(currencyCode);
-        log.trace("Get offers from DHT requested for locationKey: " + locationKey);
-        FutureGet futureGet = tomP2PNode.getDataMap(locationKey);
-        futureGet.addListener(new BaseFutureAdapter<BaseFuture>() {
-            @Override
-            public void operationComplete(BaseFuture future) throws Exception {
-                if (future.isSuccess()) {
-                    final Map<Number640, Data> dataMap = futureGet.dataMap();
-                    final List<Offer> offers = new ArrayList<>();
-                    if (dataMap != null) {
-                        for (Data offerData : dataMap.values()) {
-                            try {
-                                Object offerDataObject = offerData.object();
-                                if (offerDataObject instanceof Offer) {
-                                    offers.add((Offer) offerDataObject);
-                                }
-                            } catch (ClassNotFoundException | IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
+        getOffers(currencyCode, offerIndex.getLocationKeys(currencyCode));
+    }
 
-                        executor.execute(() -> offerRepositoryListeners.stream().forEach(listener ->
-                                listener.onOffersReceived(offers)));
-                    }
+    @Override
+    public void getOffers(String currencyCode, Direction direction) {
+        getOffers(currencyCode, offerIndex.getLocationKeys(currencyCode, direction));
+    }
 
-                    log.trace("Get offers from DHT was successful. Stored data: [key: " + locationKey
-                            + ", values: " + futureGet.dataMap() + "]");
-                }
-                else {
+    private void getOffers(String currencyCode, List<Number160> locationKeys) {
+        getOffers(currencyCode, locationKeys, new ConcurrentHashMap<>(), 1);
+    }
+
+    // Queries all location keys in parallel. When all queries are completed the received offers get verified and
+    // the valid ones delivered. Failed queries are repeated up to MAX_GET_OFFERS_ATTEMPTS times, keeping what the
+    // others delivered. If a query still fails we don't deliver anything, as a partial list would replace the
+    // complete one of the listeners, but report the failure to them.
+    private void getOffers(String currencyCode, List<Number160> locationKeys, Map<Number640, Data> offerDataMap,
+                           int attempt) {
+        log.trace("Get offers from DHT requested for locationKeys: " + locationKeys);
+        final AtomicInteger pendingQueries = new AtomicInteger(locationKeys.size());
+        final List<Number160> failedLocationKeys = new CopyOnWriteArrayList<>();
+        for (Number160 locationKey : locationKeys) {
+            FutureGet futureGet = tomP2PNode.getDataMap(locationKey);
+            futureGet.addListener(new BaseFutureAdapter<BaseFuture>() {
+                @Override
+                public void operationComplete(BaseFuture future) throws Exception {
                     final Map<Number640, Data> dataMap = futureGet.dataMap();
-                    if (dataMap == null || dataMap.size() == 0) {
+                    if (future.isSuccess()) {
+                        if (dataMap != null)
+                            offerDataMap.putAll(dataMap);
+
+                        log.trace("Get offers from DHT was successful. Stored data: [key: " + locationKey
+                                + ", values: " + dataMap + "]");
+                    }
+                    else if (isNothingStored(futureGet)) {
                         log.trace("Get offers from DHT delivered empty dataMap.");
-                        executor.execute(() -> offerRepositoryListeners.stream().forEach(listener ->
-                                listener.onOffersReceived(new ArrayList<>())));
                     }
                     else {
                         log.error("Get offers from DHT  was not successful with reason:" + future.failedReason());
+                        failedLocationKeys.add(locationKey);
                     }
+
+                    if (pendingQueries.decrementAndGet() == 0)
+                        onQueriesCompleted(currencyCode, new ArrayList<>(failedLocationKeys), offerDataMap, attempt);
                 }
+            });
+        }
+    }
+
+    // A get without any data fails as well. If peers responded there is just nothing stored at that location,
+    // otherwise no peer was reachable or the get timed out.
+    private static boolean isNothingStored(FutureGet futureGet) {
+        Map<PeerAddress, Map<Number640, Data>> rawData = futureGet.rawData();
+        return (futureGet.dataMap() == null || futureGet.dataMap().isEmpty()) && rawData != null && !rawData.isEmpty();
+    }
+
+    private void onQueriesCompleted(String currencyCode, List<Number160> failedLocationKeys,
+                                    Map<Number640, Data> offerDataMap, int attempt) {
+        if (failedLocationKeys.isEmpty()) {
+            verifyAndDeliverOffers(currencyCode, offerDataMap.values());
+        }
+        else if (attempt < MAX_GET_OFFERS_ATTEMPTS) {
+            log.warn("Get offers failed for " + failedLocationKeys.size() + " location keys, we try again.");
+            getOffers(currencyCode, failedLocationKeys, offerDataMap, attempt + 1);
+        }
+        else {
+            log.error("Get offers failed for " + failedLocationKeys.size() + " location keys after " + attempt +
+                    " attempts.");
+            executor.execute(() -> offerRepositoryListeners.stream().forEach(listener ->
+                    listener.onGetOffersFailed(currencyCode)));
+        }
+    }
+
+    private void verifyAndDeliverOffers(String currencyCode, Collection<Data> offerData) {
+        offerVerifier.verify(offerData).whenComplete((offers, throwable) -> {
+            if (throwable != null) {
+                log.error("Verification of offers failed: " + throwable.getMessage());
+                return;
             }
+
+            // The same offer might be stored with different content keys, e.g. after its offer fee tx id was set
+            final Map<String, Offer> offersById = new HashMap<>();
+            offers.stream().forEach(e -> offersById.put(e.getId(), e));
+            final List<Offer> result = new ArrayList<>(offersById.values());
+            executor.execute(() -> offerRepositoryListeners.stream().forEach(listener ->
+                    listener.onOffersReceived(currencyCode, result)));
         });
     }
 
@@ -225,6 +331,7 @@ public class TomP2POfferBookService implements OfferBookService {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     private void writeInvalidationTimestampToDHT(String currencyCode) {
+        LongProperty invalidationTimestamp = invalidationTimestampProperty(currencyCode);
         invalidationTimestamp.set(System.currentTimeMillis());
         try {
             FuturePut putFuture = tomP2PNode.putData(getInvalidatedLocationKey(currencyCode),
@@ -249,8 +356,8 @@ public class TomP2POfferBookService implements OfferBookService {
         }
     }
 
-    public LongProperty invalidationTimestampProperty() {
-        return invalidationTimestamp;
+    public LongProperty invalidationTimestampProperty(String currencyCode) {
+        return invalidationTimestamps.computeIfAbsent(currencyCode, k -> new SimpleLongProperty(0));
     }
 
     public void requestInvalidationTimeStampFromDHT(String currencyCode) {
@@ -265,7 +372,7 @@ public class TomP2POfferBookService implements OfferBookService {
                         executor.execute(() -> {
                             Long timeStamp = (Long) object;
                             //log.trace("Get invalidationTimestamp from DHT was successful. TimeStamp=" + timeStamp);
-                            invalidationTimestamp.set(timeStamp);
+                            invalidationTimestampProperty(currencyCode).set(timeStamp);
                         });
                     }
                     else if (data != null) {
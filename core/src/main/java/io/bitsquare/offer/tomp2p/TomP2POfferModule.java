@@ -21,10 +21,13 @@ import io.bitsquare.network.tomp2p.TomP2PNode;
 import io.bitsquare.offer.OfferBookService;
 import io.bitsquare.offer.OfferModule;
 
+import com.google.inject.Injector;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import com.google.inject.name.Names;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import javafx.application.Platform;
 
@@ -39,17 +42,34 @@ public class TomP2POfferModule extends OfferModule {
     @Override
     protected void configure() {
         super.configure();
+        bind(int.class).annotatedWith(Names.named(OfferIndex.SHARDS_KEY)).toInstance(
+                env.getProperty(OfferIndex.SHARDS_KEY, int.class, OfferIndex.DEFAULT_SHARDS));
+        bind(int.class).annotatedWith(Names.named(OfferVerifier.PARALLELISM_KEY)).toInstance(
+                env.getProperty(OfferVerifier.PARALLELISM_KEY, int.class, OfferVerifier.DEFAULT_PARALLELISM));
+        bind(PublishedOffers.class).in(Singleton.class);
+        bind(OfferVerifier.class).in(Singleton.class);
         bind(OfferBookService.class).toProvider(OfferBookServiceProvider.class).in(Singleton.class);
     }
+
+    @Override
+    protected void doClose(Injector injector) {
+        super.doClose(injector);
+
+        injector.getInstance(OfferVerifier.class).shutDown();
+    }
 }
 
 class OfferBookServiceProvider implements Provider<OfferBookService> {
     private final OfferBookService offerBookService;
 
     @Inject
-    public OfferBookServiceProvider(TomP2PNode tomP2PNode) {
-        offerBookService = new TomP2POfferBookService(tomP2PNode);
-        offerBookService.setExecutor(Platform::runLater);
+    public OfferBookServiceProvider(TomP2PNode tomP2PNode, @Named(OfferIndex.SHARDS_KEY) int numOfferIndexShards,
+                                    PublishedOffers publishedOffers, OfferVerifier offerVerifier) {
+        TomP2POfferBookService tomP2POfferBookService = new TomP2POfferBookService(tomP2PNode,
+                new OfferIndex(numOfferIndexShards), publishedOffers, offerVerifier);
+        tomP2POfferBookService.setExecutor(Platform::runLater);
+        tomP2PNode.getRepublishScheduler().addSource(tomP2POfferBookService::getRepublishEntries);
+        offerBookService = tomP2POfferBookService;
     }
 
     public OfferBookService get() {
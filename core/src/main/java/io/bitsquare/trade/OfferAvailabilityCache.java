@@ -0,0 +1,126 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade;
+
+import io.bitsquare.offer.Offer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the results of recent offer availability checks, so that we don't need to ask the offerer again if we got a
+ * fresh answer a short while ago. Positive (AVAILABLE) and negative (RESERVED, OFFERER_OFFLINE,...) results have
+ * separate TTLs as a negative result is usually more stable than a positive one.
+ */
+public class OfferAvailabilityCache {
+    private static final Logger log = LoggerFactory.getLogger(OfferAvailabilityCache.class);
+
+    public static final String AVAILABLE_TTL_KEY = "offer.availability.ttl.available";
+    public static final String NOT_AVAILABLE_TTL_KEY = "offer.availability.ttl.notAvailable";
+    public static final long DEFAULT_AVAILABLE_TTL = 10 * 1000;
+    public static final long DEFAULT_NOT_AVAILABLE_TTL = 30 * 1000;
+
+    private final long availableTtl;
+    private final long notAvailableTtl;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public OfferAvailabilityCache(@Named(AVAILABLE_TTL_KEY) long availableTtl,
+                                  @Named(NOT_AVAILABLE_TTL_KEY) long notAvailableTtl) {
+        this.availableTtl = availableTtl;
+        this.notAvailableTtl = notAvailableTtl;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void put(String offerId, Offer.State state) {
+        // Only final results of a check are of interest
+        if (state != Offer.State.UNKNOWN && state != Offer.State.FAULT)
+            entries.put(offerId, new Entry(state, System.currentTimeMillis()));
+        else
+            entries.remove(offerId);
+    }
+
+    // Returns null if we don't have a result or the result is expired
+    public Offer.State get(String offerId) {
+        Entry entry = entries.get(offerId);
+        if (entry != null) {
+            if (!isExpired(entry))
+                return entry.state;
+
+            entries.remove(offerId);
+        }
+        return null;
+    }
+
+    public boolean contains(String offerId) {
+        return get(offerId) != null;
+    }
+
+    // Applies a cached result to the offer. Returns true if the cache had a result.
+    public boolean applyTo(Offer offer) {
+        Offer.State state = get(offer.getId());
+        if (state != null && offer.getState() != Offer.State.REMOVED) {
+            offer.setState(state);
+            return true;
+        }
+        return false;
+    }
+
+    public void invalidate(String offerId) {
+        entries.remove(offerId);
+    }
+
+    public void purgeExpired() {
+        entries.values().removeIf(this::isExpired);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private boolean isExpired(Entry entry) {
+        long ttl = entry.state == Offer.State.AVAILABLE ? availableTtl : notAvailableTtl;
+        return System.currentTimeMillis() - entry.timeStamp > ttl;
+    }
+
+    private static class Entry {
+        final Offer.State state;
+        final long timeStamp;
+
+        Entry(Offer.State state, long timeStamp) {
+            this.state = state;
+            this.timeStamp = timeStamp;
+        }
+    }
+}
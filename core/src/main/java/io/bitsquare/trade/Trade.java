@@ -27,6 +27,8 @@ import java.io.Serializable;
 
 import java.util.Date;
 
+import javax.annotation.Nullable;
+
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 
@@ -73,6 +75,8 @@ public class Trade implements Serializable {
 
     private Coin tradeAmount;
     private State state;
+    // Only set if the TradeLatencyMonitor is enabled
+    private TradeTimeline timeline;
 
     // For changing values we use properties to get binding support in the UI (table)
     // When serialized those transient properties are not instantiated, so we instantiate them in the getters at first
@@ -141,6 +145,10 @@ public class Trade implements Serializable {
         stateProperty().set(state);
     }
 
+    public void setTimeline(TradeTimeline timeline) {
+        this.timeline = timeline;
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Getters
@@ -190,6 +198,11 @@ public class Trade implements Serializable {
         return date;
     }
 
+    @Nullable
+    public TradeTimeline getTimeline() {
+        return timeline;
+    }
+
     // When serialized those transient properties are not instantiated, so we need to instantiate them at first access
     public ObjectProperty<Coin> tradeAmountProperty() {
         if (_tradeAmount == null)
@@ -0,0 +1,270 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade;
+
+import io.bitsquare.common.metrics.LatencyStatistics;
+import io.bitsquare.network.Message;
+import io.bitsquare.network.Peer;
+import io.bitsquare.persistence.Persistence;
+import io.bitsquare.trade.protocol.trade.messages.TradeMessage;
+import io.bitsquare.util.Utilities;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records a timeline for every trade (state changes, trade messages and protocol tasks) and aggregates the durations
+ * per state transition, message type and task, so we can see where trades stall.
+ * The statistics are logged whenever a trade is closed. The timelines of the open trades and the statistics are
+ * exported as JSON files to the EXPORT_DIR_NAME folder in the data directory every EXPORT_INTERVAL and at shutdown,
+ * so the timeline of a trade which stalls can be inspected while it is still open. A closed trade gets its final
+ * timeline exported. If disabled nothing gets recorded and no listeners are registered, so the trade process does
+ * not pay anything for it.
+ */
+public class TradeLatencyMonitor {
+    private static final Logger log = LoggerFactory.getLogger(TradeLatencyMonitor.class);
+
+    public static final String ENABLED_KEY = "trade.latency.monitor";
+    public static final boolean DEFAULT_ENABLED = false;
+    public static final String EXPORT_DIR_NAME = "trade_latency";
+    public static final String STATISTICS_FILE_NAME = "statistics.json";
+
+    private static final long EXPORT_INTERVAL = 60 * 1000;
+
+    private final boolean enabled;
+    private final File exportDir;
+    private final Map<String, Trade> trades = new ConcurrentHashMap<>();
+    private final Map<String, LatencyStatistics> statistics = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public TradeLatencyMonitor(TradeMessageService tradeMessageService,
+                               @Named(Persistence.DIR_KEY) File dataDir,
+                               @Named(ENABLED_KEY) boolean enabled) {
+        this.enabled = enabled;
+        exportDir = new File(dataDir, EXPORT_DIR_NAME);
+
+        if (enabled) {
+            tradeMessageService.addMessageHandler(this::onMessageReceived);
+            tradeMessageService.addOutgoingMessageListener(this::onMessageSent);
+
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("TradeLatencyMonitor").setDaemon(true).build());
+            executor.scheduleWithFixedDelay(this::export, EXPORT_INTERVAL, EXPORT_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            export();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Starts recording the timeline of that trade. A persisted trade continues with its stored timeline.
+    public void track(Trade trade) {
+        if (!enabled || trades.containsKey(trade.getId()))
+            return;
+
+        TradeTimeline timeline = trade.getTimeline();
+        if (timeline == null) {
+            timeline = new TradeTimeline(trade.getId());
+            timeline.addStateChange(trade.getState());
+            trade.setTimeline(timeline);
+        }
+        timeline.setListener(this::onEvent);
+        trades.put(trade.getId(), trade);
+
+        trade.stateProperty().addListener((ov, oldValue, newValue) -> onStateChanged(trade, oldValue, newValue));
+    }
+
+    // Stops recording without publishing anything, used for trades which never started (offer got removed)
+    public void untrack(String tradeId) {
+        Trade trade = trades.remove(tradeId);
+        if (trade != null && trade.getTimeline() != null)
+            trade.getTimeline().setListener(null);
+    }
+
+    public void onTradeClosed(Trade trade) {
+        if (!enabled || trades.remove(trade.getId()) == null)
+            return;
+
+        TradeTimeline timeline = trade.getTimeline();
+        if (timeline != null) {
+            timeline.setListener(null);
+            String json = timeline.toJson();
+            log.info("Timeline of trade " + trade.getId() + ":\n" + json);
+            writeFile(trade.getId() + ".json", json);
+        }
+        logStatistics();
+    }
+
+    // Writes the timelines of the open trades and the statistics to the export dir
+    public void export() {
+        if (!enabled)
+            return;
+
+        trades.values().stream()
+                .filter(trade -> trade.getTimeline() != null)
+                .forEach(trade -> writeFile(trade.getId() + ".json", trade.getTimeline().toJson()));
+        writeFile(STATISTICS_FILE_NAME, getStatisticsAsJson());
+    }
+
+    public File getExportDir() {
+        return exportDir;
+    }
+
+    // Returns null if we don't have a timeline for that trade
+    public String getTimelineAsJson(String tradeId) {
+        Trade trade = trades.get(tradeId);
+        return trade != null && trade.getTimeline() != null ? trade.getTimeline().toJson() : null;
+    }
+
+    public Map<String, LatencyStatistics> getStatistics() {
+        return new TreeMap<>(statistics);
+    }
+
+    public String getStatisticsAsJson() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        getStatistics().forEach((key, value) -> {
+            long[] percentiles = value.getPercentiles(50, 90, 99);
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("count", value.getCount());
+            entry.put("mean", value.getMean());
+            entry.put("p50", percentiles[0]);
+            entry.put("p90", percentiles[1]);
+            entry.put("p99", percentiles[2]);
+            entry.put("max", value.getMax());
+            result.put(key, entry);
+        });
+        return Utilities.objectToJson(result);
+    }
+
+    public void logStatistics() {
+        StringBuilder sb = new StringBuilder("Trade latency statistics:");
+        getStatistics().forEach((key, value) -> sb.append("\n").append(key).append(": ").append(value));
+        log.info(sb.toString());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void onStateChanged(Trade trade, Trade.State oldValue, Trade.State newValue) {
+        TradeTimeline timeline = trade.getTimeline();
+        if (timeline == null || newValue == null)
+            return;
+
+        TradeTimeline.Event lastStateChange = timeline.getLastStateChange();
+        timeline.addStateChange(newValue);
+        if (lastStateChange != null && oldValue != null)
+            record("state " + oldValue + " -> " + newValue, System.currentTimeMillis() - lastStateChange.time);
+    }
+
+    private void onMessageReceived(Message message, Peer sender) {
+        TradeTimeline timeline = getTimeline(message);
+        if (timeline != null) {
+            // The trade object of an offerer exists as long as the offer is open, so we start the timeline when
+            // the first message of a taker arrives.
+            Trade trade = trades.get(timeline.getTradeId());
+            if (trade != null && trade.getState() == Trade.State.OPEN && timeline.getEvents().size() == 1) {
+                timeline.clear();
+                timeline.addStateChange(Trade.State.OPEN);
+            }
+            timeline.addMessage(TradeTimeline.Type.MESSAGE_RECEIVED, message.getClass().getSimpleName(), 0);
+        }
+    }
+
+    private void onMessageSent(Message message, Peer peer, long duration, boolean success) {
+        TradeTimeline timeline = getTimeline(message);
+        if (timeline != null)
+            timeline.addMessage(success ? TradeTimeline.Type.MESSAGE_SENT : TradeTimeline.Type.MESSAGE_SENDING_FAILED,
+                    message.getClass().getSimpleName(), duration);
+    }
+
+    private void onEvent(TradeTimeline.Event event) {
+        switch (event.type) {
+            case MESSAGE_SENT:
+                record("send " + event.name, event.duration);
+                break;
+            case TASK:
+                record("task " + event.name, event.duration);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void writeFile(String fileName, String content) {
+        try {
+            if (!exportDir.exists() && !exportDir.mkdirs())
+                throw new IOException("Cannot create " + exportDir);
+
+            Files.write(new File(exportDir, fileName).toPath(), content.getBytes(Charsets.UTF_8));
+        } catch (IOException e) {
+            log.warn("Exporting " + fileName + " failed: " + e.getMessage());
+        }
+    }
+
+    private TradeTimeline getTimeline(Message message) {
+        if (message instanceof TradeMessage) {
+            Trade trade = trades.get(((TradeMessage) message).tradeId);
+            if (trade != null)
+                return trade.getTimeline();
+        }
+        return null;
+    }
+
+    private void record(String key, long duration) {
+        statistics.computeIfAbsent(key, k -> new LatencyStatistics()).record(duration);
+    }
+}
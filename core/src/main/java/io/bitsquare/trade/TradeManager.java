@@ -17,10 +17,12 @@
 
 package io.bitsquare.trade;
 
+import io.bitsquare.arbitration.ArbitratorDirectory;
 import io.bitsquare.btc.BlockChainService;
 import io.bitsquare.btc.WalletService;
 import io.bitsquare.common.handlers.ErrorMessageHandler;
 import io.bitsquare.common.handlers.ResultHandler;
+import io.bitsquare.common.timeout.TimeoutService;
 import io.bitsquare.crypto.SignatureService;
 import io.bitsquare.fiat.FiatAccount;
 import io.bitsquare.network.Message;
@@ -38,18 +40,29 @@ import io.bitsquare.trade.protocol.availability.messages.ReportOfferAvailability
 import io.bitsquare.trade.protocol.availability.messages.RequestIsOfferAvailableMessage;
 import io.bitsquare.trade.protocol.placeoffer.PlaceOfferModel;
 import io.bitsquare.trade.protocol.placeoffer.PlaceOfferProtocol;
+import io.bitsquare.trade.protocol.trade.messages.TradeMessage;
 import io.bitsquare.trade.protocol.trade.offerer.BuyerAsOffererProtocol;
 import io.bitsquare.trade.protocol.trade.offerer.models.BuyerAsOffererModel;
 import io.bitsquare.trade.protocol.trade.taker.SellerAsTakerProtocol;
 import io.bitsquare.trade.protocol.trade.taker.models.SellerAsTakerModel;
 import io.bitsquare.user.AccountSettings;
 import io.bitsquare.user.User;
+import io.bitsquare.util.DSAKeyUtil;
+import io.bitsquare.util.Utilities;
 
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.utils.Fiat;
 
+import java.security.PublicKey;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -63,6 +76,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 public class TradeManager {
     private static final Logger log = LoggerFactory.getLogger(TradeManager.class);
+    private static final int MAX_CONCURRENT_AVAILABILITY_REFRESHES = 3;
+    // A failed check leaves no result in the cache, so we wait that long before we ask that offerer again
+    private static final long FAILED_AVAILABILITY_REFRESH_DELAY = 30 * 1000;
+    private static final int MAILBOX_POLL_INTERVAL = 60 * 1000;
 
     private final User user;
     private final AccountSettings accountSettings;
@@ -72,10 +89,17 @@ public class TradeManager {
     private final WalletService walletService;
     private final SignatureService signatureService;
     private final OfferBookService offerBookService;
+    private final OfferAvailabilityCache offerAvailabilityCache;
+    private final TimeoutService timeoutService;
+    private final TradeLatencyMonitor tradeLatencyMonitor;
+    private final ArbitratorDirectory arbitratorDirectory;
 
     private final Map<String, SellerAsTakerProtocol> sellerAsTakerProtocolMap = new HashMap<>();
     private final Map<String, BuyerAsOffererProtocol> buyerAcceptsOfferProtocolMap = new HashMap<>();
     private final Map<String, CheckOfferAvailabilityProtocol> checkOfferAvailabilityProtocolMap = new HashMap<>();
+    private final Set<String> availabilityRefreshes = new HashSet<>();
+    private final Queue<Offer> pendingAvailabilityRefreshes = new LinkedList<>();
+    private final Map<String, Long> failedAvailabilityRefreshes = new HashMap<>();
 
     private final ObservableMap<String, Offer> openOffers = FXCollections.observableHashMap();
     private final ObservableMap<String, Trade> pendingTrades = FXCollections.observableHashMap();
@@ -92,7 +116,9 @@ public class TradeManager {
     public TradeManager(User user, AccountSettings accountSettings, Persistence persistence,
                         TradeMessageService tradeMessageService, BlockChainService blockChainService,
                         WalletService walletService, SignatureService signatureService,
-                        OfferBookService offerBookService) {
+                        OfferBookService offerBookService, OfferAvailabilityCache offerAvailabilityCache,
+                        TimeoutService timeoutService, TradeLatencyMonitor tradeLatencyMonitor,
+                        ArbitratorDirectory arbitratorDirectory) {
         this.user = user;
         this.accountSettings = accountSettings;
         this.persistence = persistence;
@@ -101,6 +127,10 @@ public class TradeManager {
         this.walletService = walletService;
         this.signatureService = signatureService;
         this.offerBookService = offerBookService;
+        this.offerAvailabilityCache = offerAvailabilityCache;
+        this.timeoutService = timeoutService;
+        this.tradeLatencyMonitor = tradeLatencyMonitor;
+        this.arbitratorDirectory = arbitratorDirectory;
 
         Object openOffersObject = persistence.read(this, "openOffers");
         if (openOffersObject instanceof Map<?, ?>) {
@@ -125,13 +155,29 @@ public class TradeManager {
         for (Map.Entry<String, Offer> entry : openOffers.entrySet()) {
             createBuyerAcceptsOfferProtocol(entry.getValue());
         }
-        for (Map.Entry<String, Trade> entry : pendingTrades.entrySet()) {
-            Trade trade = entry.getValue();
-            if (trade.getState() == Trade.State.FAULT)
+        for (Trade trade : new ArrayList<>(pendingTrades.values())) {
+            if (trade.getState() == Trade.State.FAULT) {
                 closeTrade(trade);
-
-            createBuyerAcceptsOfferProtocol(trade.getOffer());
+            }
+            else if (isMyOffer(trade.getOffer())) {
+                if (!buyerAcceptsOfferProtocolMap.containsKey(trade.getId()))
+                    createBuyerAcceptsOfferProtocol(trade.getOffer());
+            }
+            else {
+                // New taker trades get tracked in createTrade, restored ones only here
+                tradeLatencyMonitor.track(trade);
+                // The offerers peer address was persisted with the model
+                createSellerAsTakerProtocol(trade, null);
+            }
         }
+
+        // Messages sent to us while we were offline. The protocols are set up now, so they can handle them.
+        // We keep polling as messages also end up in the mailbox when the offerer can't reach us while we are online.
+        getMailboxMessages();
+        Utilities.setInterval(MAILBOX_POLL_INTERVAL, (animationTimer) -> {
+            getMailboxMessages();
+            return null;
+        });
     }
 
 
@@ -140,15 +186,25 @@ public class TradeManager {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     public void checkOfferAvailability(Offer offer) {
+        // If we got a fresh result a short while ago we don't need to ask the offerer again
+        if (offerAvailabilityCache.applyTo(offer)) {
+            log.debug("Offer availability taken from cache: " + offer.getState());
+            return;
+        }
+
+        // A background refresh might be in progress, we replace it with our own request
+        if (availabilityRefreshes.contains(offer.getId()))
+            disposeCheckOfferAvailabilityRequest(offer);
+
         offer.setState(Offer.State.UNKNOWN);
         if (!checkOfferAvailabilityProtocolMap.containsKey(offer.getId())) {
             CheckOfferAvailabilityModel model = new CheckOfferAvailabilityModel(
                     offer,
                     tradeMessageService);
 
-            CheckOfferAvailabilityProtocol protocol = new CheckOfferAvailabilityProtocol(model,
-                    () -> disposeCheckOfferAvailabilityRequest(offer),
-                    (errorMessage) -> disposeCheckOfferAvailabilityRequest(offer));
+            CheckOfferAvailabilityProtocol protocol = new CheckOfferAvailabilityProtocol(model, timeoutService,
+                    () -> onCheckOfferAvailabilityCompleted(offer),
+                    (errorMessage) -> onCheckOfferAvailabilityCompleted(offer));
             checkOfferAvailabilityProtocolMap.put(offer.getId(), protocol);
             protocol.checkOfferAvailability();
         }
@@ -157,6 +213,25 @@ public class TradeManager {
         }
     }
 
+    // Re-validates in the background the offers which are currently displayed, so that opening the take offer
+    // screen can usually use a warm result from the cache. Offers with a fresh cached result or with a request in
+    // progress are skipped, as well as offers for which a check failed recently. At most
+    // MAX_CONCURRENT_AVAILABILITY_REFRESHES requests run concurrently.
+    public void refreshOfferAvailability(List<Offer> offers) {
+        long now = System.currentTimeMillis();
+        failedAvailabilityRefreshes.values().removeIf(timeStamp -> now - timeStamp > FAILED_AVAILABILITY_REFRESH_DELAY);
+        pendingAvailabilityRefreshes.clear();
+        offers.stream()
+                .filter(offer -> !offer.getMessagePublicKey().equals(user.getMessagePubKey()))
+                .filter(offer -> offer.getState() != Offer.State.REMOVED)
+                .filter(offer -> !checkOfferAvailabilityProtocolMap.containsKey(offer.getId()))
+                .filter(offer -> !failedAvailabilityRefreshes.containsKey(offer.getId()))
+                .filter(offer -> !offerAvailabilityCache.applyTo(offer))
+                .forEach(pendingAvailabilityRefreshes::add);
+
+        processPendingAvailabilityRefreshes();
+    }
+
     // When closing take offer view, we are not interested in the onCheckOfferAvailability result anymore, so remove from the map
     public void cancelGetOfferAvailableStateRequest(Offer offer) {
         disposeCheckOfferAvailabilityRequest(offer);
@@ -181,7 +256,7 @@ public class TradeManager {
                 currentFiatAccount.getCurrency(),
                 currentFiatAccount.getCountry(),
                 currentFiatAccount.getUid(),
-                accountSettings.getAcceptedArbitrators(),
+                arbitratorDirectory.getCurrentVersions(accountSettings.getAcceptedArbitrators()),
                 accountSettings.getSecurityDeposit(),
                 accountSettings.getAcceptedCountries(),
                 accountSettings.getAcceptedLanguageLocales());
@@ -190,6 +265,7 @@ public class TradeManager {
 
         PlaceOfferProtocol placeOfferProtocol = new PlaceOfferProtocol(
                 model,
+                timeoutService,
                 (transaction) -> {
                     openOffers.put(offer.getId(), offer);
                     persistOpenOffers();
@@ -208,15 +284,17 @@ public class TradeManager {
 
     public void requestTakeOffer(Coin amount, Offer offer, TradeResultHandler tradeResultHandler) {
         CheckOfferAvailabilityModel model = new CheckOfferAvailabilityModel(offer, tradeMessageService);
-        CheckOfferAvailabilityProtocol protocol = new CheckOfferAvailabilityProtocol(model,
+        CheckOfferAvailabilityProtocol protocol = new CheckOfferAvailabilityProtocol(model, timeoutService,
                 () -> {
-                    disposeCheckOfferAvailabilityRequest(offer);
+                    onCheckOfferAvailabilityCompleted(offer);
                     if (offer.getState() == Offer.State.AVAILABLE) {
                         Trade trade = takeAvailableOffer(amount, offer, model.getPeer());
                         tradeResultHandler.handleTradeResult(trade);
                     }
                 },
-                (errorMessage) -> disposeCheckOfferAvailabilityRequest(offer));
+                (errorMessage) -> onCheckOfferAvailabilityCompleted(offer));
+        // Replace a possible pending request for the same offer (e.g. from a background refresh)
+        disposeCheckOfferAvailabilityRequest(offer);
         checkOfferAvailabilityProtocolMap.put(offer.getId(), protocol);
         protocol.checkOfferAvailability();
     }
@@ -225,6 +303,12 @@ public class TradeManager {
         Trade trade = createTrade(offer);
         trade.setTradeAmount(amount);
 
+        createSellerAsTakerProtocol(trade, peer).takeAvailableOffer();
+        return trade;
+    }
+
+    // The offererPeer is null if we restore a persisted trade
+    private SellerAsTakerProtocol createSellerAsTakerProtocol(Trade trade, Peer offererPeer) {
         trade.stateProperty().addListener((ov, oldValue, newValue) -> {
             log.debug("trade state = " + newValue);
             switch (newValue) {
@@ -250,7 +334,7 @@ public class TradeManager {
 
         SellerAsTakerModel model = new SellerAsTakerModel(
                 trade,
-                peer,
+                offererPeer,
                 tradeMessageService,
                 walletService,
                 blockChainService,
@@ -258,11 +342,9 @@ public class TradeManager {
                 user,
                 persistence);
 
-        SellerAsTakerProtocol sellerTakesOfferProtocol = new SellerAsTakerProtocol(model);
+        SellerAsTakerProtocol sellerTakesOfferProtocol = new SellerAsTakerProtocol(model, timeoutService);
         sellerAsTakerProtocolMap.put(trade.getId(), sellerTakesOfferProtocol);
-        sellerTakesOfferProtocol.takeAvailableOffer();
-
-        return trade;
+        return sellerTakesOfferProtocol;
     }
 
     public void onFiatPaymentStarted(String tradeId) {
@@ -278,6 +360,8 @@ public class TradeManager {
     }
 
     public void closeTrade(Trade trade) {
+        tradeLatencyMonitor.onTradeClosed(trade);
+
         if (pendingTrades.containsKey(trade.getId())) {
             pendingTrades.remove(trade.getId());
             persistPendingTrades();
@@ -304,6 +388,7 @@ public class TradeManager {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     public void onOfferRemovedFromRemoteOfferBook(Offer offer) {
+        offerAvailabilityCache.invalidate(offer.getId());
         disposeCheckOfferAvailabilityRequest(offer);
     }
 
@@ -335,6 +420,35 @@ public class TradeManager {
     }
 
 
+    private void getMailboxMessages() {
+        tradeMessageService.getMailboxMessages(user.getMessagePubKey(),
+                pubKey -> walletService.getWallet().findKeyFromPubKey(pubKey),
+                this::acceptMailboxMessage);
+    }
+
+    // Mailbox messages are trade messages for our pending trades, signed by our trading peer. They stay in the mailbox
+    // until a protocol for the trade is there to handle them.
+    private boolean acceptMailboxMessage(Message message, PublicKey senderMessagePublicKey) {
+        if (!(message instanceof TradeMessage))
+            return false;
+
+        String tradeId = ((TradeMessage) message).tradeId;
+        Trade trade = pendingTrades.get(tradeId);
+        if (trade == null || trade.getContract() == null)
+            return false;
+
+        Contract contract = trade.getContract();
+        String peersMessagePublicKey = isMyOffer(trade.getOffer()) ? contract.getTakerMessagePublicKey() :
+                contract.getOffererMessagePublicKey();
+        if (!peersMessagePublicKey.equals(DSAKeyUtil.getHexStringFromPublicKey(senderMessagePublicKey))) {
+            log.warn("Mailbox message for trade " + tradeId + " is not signed by our trading peer");
+            return false;
+        }
+
+        return sellerAsTakerProtocolMap.containsKey(tradeId) || buyerAcceptsOfferProtocolMap.containsKey(tradeId);
+    }
+
+
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Private
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -354,6 +468,7 @@ public class TradeManager {
                         if (removeFromBuyerAcceptsOfferProtocolMap && buyerAcceptsOfferProtocolMap.containsKey(offerId)) {
                             buyerAcceptsOfferProtocolMap.get(offerId).cleanup();
                             buyerAcceptsOfferProtocolMap.remove(offerId);
+                            tradeLatencyMonitor.untrack(offerId);
                         }
 
                         resultHandler.handleResult();
@@ -371,6 +486,7 @@ public class TradeManager {
             log.error("That must never happen: Trades contains already an trade with the ID " + offer.getId());
 
         Trade trade = new Trade(offer);
+        tradeLatencyMonitor.track(trade);
         pendingTrades.put(offer.getId(), trade);
         persistPendingTrades();
 
@@ -389,6 +505,7 @@ public class TradeManager {
             trade = new Trade(offer);
             // don't save it in pendingTrades. It is only a potential trade
         }
+        tradeLatencyMonitor.track(trade);
 
         BuyerAsOffererModel model = new BuyerAsOffererModel(
                 trade,
@@ -439,7 +556,7 @@ public class TradeManager {
             }
         });
 
-        BuyerAsOffererProtocol buyerAcceptsOfferProtocol = new BuyerAsOffererProtocol(model);
+        BuyerAsOffererProtocol buyerAcceptsOfferProtocol = new BuyerAsOffererProtocol(model, timeoutService);
         buyerAcceptsOfferProtocolMap.put(offer.getId(), buyerAcceptsOfferProtocol);
     }
 
@@ -450,6 +567,39 @@ public class TradeManager {
             protocol.cleanup();
             checkOfferAvailabilityProtocolMap.remove(offer.getId());
         }
+
+        pendingAvailabilityRefreshes.remove(offer);
+        if (availabilityRefreshes.remove(offer.getId()))
+            processPendingAvailabilityRefreshes();
+    }
+
+    private void onCheckOfferAvailabilityCompleted(Offer offer) {
+        offerAvailabilityCache.put(offer.getId(), offer.getState());
+        if (offerAvailabilityCache.contains(offer.getId()))
+            failedAvailabilityRefreshes.remove(offer.getId());
+        else
+            failedAvailabilityRefreshes.put(offer.getId(), System.currentTimeMillis());
+        disposeCheckOfferAvailabilityRequest(offer);
+    }
+
+    private void processPendingAvailabilityRefreshes() {
+        while (availabilityRefreshes.size() < MAX_CONCURRENT_AVAILABILITY_REFRESHES && !pendingAvailabilityRefreshes.isEmpty()) {
+            Offer offer = pendingAvailabilityRefreshes.poll();
+            if (checkOfferAvailabilityProtocolMap.containsKey(offer.getId()))
+                continue;
+
+            CheckOfferAvailabilityModel model = new CheckOfferAvailabilityModel(offer, tradeMessageService);
+            CheckOfferAvailabilityProtocol protocol = new CheckOfferAvailabilityProtocol(model, timeoutService,
+                    () -> onCheckOfferAvailabilityCompleted(offer),
+                    (errorMessage) -> onCheckOfferAvailabilityCompleted(offer));
+            availabilityRefreshes.add(offer.getId());
+            checkOfferAvailabilityProtocolMap.put(offer.getId(), protocol);
+            protocol.checkOfferAvailability();
+        }
+    }
+
+    private boolean isMyOffer(Offer offer) {
+        return offer.getMessagePublicKey().equals(user.getMessagePubKey());
     }
 
     boolean isOfferOpen(String offerId) {
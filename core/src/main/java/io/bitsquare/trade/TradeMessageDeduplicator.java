@@ -0,0 +1,102 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade;
+
+import io.bitsquare.trade.protocol.trade.messages.TradeMessage;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes the handling of trade messages idempotent. Retries, relays or duplicate deliveries would otherwise re-run
+ * the tasks of the protocol (e.g. a duplicated RequestOffererPublishDepositTxMessage would sign and publish again).
+ * For every trade we remember the ids of the last WINDOW_SIZE received messages. A message which is already in that
+ * window is dropped before it reaches the handlers. The sender got its ack already by the transport layer.
+ * We also assign the sequence numbers of outgoing messages per trade.
+ */
+public class TradeMessageDeduplicator {
+    private static final Logger log = LoggerFactory.getLogger(TradeMessageDeduplicator.class);
+
+    public static final int WINDOW_SIZE = 64;
+    public static final int MAX_TRADES = 1000;
+
+    private final Map<String, Set<String>> receivedMessageIds = new LinkedHashMap<String, Set<String>>(16, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+            return size() > MAX_TRADES;
+        }
+    };
+    private final Map<String, Long> sentSequenceNumbers = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_TRADES;
+        }
+    };
+    private long numDuplicates;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Assigns the next sequence number of that trade if the message was not sent before
+    public synchronized void assignSequenceNumber(TradeMessage message) {
+        if (message.sequenceNumber == 0) {
+            long sequenceNumber = sentSequenceNumbers.getOrDefault(message.tradeId, 0L) + 1;
+            sentSequenceNumbers.put(message.tradeId, sequenceNumber);
+            message.sequenceNumber = sequenceNumber;
+        }
+    }
+
+    // Returns true if we have received that message already. Otherwise the message gets added to the window.
+    public synchronized boolean isDuplicate(TradeMessage message) {
+        // Messages from old versions don't have an id
+        if (message.messageId == null || message.tradeId == null)
+            return false;
+
+        Set<String> window = receivedMessageIds.get(message.tradeId);
+        if (window == null) {
+            window = new LinkedHashSet<>();
+            receivedMessageIds.put(message.tradeId, window);
+        }
+
+        if (window.contains(message.messageId)) {
+            numDuplicates++;
+            log.info("Dropped duplicate " + message.getClass().getSimpleName() + " with sequence number " +
+                    message.sequenceNumber + " for trade " + message.tradeId);
+            return true;
+        }
+
+        window.add(message.messageId);
+        if (window.size() > WINDOW_SIZE) {
+            String eldest = window.iterator().next();
+            window.remove(eldest);
+        }
+        return false;
+    }
+
+    public synchronized long getNumDuplicates() {
+        return numDuplicates;
+    }
+}
@@ -18,8 +18,14 @@
 package io.bitsquare.trade;
 
 import io.bitsquare.BitsquareModule;
+import io.bitsquare.common.timeout.TimeoutService;
 
+import com.google.inject.Injector;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import com.google.inject.name.Names;
+
+import javafx.application.Platform;
 
 import org.springframework.core.env.Environment;
 
@@ -33,9 +39,40 @@ public abstract class TradeMessageModule extends BitsquareModule {
     protected final void configure() {
         doConfigure();
 
+        bind(long.class).annotatedWith(Names.named(OfferAvailabilityCache.AVAILABLE_TTL_KEY)).toInstance(
+                env.getProperty(OfferAvailabilityCache.AVAILABLE_TTL_KEY, long.class,
+                        OfferAvailabilityCache.DEFAULT_AVAILABLE_TTL));
+        bind(long.class).annotatedWith(Names.named(OfferAvailabilityCache.NOT_AVAILABLE_TTL_KEY)).toInstance(
+                env.getProperty(OfferAvailabilityCache.NOT_AVAILABLE_TTL_KEY, long.class,
+                        OfferAvailabilityCache.DEFAULT_NOT_AVAILABLE_TTL));
+        bind(OfferAvailabilityCache.class).in(Singleton.class);
+        bind(TimeoutService.class).toProvider(TimeoutServiceProvider.class).in(Singleton.class);
+        bind(boolean.class).annotatedWith(Names.named(TradeLatencyMonitor.ENABLED_KEY)).toInstance(
+                env.getProperty(TradeLatencyMonitor.ENABLED_KEY, boolean.class, TradeLatencyMonitor.DEFAULT_ENABLED));
+        bind(TradeLatencyMonitor.class).in(Singleton.class);
+
         bind(TradeManager.class).in(Singleton.class);
     }
 
     protected void doConfigure() {
     }
+
+    @Override
+    protected void doClose(Injector injector) {
+        injector.getInstance(TimeoutService.class).shutDown();
+        injector.getInstance(TradeLatencyMonitor.class).shutDown();
+    }
+}
+
+class TimeoutServiceProvider implements Provider<TimeoutService> {
+    private final TimeoutService timeoutService;
+
+    public TimeoutServiceProvider() {
+        timeoutService = new TimeoutService();
+        timeoutService.setExecutor(Platform::runLater);
+    }
+
+    public TimeoutService get() {
+        return timeoutService;
+    }
 }
@@ -22,8 +22,11 @@ import io.bitsquare.network.MessageBroker;
 import io.bitsquare.network.Peer;
 import io.bitsquare.trade.handlers.MessageHandler;
 import io.bitsquare.trade.listeners.GetPeerAddressListener;
+import io.bitsquare.trade.listeners.OutgoingMessageListener;
 import io.bitsquare.trade.listeners.SendMessageListener;
 
+import org.bitcoinj.core.ECKey;
+
 import java.security.PublicKey;
 
 import java.util.concurrent.Executor;
@@ -34,9 +37,34 @@ public interface TradeMessageService extends MessageBroker {
 
     void sendMessage(Peer peer, Message message, SendMessageListener listener);
 
+    // If the peer is not reachable the message gets stored encrypted to encryptionPubKey in the mailbox of the peer
+    // with that messagePublicKey. The listener reports success if the message was either sent or stored.
+    void sendMessage(Peer peer, Message message, PublicKey messagePublicKey, byte[] encryptionPubKey,
+                     SendMessageListener listener);
+
+    // Fetches the messages in our mailbox and passes the ones accepted by the mailboxMessageFilter to the message
+    // handlers. Only those are removed from the mailbox, the others are kept for the next call.
+    void getMailboxMessages(PublicKey messagePublicKey, DecryptionKeyProvider decryptionKeyProvider,
+                            MailboxMessageFilter mailboxMessageFilter);
+
     void addMessageHandler(MessageHandler listener);
 
     void removeMessageHandler(MessageHandler listener);
 
+    void addOutgoingMessageListener(OutgoingMessageListener listener);
+
+    void removeOutgoingMessageListener(OutgoingMessageListener listener);
+
     void getPeerAddress(PublicKey messagePublicKey, GetPeerAddressListener getPeerAddressListener);
+
+    interface DecryptionKeyProvider {
+        // Returns the key with that public key or null if we don't have it
+        ECKey getKey(byte[] pubKey);
+    }
+
+    interface MailboxMessageFilter {
+        // Called on the executor. The message was signed with the key of senderMessagePublicKey. Returns true if the
+        // message can be handled now.
+        boolean accept(Message message, PublicKey senderMessagePublicKey);
+    }
 }
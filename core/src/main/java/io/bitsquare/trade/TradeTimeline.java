@@ -0,0 +1,147 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade;
+
+import io.bitsquare.util.Utilities;
+
+import java.io.Serializable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timestamped events of a trade: state changes, sent and received messages and executed protocol tasks.
+ * It is only created if the TradeLatencyMonitor is enabled and is persisted with the trade.
+ */
+public class TradeTimeline implements Serializable {
+    private static final long serialVersionUID = -2473437287374352587L;
+
+    public static enum Type {
+        STATE,
+        MESSAGE_SENT,
+        MESSAGE_SENDING_FAILED,
+        MESSAGE_RECEIVED,
+        TASK,
+        TASK_FAILED
+    }
+
+    public interface Listener {
+        void onEvent(Event event);
+    }
+
+    private final String tradeId;
+    private final List<Event> events = new ArrayList<>();
+
+    // Set by the TradeLatencyMonitor, not persisted
+    transient private Listener listener;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public TradeTimeline(String tradeId) {
+        this.tradeId = tradeId;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void addStateChange(Trade.State state) {
+        add(new Event(Type.STATE, state.name(), 0));
+    }
+
+    public void addMessage(Type type, String messageName, long duration) {
+        add(new Event(type, messageName, duration));
+    }
+
+    public void addTask(String taskName, long duration, boolean success) {
+        add(new Event(success ? Type.TASK : Type.TASK_FAILED, taskName, duration));
+    }
+
+    // Returns the last state change or null if there is none
+    public synchronized Event getLastStateChange() {
+        for (int i = events.size() - 1; i >= 0; i--) {
+            if (events.get(i).type == Type.STATE)
+                return events.get(i);
+        }
+        return null;
+    }
+
+    public synchronized List<Event> getEvents() {
+        return new ArrayList<>(events);
+    }
+
+    public synchronized void clear() {
+        events.clear();
+    }
+
+    public String getTradeId() {
+        return tradeId;
+    }
+
+    public synchronized String toJson() {
+        return Utilities.objectToJson(this);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void add(Event event) {
+        synchronized (this) {
+            events.add(event);
+        }
+        if (listener != null)
+            listener.onEvent(event);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public static class Event implements Serializable {
+        private static final long serialVersionUID = 5330431536493516345L;
+
+        public final long time;
+        public final Type type;
+        public final String name;
+        // duration of a task or of sending a message in ms
+        public final long duration;
+
+        public Event(Type type, String name, long duration) {
+            this.time = System.currentTimeMillis();
+            this.type = type;
+            this.name = name;
+            this.duration = duration;
+        }
+
+        @Override
+        public String toString() {
+            return time + " " + type + " " + name + (duration > 0 ? " (" + duration + " ms)" : "");
+        }
+    }
+}
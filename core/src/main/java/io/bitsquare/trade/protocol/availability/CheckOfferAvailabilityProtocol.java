@@ -20,8 +20,10 @@ package io.bitsquare.trade.protocol.availability;
 import io.bitsquare.common.handlers.ErrorMessageHandler;
 import io.bitsquare.common.handlers.ResultHandler;
 import io.bitsquare.common.taskrunner.TaskRunner;
+import io.bitsquare.common.timeout.TimeoutService;
 import io.bitsquare.network.Message;
 import io.bitsquare.network.Peer;
+import io.bitsquare.offer.Offer;
 import io.bitsquare.trade.handlers.MessageHandler;
 import io.bitsquare.trade.protocol.availability.messages.ReportOfferAvailabilityMessage;
 import io.bitsquare.trade.protocol.availability.tasks.GetPeerAddress;
@@ -33,28 +35,34 @@ import org.slf4j.LoggerFactory;
 
 public class CheckOfferAvailabilityProtocol {
     private static final Logger log = LoggerFactory.getLogger(CheckOfferAvailabilityProtocol.class);
+    private static final long TIMEOUT = 20 * 1000;
 
     private final CheckOfferAvailabilityModel model;
+    private final TimeoutService timeoutService;
     private final ResultHandler resultHandler;
     private final ErrorMessageHandler errorMessageHandler;
     private final MessageHandler messageHandler;
 
     private boolean isCanceled;
     private TaskRunner<CheckOfferAvailabilityModel> taskRunner;
+    private TimeoutService.Deadline deadline;
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Constructor
     ///////////////////////////////////////////////////////////////////////////////////////////
 
-    public CheckOfferAvailabilityProtocol(CheckOfferAvailabilityModel model, ResultHandler resultHandler, ErrorMessageHandler errorMessageHandler) {
+    public CheckOfferAvailabilityProtocol(CheckOfferAvailabilityModel model, TimeoutService timeoutService,
+                                          ResultHandler resultHandler, ErrorMessageHandler errorMessageHandler) {
         this.model = model;
+        this.timeoutService = timeoutService;
         this.resultHandler = resultHandler;
         this.errorMessageHandler = errorMessageHandler;
         messageHandler = this::handleMessage;
     }
 
     public void cleanup() {
+        cancelDeadline();
         model.tradeMessageService.removeMessageHandler(messageHandler);
     }
 
@@ -65,6 +73,8 @@ public class CheckOfferAvailabilityProtocol {
 
     public void checkOfferAvailability() {
         model.tradeMessageService.addMessageHandler(messageHandler);
+        deadline = timeoutService.arm(TIMEOUT, "No availability report received for offer " + model.offer.getId(),
+                this::handleTimeout);
 
         taskRunner = new TaskRunner<>(model,
                 () -> {
@@ -72,6 +82,9 @@ public class CheckOfferAvailabilityProtocol {
                 },
                 (errorMessage) -> {
                     log.error(errorMessage);
+                    // The offerer might be offline, so we get never an answer. Report the failure to the caller.
+                    if (!isCanceled)
+                        errorMessageHandler.handleErrorMessage(errorMessage);
                 }
         );
         taskRunner.addTasks(
@@ -83,6 +96,7 @@ public class CheckOfferAvailabilityProtocol {
 
     public void cancel() {
         isCanceled = true;
+        cancelDeadline();
         taskRunner.cancel();
     }
 
@@ -92,13 +106,16 @@ public class CheckOfferAvailabilityProtocol {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     private void handleMessage(Message message, Peer sender) {
+        // Several checks can be pending at the same time, so we only handle the report for our offer
         if (!isCanceled) {
-            if (message instanceof ReportOfferAvailabilityMessage)
+            if (message instanceof ReportOfferAvailabilityMessage &&
+                    model.offer.getId().equals(((ReportOfferAvailabilityMessage) message).offerId))
                 handleReportOfferAvailabilityMessage((ReportOfferAvailabilityMessage) message);
         }
     }
 
     private void handleReportOfferAvailabilityMessage(ReportOfferAvailabilityMessage message) {
+        cancelDeadline();
         model.setMessage(message);
 
         taskRunner = new TaskRunner<>(model,
@@ -114,4 +131,29 @@ public class CheckOfferAvailabilityProtocol {
         taskRunner.addTasks(ProcessReportOfferAvailabilityMessage.class);
         taskRunner.run();
     }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Timeout
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // The offerer did not respond in time. We treat him as offline.
+    // A report which arrived after the expiry but before that handler ran has already replaced the deadline.
+    private void handleTimeout(TimeoutService.Deadline expired) {
+        if (!isCanceled && expired == deadline) {
+            deadline = null;
+            taskRunner.cancel();
+            if (model.offer.getState() != Offer.State.REMOVED)
+                model.offer.setState(Offer.State.OFFERER_OFFLINE);
+
+            errorMessageHandler.handleErrorMessage(expired.getReason());
+        }
+    }
+
+    private void cancelDeadline() {
+        if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
+        }
+    }
 }
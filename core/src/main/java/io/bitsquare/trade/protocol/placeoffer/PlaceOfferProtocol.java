@@ -19,6 +19,7 @@ package io.bitsquare.trade.protocol.placeoffer;
 
 import io.bitsquare.common.handlers.ErrorMessageHandler;
 import io.bitsquare.common.taskrunner.TaskRunner;
+import io.bitsquare.common.timeout.TimeoutService;
 import io.bitsquare.trade.handlers.TransactionResultHandler;
 import io.bitsquare.trade.protocol.placeoffer.tasks.AddOfferToRemoteOfferBook;
 import io.bitsquare.trade.protocol.placeoffer.tasks.BroadcastCreateOfferFeeTx;
@@ -30,19 +31,24 @@ import org.slf4j.LoggerFactory;
 
 public class PlaceOfferProtocol {
     private static final Logger log = LoggerFactory.getLogger(PlaceOfferProtocol.class);
+    private static final long TIMEOUT = 60 * 1000;
 
     private final PlaceOfferModel model;
+    private final TimeoutService timeoutService;
     private final TransactionResultHandler resultHandler;
     private final ErrorMessageHandler errorMessageHandler;
+    private TimeoutService.Deadline deadline;
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Constructor
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     public PlaceOfferProtocol(PlaceOfferModel model,
+                              TimeoutService timeoutService,
                               TransactionResultHandler resultHandler,
                               ErrorMessageHandler errorMessageHandler) {
         this.model = model;
+        this.timeoutService = timeoutService;
         this.resultHandler = resultHandler;
         this.errorMessageHandler = errorMessageHandler;
     }
@@ -56,11 +62,17 @@ public class PlaceOfferProtocol {
         TaskRunner<PlaceOfferModel> taskRunner = new TaskRunner<>(model,
                 () -> {
                     log.debug("sequence at handleRequestTakeOfferMessage completed");
-                    resultHandler.handleResult(model.getTransaction());
+                    if (!deadline.isDone()) {
+                        deadline.cancel();
+                        resultHandler.handleResult(model.getTransaction());
+                    }
                 },
                 (errorMessage) -> {
                     log.error(errorMessage);
-                    errorMessageHandler.handleErrorMessage(errorMessage);
+                    if (!deadline.isDone()) {
+                        deadline.cancel();
+                        errorMessageHandler.handleErrorMessage(errorMessage);
+                    }
                 }
         );
         taskRunner.addTasks(
@@ -70,6 +82,10 @@ public class PlaceOfferProtocol {
                 BroadcastCreateOfferFeeTx.class
         );
 
+        deadline = timeoutService.arm(TIMEOUT, "Placing the offer did not complete in time.", (expired) -> {
+            taskRunner.cancel();
+            errorMessageHandler.handleErrorMessage(expired.getReason());
+        });
         taskRunner.run();
     }
 }
@@ -21,8 +21,16 @@ import io.bitsquare.network.Message;
 
 import java.io.Serializable;
 
+import java.util.UUID;
+
 public class TradeMessage implements Message, Serializable {
     private static final long serialVersionUID = 7572470983485004081L;
 
     public String tradeId;
+
+    // A resent message keeps its id, so the receiver can detect duplicates
+    public final String messageId = UUID.randomUUID().toString();
+
+    // Number of the message in the sequence of messages we sent for that trade, set when it gets sent the first time
+    public long sequenceNumber;
 }
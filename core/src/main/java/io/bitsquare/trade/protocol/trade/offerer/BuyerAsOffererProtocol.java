@@ -17,6 +17,7 @@
 
 package io.bitsquare.trade.protocol.trade.offerer;
 
+import io.bitsquare.common.timeout.TimeoutService;
 import io.bitsquare.network.Message;
 import io.bitsquare.network.Peer;
 import io.bitsquare.trade.Trade;
@@ -42,8 +43,6 @@ import io.bitsquare.trade.protocol.trade.offerer.tasks.VerifyTakerAccount;
 
 import org.bitcoinj.core.TransactionConfidence;
 
-import javafx.application.Platform;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,20 +50,24 @@ import static io.bitsquare.util.Validator.*;
 
 public class BuyerAsOffererProtocol {
     private static final Logger log = LoggerFactory.getLogger(BuyerAsOffererProtocol.class);
+    private static final int TIMEOUT_DELAY = 60 * 1000;
 
     private final BuyerAsOffererModel model;
+    private final TimeoutService timeoutService;
     private final MessageHandler messageHandler;
 
     private TransactionConfidence.Listener transactionConfidenceListener;
     private TransactionConfidence transactionConfidence;
+    private TimeoutService.Deadline deadline;
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Constructor
     ///////////////////////////////////////////////////////////////////////////////////////////
 
-    public BuyerAsOffererProtocol(BuyerAsOffererModel model) {
+    public BuyerAsOffererProtocol(BuyerAsOffererModel model, TimeoutService timeoutService) {
         log.debug("New BuyerAsOffererProtocol " + this);
         this.model = model;
+        this.timeoutService = timeoutService;
         messageHandler = this::handleMessage;
 
         model.tradeMessageService.addMessageHandler(messageHandler);
@@ -77,16 +80,16 @@ public class BuyerAsOffererProtocol {
 
     public void cleanup() {
         log.debug("cleanup " + this);
-        
-        // tradeMessageService and transactionConfidence use CopyOnWriteArrayList as listeners, but be safe and delay remove a bit.
-        Platform.runLater(() -> {
-            model.tradeMessageService.removeMessageHandler(messageHandler);
-            
-            if (transactionConfidence != null) {
-                if (!transactionConfidence.removeEventListener(transactionConfidenceListener))
-                    throw new RuntimeException("Remove transactionConfidenceListener failed at BuyerAsOffererProtocol.");
-            }
-        });
+        stopTimeout();
+
+        // tradeMessageService and transactionConfidence use CopyOnWriteArrayList as listeners, so we can remove
+        // them while they get notified. We don't need the JavaFX thread for that (the benchmark runs without it).
+        model.tradeMessageService.removeMessageHandler(messageHandler);
+
+        if (transactionConfidence != null) {
+            if (!transactionConfidence.removeEventListener(transactionConfidenceListener))
+                throw new RuntimeException("Remove transactionConfidenceListener failed at BuyerAsOffererProtocol.");
+        }
     }
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -101,6 +104,7 @@ public class BuyerAsOffererProtocol {
         BuyerAsOffererTaskRunner<BuyerAsOffererModel> taskRunner = new BuyerAsOffererTaskRunner<>(model,
                 () -> {
                     log.debug("sequence at handleTakeOfferFeePayedMessage completed");
+                    startTimeout("The taker did not send the signed deposit transaction in time.");
                 },
                 (errorMessage) -> {
                     log.error(errorMessage);
@@ -114,7 +118,18 @@ public class BuyerAsOffererProtocol {
         taskRunner.run();
     }
 
-    private void handleRequestOffererPublishDepositTxMessage(RequestOffererPublishDepositTxMessage tradeMessage) {
+    private void handleRequestOffererPublishDepositTxMessage(RequestOffererPublishDepositTxMessage tradeMessage,
+                                                             Peer sender) {
+        // After a timeout we released our inputs and forgot the taker. A late request from him or a request from
+        // any other peer must not lead to a published deposit tx.
+        if (model.taker.peer == null || !model.taker.peer.equals(sender) ||
+                model.offerer.connectedOutputsForAllInputs == null) {
+            log.warn("We ignore a RequestOffererPublishDepositTxMessage from a peer we have no deposit inputs for. " +
+                    "sender=" + sender);
+            return;
+        }
+
+        stopTimeout();
         model.setTradeMessage(tradeMessage);
 
         BuyerAsOffererTaskRunner<BuyerAsOffererModel> taskRunner = new BuyerAsOffererTaskRunner<>(model,
@@ -206,7 +221,8 @@ public class BuyerAsOffererProtocol {
                 }
 
                 else if (tradeMessage instanceof RequestOffererPublishDepositTxMessage) {
-                    handleRequestOffererPublishDepositTxMessage((RequestOffererPublishDepositTxMessage) tradeMessage);
+                    handleRequestOffererPublishDepositTxMessage((RequestOffererPublishDepositTxMessage) tradeMessage,
+                            sender);
                 }
                 else if (tradeMessage instanceof PayoutTxPublishedMessage) {
                     handlePayoutTxPublishedMessage((PayoutTxPublishedMessage) tradeMessage);
@@ -217,4 +233,39 @@ public class BuyerAsOffererProtocol {
             }
         }
     }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Timeout
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void startTimeout(String reason) {
+        stopTimeout();
+        deadline = timeoutService.arm(TIMEOUT_DELAY, reason, this::handleTimeout);
+    }
+
+    private void stopTimeout() {
+        if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
+        }
+    }
+
+    // The trade is only a potential trade until the deposit tx is published, so we stay registered for our offer
+    // and forget the taker who left, so another taker can take the offer. The inputs we created for him get released,
+    // so they are only used for a deposit tx with the next taker.
+    // The handler runs on the executor after the expiry, so the request might have been handled meanwhile.
+    private void handleTimeout(TimeoutService.Deadline expired) {
+        if (expired != deadline)
+            return;
+
+        deadline = null;
+        log.warn(expired.getReason() + " We reset the trade and wait for another taker.");
+        model.taker.peer = null;
+        model.taker.pubKey = null;
+        model.offerer.connectedOutputsForAllInputs = null;
+        model.offerer.outputs = null;
+        model.setTradeMessage(null);
+        model.persist();
+    }
 }
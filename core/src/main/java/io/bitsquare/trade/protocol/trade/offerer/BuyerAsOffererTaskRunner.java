@@ -19,7 +19,9 @@ package io.bitsquare.trade.protocol.trade.offerer;
 
 import io.bitsquare.common.handlers.ErrorMessageHandler;
 import io.bitsquare.common.handlers.ResultHandler;
+import io.bitsquare.common.taskrunner.Task;
 import io.bitsquare.common.taskrunner.TaskRunner;
+import io.bitsquare.trade.TradeTimeline;
 import io.bitsquare.trade.protocol.trade.offerer.models.BuyerAsOffererModel;
 
 import org.slf4j.Logger;
@@ -32,6 +34,13 @@ class BuyerAsOffererTaskRunner<T extends BuyerAsOffererModel> extends TaskRunner
         super(sharedModel, resultHandler, errorMessageHandler);
     }
 
+    @Override
+    protected void onTaskCompleted(Class<? extends Task> task, long duration, boolean success) {
+        TradeTimeline timeline = sharedModel.trade.getTimeline();
+        if (timeline != null)
+            timeline.addTask(task.getSimpleName(), duration, success);
+    }
+
   /*  @Override
     public void handleFault(String message, @NotNull Throwable throwable) {
         sharedModel.trade.setState(Trade.State.FAILED);
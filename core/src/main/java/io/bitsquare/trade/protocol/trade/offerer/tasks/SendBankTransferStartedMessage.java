@@ -41,7 +41,9 @@ public class SendBankTransferStartedMessage extends Task<BuyerAsOffererModel> {
                 model.offerer.payoutAmount,
                 model.taker.payoutAmount,
                 model.offerer.addressEntry.getAddressString());
-        model.tradeMessageService.sendMessage(model.taker.peer, tradeMessage, new SendMessageListener() {
+        // The taker might be offline while we wait for the bank transfer, so we use its mailbox if needed
+        model.tradeMessageService.sendMessage(model.taker.peer, tradeMessage, model.taker.messagePublicKey,
+                model.taker.pubKey, new SendMessageListener() {
             @Override
             public void handleResult() {
                 log.trace("Sending BankTransferInitedMessage succeeded.");
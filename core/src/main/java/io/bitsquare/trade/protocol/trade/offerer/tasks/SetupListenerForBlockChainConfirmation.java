@@ -25,8 +25,6 @@ import io.bitsquare.trade.protocol.trade.offerer.models.BuyerAsOffererModel;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionConfidence;
 
-import javafx.application.Platform;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,8 +48,9 @@ public class SetupListenerForBlockChainConfirmation extends Task<BuyerAsOffererM
                 if (reason == ChangeReason.TYPE && tx.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING) {
                     model.trade.setState(Trade.State.DEPOSIT_CONFIRMED);
 
-                    // transactionConfidence use CopyOnWriteArrayList as listeners, but be safe and delay remove a bit.
-                    Platform.runLater(() -> removeEventListener());
+                    // transactionConfidence use CopyOnWriteArrayList as listeners, so we can remove it while
+                    // it gets notified
+                    removeEventListener();
                 }
             }
         };
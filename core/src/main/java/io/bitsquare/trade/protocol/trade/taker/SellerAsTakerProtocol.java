@@ -17,6 +17,7 @@
 
 package io.bitsquare.trade.protocol.trade.taker;
 
+import io.bitsquare.common.timeout.TimeoutService;
 import io.bitsquare.network.Message;
 import io.bitsquare.network.Peer;
 import io.bitsquare.trade.Trade;
@@ -40,11 +41,6 @@ import io.bitsquare.trade.protocol.trade.taker.tasks.TakerCommitDepositTx;
 import io.bitsquare.trade.protocol.trade.taker.tasks.TakerCreatesAndSignsDepositTx;
 import io.bitsquare.trade.protocol.trade.taker.tasks.VerifyOfferFeePayment;
 import io.bitsquare.trade.protocol.trade.taker.tasks.VerifyOffererAccount;
-import io.bitsquare.util.Utilities;
-
-import java.util.function.Function;
-
-import javafx.animation.AnimationTimer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,20 +49,22 @@ import static io.bitsquare.util.Validator.nonEmptyStringOf;
 
 public class SellerAsTakerProtocol {
     private static final Logger log = LoggerFactory.getLogger(SellerAsTakerProtocol.class);
-    private static final int TIMEOUT_DELAY = 10000;
+    private static final int TIMEOUT_DELAY = 60 * 1000;
 
     private final SellerAsTakerModel model;
+    private final TimeoutService timeoutService;
     private final MessageHandler messageHandler;
-    private AnimationTimer timeoutTimer;
+    private TimeoutService.Deadline deadline;
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Constructor
     ///////////////////////////////////////////////////////////////////////////////////////////
 
-    public SellerAsTakerProtocol(SellerAsTakerModel model) {
+    public SellerAsTakerProtocol(SellerAsTakerModel model, TimeoutService timeoutService) {
         log.debug("New SellerAsTakerProtocol " + this);
         this.model = model;
+        this.timeoutService = timeoutService;
         messageHandler = this::handleMessage;
         model.tradeMessageService.addMessageHandler(messageHandler);
     }
@@ -78,6 +76,7 @@ public class SellerAsTakerProtocol {
 
     public void cleanup() {
         log.debug("cleanup " + this);
+        stopTimeout();
         model.tradeMessageService.removeMessageHandler(messageHandler);
     }
 
@@ -85,6 +84,7 @@ public class SellerAsTakerProtocol {
         SellerAsTakerTaskRunner<SellerAsTakerModel> taskRunner = new SellerAsTakerTaskRunner<>(model,
                 () -> {
                     log.debug("taskRunner at takeAvailableOffer completed");
+                    startTimeout("The offerer did not respond to our take offer request.");
                 },
                 (errorMessage) -> {
                     log.error(errorMessage);
@@ -103,11 +103,13 @@ public class SellerAsTakerProtocol {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     private void handleRequestDepositPaymentMessage(RequestDepositPaymentMessage tradeMessage) {
+        stopTimeout();
         model.setTradeMessage(tradeMessage);
 
         SellerAsTakerTaskRunner<SellerAsTakerModel> taskRunner = new SellerAsTakerTaskRunner<>(model,
                 () -> {
                     log.debug("taskRunner at handleTakerDepositPaymentRequestMessage completed");
+                    startDepositTimeout();
                 },
                 (errorMessage) -> {
                     log.error(errorMessage);
@@ -124,6 +126,7 @@ public class SellerAsTakerProtocol {
     }
 
     private void handleDepositTxPublishedMessage(DepositTxPublishedMessage tradeMessage) {
+        stopTimeout();
         model.setTradeMessage(tradeMessage);
 
         SellerAsTakerTaskRunner<SellerAsTakerModel> taskRunner = new SellerAsTakerTaskRunner<>(model,
@@ -212,17 +215,47 @@ public class SellerAsTakerProtocol {
     // Timeout
     ///////////////////////////////////////////////////////////////////////////////////////////
 
-    private void startTimeout(Function<AnimationTimer, Void> callback) {
+    private void startTimeout(String reason) {
         stopTimeout();
-        timeoutTimer = Utilities.setTimeout(TIMEOUT_DELAY, callback);
-        timeoutTimer.start();
+        deadline = timeoutService.arm(TIMEOUT_DELAY, reason, this::handleTimeout);
     }
 
     private void stopTimeout() {
-        if (timeoutTimer != null) {
-            timeoutTimer.stop();
-            timeoutTimer = null;
+        if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
         }
     }
 
+    // Our deposit inputs are signed and sent from here on, so the offerer can publish the deposit tx at any time.
+    // Closing the trade would leave us blind for a deposit which might still get published, so we only warn and keep
+    // waiting for the DepositTxPublishedMessage (which also arrives from the mailbox if we are offline meanwhile).
+    private void startDepositTimeout() {
+        stopTimeout();
+        deadline = timeoutService.arm(TIMEOUT_DELAY, "The offerer did not publish the deposit transaction in time.",
+                this::handleDepositTimeout);
+    }
+
+    private void handleDepositTimeout(TimeoutService.Deadline expired) {
+        if (expired != deadline)
+            return;
+
+        log.warn(expired.getReason() + " We keep the trade open and wait for the deposit tx. tradeId=" + model.id);
+        startDepositTimeout();
+    }
+
+    // Only used for the steps before we signed the deposit tx.
+    // Setting the fault state lets the tradeManager close the trade and call cleanup, which removes our handlers.
+    // The handler runs on the executor after the expiry. If the step completed meanwhile, the deadline got cancelled
+    // or replaced by a later one, and we must not fail the trade anymore.
+    private void handleTimeout(TimeoutService.Deadline expired) {
+        if (expired != deadline)
+            return;
+
+        deadline = null;
+        Trade.State state = Trade.State.FAULT;
+        state.setErrorMessage(expired.getReason());
+        model.trade.setState(state);
+    }
+
 }
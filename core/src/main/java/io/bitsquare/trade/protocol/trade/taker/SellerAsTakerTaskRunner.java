@@ -19,7 +19,9 @@ package io.bitsquare.trade.protocol.trade.taker;
 
 import io.bitsquare.common.handlers.ErrorMessageHandler;
 import io.bitsquare.common.handlers.ResultHandler;
+import io.bitsquare.common.taskrunner.Task;
 import io.bitsquare.common.taskrunner.TaskRunner;
+import io.bitsquare.trade.TradeTimeline;
 import io.bitsquare.trade.protocol.trade.taker.models.SellerAsTakerModel;
 
 import org.slf4j.Logger;
@@ -32,6 +34,13 @@ class SellerAsTakerTaskRunner<T extends SellerAsTakerModel> extends TaskRunner<S
         super(sharedModel, resultHandler, errorMessageHandler);
     }
 
+    @Override
+    protected void onTaskCompleted(Class<? extends Task> task, long duration, boolean success) {
+        TradeTimeline timeline = sharedModel.trade.getTimeline();
+        if (timeline != null)
+            timeline.addTask(task.getSimpleName(), duration, success);
+    }
+
    /* @Override
     public void handleErrorMessage(String errorMessage) {
         sharedModel.trade.setState(Trade.State.FAILED);
@@ -79,7 +79,9 @@ public class SellerAsTakerModel extends SharedTradeModel implements Serializable
             offerer = new OffererModel();
         }
 
-        offerer.peer = offererPeer;
+        // Null if the trade gets restored, then we use the persisted peer
+        if (offererPeer != null)
+            offerer.peer = offererPeer;
 
         taker.registrationPubKey = walletService.getRegistrationAddressEntry().getPubKey();
         taker.registrationKeyPair = walletService.getRegistrationAddressEntry().getKeyPair();
@@ -36,7 +36,9 @@ public class SendPayoutTxToOfferer extends Task<SellerAsTakerModel> {
     @Override
     protected void doRun() {
         PayoutTxPublishedMessage tradeMessage = new PayoutTxPublishedMessage(model.id, model.getPayoutTx());
-        model.tradeMessageService.sendMessage(model.offerer.peer, tradeMessage, new SendMessageListener() {
+        // The offerer might be offline, so we use its mailbox if needed
+        model.tradeMessageService.sendMessage(model.offerer.peer, tradeMessage, model.offer.getMessagePublicKey(),
+                model.offerer.pubKey, new SendMessageListener() {
             @Override
             public void handleResult() {
                 log.trace("PayoutTxPublishedMessage successfully arrived at peer");
@@ -0,0 +1,88 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade.tomp2p;
+
+import io.bitsquare.network.Message;
+import io.bitsquare.network.Peer;
+
+import java.io.Serializable;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+
+/**
+ * A message stored in the DHT mailbox of a peer who was not reachable. The content (sender and message) is signed with
+ * the message key of the sender and encrypted to the receivers public key, which is stored alongside so the receiver
+ * knows which of its keys to use. Anybody can add to a mailbox, so the receiver only trusts a message if the signing
+ * key is the one of its trading peer.
+ */
+class MailboxItem implements Serializable {
+    private static final long serialVersionUID = 2960390374227493163L;
+    private static final String SIGNATURE_ALGORITHM = "SHA256withDSA";
+
+    final byte[] encryptionPubKey;
+    final byte[] encryptedContent;
+
+    MailboxItem(byte[] encryptionPubKey, byte[] encryptedContent) {
+        this.encryptionPubKey = encryptionPubKey;
+        this.encryptedContent = encryptedContent;
+    }
+
+    static byte[] sign(PrivateKey privateKey, byte[] data) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+        signature.initSign(privateKey);
+        signature.update(data);
+        return signature.sign();
+    }
+
+    static boolean verify(PublicKey publicKey, byte[] data, byte[] signatureBytes) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+        signature.initVerify(publicKey);
+        signature.update(data);
+        return signature.verify(signatureBytes);
+    }
+
+    // Gets encrypted. The signature is over the serialized Content.
+    static class SignedContent implements Serializable {
+        private static final long serialVersionUID = 6012264385496377522L;
+
+        final byte[] content;
+        final byte[] signature;
+
+        SignedContent(byte[] content, byte[] signature) {
+            this.content = content;
+            this.signature = signature;
+        }
+    }
+
+    static class Content implements Serializable {
+        private static final long serialVersionUID = -4783962395713440211L;
+
+        final Peer sender;
+        final PublicKey senderMessagePublicKey;
+        final Message message;
+
+        Content(Peer sender, PublicKey senderMessagePublicKey, Message message) {
+            this.sender = sender;
+            this.senderMessagePublicKey = senderMessagePublicKey;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade.tomp2p;
+
+import io.bitsquare.network.Message;
+import io.bitsquare.network.MessagePriority;
+import io.bitsquare.trade.protocol.trade.messages.OfferMessage;
+import io.bitsquare.trade.protocol.trade.messages.TradeMessage;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Frames outgoing messages as a byte array and compresses the ones above the compression threshold. Messages like
+ * RequestOffererPublishDepositTxMessage carry transactions, connected outputs, the fiat account and the contract as
+ * JSON and compress well, while small messages are not worth the CPU time.
+ * It records per message type the serialized size of the message and the encoded size, which is the size of the
+ * serialized envelope as TomP2P puts it on the wire, including its class descriptor.
+ */
+public class MessageCodec {
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    // Use as threshold to send all messages uncompressed
+    public static final int COMPRESSION_DISABLED = -1;
+    // Our largest messages carry a few transactions, far below that
+    public static final int MAX_INFLATED_SIZE = 1024 * 1024;
+
+    private final Map<String, SizeStatistics> sizeStatistics = new ConcurrentHashMap<>();
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public Envelope encode(Message message) throws IOException {
+        byte[] serialized = serialize(message);
+        Envelope envelope;
+        if (compressionThreshold != COMPRESSION_DISABLED && serialized.length > compressionThreshold) {
+            byte[] compressed = compress(serialized);
+            // Already compressed content (e.g. signatures) might not get smaller
+            envelope = compressed.length < serialized.length ? new Envelope(compressed, true, getPriority(message))
+                    : new Envelope(serialized, false, getPriority(message));
+        }
+        else {
+            envelope = new Envelope(serialized, false, getPriority(message));
+        }
+
+        sizeStatistics.computeIfAbsent(message.getClass().getSimpleName(), k -> new SizeStatistics())
+                .record(serialized.length, serialize(envelope).length);
+        return envelope;
+    }
+
+    public Message decode(Envelope envelope) throws IOException, ClassNotFoundException {
+        byte[] data = envelope.compressed ? inflate(envelope.data) : envelope.data;
+        return (Message) deserialize(new ByteArrayInputStream(data));
+    }
+
+    public Map<String, SizeStatistics> getSizeStatistics() {
+        return new TreeMap<>(sizeStatistics);
+    }
+
+    public static MessagePriority getPriority(Message message) {
+        if (message instanceof TradeMessage)
+            return MessagePriority.TRADE;
+        else if (message instanceof OfferMessage)
+            return MessagePriority.AVAILABILITY;
+        else
+            return MessagePriority.OTHER;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    static byte[] serialize(Serializable object) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+            objectOutputStream.writeObject(object);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    static Object deserialize(InputStream inputStream) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(inputStream)) {
+            return objectInputStream.readObject();
+        }
+    }
+
+    // A few KB of compressed data can inflate to gigabytes, so we stop at MAX_INFLATED_SIZE
+    private byte[] inflate(byte[] data) throws IOException {
+        try (InputStream inputStream = ByteStreams.limit(new InflaterInputStream(new ByteArrayInputStream(data)),
+                MAX_INFLATED_SIZE + 1)) {
+            byte[] inflated = ByteStreams.toByteArray(inputStream);
+            if (inflated.length > MAX_INFLATED_SIZE)
+                throw new IOException("Inflated message is larger than " + MAX_INFLATED_SIZE + " bytes");
+            return inflated;
+        }
+    }
+
+    private byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(data.length / 2);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(byteArrayOutputStream, deflater)) {
+            deflaterOutputStream.write(data);
+        } finally {
+            deflater.end();
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // What we put on the wire instead of the message
+    public static class Envelope implements MessagePriority.Prioritized, Serializable {
+        private static final long serialVersionUID = -6318734574125422457L;
+
+        private final byte[] data;
+        private final boolean compressed;
+        private final MessagePriority priority;
+
+        Envelope(byte[] data, boolean compressed, MessagePriority priority) {
+            this.data = data;
+            this.compressed = compressed;
+            this.priority = priority;
+        }
+
+        @Override
+        public MessagePriority getPriority() {
+            return priority;
+        }
+
+        public int getSize() {
+            return data.length;
+        }
+
+        public boolean isCompressed() {
+            return compressed;
+        }
+    }
+
+    public static class SizeStatistics {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong serializedBytes = new AtomicLong();
+        private final AtomicLong encodedBytes = new AtomicLong();
+
+        void record(long serializedSize, long encodedSize) {
+            count.incrementAndGet();
+            serializedBytes.addAndGet(serializedSize);
+            encodedBytes.addAndGet(encodedSize);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSerializedBytes() {
+            return serializedBytes.get();
+        }
+
+        public long getEncodedBytes() {
+            return encodedBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            long count = getCount();
+            return "count=" + count +
+                    ", avg serialized=" + (count > 0 ? getSerializedBytes() / count : 0) +
+                    ", avg encoded=" + (count > 0 ? getEncodedBytes() / count : 0) +
+                    ", total encoded=" + getEncodedBytes();
+        }
+    }
+}
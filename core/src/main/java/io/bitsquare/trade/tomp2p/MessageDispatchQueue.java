@@ -0,0 +1,119 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade.tomp2p;
+
+import io.bitsquare.network.MessagePriority;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded, prioritized queue between the inbound message workers and the executor which runs the message handlers
+ * (the UI thread in the app). Only one drain is scheduled on the executor at a time and it handles at most
+ * BATCH_SIZE messages, highest priority first. A worker blocks while the queue is full, so the InboundMessageQueue in
+ * front of it fills up and drops the low priority messages instead of flooding the executor.
+ */
+class MessageDispatchQueue {
+    private static final Logger log = LoggerFactory.getLogger(MessageDispatchQueue.class);
+
+    static final int DEFAULT_CAPACITY = 100;
+    static final int BATCH_SIZE = 20;
+
+    private final Map<MessagePriority, Queue<Runnable>> queues = new EnumMap<>(MessagePriority.class);
+    private final Semaphore capacity;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private Executor executor = Runnable::run;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    MessageDispatchQueue(int capacity) {
+        this.capacity = new Semaphore(capacity);
+        for (MessagePriority priority : MessagePriority.values())
+            queues.put(priority, new ConcurrentLinkedQueue<>());
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Blocks while the queue is full, so it must not be called from the executor
+    void dispatch(MessagePriority priority, Runnable handler) throws InterruptedException {
+        capacity.acquire();
+        queues.get(priority).add(handler);
+        scheduleDrain();
+    }
+
+    int getQueueLength() {
+        return queues.values().stream().mapToInt(Queue::size).sum();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true))
+            executor.execute(this::drain);
+    }
+
+    private void drain() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Runnable handler = poll();
+            if (handler == null)
+                break;
+
+            capacity.release();
+            try {
+                handler.run();
+            } catch (Throwable t) {
+                log.error("Exception at handling message " + t.toString());
+            }
+        }
+
+        // A message added after our last poll could not schedule a drain, so we check again after resetting the flag
+        drainScheduled.set(false);
+        if (getQueueLength() > 0)
+            scheduleDrain();
+    }
+
+    private Runnable poll() {
+        for (MessagePriority priority : MessagePriority.values()) {
+            Runnable handler = queues.get(priority).poll();
+            if (handler != null)
+                return handler;
+        }
+        return null;
+    }
+}
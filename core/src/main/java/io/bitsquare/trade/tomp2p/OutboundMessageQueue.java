@@ -0,0 +1,271 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade.tomp2p;
+
+import io.bitsquare.common.metrics.LatencyStatistics;
+import io.bitsquare.common.timeout.TimeoutService;
+import io.bitsquare.network.Message;
+import io.bitsquare.network.tomp2p.TomP2PNode;
+import io.bitsquare.trade.protocol.trade.messages.TradeMessage;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureListener;
+import net.tomp2p.futures.FutureDirect;
+import net.tomp2p.peers.PeerAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Outbound queue for direct messages. The messages of a trade are sent one after the other in the order they got
+ * added, so they arrive in order. Messages of other trades with the same peer are not held back by them, so a message
+ * which is waiting for a retry only delays its own trade. Messages without a trade are ordered per peer.
+ * A failed send is retried with exponential backoff up to
+ * maxAttempts times before the message is reported as failed. As the receiver drops duplicates (see
+ * TradeMessageDeduplicator) retrying a message which arrived but was not acked is harmless.
+ * If coalescing is enabled a queued message which was not sent yet gets replaced by a newer message of the same type
+ * for the same trade.
+ */
+class OutboundMessageQueue {
+    private static final Logger log = LoggerFactory.getLogger(OutboundMessageQueue.class);
+
+    static final int DEFAULT_MAX_ATTEMPTS = 5;
+    static final long INITIAL_RETRY_DELAY = 500;
+    static final long MAX_RETRY_DELAY = 8000;
+
+    interface ResultHandler {
+        // latency in ms since the message was added to the queue
+        void handleResult(boolean success, long latency);
+    }
+
+    private final TomP2PNode tomP2PNode;
+    private final TimeoutService timeoutService;
+    private final Map<QueueKey, OrderedQueue> queues = new HashMap<>();
+    private final LatencyStatistics deliveryLatency = new LatencyStatistics();
+    private final AtomicLong numRetries = new AtomicLong();
+    private final AtomicLong numFailedMessages = new AtomicLong();
+    private final AtomicLong numCoalescedMessages = new AtomicLong();
+    private volatile boolean coalescing;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    OutboundMessageQueue(TomP2PNode tomP2PNode, TimeoutService timeoutService) {
+        this.tomP2PNode = tomP2PNode;
+        this.timeoutService = timeoutService;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    // The payload is what goes on the wire, the message is used for coalescing and logging
+    void add(PeerAddress peerAddress, Message message, Object payload, int maxAttempts, ResultHandler resultHandler) {
+        Entry entry = new Entry(peerAddress, message, payload, maxAttempts, resultHandler);
+        boolean sendNow = false;
+        synchronized (this) {
+            OrderedQueue queue = queues.get(entry.queueKey);
+            if (queue == null) {
+                queue = new OrderedQueue();
+                queues.put(entry.queueKey, queue);
+            }
+
+            if (coalescing && queue.coalesce(entry)) {
+                numCoalescedMessages.incrementAndGet();
+            }
+            else if (queue.inFlight == null) {
+                queue.inFlight = entry;
+                sendNow = true;
+            }
+            else {
+                queue.pending.add(entry);
+            }
+        }
+
+        if (sendNow)
+            send(entry);
+    }
+
+    synchronized int getQueueDepth() {
+        int depth = 0;
+        for (OrderedQueue queue : queues.values())
+            depth += queue.pending.size() + (queue.inFlight != null ? 1 : 0);
+        return depth;
+    }
+
+    long getNumRetries() {
+        return numRetries.get();
+    }
+
+    long getNumFailedMessages() {
+        return numFailedMessages.get();
+    }
+
+    long getNumCoalescedMessages() {
+        return numCoalescedMessages.get();
+    }
+
+    LatencyStatistics getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void send(Entry entry) {
+        entry.attempts++;
+        FutureDirect futureDirect = tomP2PNode.sendData(entry.peerAddress, entry.payload);
+        futureDirect.addListener(new BaseFutureListener<BaseFuture>() {
+            @Override
+            public void operationComplete(BaseFuture future) throws Exception {
+                if (!future.isSuccess())
+                    retryOrFail(entry, future.failedReason());
+                else if (TomP2PNode.MESSAGE_REJECTED.equals(futureDirect.object()))
+                    retryOrFail(entry, "Rejected by peer");
+                else
+                    complete(entry, true);
+            }
+
+            @Override
+            public void exceptionCaught(Throwable t) throws Exception {
+                retryOrFail(entry, t.toString());
+            }
+        });
+    }
+
+    private void retryOrFail(Entry entry, String reason) {
+        String messageName = entry.message.getClass().getSimpleName();
+        if (entry.attempts < entry.maxAttempts) {
+            long delay = Math.min(INITIAL_RETRY_DELAY << (entry.attempts - 1), MAX_RETRY_DELAY);
+            numRetries.incrementAndGet();
+            log.warn("Sending " + messageName + " failed (attempt " + entry.attempts + "). Retry in " + delay +
+                    " ms. Reason: " + reason);
+            timeoutService.arm(delay, "Retry " + messageName, expired -> send(entry));
+        }
+        else {
+            numFailedMessages.incrementAndGet();
+            log.error("Sending " + messageName + " failed after " + entry.attempts + " attempts. Reason: " + reason);
+            complete(entry, false);
+        }
+    }
+
+    private void complete(Entry entry, boolean success) {
+        Entry next;
+        synchronized (this) {
+            OrderedQueue queue = queues.get(entry.queueKey);
+            next = queue.pending.poll();
+            queue.inFlight = next;
+            if (next == null)
+                queues.remove(entry.queueKey);
+        }
+
+        long latency = System.currentTimeMillis() - entry.creationTime;
+        if (success)
+            deliveryLatency.record(latency);
+        entry.resultHandlers.stream().forEach(e -> e.handleResult(success, latency));
+
+        if (next != null)
+            send(next);
+    }
+
+    // The messages of one trade with one peer, or all messages without a trade to one peer
+    private static class OrderedQueue {
+        final LinkedList<Entry> pending = new LinkedList<>();
+        Entry inFlight;
+
+        // Replaces a pending message of the same type for the same trade. Returns true if it got replaced.
+        boolean coalesce(Entry entry) {
+            if (!(entry.message instanceof TradeMessage))
+                return false;
+
+            for (ListIterator<Entry> iterator = pending.listIterator(); iterator.hasNext(); ) {
+                Entry queued = iterator.next();
+                if (queued.message.getClass() == entry.message.getClass() && entry.queueKey.tradeId != null) {
+                    // The handlers of the replaced message get the result of the new one
+                    entry.resultHandlers.addAll(0, queued.resultHandlers);
+                    iterator.set(entry);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class QueueKey {
+        final PeerAddress peerAddress;
+        final String tradeId;
+
+        QueueKey(PeerAddress peerAddress, Message message) {
+            this.peerAddress = peerAddress;
+            this.tradeId = message instanceof TradeMessage ? ((TradeMessage) message).tradeId : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof QueueKey))
+                return false;
+            QueueKey other = (QueueKey) o;
+            return peerAddress.equals(other.peerAddress) && Objects.equals(tradeId, other.tradeId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * peerAddress.hashCode() + Objects.hashCode(tradeId);
+        }
+    }
+
+    private static class Entry {
+        final PeerAddress peerAddress;
+        final QueueKey queueKey;
+        final Message message;
+        final Object payload;
+        final int maxAttempts;
+        final List<ResultHandler> resultHandlers = new LinkedList<>();
+        final long creationTime = System.currentTimeMillis();
+        int attempts;
+
+        Entry(PeerAddress peerAddress, Message message, Object payload, int maxAttempts,
+              ResultHandler resultHandler) {
+            this.peerAddress = peerAddress;
+            this.queueKey = new QueueKey(peerAddress, message);
+            this.message = message;
+            this.payload = payload;
+            this.maxAttempts = maxAttempts;
+            resultHandlers.add(resultHandler);
+        }
+    }
+}
@@ -17,14 +17,18 @@
 
 package io.bitsquare.trade.tomp2p;
 
+import io.bitsquare.common.timeout.TimeoutService;
+import io.bitsquare.crypto.EncryptionService;
 import io.bitsquare.network.tomp2p.TomP2PNode;
 import io.bitsquare.trade.TradeMessageModule;
 import io.bitsquare.trade.TradeMessageService;
 
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import com.google.inject.name.Names;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import javafx.application.Platform;
 
@@ -38,17 +42,29 @@ public class TomP2PTradeMessageModule extends TradeMessageModule {
 
     @Override
     protected void doConfigure() {
+        bind(boolean.class).annotatedWith(Names.named(TomP2PTradeMessageService.COALESCING_KEY)).toInstance(
+                env.getProperty(TomP2PTradeMessageService.COALESCING_KEY, boolean.class,
+                        TomP2PTradeMessageService.DEFAULT_COALESCING));
+        bind(int.class).annotatedWith(Names.named(TomP2PTradeMessageService.COMPRESSION_THRESHOLD_KEY)).toInstance(
+                env.getProperty(TomP2PTradeMessageService.COMPRESSION_THRESHOLD_KEY, int.class,
+                        MessageCodec.DEFAULT_COMPRESSION_THRESHOLD));
         bind(TradeMessageService.class).toProvider(TomP2PTradeMessageServiceProvider.class).in(Singleton.class);
     }
 }
 
 class TomP2PTradeMessageServiceProvider implements Provider<TradeMessageService> {
-    private final TradeMessageService tradeMessageService;
+    private final TomP2PTradeMessageService tradeMessageService;
 
     @Inject
-    public TomP2PTradeMessageServiceProvider(TomP2PNode tomP2PNode) {
-        tradeMessageService = new TomP2PTradeMessageService(tomP2PNode);
+    public TomP2PTradeMessageServiceProvider(TomP2PNode tomP2PNode, TimeoutService timeoutService,
+                                             EncryptionService encryptionService,
+                                             @Named(TomP2PTradeMessageService.COALESCING_KEY) boolean coalescing,
+                                             @Named(TomP2PTradeMessageService.COMPRESSION_THRESHOLD_KEY)
+                                             int compressionThreshold) {
+        tradeMessageService = new TomP2PTradeMessageService(tomP2PNode, timeoutService, encryptionService);
         tradeMessageService.setExecutor(Platform::runLater);
+        tradeMessageService.setCoalescing(coalescing);
+        tradeMessageService.setCompressionThreshold(compressionThreshold);
     }
 
     public TradeMessageService get() {
@@ -17,26 +17,45 @@
 
 package io.bitsquare.trade.tomp2p;
 
+import io.bitsquare.common.metrics.LatencyStatistics;
+import io.bitsquare.common.timeout.TimeoutService;
+import io.bitsquare.crypto.EncryptionService;
 import io.bitsquare.network.Message;
 import io.bitsquare.network.Peer;
 import io.bitsquare.network.tomp2p.TomP2PNode;
 import io.bitsquare.network.tomp2p.TomP2PPeer;
+import io.bitsquare.trade.TradeMessageDeduplicator;
 import io.bitsquare.trade.TradeMessageService;
 import io.bitsquare.trade.handlers.MessageHandler;
 import io.bitsquare.trade.listeners.GetPeerAddressListener;
+import io.bitsquare.trade.listeners.OutgoingMessageListener;
 import io.bitsquare.trade.listeners.SendMessageListener;
+import io.bitsquare.trade.protocol.trade.messages.TradeMessage;
 
+import org.bitcoinj.core.ECKey;
+
+import com.google.common.base.Charsets;
+import com.google.common.primitives.Bytes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
 import java.security.PublicKey;
 
+import java.util.Map;
+
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 
 import net.tomp2p.dht.FutureGet;
+import net.tomp2p.dht.FuturePut;
 import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.BaseFutureAdapter;
-import net.tomp2p.futures.BaseFutureListener;
-import net.tomp2p.futures.FutureDirect;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
 import net.tomp2p.utils.Utils;
 
 import org.slf4j.Logger;
@@ -53,8 +72,21 @@ import org.slf4j.LoggerFactory;
 public class TomP2PTradeMessageService implements TradeMessageService {
     private static final Logger log = LoggerFactory.getLogger(TomP2PTradeMessageService.class);
 
+    public static final String COALESCING_KEY = "trade.message.coalescing";
+    public static final boolean DEFAULT_COALESCING = false;
+    public static final String COMPRESSION_THRESHOLD_KEY = "trade.message.compressionThreshold";
+
+    private static final byte[] MAILBOX_DOMAIN = "mailbox".getBytes(Charsets.UTF_8);
+
     private final TomP2PNode tomP2PNode;
+    private final EncryptionService encryptionService;
+    private final OutboundMessageQueue outboundMessageQueue;
     private final CopyOnWriteArrayList<MessageHandler> messageHandlers = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<OutgoingMessageListener> outgoingMessageListeners =
+            new CopyOnWriteArrayList<>();
+    private final TradeMessageDeduplicator deduplicator = new TradeMessageDeduplicator();
+    private final MessageCodec messageCodec = new MessageCodec();
+    private final MessageDispatchQueue dispatchQueue = new MessageDispatchQueue(MessageDispatchQueue.DEFAULT_CAPACITY);
     private Executor executor;
 
 
@@ -62,12 +94,26 @@ public class TomP2PTradeMessageService implements TradeMessageService {
     // Constructor
     ///////////////////////////////////////////////////////////////////////////////////////////
 
-    public TomP2PTradeMessageService(TomP2PNode tomP2PNode) {
+    public TomP2PTradeMessageService(TomP2PNode tomP2PNode, TimeoutService timeoutService,
+                                     EncryptionService encryptionService) {
         this.tomP2PNode = tomP2PNode;
+        this.encryptionService = encryptionService;
+        outboundMessageQueue = new OutboundMessageQueue(tomP2PNode, timeoutService);
     }
 
     public void setExecutor(Executor executor) {
         this.executor = executor;
+        dispatchQueue.setExecutor(executor);
+    }
+
+    // Replace a queued trade message by a newer one of the same type for the same trade
+    public void setCoalescing(boolean coalescing) {
+        outboundMessageQueue.setCoalescing(coalescing);
+    }
+
+    // Messages with a larger serialized size get compressed, MessageCodec.COMPRESSION_DISABLED turns it off
+    public void setCompressionThreshold(int compressionThreshold) {
+        messageCodec.setCompressionThreshold(compressionThreshold);
     }
 
 
@@ -99,27 +145,170 @@ public class TomP2PTradeMessageService implements TradeMessageService {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     public void sendMessage(Peer peer, Message message, SendMessageListener listener) {
+        send(peer, message, success -> {
+            if (success)
+                listener.handleResult();
+            else
+                listener.handleFault();
+        });
+    }
+
+    public void sendMessage(Peer peer, Message message, PublicKey messagePublicKey, byte[] encryptionPubKey,
+                            SendMessageListener listener) {
+        send(peer, message, success -> {
+            if (success)
+                listener.handleResult();
+            else
+                addToMailbox(message, messagePublicKey, encryptionPubKey, listener);
+        });
+    }
+
+    private void send(Peer peer, Message message, SendResultHandler resultHandler) {
         if (!(peer instanceof TomP2PPeer)) {
             throw new IllegalArgumentException("peer must be of type TomP2PPeer");
         }
-        FutureDirect futureDirect = tomP2PNode.sendData(((TomP2PPeer) peer).getPeerAddress(), message);
-        futureDirect.addListener(new BaseFutureListener<BaseFuture>() {
+        if (message instanceof TradeMessage)
+            deduplicator.assignSequenceNumber((TradeMessage) message);
+
+        // Trade messages are retried as the trade gets stuck if one is lost. Other messages (like the offer
+        // availability request) are cheap to repeat by the caller and are only sent once.
+        int maxAttempts = message instanceof TradeMessage ? OutboundMessageQueue.DEFAULT_MAX_ATTEMPTS : 1;
+        MessageCodec.Envelope envelope;
+        try {
+            envelope = messageCodec.encode(message);
+        } catch (IOException e) {
+            log.error("Encoding " + message.getClass().getSimpleName() + " failed: " + e.getMessage());
+            executor.execute(() -> resultHandler.handleResult(false));
+            return;
+        }
+
+        PeerAddress peerAddress = ((TomP2PPeer) peer).getPeerAddress();
+        outboundMessageQueue.add(peerAddress, message, envelope, maxAttempts, (success, latency) -> {
+            if (!success)
+                log.error("sendMessage failed for " + message.getClass().getSimpleName());
+
+            executor.execute(() -> {
+                notifyOutgoingMessageListeners(message, peer, latency, success);
+                resultHandler.handleResult(success);
+            });
+        });
+    }
+
+    private interface SendResultHandler {
+        void handleResult(boolean success);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Mailbox
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void getMailboxMessages(PublicKey messagePublicKey, DecryptionKeyProvider decryptionKeyProvider,
+                                   MailboxMessageFilter mailboxMessageFilter) {
+        Number160 locationKey = getMailboxLocationKey(messagePublicKey);
+        FutureGet futureGet = tomP2PNode.getDataMap(locationKey);
+        futureGet.addListener(new BaseFutureAdapter<BaseFuture>() {
+            @Override
+            public void operationComplete(BaseFuture baseFuture) throws Exception {
+                if (!baseFuture.isSuccess()) {
+                    log.error("Getting mailbox messages failed. failedReason = " + baseFuture.failedReason());
+                    return;
+                }
+
+                Map<?, Data> dataMap = futureGet.dataMap();
+                if (dataMap != null && !dataMap.isEmpty()) {
+                    log.info("Received " + dataMap.size() + " mailbox messages");
+                    for (Data data : dataMap.values()) {
+                        MailboxItem.Content mailboxContent = readMailboxItem(data, decryptionKeyProvider);
+                        if (mailboxContent == null)
+                            continue;
+
+                        executor.execute(() -> {
+                            if (mailboxMessageFilter.accept(mailboxContent.message,
+                                    mailboxContent.senderMessagePublicKey)) {
+                                handleMailboxMessage(mailboxContent.message, mailboxContent.sender);
+                                tomP2PNode.removeFromDataMap(locationKey, data);
+                            }
+                            else {
+                                log.info(mailboxContent.message.getClass().getSimpleName() +
+                                        " cannot be handled yet, we keep it in the mailbox");
+                            }
+                        });
+                    }
+                }
+            }
+        });
+    }
+
+    // The peer could not be reached, we store the message in its mailbox. It will get it at the next start.
+    private void addToMailbox(Message message, PublicKey messagePublicKey, byte[] encryptionPubKey,
+                              SendMessageListener listener) {
+        Data data;
+        try {
+            KeyPair keyPair = tomP2PNode.getKeyPair();
+            byte[] content = MessageCodec.serialize(new MailboxItem.Content(
+                    new TomP2PPeer(tomP2PNode.getPeerAddress()), keyPair.getPublic(), message));
+            byte[] signedContent = MessageCodec.serialize(new MailboxItem.SignedContent(content,
+                    MailboxItem.sign(keyPair.getPrivate(), content)));
+            data = new Data(new MailboxItem(encryptionPubKey,
+                    encryptionService.encrypt(encryptionPubKey, signedContent)));
+        } catch (IOException | GeneralSecurityException e) {
+            log.error("Creating mailbox message failed: " + e.getMessage());
+            executor.execute(listener::handleFault);
+            return;
+        }
+
+        FuturePut futurePut = tomP2PNode.addProtectedData(getMailboxLocationKey(messagePublicKey), data);
+        futurePut.addListener(new BaseFutureAdapter<BaseFuture>() {
             @Override
-            public void operationComplete(BaseFuture future) throws Exception {
-                if (future.isSuccess()) {
+            public void operationComplete(BaseFuture baseFuture) throws Exception {
+                if (baseFuture.isSuccess()) {
+                    log.info(message.getClass().getSimpleName() + " stored in mailbox of peer");
                     executor.execute(listener::handleResult);
                 }
                 else {
-                    log.error("sendMessage failed with reason " + futureDirect.failedReason());
+                    log.error("Storing message in mailbox failed. failedReason = " + baseFuture.failedReason());
                     executor.execute(listener::handleFault);
                 }
             }
+        });
+    }
+
+    // Returns the decrypted content or null if we cannot read it
+    private MailboxItem.Content readMailboxItem(Data data, DecryptionKeyProvider decryptionKeyProvider) {
+        try {
+            Object object = data.object();
+            if (!(object instanceof MailboxItem)) {
+                log.warn("Unexpected object in mailbox: " + object);
+                return null;
+            }
 
-            @Override
-            public void exceptionCaught(Throwable t) throws Exception {
-                executor.execute(listener::handleFault);
+            MailboxItem mailboxItem = (MailboxItem) object;
+            ECKey key = decryptionKeyProvider.getKey(mailboxItem.encryptionPubKey);
+            if (key == null) {
+                log.warn("We don't have the key to decrypt a mailbox message");
+                return null;
             }
-        });
+
+            byte[] decrypted = encryptionService.decrypt(key, mailboxItem.encryptedContent);
+            MailboxItem.SignedContent signedContent =
+                    (MailboxItem.SignedContent) MessageCodec.deserialize(new ByteArrayInputStream(decrypted));
+            MailboxItem.Content mailboxContent =
+                    (MailboxItem.Content) MessageCodec.deserialize(new ByteArrayInputStream(signedContent.content));
+            if (!MailboxItem.verify(mailboxContent.senderMessagePublicKey, signedContent.content,
+                    signedContent.signature)) {
+                log.warn("Mailbox message with an invalid signature");
+                return null;
+            }
+            return mailboxContent;
+        } catch (IOException | ClassNotFoundException | GeneralSecurityException | ClassCastException e) {
+            log.error("Reading mailbox message failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Number160 getMailboxLocationKey(PublicKey messagePublicKey) {
+        return Utils.makeSHAHash(Bytes.concat(messagePublicKey.getEncoded(), MAILBOX_DOMAIN));
     }
 
 
@@ -137,15 +326,103 @@ public class TomP2PTradeMessageService implements TradeMessageService {
             throw new RuntimeException("Try to remove listener which was never added.");
     }
 
+    public void addOutgoingMessageListener(OutgoingMessageListener listener) {
+        outgoingMessageListeners.add(listener);
+    }
+
+    public void removeOutgoingMessageListener(OutgoingMessageListener listener) {
+        outgoingMessageListeners.remove(listener);
+    }
+
+    private void notifyOutgoingMessageListeners(Message message, Peer peer, long duration, boolean success) {
+        outgoingMessageListeners.stream().forEach(e -> e.onMessageSent(message, peer, duration, success));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Statistics
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public long getNumDuplicateMessages() {
+        return deduplicator.getNumDuplicates();
+    }
+
+    // Number of messages waiting to be delivered, including the ones currently being sent
+    public int getOutboundQueueDepth() {
+        return outboundMessageQueue.getQueueDepth();
+    }
+
+    public long getNumRetries() {
+        return outboundMessageQueue.getNumRetries();
+    }
+
+    public long getNumFailedMessages() {
+        return outboundMessageQueue.getNumFailedMessages();
+    }
+
+    public long getNumCoalescedMessages() {
+        return outboundMessageQueue.getNumCoalescedMessages();
+    }
+
+    // Time from sendMessage until the peer acknowledged the message, including retries
+    public LatencyStatistics getDeliveryLatency() {
+        return outboundMessageQueue.getDeliveryLatency();
+    }
+
+    // Serialized and encoded (on the wire) size of the sent messages by message type
+    public Map<String, MessageCodec.SizeStatistics> getMessageSizeStatistics() {
+        return messageCodec.getSizeStatistics();
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Incoming message handler
     ///////////////////////////////////////////////////////////////////////////////////////////
 
+    // Called by the workers of the InboundMessageQueue. The handlers run on the executor, in the order of the priority
+    // of the messages, and a worker blocks while too many messages wait for the executor.
     @Override
-    public void handleMessage(Object message, Peer sender) {
-        if (message instanceof Message && sender instanceof TomP2PPeer) {
-            executor.execute(() -> messageHandlers.stream().forEach(e -> e.handleMessage((Message) message, sender)));
+    public void handleMessage(Object request, Peer sender) {
+        Object message = request;
+        if (request instanceof MessageCodec.Envelope) {
+            MessageCodec.Envelope envelope = (MessageCodec.Envelope) request;
+            try {
+                message = messageCodec.decode(envelope);
+            } catch (IOException | ClassNotFoundException e) {
+                log.error("Decoding message from " + sender + " failed: " + e.getMessage());
+                return;
+            }
+
+            // The priority is set by the sender, we don't let it jump the queue with a wrong one
+            if (message instanceof Message && envelope.getPriority() != null &&
+                    envelope.getPriority().ordinal() < MessageCodec.getPriority((Message) message).ordinal()) {
+                log.warn("Dropped message from " + sender + " with wrong priority " + envelope.getPriority());
+                return;
+            }
+        }
+
+        if (message instanceof Message && sender instanceof TomP2PPeer && !isDuplicate((Message) message)) {
+            Message decodedMessage = (Message) message;
+            try {
+                dispatchQueue.dispatch(MessageCodec.getPriority(decodedMessage),
+                        () -> deliverMessage(decodedMessage, sender));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
+
+    // Mailbox messages are handled on the executor already, so they don't go through the dispatch queue
+    private void handleMailboxMessage(Message message, Peer sender) {
+        if (sender instanceof TomP2PPeer && !isDuplicate(message))
+            deliverMessage(message, sender);
+    }
+
+    private boolean isDuplicate(Message message) {
+        return message instanceof TradeMessage && deduplicator.isDuplicate((TradeMessage) message);
+    }
+
+    private void deliverMessage(Message message, Peer sender) {
+        messageHandlers.stream().forEach(e -> e.handleMessage(message, sender));
+    }
 }
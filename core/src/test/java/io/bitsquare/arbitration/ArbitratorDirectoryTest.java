@@ -0,0 +1,116 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.arbitration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ArbitratorDirectoryTest {
+
+    @Test
+    public void testFindByLanguage() {
+        ArbitratorDirectory directory = new ArbitratorDirectory();
+        Arbitrator alice = createArbitrator("alice", Arbitrator.ID_TYPE.REAL_LIFE_ID,
+                Arrays.asList(Locale.ENGLISH, Locale.GERMAN), Arbitrator.METHOD.TLS_NOTARY);
+        Arbitrator bob = createArbitrator("bob", Arbitrator.ID_TYPE.NICKNAME,
+                Arrays.asList(Locale.ENGLISH), Arbitrator.METHOD.SKYPE_SCREEN_SHARING);
+        directory.put("hash1", alice);
+        directory.put("hash2", bob);
+
+        assertEquals(Arrays.asList(alice, bob), directory.getArbitrators(Locale.ENGLISH));
+        assertEquals(Arrays.asList(alice), directory.getArbitrators(Locale.GERMANY));
+        assertTrue(directory.getArbitrators(Locale.FRENCH).isEmpty());
+        assertEquals(Arrays.asList(alice, bob), directory.getArbitrators(null));
+    }
+
+    @Test
+    public void testUpdateAddsUnknownAndDropsRemovedEntries() {
+        ArbitratorDirectory directory = new ArbitratorDirectory();
+        Arbitrator alice = createArbitrator("alice", Arbitrator.ID_TYPE.REAL_LIFE_ID,
+                Arrays.asList(Locale.ENGLISH), Arbitrator.METHOD.TLS_NOTARY);
+        Arbitrator bob = createArbitrator("bob", Arbitrator.ID_TYPE.NICKNAME,
+                Arrays.asList(Locale.GERMAN), Arbitrator.METHOD.OTHER);
+        directory.put("hash1", alice);
+
+        Map<String, Arbitrator> added = new HashMap<>();
+        added.put("hash2", bob);
+        assertTrue(directory.update(new HashSet<>(Arrays.asList("hash2")), added));
+        for (int i = 1; i < ArbitratorDirectory.MISSES_BEFORE_DROP; i++)
+            directory.update(new HashSet<>(Arrays.asList("hash2")), Collections.emptyMap());
+        assertEquals(new HashSet<>(Arrays.asList("hash2")), directory.getContentHashes());
+        assertTrue(directory.getArbitrators(Locale.ENGLISH).isEmpty());
+        assertEquals(Arrays.asList(bob), directory.getArbitrators(Locale.GERMAN));
+
+        // Nothing changed, so the listeners don't need to get notified
+        assertFalse(directory.update(new HashSet<>(Arrays.asList("hash2")), Collections.emptyMap()));
+
+        directory.remove("hash2");
+        assertTrue(directory.isEmpty());
+        assertTrue(directory.getArbitrators(Locale.GERMAN).isEmpty());
+    }
+
+    @Test
+    public void testEntryIsOnlyDroppedAfterConsecutiveMisses() {
+        ArbitratorDirectory directory = new ArbitratorDirectory();
+        directory.put("hash1", createArbitrator("alice", Arbitrator.ID_TYPE.REAL_LIFE_ID,
+                Arrays.asList(Locale.ENGLISH), Arbitrator.METHOD.TLS_NOTARY));
+
+        // A digest which contains the entry again resets the misses
+        for (int i = 1; i < ArbitratorDirectory.MISSES_BEFORE_DROP; i++)
+            assertFalse(directory.update(Collections.emptySet(), Collections.emptyMap()));
+        assertFalse(directory.update(new HashSet<>(Arrays.asList("hash1")), Collections.emptyMap()));
+        for (int i = 1; i < ArbitratorDirectory.MISSES_BEFORE_DROP; i++)
+            assertFalse(directory.update(Collections.emptySet(), Collections.emptyMap()));
+        assertTrue(directory.contains("hash1"));
+
+        assertTrue(directory.update(Collections.emptySet(), Collections.emptyMap()));
+        assertTrue(directory.isEmpty());
+    }
+
+    @Test
+    public void testCurrentVersions() {
+        ArbitratorDirectory directory = new ArbitratorDirectory();
+        Arbitrator published = createArbitrator("alice", Arbitrator.ID_TYPE.REAL_LIFE_ID,
+                Arrays.asList(Locale.ENGLISH), Arbitrator.METHOD.TLS_NOTARY);
+        directory.put("hash1", published);
+
+        Arbitrator stored = createArbitrator("alice", Arbitrator.ID_TYPE.REAL_LIFE_ID,
+                Arrays.asList(Locale.ENGLISH), Arbitrator.METHOD.OTHER);
+        Arbitrator unknown = createArbitrator("bob", Arbitrator.ID_TYPE.NICKNAME,
+                Arrays.asList(Locale.ENGLISH), Arbitrator.METHOD.OTHER);
+        List<Arbitrator> result = directory.getCurrentVersions(Arrays.asList(stored, unknown));
+
+        assertSame(published, result.get(0));
+        assertSame(unknown, result.get(1));
+    }
+
+    private static Arbitrator createArbitrator(String name, Arbitrator.ID_TYPE idType, List<Locale> languages,
+                                               Arbitrator.METHOD method) {
+        return new Arbitrator(new byte[0], "", name, idType, languages, null, null, Arrays.asList(method),
+                Collections.emptyList(), "", "");
+    }
+}
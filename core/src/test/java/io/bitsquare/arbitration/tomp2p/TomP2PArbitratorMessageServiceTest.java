@@ -0,0 +1,78 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.arbitration.tomp2p;
+
+import io.bitsquare.arbitration.Arbitrator;
+import io.bitsquare.arbitration.ArbitratorDirectory;
+import io.bitsquare.network.tomp2p.RepublishScheduler;
+import io.bitsquare.network.tomp2p.TomP2PNode;
+import io.bitsquare.persistence.Persistence;
+
+import java.io.Serializable;
+
+import java.util.List;
+import java.util.Map;
+
+import net.tomp2p.dht.FuturePut;
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureListener;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.Data;
+
+import org.junit.Test;
+
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TomP2PArbitratorMessageServiceTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAddedArbitratorIsRepublishedAfterRestart() throws Exception {
+        TomP2PNode tomP2PNode = mock(TomP2PNode.class);
+        Persistence persistence = mock(Persistence.class);
+        FuturePut futurePut = mock(FuturePut.class);
+        when(futurePut.isSuccess()).thenReturn(true);
+        when(tomP2PNode.addProtectedData(any(Number160.class), any(Data.class))).thenReturn(futurePut);
+
+        TomP2PArbitratorMessageService messageService =
+                new TomP2PArbitratorMessageService(tomP2PNode, new ArbitratorDirectory(), persistence);
+        messageService.setExecutor(Runnable::run);
+        Arbitrator arbitrator = new Arbitrator();
+        messageService.addArbitrator(arbitrator);
+
+        ArgumentCaptor<BaseFutureListener> listenerCaptor = ArgumentCaptor.forClass(BaseFutureListener.class);
+        verify(futurePut).addListener(listenerCaptor.capture());
+        listenerCaptor.getValue().operationComplete(futurePut);
+
+        ArgumentCaptor<Map> persistedCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(persistence).write(eq(messageService), eq("addedArbitrators"), persistedCaptor.capture());
+
+        // After a restart a new service reads the arbitrators we added from the persistence
+        Persistence restartedPersistence = mock(Persistence.class);
+        when(restartedPersistence.read(any(), eq("addedArbitrators")))
+                .thenReturn((Serializable) persistedCaptor.getValue());
+        TomP2PArbitratorMessageService restartedMessageService =
+                new TomP2PArbitratorMessageService(tomP2PNode, new ArbitratorDirectory(), restartedPersistence);
+
+        List<RepublishScheduler.Entry> entries = restartedMessageService.getRepublishEntries();
+        assertEquals(1, entries.size());
+        assertEquals(new Data(arbitrator).hash(), entries.get(0).getContentKey());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.common.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyStatisticsTest {
+
+    @Test
+    public void testPercentiles() {
+        LatencyStatistics statistics = new LatencyStatistics();
+        assertEquals(0, statistics.getPercentile(50));
+
+        for (int i = 100; i > 0; i--)
+            statistics.record(i);
+
+        assertEquals(100, statistics.getCount());
+        assertEquals(50.5, statistics.getMean(), 0.001);
+        assertEquals(100, statistics.getMax());
+        assertArrayEquals(new long[]{1, 50, 90, 99, 100}, statistics.getPercentiles(0, 50, 90, 99, 100));
+    }
+
+    @Test
+    public void testOnlyLastSamplesAreKept() {
+        LatencyStatistics statistics = new LatencyStatistics(10);
+        for (int i = 1; i <= 100; i++)
+            statistics.record(i);
+
+        assertEquals(100, statistics.getCount());
+        assertEquals(100, statistics.getMax());
+        assertEquals(91, statistics.getPercentile(0));
+        assertEquals(95, statistics.getPercentile(50));
+
+        statistics.reset();
+        assertEquals(0, statistics.getCount());
+        assertEquals(0, statistics.getPercentile(99));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.common.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateStatisticsTest {
+
+    private static final long START = 1000000000L;
+
+    @Test
+    public void testRate() {
+        RateStatistics statistics = new RateStatistics(10);
+        assertEquals(0, statistics.getRate(START), 0.001);
+
+        for (int i = 0; i < 10; i++) {
+            statistics.record(START + i * 1000);
+            statistics.record(START + i * 1000 + 500);
+        }
+
+        assertEquals(20, statistics.getCount());
+        assertEquals(2, statistics.getRate(START + 9500), 0.001);
+    }
+
+    @Test
+    public void testOldEventsLeaveTheWindow() {
+        RateStatistics statistics = new RateStatistics(10);
+        for (int i = 0; i < 10; i++)
+            statistics.record(START);
+
+        assertEquals(1, statistics.getRate(START + 9000), 0.001);
+        assertEquals(0, statistics.getRate(START + 10000), 0.001);
+
+        // Reuses the bucket of the first second
+        statistics.record(START + 10000);
+        assertEquals(0.1, statistics.getRate(START + 10000), 0.001);
+        assertEquals(11, statistics.getCount());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.common.timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimeoutServiceTest {
+
+    private TimeoutService timeoutService;
+
+    @Before
+    public void setUp() {
+        timeoutService = new TimeoutService();
+    }
+
+    @After
+    public void tearDown() {
+        timeoutService.shutDown();
+    }
+
+    @Test
+    public void testExpiredDeadlineCallsHandlerWithReason() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<String> result = new AtomicReference<>();
+        TimeoutService.Deadline deadline = timeoutService.arm(200, "step 1", expired -> {
+            result.set(expired.getReason());
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals("step 1", result.get());
+        assertTrue(deadline.isDone());
+        assertEquals(0, timeoutService.getNumArmedDeadlines());
+        assertEquals(1, timeoutService.getNumExpiredDeadlines());
+    }
+
+    @Test
+    public void testCancelledDeadlineDoesNotExpire() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        TimeoutService.Deadline deadline = timeoutService.arm(200, "step 1", expired -> latch.countDown());
+        assertEquals(1, timeoutService.getNumArmedDeadlines());
+
+        deadline.cancel();
+        deadline.cancel();
+
+        assertFalse(latch.await(500, TimeUnit.MILLISECONDS));
+        assertEquals(0, timeoutService.getNumArmedDeadlines());
+        assertEquals(0, timeoutService.getNumExpiredDeadlines());
+    }
+
+    @Test
+    public void testManyArmedDeadlines() throws InterruptedException {
+        int numDeadlines = 10000;
+        CountDownLatch latch = new CountDownLatch(numDeadlines / 2);
+        List<TimeoutService.Deadline> deadlines = new ArrayList<>();
+        for (int i = 0; i < numDeadlines; i++) {
+            deadlines.add(timeoutService.arm(300, "step " + i, expired -> latch.countDown()));
+        }
+        assertEquals(numDeadlines, timeoutService.getNumArmedDeadlines());
+
+        for (int i = 0; i < numDeadlines; i += 2) {
+            deadlines.get(i).cancel();
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, timeoutService.getNumArmedDeadlines());
+        assertEquals(numDeadlines / 2, timeoutService.getNumExpiredDeadlines());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.crypto;
+
+import org.bitcoinj.core.ECKey;
+
+import com.google.common.base.Charsets;
+
+import java.security.GeneralSecurityException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EncryptionServiceTest {
+
+    @Test
+    public void testEncryptAndDecrypt() throws Exception {
+        EncryptionService encryptionService = new EncryptionService();
+        ECKey key = new ECKey();
+        byte[] data = "payout tx".getBytes(Charsets.UTF_8);
+
+        byte[] encrypted = encryptionService.encrypt(key.getPubKey(), data);
+        assertArrayEquals(data, encryptionService.decrypt(key, encrypted));
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void testDecryptWithWrongKeyFails() throws Exception {
+        EncryptionService encryptionService = new EncryptionService();
+        byte[] encrypted = encryptionService.encrypt(new ECKey().getPubKey(), new byte[]{1, 2, 3});
+
+        encryptionService.decrypt(new ECKey(), encrypted);
+    }
+}
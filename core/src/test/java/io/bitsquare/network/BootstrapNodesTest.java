@@ -0,0 +1,75 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.network;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BootstrapNodesTest {
+
+    private static final Node NODE = Node.at("bitsquare1.example.com", "203.0.113.1", 5000);
+
+    @Test
+    public void testInstancesOf() {
+        List<Node> instances = BootstrapNodes.instancesOf(NODE, 3);
+
+        assertEquals(3, instances.size());
+        assertEquals(NODE, instances.get(0));
+        assertEquals(Node.at("bitsquare1.example.com-1", "203.0.113.1", 5001), instances.get(1));
+        assertEquals(Node.at("bitsquare1.example.com-2", "203.0.113.1", 5002), instances.get(2));
+        assertEquals(1, BootstrapNodes.instancesOf(NODE, 1).size());
+    }
+
+    @Test
+    public void testSelectInstanceIsDeterministic() {
+        List<Node> instances = BootstrapNodes.instancesOf(NODE, 4);
+
+        for (int i = 0; i < 100; i++)
+            assertEquals(BootstrapNodes.selectInstance(instances, "peer" + i),
+                    BootstrapNodes.selectInstance(BootstrapNodes.instancesOf(NODE, 4), "peer" + i));
+    }
+
+    @Test
+    public void testSelectInstanceSpreadsPeers() {
+        List<Node> instances = BootstrapNodes.instancesOf(NODE, 4);
+        Map<Node, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 4000; i++)
+            counts.merge(BootstrapNodes.selectInstance(instances, "peer" + i), 1, Integer::sum);
+
+        assertEquals(4, counts.size());
+        for (int count : counts.values())
+            assertTrue("count " + count, count > 800 && count < 1200);
+    }
+
+    @Test
+    public void testOnlyPeersOfRemovedInstanceMove() {
+        List<Node> instances = BootstrapNodes.instancesOf(NODE, 4);
+        List<Node> remaining = instances.subList(0, 3);
+
+        for (int i = 0; i < 1000; i++) {
+            Node before = BootstrapNodes.selectInstance(instances, "peer" + i);
+            Node after = BootstrapNodes.selectInstance(remaining, "peer" + i);
+            if (!before.equals(instances.get(3)))
+                assertEquals(before, after);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AddressChangeDetectorTest {
+
+    private PeerAddress peerAddress = new PeerAddress(Number160.ONE);
+    private String networkFingerprint = "lan1";
+    private final List<Boolean> reportedChanges = new ArrayList<>();
+    private final List<Long> detectionTimes = new ArrayList<>();
+    private AddressChangeDetector detector;
+
+    @Before
+    public void setUp() {
+        detector = new AddressChangeDetector(() -> peerAddress, () -> networkFingerprint,
+                (interfacesChanged, detectionTime) -> {
+                    reportedChanges.add(interfacesChanged);
+                    detectionTimes.add(detectionTime);
+                });
+        detector.start(mock(ScheduledExecutorService.class));
+    }
+
+    @Test
+    public void testNoChange() {
+        detector.check(1000);
+        detector.check(10000);
+
+        assertTrue(reportedChanges.isEmpty());
+    }
+
+    @Test
+    public void testStableAddressChangeIsReportedOnce() {
+        peerAddress = new PeerAddress(new Number160(2));
+        detector.check(1000);
+        assertTrue(reportedChanges.isEmpty());
+
+        detector.check(1000 + AddressChangeDetector.DEBOUNCE_DELAY);
+        detector.check(1000 + 2 * AddressChangeDetector.DEBOUNCE_DELAY);
+
+        assertEquals(1, reportedChanges.size());
+        assertFalse(reportedChanges.get(0));
+        assertEquals(1000L, (long) detectionTimes.get(0));
+    }
+
+    @Test
+    public void testFlappingChangeIsReportedWhenStable() {
+        networkFingerprint = "lan2";
+        detector.check(1000);
+        networkFingerprint = "lan3";
+        detector.check(1000 + AddressChangeDetector.DEBOUNCE_DELAY);
+        assertTrue(reportedChanges.isEmpty());
+
+        detector.check(1000 + 2 * AddressChangeDetector.DEBOUNCE_DELAY);
+        assertEquals(1, reportedChanges.size());
+        assertTrue(reportedChanges.get(0));
+    }
+
+    @Test
+    public void testChangeBackIsNotReported() {
+        networkFingerprint = "lan2";
+        detector.check(1000);
+        networkFingerprint = "lan1";
+        detector.check(1000 + AddressChangeDetector.DEBOUNCE_DELAY);
+        detector.check(1000 + 2 * AddressChangeDetector.DEBOUNCE_DELAY);
+
+        assertTrue(reportedChanges.isEmpty());
+    }
+}
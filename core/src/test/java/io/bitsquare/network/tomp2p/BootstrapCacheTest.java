@@ -0,0 +1,117 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import io.bitsquare.network.BootstrapState;
+import io.bitsquare.network.Node;
+import io.bitsquare.persistence.Persistence;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BootstrapCacheTest {
+
+    private Persistence persistence;
+    private BootstrapCache cache;
+
+    @Before
+    public void setUp() {
+        persistence = mock(Persistence.class);
+        cache = new BootstrapCache(persistence);
+    }
+
+    @Test
+    public void testEntryIsPersisted() {
+        PeerAddress relay = new PeerAddress(Number160.ONE);
+        cache.put("key", new BootstrapCache.Entry(BootstrapState.RELAY_SUCCEEDED, "1.2.3.4", Arrays.asList(relay)));
+
+        BootstrapCache.Entry entry = cache.get("key");
+        assertEquals(BootstrapState.RELAY_SUCCEEDED, entry.getState());
+        assertEquals("1.2.3.4", entry.getExternalAddress());
+        assertEquals(Arrays.asList(relay), entry.getRelays());
+        assertNull(cache.get("otherKey"));
+        verify(persistence).write(eq(cache), eq("entries"), anyMapOf(String.class, BootstrapCache.Entry.class));
+    }
+
+    @Test
+    public void testEntriesAreReadFromPersistence() {
+        HashMap<String, BootstrapCache.Entry> persisted = new HashMap<>();
+        persisted.put("key", new BootstrapCache.Entry(BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_SUCCEEDED,
+                "1.2.3.4", Collections.emptyList()));
+        when(persistence.read(any(BootstrapCache.class), eq("entries"))).thenReturn(persisted);
+
+        assertEquals(BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_SUCCEEDED, cache.get("key").getState());
+    }
+
+    @Test
+    public void testRemove() {
+        cache.put("key", new BootstrapCache.Entry(BootstrapState.DISCOVERY_DIRECT_SUCCEEDED, "1.2.3.4",
+                Collections.emptyList()));
+        cache.remove("key");
+
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void testNodesAreSortedByLatency() {
+        Node fast = Node.at("fast", "10.0.0.1");
+        Node slow = Node.at("slow", "10.0.0.2");
+        Node unknown = Node.at("unknown", "10.0.0.3");
+        Node failed = Node.at("failed", "10.0.0.4");
+        cache.recordLatency(slow, 400);
+        cache.recordLatency(fast, 50);
+        cache.recordFailure(failed);
+
+        assertEquals(Arrays.asList(fast, slow, unknown, failed),
+                cache.sortByLatency(Arrays.asList(failed, unknown, slow, fast)));
+        assertEquals(-1, cache.getLatency(unknown));
+    }
+
+    @Test
+    public void testLatencyIsSmoothed() {
+        Node node = Node.at("node", "10.0.0.1");
+        cache.recordLatency(node, 100);
+        cache.recordLatency(node, 500);
+
+        assertEquals(200, cache.getLatency(node));
+
+        cache.recordFailure(node);
+        cache.recordLatency(node, 80);
+
+        assertEquals(80, cache.getLatency(node));
+    }
+
+    @Test
+    public void testKeyContainsNetworkInterface() {
+        String key = BootstrapCache.createKey("eth0");
+
+        assertTrue(key.startsWith("eth0:"));
+        assertEquals(key, BootstrapCache.createKey("eth0"));
+        assertNotEquals(key, BootstrapCache.createKey("wlan0"));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.util.Arrays;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class DiskStorageTest {
+
+    private final Number640 key1 = new Number640(new Number160(1), Number160.ZERO, new Number160(11), Number160.ZERO);
+    private final Number640 key2 = new Number640(new Number160(2), Number160.ZERO, new Number160(22), Number160.ZERO);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEntriesSurviveRestart() throws IOException {
+        File dir = folder.newFolder();
+        DiskStorage storage = new DiskStorage(dir);
+        Data data1 = new Data("offer 1");
+        storage.put(key1, data1);
+        storage.put(key2, new Data("offer 2"));
+        storage.remove(key2, false);
+        storage.flush();
+        // Simulates a crash, the log is not rewritten
+        storage = new DiskStorage(dir);
+
+        assertEquals(1, storage.getNumLoaded());
+        assertArrayEquals(data1.toBytes(), storage.get(key1).toBytes());
+        assertNull(storage.get(key2));
+    }
+
+    @Test
+    public void testTimeToLiveIsKept() throws IOException {
+        File dir = folder.newFolder();
+        DiskStorage storage = new DiskStorage(dir);
+        storage.put(key1, new Data("offer 1").ttlSeconds(100));
+        storage.put(key2, new Data("offer 2"));
+        storage.close();
+
+        storage = new DiskStorage(dir);
+        int ttlSeconds = storage.get(key1).ttlSeconds();
+        assertTrue(ttlSeconds > 90 && ttlSeconds <= 100);
+        assertNotNull(storage.get(key2));
+    }
+
+    @Test
+    public void testCutOffRecordIsIgnored() throws IOException {
+        File dir = folder.newFolder();
+        DiskStorage storage = new DiskStorage(dir);
+        storage.put(key1, new Data("offer 1"));
+        storage.put(key2, new Data("offer 2"));
+        storage.flush();
+        File file = storage.getLogFile();
+
+        // Cut off the last bytes of the second record
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+
+        storage = new DiskStorage(dir);
+        assertEquals(1, storage.getNumLoaded());
+        assertNotNull(storage.get(key1));
+    }
+
+    @Test
+    public void testEntriesSurviveRestartAfterCompaction() throws Exception {
+        File dir = folder.newFolder();
+        DiskStorage storage = new DiskStorage(dir);
+        // Enough records to start a compaction in the background
+        for (int i = 0; i <= 10001; i++)
+            storage.put(key1, new Data("offer " + i));
+
+        File compactingLogFile = new File(dir, "dht-storage.log.compacting");
+        for (int i = 0; i < 100 && compactingLogFile.exists(); i++)
+            Thread.sleep(50);
+        assertFalse(compactingLogFile.exists());
+
+        storage.put(key2, new Data("offer 2"));
+        storage.flush();
+        // Simulates a crash after the compaction
+        storage = new DiskStorage(dir);
+
+        assertEquals(2, storage.getNumLoaded());
+        assertArrayEquals(new Data("offer 10001").toBytes(), storage.get(key1).toBytes());
+        assertNotNull(storage.get(key2));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import io.bitsquare.network.MessagePriority;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InboundMessageQueueTest {
+
+    private final PeerAddress sender = new PeerAddress(Number160.ONE);
+
+    @Test
+    public void testHigherPriorityIsProcessedFirst() throws Exception {
+        InboundMessageQueue queue = new InboundMessageQueue(1, 10, 0);
+        queue.add(new TestMessage(MessagePriority.OTHER), sender, null);
+        queue.add(new TestMessage(MessagePriority.AVAILABILITY), sender, null);
+        queue.add(new TestMessage(MessagePriority.TRADE), sender, null);
+
+        List<MessagePriority> processed = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+        queue.start((message, peer) -> {
+            processed.add(((TestMessage) message).getPriority());
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        queue.shutDown();
+        assertEquals(MessagePriority.TRADE, processed.get(0));
+        assertEquals(MessagePriority.AVAILABILITY, processed.get(1));
+        assertEquals(MessagePriority.OTHER, processed.get(2));
+    }
+
+    @Test
+    public void testMessagesOfAPeerAreProcessedInOrder() throws Exception {
+        int numMessages = 200;
+        InboundMessageQueue queue = new InboundMessageQueue(4, 2 * numMessages * 4, 0);
+        PeerAddress sender2 = new PeerAddress(new Number160(2));
+        List<TestMessage> processed = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2 * numMessages);
+        queue.start((message, peer) -> {
+            processed.add((TestMessage) message);
+            latch.countDown();
+        });
+
+        for (int i = 0; i < numMessages; i++) {
+            queue.add(new TestMessage(MessagePriority.TRADE, sender, i), sender, null);
+            queue.add(new TestMessage(MessagePriority.TRADE, sender2, i), sender2, null);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        queue.shutDown();
+        assertInOrder(processed, sender, numMessages);
+        assertInOrder(processed, sender2, numMessages);
+    }
+
+    @Test
+    public void testMessagesAreDroppedIfQueueIsFull() {
+        InboundMessageQueue queue = new InboundMessageQueue(1, 1, 0);
+
+        assertTrue(queue.add(new TestMessage(MessagePriority.AVAILABILITY), sender, null));
+        assertFalse(queue.add(new TestMessage(MessagePriority.AVAILABILITY), sender, null));
+        assertTrue(queue.add(new TestMessage(MessagePriority.TRADE), sender, null));
+        assertEquals(1, queue.getNumDropped(MessagePriority.AVAILABILITY));
+        assertEquals(0, queue.getNumDropped(MessagePriority.TRADE));
+    }
+
+    @Test
+    public void testSenderIsRateLimited() {
+        InboundMessageQueue queue = new InboundMessageQueue(1, 100, 1);
+
+        // burst of 2 seconds
+        assertTrue(queue.add(new TestMessage(MessagePriority.OTHER), sender, null));
+        assertTrue(queue.add(new TestMessage(MessagePriority.OTHER), sender, null));
+        assertFalse(queue.add(new TestMessage(MessagePriority.OTHER), sender, null));
+        assertTrue(queue.add(new TestMessage(MessagePriority.OTHER), new PeerAddress(new Number160(2)), null));
+        assertEquals(1, queue.getNumRejected());
+    }
+
+    private static void assertInOrder(List<TestMessage> processed, PeerAddress sender, int numMessages) {
+        List<Integer> sequenceNumbers = processed.stream().filter(e -> sender.equals(e.sender))
+                .map(e -> e.sequenceNumber).collect(Collectors.toList());
+        assertEquals(numMessages, sequenceNumbers.size());
+        for (int i = 0; i < numMessages; i++)
+            assertEquals(i, (int) sequenceNumbers.get(i));
+    }
+
+    private static class TestMessage implements MessagePriority.Prioritized {
+        private final MessagePriority priority;
+        private final PeerAddress sender;
+        private final int sequenceNumber;
+
+        TestMessage(MessagePriority priority) {
+            this(priority, null, 0);
+        }
+
+        TestMessage(MessagePriority priority, PeerAddress sender, int sequenceNumber) {
+            this.priority = priority;
+            this.sender = sender;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public MessagePriority getPriority() {
+            return priority;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MonitoredEventExecutorGroupTest {
+
+    @Test
+    public void testDefaultSizeDependsOnRoleAndCores() {
+        assertEquals(4, MonitoredEventExecutorGroup.Role.CLIENT.getDefaultSize(1));
+        assertEquals(16, MonitoredEventExecutorGroup.Role.CLIENT.getDefaultSize(8));
+        assertEquals(32, MonitoredEventExecutorGroup.Role.CLIENT.getDefaultSize(64));
+        assertEquals(32, MonitoredEventExecutorGroup.Role.BOOTSTRAP_NODE.getDefaultSize(1));
+        assertEquals(128, MonitoredEventExecutorGroup.Role.BOOTSTRAP_NODE.getDefaultSize(8));
+    }
+
+    @Test
+    public void testConfiguredSizeIsUsed() throws Exception {
+        MonitoredEventExecutorGroup group = MonitoredEventExecutorGroup.create(
+                MonitoredEventExecutorGroup.Role.BOOTSTRAP_NODE, 3);
+        try {
+            assertEquals(3, group.getSize());
+            assertEquals(0, group.getQueueLength());
+        } finally {
+            group.shutdownGracefully().await();
+        }
+    }
+}
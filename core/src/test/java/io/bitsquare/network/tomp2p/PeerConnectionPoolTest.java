@@ -0,0 +1,95 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import net.tomp2p.futures.FuturePeerConnection;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PeerConnectionPoolTest {
+
+    private final PeerAddress peerAddress1 = new PeerAddress(new Number160(1));
+    private final PeerAddress peerAddress2 = new PeerAddress(new Number160(2));
+    private final PeerAddress peerAddress3 = new PeerAddress(new Number160(3));
+    private Peer peer;
+
+    @Before
+    public void setUp() {
+        peer = mock(Peer.class);
+        when(peer.createPeerConnection(any(PeerAddress.class), anyInt()))
+                .thenAnswer(invocation -> mock(FuturePeerConnection.class));
+    }
+
+    @Test
+    public void testConnectionIsReused() {
+        PeerConnectionPool pool = new PeerConnectionPool(10, PeerConnectionPool.DEFAULT_IDLE_TIMEOUT);
+        FuturePeerConnection connection = pool.acquire(peer, peerAddress1);
+
+        assertSame(connection, pool.acquire(peer, peerAddress1));
+        assertNotSame(connection, pool.acquire(peer, peerAddress2));
+        assertEquals(2, pool.getNumOpened());
+        assertEquals(1, pool.getNumReused());
+        verify(peer, times(1)).createPeerConnection(peerAddress1, PeerConnectionPool.DEFAULT_IDLE_TIMEOUT);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedConnectionIsClosedIfFull() {
+        PeerConnectionPool pool = new PeerConnectionPool(2, PeerConnectionPool.DEFAULT_IDLE_TIMEOUT);
+        FuturePeerConnection connection1 = pool.acquire(peer, peerAddress1);
+        FuturePeerConnection connection2 = pool.acquire(peer, peerAddress2);
+        pool.acquire(peer, peerAddress1);
+        pool.acquire(peer, peerAddress3);
+
+        assertEquals(2, pool.getSize());
+        assertEquals(1, pool.getNumClosed());
+        assertSame(connection1, pool.acquire(peer, peerAddress1));
+        assertNotSame(connection2, pool.acquire(peer, peerAddress2));
+    }
+
+    @Test
+    public void testInvalidatedConnectionIsReplaced() {
+        PeerConnectionPool pool = new PeerConnectionPool(10, PeerConnectionPool.DEFAULT_IDLE_TIMEOUT);
+        FuturePeerConnection connection = pool.acquire(peer, peerAddress1);
+        pool.invalidate(peerAddress1, connection);
+
+        assertEquals(0, pool.getSize());
+        assertNotSame(connection, pool.acquire(peer, peerAddress1));
+    }
+
+    @Test
+    public void testExpiredConnectionIsNotReused() {
+        // idle timeout below the margin, so every connection is expired at the next acquire
+        PeerConnectionPool pool = new PeerConnectionPool(10, 1000);
+        FuturePeerConnection connection = pool.acquire(peer, peerAddress1);
+
+        assertNotSame(connection, pool.acquire(peer, peerAddress1));
+        assertEquals(0, pool.getNumReused());
+    }
+
+    @Test
+    public void testPoolIsDisabledWithSizeZero() {
+        assertFalse(new PeerConnectionPool(0, PeerConnectionPool.DEFAULT_IDLE_TIMEOUT).isEnabled());
+    }
+}
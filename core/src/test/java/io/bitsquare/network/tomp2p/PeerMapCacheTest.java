@@ -0,0 +1,106 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import io.bitsquare.persistence.Persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PeerMapCacheTest {
+
+    private final PeerAddress peerAddress1 = new PeerAddress(new Number160(1));
+    private final PeerAddress peerAddress2 = new PeerAddress(new Number160(2));
+    private final PeerAddress peerAddress3 = new PeerAddress(new Number160(3));
+    private Persistence persistence;
+    private Peer peer;
+    private PeerMapCache cache;
+
+    @Before
+    public void setUp() {
+        persistence = mock(Persistence.class);
+        peer = mock(Peer.class, RETURNS_DEEP_STUBS);
+        cache = new PeerMapCache(persistence);
+    }
+
+    @After
+    public void tearDown() {
+        cache.shutDown();
+    }
+
+    @Test
+    public void testPeersOfPeerMapAreSaved() {
+        when(peer.peerBean().peerMap().all()).thenReturn(Arrays.asList(peerAddress1, peerAddress2));
+        cache.start(peer);
+        cache.save();
+
+        List<PeerMapCache.Entry> saved = getSavedEntries();
+        assertEquals(2, saved.size());
+        assertTrue(saved.stream().allMatch(e -> e.getNumSessions() == 1));
+    }
+
+    @Test
+    public void testPersistedPeersAreProbedAndKept() {
+        long now = System.currentTimeMillis();
+        ArrayList<PeerMapCache.Entry> persisted = new ArrayList<>();
+        persisted.add(new PeerMapCache.Entry(peerAddress1, now - 1000, 3));
+        persisted.add(new PeerMapCache.Entry(peerAddress2, now - 2000, 1));
+        // Too old, gets dropped
+        persisted.add(new PeerMapCache.Entry(peerAddress3, now - 30L * 24 * 60 * 60 * 1000, 1));
+        when(persistence.read(any(PeerMapCache.class), eq("peers"))).thenReturn(persisted);
+        when(peer.peerBean().peerMap().all()).thenReturn(Arrays.asList(peerAddress1));
+
+        cache.start(peer);
+        verify(peer.ping(), times(2)).peerAddress(any(PeerAddress.class));
+
+        cache.save();
+        List<PeerMapCache.Entry> saved = getSavedEntries();
+        assertEquals(2, saved.size());
+        assertEquals(peerAddress1, saved.get(0).getPeerAddress());
+        assertEquals(4, saved.get(0).getNumSessions());
+        assertEquals(peerAddress2, saved.get(1).getPeerAddress());
+    }
+
+    @Test
+    public void testNothingIsSavedBeforeStart() {
+        cache.save();
+
+        verifyZeroInteractions(persistence);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<PeerMapCache.Entry> getSavedEntries() {
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(persistence, atLeastOnce()).write(any(PeerMapCache.class), eq("peers"), captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.network.tomp2p;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.Data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RepublishSchedulerTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void testIntervalWithoutChurn() {
+        assertEquals(RepublishScheduler.MAX_INTERVAL, RepublishScheduler.getInterval(0, 100, 10 * MINUTE));
+    }
+
+    @Test
+    public void testIntervalFollowsChurn() {
+        // 10 of 100 peers gone in 10 minutes, a quarter is gone after 25 minutes
+        assertEquals(25 * MINUTE, RepublishScheduler.getInterval(10, 100, 10 * MINUTE));
+        // Twice the churn, half the interval
+        assertEquals(12.5 * MINUTE, RepublishScheduler.getInterval(20, 100, 10 * MINUTE), 1);
+    }
+
+    @Test
+    public void testIntervalIsLimited() {
+        assertEquals(RepublishScheduler.MIN_INTERVAL, RepublishScheduler.getInterval(100, 100, MINUTE));
+        assertEquals(RepublishScheduler.MAX_INTERVAL, RepublishScheduler.getInterval(1, 1000, 10 * MINUTE));
+    }
+
+    @Test
+    public void testJitter() {
+        assertEquals(80, RepublishScheduler.getJitteredInterval(100, 0));
+        assertEquals(100, RepublishScheduler.getJitteredInterval(100, 0.5));
+        assertEquals(120, RepublishScheduler.getJitteredInterval(100, 1));
+    }
+
+    @Test
+    public void testEntriesAreGroupedByLocationKey() {
+        Data data = new Data(new byte[]{1});
+        Number160 location1 = Number160.createHash("location1");
+        Number160 location2 = Number160.createHash("location2");
+        Map<Number160, Map<Number160, Data>> grouped = RepublishScheduler.groupByLocationKey(Arrays.asList(
+                new RepublishScheduler.Entry(location1, Number160.createHash(1), data),
+                new RepublishScheduler.Entry(location2, Number160.createHash(2), data),
+                new RepublishScheduler.Entry(location1, Number160.createHash(3), data)));
+
+        assertEquals(2, grouped.size());
+        assertEquals(2, grouped.get(location1).size());
+        assertEquals(1, grouped.get(location2).size());
+    }
+}
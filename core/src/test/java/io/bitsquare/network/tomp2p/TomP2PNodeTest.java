@@ -39,6 +39,7 @@ import net.tomp2p.rpc.ObjectDataReply;
 import net.tomp2p.storage.Data;
 import net.tomp2p.utils.Utils;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -53,6 +54,15 @@ public class TomP2PNodeTest {
 
     final private static Random rnd = new Random(42L);
 
+    private final InboundMessageQueue inboundMessageQueue = new InboundMessageQueue(
+            InboundMessageQueue.DEFAULT_WORKERS, InboundMessageQueue.DEFAULT_QUEUE_CAPACITY,
+            InboundMessageQueue.DEFAULT_MAX_MESSAGES_PER_SECOND);
+
+    @After
+    public void tearDown() {
+        inboundMessageQueue.shutDown();
+    }
+
     @Test
     public void testSendData() throws Exception {
         PeerDHT[] peers = UtilsDHT2.createNodes(3, rnd, new Ports().tcpPort());
@@ -81,7 +91,7 @@ public class TomP2PNodeTest {
         Object object;
         FutureDirect futureDirect;
 
-        node = new TomP2PNode(keyPairClient, client);
+        node = createNode(keyPairClient, client);
         object = "clients data";
         futureDirect = node.sendData(otherPeer.peerAddress(), object);
         futureDirect.awaitUninterruptibly();
@@ -115,7 +125,7 @@ public class TomP2PNodeTest {
         // otherPeer tries to squat clients location store
         // he can do it but as he has not the domain key of the client he cannot do any harm
         // he only can store und that path: locationKey.otherPeerDomainKey.data
-        node = new TomP2PNode(keyPairOtherPeer, otherPeer);
+        node = createNode(keyPairOtherPeer, otherPeer);
         locationKey = Number160.createHash("clients location");
         data = new Data("otherPeer data");
         futurePut = node.putDomainProtectedData(locationKey, data);
@@ -129,7 +139,7 @@ public class TomP2PNodeTest {
 
         // client store his data und his domainkey, no problem with previous occupied
         // he only can store und that path: locationKey.clientDomainKey.data
-        node = new TomP2PNode(keyPairClient, client);
+        node = createNode(keyPairClient, client);
         locationKey = Number160.createHash("clients location");
         data = new Data("client data");
         futurePut = node.putDomainProtectedData(locationKey, data);
@@ -142,7 +152,7 @@ public class TomP2PNodeTest {
         assertEquals("client data", futureGet.data().object());
 
         // also other peers can read that data if they know the public key of the client
-        node = new TomP2PNode(keyPairOtherPeer, otherPeer);
+        node = createNode(keyPairOtherPeer, otherPeer);
         futureGet = node.getDomainProtectedData(locationKey, keyPairClient.getPublic());
         futureGet.awaitUninterruptibly();
         assertTrue(futureGet.isSuccess());
@@ -164,7 +174,7 @@ public class TomP2PNodeTest {
         assertFalse(futurePut.isSuccess());
 
         // he can read his prev. stored data
-        node = new TomP2PNode(keyPairOtherPeer, otherPeer);
+        node = createNode(keyPairOtherPeer, otherPeer);
         futureGet = node.getDomainProtectedData(locationKey, keyPairOtherPeer.getPublic());
         futureGet.awaitUninterruptibly();
         assertTrue(futureGet.isSuccess());
@@ -239,7 +249,7 @@ public class TomP2PNodeTest {
         KeyPair keyPair1 = gen.generateKeyPair();
         keyPairClient = keyPair1;
 
-        node = new TomP2PNode(keyPairClient, client);
+        node = createNode(keyPairClient, client);
         locationKey = Number160.createHash("add to list clients location");
         data = new Data("add to list client data1");
         Data data_1 = data;
@@ -294,7 +304,7 @@ public class TomP2PNodeTest {
         futurePut.awaitUninterruptibly();
         assertTrue(futurePut.isSuccess());
 
-        node = new TomP2PNode(keyPairOtherPeer, otherPeer);
+        node = createNode(keyPairOtherPeer, otherPeer);
         futureGet = node.getDataMap(locationKey);
         futureGet.awaitUninterruptibly();
         assertTrue(futureGet.isSuccess());
@@ -330,7 +340,7 @@ public class TomP2PNodeTest {
 
 
         // client removes his entry -> OK
-        node = new TomP2PNode(keyPairClient, client);
+        node = createNode(keyPairClient, client);
         FutureRemove futureRemove = node.removeFromDataMap(locationKey, data_1);
         futureRemove.awaitUninterruptibly();
 
@@ -375,7 +385,7 @@ public class TomP2PNodeTest {
 
 
         // otherPeer tries to removes client entry -> FAIL
-        node = new TomP2PNode(keyPairOtherPeer, otherPeer);
+        node = createNode(keyPairOtherPeer, otherPeer);
         futureRemove = node.removeFromDataMap(locationKey, data_2);
         futureRemove.awaitUninterruptibly();
         assertFalse(futureRemove.isSuccess());
@@ -417,5 +427,8 @@ public class TomP2PNodeTest {
         master.shutdown();
     }
 
-
+    private TomP2PNode createNode(KeyPair keyPair, PeerDHT peerDHT) {
+        return new TomP2PNode(keyPair, peerDHT, new PeerConnectionPool(PeerConnectionPool.DEFAULT_MAX_SIZE,
+                PeerConnectionPool.DEFAULT_IDLE_TIMEOUT), inboundMessageQueue);
+    }
 }
@@ -0,0 +1,187 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer;
+
+import io.bitsquare.arbitration.Arbitrator;
+import io.bitsquare.arbitration.Reputation;
+import io.bitsquare.fiat.FiatAccountType;
+import io.bitsquare.locale.Country;
+import io.bitsquare.locale.CountryUtil;
+import io.bitsquare.util.DSAKeyUtil;
+import io.bitsquare.util.Utilities;
+
+import org.bitcoinj.core.Coin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+
+import java.security.PublicKey;
+
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OfferTest {
+
+    @Test
+    public void testReceivedOffersShareCountriesLanguagesAndArbitrators() throws Exception {
+        Offer offer1 = (Offer) Utilities.copy(createOffer("id1", createArbitrator(new byte[]{1})));
+        Offer offer2 = (Offer) Utilities.copy(createOffer("id2", createArbitrator(new byte[]{1})));
+
+        assertEquals(Currency.getInstance("EUR"), offer1.getCurrency());
+        assertEquals("DE", offer1.getBankAccountCountry().getCode());
+        assertSame(offer1.getBankAccountCountry(), offer2.getBankAccountCountry());
+        assertSame(offer1.getAcceptedCountries().get(1), offer2.getAcceptedCountries().get(1));
+        assertEquals(Arrays.asList(Locale.ENGLISH, Locale.GERMAN), offer1.getAcceptedLanguageLocales());
+        assertSame(offer1.getAcceptedLanguageLocales().get(0), offer2.getAcceptedLanguageLocales().get(0));
+        assertSame(offer1.getArbitrators().get(0), offer2.getArbitrators().get(0));
+    }
+
+    @Test
+    public void testArbitratorsWithSameIdAndDifferentKeysAreNotShared() throws Exception {
+        Offer offer1 = (Offer) Utilities.copy(createOffer("id1", createArbitrator(new byte[]{1})));
+        Offer offer2 = (Offer) Utilities.copy(createOffer("id2", createArbitrator(new byte[]{2})));
+
+        assertNotSame(offer1.getArbitrators().get(0), offer2.getArbitrators().get(0));
+        assertArrayEquals(new byte[]{2}, offer2.getArbitrators().get(0).getPubKey());
+    }
+
+    @Test
+    public void testDeserializeOfferOfPreviousVersion() throws Exception {
+        Offer offer = createOffer("id1", createArbitrator(new byte[]{1}));
+        Offer received = (Offer) new ObjectInputStream(new ByteArrayInputStream(serializeAsPreviousVersion(
+                new PreviousVersionOffer(offer)))).readObject();
+
+        assertEquals("id1", received.getId());
+        assertEquals(Currency.getInstance("EUR"), received.getCurrency());
+        assertEquals(offer.getPrice(), received.getPrice());
+        assertSame(CountryUtil.getCountry("DE"), received.getBankAccountCountry());
+        assertSame(CountryUtil.getCountry("AT"), received.getAcceptedCountries().get(0));
+        assertEquals(Arrays.asList(Locale.ENGLISH, Locale.GERMAN), received.getAcceptedLanguageLocales());
+        assertArrayEquals(new byte[]{1}, received.getArbitrators().get(0).getPubKey());
+        assertEquals("txId", received.getOfferFeePaymentTxID());
+        received.validate();
+    }
+
+    // Writes the object with the class descriptor of Offer as it was released: same name, serialVersionUID and fields
+    private static byte[] serializeAsPreviousVersion(PreviousVersionOffer offer) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(byteArrayOutputStream) {
+            @Override
+            protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+                if (desc.forClass() != PreviousVersionOffer.class) {
+                    super.writeClassDescriptor(desc);
+                    return;
+                }
+                writeUTF(Offer.class.getName());
+                writeLong(-971164804305475826L);
+                writeByte(ObjectStreamConstants.SC_SERIALIZABLE);
+                writeShort(desc.getFields().length);
+                for (ObjectStreamField field : desc.getFields()) {
+                    writeByte(field.getTypeCode());
+                    writeUTF(field.getName());
+                    if (!field.isPrimitive())
+                        writeObject(field.getTypeString());
+                }
+            }
+        }) {
+            out.writeObject(offer);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static Offer createOffer(String id, Arbitrator arbitrator) throws Exception {
+        Country germany = CountryUtil.getCountry("DE");
+        return new Offer(id,
+                DSAKeyUtil.generateKeyPair().getPublic(),
+                Direction.BUY,
+                3000000,
+                Coin.COIN,
+                Coin.COIN,
+                FiatAccountType.SEPA,
+                Currency.getInstance("EUR"),
+                germany,
+                "bankAccountUID",
+                Arrays.asList(arbitrator),
+                Coin.COIN,
+                Arrays.asList(CountryUtil.getCountry("AT"), germany),
+                Arrays.asList(Locale.ENGLISH, Locale.GERMAN));
+    }
+
+    private static Arbitrator createArbitrator(byte[] pubKey) {
+        return new Arbitrator(pubKey, "", "arbitrator", Arbitrator.ID_TYPE.REAL_LIFE_ID, Arrays.asList(Locale.ENGLISH),
+                new Reputation(), Coin.COIN, Arrays.asList(Arbitrator.METHOD.TLS_NOTARY),
+                Arrays.asList(Arbitrator.ID_VERIFICATION.PASSPORT), "", "");
+    }
+
+
+    // The fields of Offer with serialVersionUID -971164804305475826L
+    private static class PreviousVersionOffer implements Serializable {
+        private final Direction direction;
+        private final Currency currency;
+        private final String id;
+        private final Date creationDate;
+        private final long fiatPrice;
+        private final Coin amount;
+        private final Coin minAmount;
+        private final PublicKey messagePublicKey;
+        private final FiatAccountType fiatAccountType;
+        private final Country bankAccountCountry;
+        private final Coin securityDeposit;
+        private final List<Country> acceptedCountries;
+        private final List<Locale> acceptedLanguageLocales;
+        private final String bankAccountUID;
+        private final List<Arbitrator> arbitrators;
+        private final String offerFeePaymentTxID;
+        private final Offer.State state;
+
+        PreviousVersionOffer(Offer offer) {
+            direction = offer.getDirection();
+            currency = offer.getCurrency();
+            id = offer.getId();
+            creationDate = offer.getCreationDate();
+            fiatPrice = offer.getPrice().value;
+            amount = offer.getAmount();
+            minAmount = offer.getMinAmount();
+            messagePublicKey = offer.getMessagePublicKey();
+            fiatAccountType = offer.getFiatAccountType();
+            bankAccountCountry = new Country("DE", "Germany", offer.getBankAccountCountry().getRegion());
+            securityDeposit = offer.getSecurityDeposit();
+            acceptedCountries = Arrays.asList(new Country("AT", "Austria", offer.getBankAccountCountry()
+                    .getRegion()), bankAccountCountry);
+            acceptedLanguageLocales = offer.getAcceptedLanguageLocales();
+            bankAccountUID = offer.getBankAccountId();
+            arbitrators = offer.getArbitrators();
+            offerFeePaymentTxID = "txId";
+            state = Offer.State.UNKNOWN;
+        }
+    }
+}
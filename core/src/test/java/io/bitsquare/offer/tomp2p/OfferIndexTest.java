@@ -0,0 +1,84 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.offer.Direction;
+import io.bitsquare.offer.Offer;
+
+import java.util.Currency;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.tomp2p.peers.Number160;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class OfferIndexTest {
+
+    @Test
+    public void testOfferIsStoredUnderOneOfTheKeysOfItsMarket() {
+        OfferIndex offerIndex = new OfferIndex(4);
+        Offer offer = mockOffer("id1", "EUR", Direction.SELL);
+
+        assertTrue(offerIndex.getLocationKeys("EUR", Direction.SELL).contains(offerIndex.getLocationKey(offer)));
+        assertFalse(offerIndex.getLocationKeys("EUR", Direction.BUY).contains(offerIndex.getLocationKey(offer)));
+        assertFalse(offerIndex.getLocationKeys("USD").contains(offerIndex.getLocationKey(offer)));
+        assertEquals(offerIndex.getLocationKey(offer),
+                new OfferIndex(4).getLocationKey(mockOffer("id1", "EUR", Direction.SELL)));
+    }
+
+    @Test
+    public void testLocationKeys() {
+        OfferIndex offerIndex = new OfferIndex(4);
+        List<Number160> sellKeys = offerIndex.getLocationKeys("EUR", Direction.SELL);
+        List<Number160> allKeys = offerIndex.getLocationKeys("EUR");
+
+        assertEquals(4, new HashSet<>(sellKeys).size());
+        assertEquals(8, new HashSet<>(allKeys).size());
+        assertTrue(allKeys.containsAll(sellKeys));
+        assertEquals(1, new OfferIndex(OfferIndex.DEFAULT_SHARDS).getLocationKeys("EUR", Direction.BUY).size());
+    }
+
+    @Test
+    public void testOffersAreSpreadOverShards() {
+        OfferIndex offerIndex = new OfferIndex(4);
+        Set<Integer> shards = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            int shard = offerIndex.getShard("offer" + i);
+            assertTrue(shard >= 0 && shard < 4);
+            shards.add(shard);
+        }
+        assertEquals(4, shards.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAtLeastOneShard() {
+        new OfferIndex(0);
+    }
+
+    private Offer mockOffer(String id, String currencyCode, Direction direction) {
+        Offer offer = mock(Offer.class);
+        when(offer.getId()).thenReturn(id);
+        when(offer.getCurrency()).thenReturn(Currency.getInstance(currencyCode));
+        when(offer.getDirection()).thenReturn(direction);
+        return offer;
+    }
+}
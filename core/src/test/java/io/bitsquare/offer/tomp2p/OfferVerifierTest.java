@@ -0,0 +1,100 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.arbitration.Arbitrator;
+import io.bitsquare.fiat.FiatAccountType;
+import io.bitsquare.locale.CountryUtil;
+import io.bitsquare.offer.Direction;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.util.DSAKeyUtil;
+
+import org.bitcoinj.core.Coin;
+
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.Locale;
+
+import net.tomp2p.storage.Data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OfferVerifierTest {
+    private static final String TX_ID = "5b2bb2e4ab23d9f2bcb2c2d4bd0a3c1a7ed7f6a0a0b2d6b1e0f3d9c4b7a6e5d4";
+
+    private OfferVerifier offerVerifier;
+
+    @Before
+    public void setUp() {
+        offerVerifier = new OfferVerifier(2);
+    }
+
+    @Test
+    public void testInvalidOffersGetDropped() throws Exception {
+        Offer valid = createOffer("valid", TX_ID);
+        Offer withoutFeeTx = createOffer("withoutFeeTx", null);
+        Offer withInvalidFeeTx = createOffer("withInvalidFeeTx", "txId");
+
+        List<Offer> offers = offerVerifier.verify(Arrays.asList(new Data(valid), new Data(withoutFeeTx),
+                new Data(withInvalidFeeTx), new Data("not an offer"))).get();
+
+        assertEquals(1, offers.size());
+        assertEquals("valid", offers.get(0).getId());
+        assertEquals(4, offerVerifier.getNumVerified());
+        assertEquals(3, offerVerifier.getNumRejected());
+    }
+
+    @Test
+    public void testOffersGetVerifiedOncePerContentHash() throws Exception {
+        Data valid = new Data(createOffer("valid", TX_ID));
+        Data invalid = new Data(createOffer("invalid", null));
+
+        List<Offer> first = offerVerifier.verify(Arrays.asList(valid, invalid)).get();
+        // Received again with the next fetch
+        List<Offer> second = offerVerifier.verify(Arrays.asList(new Data(valid.toBytes()),
+                new Data(invalid.toBytes()))).get();
+
+        assertEquals(2, offerVerifier.getNumVerified());
+        assertEquals(2, offerVerifier.getNumCacheHits());
+        assertEquals(1, second.size());
+        assertSame(first.get(0), second.get(0));
+    }
+
+    private static Offer createOffer(String id, String offerFeePaymentTxID) throws Exception {
+        Offer offer = new Offer(id,
+                DSAKeyUtil.generateKeyPair().getPublic(),
+                Direction.BUY,
+                3000000,
+                Coin.COIN,
+                Coin.COIN,
+                FiatAccountType.SEPA,
+                Currency.getInstance("EUR"),
+                CountryUtil.getCountry("DE"),
+                "bankAccountUID",
+                Arrays.asList(new Arbitrator()),
+                Coin.COIN,
+                Arrays.asList(CountryUtil.getCountry("DE")),
+                Arrays.asList(Locale.ENGLISH));
+        offer.setOfferFeePaymentTxID(offerFeePaymentTxID);
+        return offer;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.arbitration.Arbitrator;
+import io.bitsquare.fiat.FiatAccountType;
+import io.bitsquare.locale.Country;
+import io.bitsquare.locale.Region;
+import io.bitsquare.network.tomp2p.RepublishScheduler;
+import io.bitsquare.network.tomp2p.TomP2PNode;
+import io.bitsquare.offer.Direction;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.offer.OfferBookService;
+import io.bitsquare.util.DSAKeyUtil;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.dht.FutureGet;
+import net.tomp2p.dht.FuturePut;
+import net.tomp2p.dht.FutureRemove;
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureListener;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TomP2POfferBookServiceTest {
+
+    private TomP2PNode tomP2PNode;
+    private PublishedOffers publishedOffers;
+    private TomP2POfferBookService offerBookService;
+    private Offer offer;
+
+    @Before
+    public void setUp() throws Exception {
+        tomP2PNode = mock(TomP2PNode.class);
+        publishedOffers = new PublishedOffers();
+        offerBookService = new TomP2POfferBookService(tomP2PNode, new OfferIndex(4), publishedOffers);
+        offerBookService.setExecutor(Runnable::run);
+
+        Country country = new Country("DE", "Germany", new Region("EU", "Europe"));
+        offer = new Offer("id",
+                DSAKeyUtil.generateKeyPair().getPublic(),
+                Direction.BUY,
+                3000000,
+                Coin.COIN,
+                Coin.COIN,
+                FiatAccountType.SEPA,
+                Currency.getInstance("EUR"),
+                country,
+                "bankAccountUID",
+                new ArrayList<>(Arrays.asList(new Arbitrator())),
+                Coin.CENT,
+                new ArrayList<>(Arrays.asList(country)),
+                new ArrayList<>(Arrays.asList(Locale.ENGLISH)));
+    }
+
+    @Test
+    public void testRemoveUsesKeysOfPublishedOffer() throws Exception {
+        Data publishedData = addOffer();
+        PublishedOffers.Entry entry = publishedOffers.get("id");
+        assertEquals(publishedData.hash(), entry.getContentKey());
+
+        // Changes the serialized form of the offer
+        offer.setOfferFeePaymentTxID("changedTxId");
+        when(tomP2PNode.removeFromDataMap(any(Number160.class), any(Number160.class)))
+                .thenReturn(mock(FutureRemove.class));
+        offerBookService.removeOffer(offer, () -> {
+        }, (message, throwable) -> fail(message));
+
+        verify(tomP2PNode).removeFromDataMap(entry.getLocationKey(), publishedData.hash());
+    }
+
+    @Test
+    public void testRepublishUsesPublishedBytes() throws Exception {
+        Data publishedData = addOffer();
+
+        offer.setOfferFeePaymentTxID("changedTxId");
+        List<RepublishScheduler.Entry> entries = offerBookService.getRepublishEntries();
+
+        assertEquals(1, entries.size());
+        assertEquals(publishedOffers.get("id").getLocationKey(), entries.get(0).getLocationKey());
+        assertEquals(publishedData.hash(), entries.get(0).getContentKey());
+        assertEquals(publishedData.hash(), entries.get(0).getData().hash());
+    }
+
+    @Test
+    public void testFailedQueryIsRetried() throws Exception {
+        offer.setOfferFeePaymentTxID(Sha256Hash.create(new byte[]{1}).toString());
+        Data offerData = new Data(offer);
+        Number160 failingLocationKey = new OfferIndex(4).getLocationKeys("EUR").get(0);
+        FutureGet failedGet = createFutureGet(false, offerData);
+        FutureGet successfulGet = createFutureGet(true, offerData);
+        when(tomP2PNode.getDataMap(any(Number160.class))).thenReturn(createFutureGet(true, null));
+        when(tomP2PNode.getDataMap(failingLocationKey)).thenReturn(failedGet, successfulGet);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Offer> received = new ArrayList<>();
+        offerBookService.addListener(new TestListener() {
+            @Override
+            public void onOffersReceived(List<Offer> offers) {
+                received.addAll(offers);
+                latch.countDown();
+            }
+        });
+        offerBookService.getOffers("EUR");
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        verify(tomP2PNode, times(2)).getDataMap(failingLocationKey);
+        assertEquals(1, received.size());
+        assertEquals("id", received.get(0).getId());
+    }
+
+    @Test
+    public void testEmptyLocationIsNotRetried() throws Exception {
+        when(tomP2PNode.getDataMap(any(Number160.class))).thenAnswer(invocation -> createEmptyFutureGet());
+
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Offer> received = new ArrayList<>();
+        offerBookService.addListener(new TestListener() {
+            @Override
+            public void onOffersReceived(List<Offer> offers) {
+                received.addAll(offers);
+                latch.countDown();
+            }
+        });
+        offerBookService.getOffers("EUR");
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        verify(tomP2PNode, times(new OfferIndex(4).getLocationKeys("EUR").size())).getDataMap(any(Number160.class));
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void testUnreachableLocationIsRetried() throws Exception {
+        Number160 failingLocationKey = new OfferIndex(4).getLocationKeys("EUR").get(0);
+        FutureGet unreachableGet = createFutureGet(false, null);
+        FutureGet emptyGet = createEmptyFutureGet();
+        when(tomP2PNode.getDataMap(any(Number160.class))).thenReturn(emptyGet);
+        when(tomP2PNode.getDataMap(failingLocationKey)).thenReturn(unreachableGet, emptyGet);
+
+        offerBookService.getOffers("EUR");
+
+        verify(tomP2PNode, times(2)).getDataMap(failingLocationKey);
+    }
+
+    @Test
+    public void testFailureIsReportedAfterLastAttempt() throws Exception {
+        FutureGet failedGet = createFutureGet(false, new Data(offer));
+        when(tomP2PNode.getDataMap(any(Number160.class))).thenReturn(failedGet);
+
+        List<String> failedFiatCodes = new ArrayList<>();
+        offerBookService.addListener(new TestListener() {
+            @Override
+            public void onGetOffersFailed(String fiatCode) {
+                failedFiatCodes.add(fiatCode);
+            }
+
+            @Override
+            public void onOffersReceived(List<Offer> offers) {
+                fail("Must not deliver a partial list");
+            }
+        });
+        offerBookService.getOffers("EUR");
+
+        assertEquals(Arrays.asList("EUR"), failedFiatCodes);
+        verify(tomP2PNode, times(3 * new OfferIndex(4).getLocationKeys("EUR").size()))
+                .getDataMap(any(Number160.class));
+    }
+
+    // Completes at once when a listener gets added. Peers responded if the get was successful or has data, a failed
+    // get without data is a transport failure (no peer reachable).
+    private FutureGet createFutureGet(boolean success, Data data) throws Exception {
+        return createFutureGet(success, data, success || data != null);
+    }
+
+    // A failed get without data to which peers responded, so nothing is stored at that location
+    private FutureGet createEmptyFutureGet() throws Exception {
+        return createFutureGet(false, null, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private FutureGet createFutureGet(boolean success, Data data, boolean peersResponded) throws Exception {
+        FutureGet futureGet = mock(FutureGet.class);
+        when(futureGet.isSuccess()).thenReturn(success);
+        Map<Number640, Data> dataMap = new HashMap<>();
+        if (data != null)
+            dataMap.put(new Number640(Number160.ONE, Number160.ZERO, data.hash(), Number160.ZERO), data);
+        when(futureGet.dataMap()).thenReturn(dataMap);
+        Map<PeerAddress, Map<Number640, Data>> rawData = new HashMap<>();
+        if (peersResponded)
+            rawData.put(new PeerAddress(Number160.ONE), dataMap);
+        when(futureGet.rawData()).thenReturn(rawData);
+        when(futureGet.addListener(any(BaseFutureListener.class))).thenAnswer(invocation -> {
+            ((BaseFutureListener<BaseFuture>) invocation.getArguments()[0]).operationComplete(futureGet);
+            return futureGet;
+        });
+        return futureGet;
+    }
+
+    // Adds the offer and completes the put successfully, returns the stored data
+    @SuppressWarnings("unchecked")
+    private Data addOffer() throws Exception {
+        FuturePut futurePut = mock(FuturePut.class);
+        when(futurePut.isSuccess()).thenReturn(true);
+        when(tomP2PNode.addProtectedData(any(Number160.class), any(Data.class))).thenReturn(futurePut);
+        when(tomP2PNode.putData(any(Number160.class), any(Data.class))).thenReturn(mock(FuturePut.class));
+
+        offerBookService.addOffer(offer, () -> {
+        }, (message, throwable) -> fail(message));
+
+        ArgumentCaptor<Data> data = ArgumentCaptor.forClass(Data.class);
+        verify(tomP2PNode).addProtectedData(any(Number160.class), data.capture());
+        ArgumentCaptor<BaseFutureListener> listener = ArgumentCaptor.forClass(BaseFutureListener.class);
+        verify(futurePut).addListener(listener.capture());
+        listener.getValue().operationComplete(futurePut);
+        return data.getValue();
+    }
+
+    private static class TestListener implements OfferBookService.Listener {
+        @Override
+        public void onOfferAdded(Offer offer) {
+        }
+
+        @Override
+        public void onOffersReceived(List<Offer> offers) {
+        }
+
+        @Override
+        public void onOfferRemoved(Offer offer) {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade;
+
+import io.bitsquare.offer.Offer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class OfferAvailabilityCacheTest {
+    private static final long AVAILABLE_TTL = 100;
+    private static final long NOT_AVAILABLE_TTL = 400;
+
+    @Test
+    public void testResultsExpireAfterTheirTtl() throws InterruptedException {
+        OfferAvailabilityCache cache = new OfferAvailabilityCache(AVAILABLE_TTL, NOT_AVAILABLE_TTL);
+        cache.put("offer1", Offer.State.AVAILABLE);
+        cache.put("offer2", Offer.State.RESERVED);
+
+        assertEquals(Offer.State.AVAILABLE, cache.get("offer1"));
+        assertEquals(Offer.State.RESERVED, cache.get("offer2"));
+
+        // the positive result is expired, the negative one is still fresh
+        Thread.sleep(AVAILABLE_TTL + 100);
+        assertNull(cache.get("offer1"));
+        assertEquals(Offer.State.RESERVED, cache.get("offer2"));
+
+        Thread.sleep(NOT_AVAILABLE_TTL);
+        assertNull(cache.get("offer2"));
+        assertFalse(cache.contains("offer2"));
+    }
+
+    @Test
+    public void testPurgeExpiredUsesTheTtlOfTheState() throws InterruptedException {
+        OfferAvailabilityCache cache = new OfferAvailabilityCache(AVAILABLE_TTL, NOT_AVAILABLE_TTL);
+        cache.put("offer1", Offer.State.AVAILABLE);
+        cache.put("offer2", Offer.State.OFFERER_OFFLINE);
+
+        Thread.sleep(AVAILABLE_TTL + 100);
+        cache.purgeExpired();
+
+        assertFalse(cache.contains("offer1"));
+        assertTrue(cache.contains("offer2"));
+    }
+
+    @Test
+    public void testNonFinalStatesAreNotCached() {
+        OfferAvailabilityCache cache = new OfferAvailabilityCache(AVAILABLE_TTL, NOT_AVAILABLE_TTL);
+        cache.put("offer1", Offer.State.AVAILABLE);
+        // a failed check drops the previous result
+        cache.put("offer1", Offer.State.FAULT);
+        cache.put("offer2", Offer.State.UNKNOWN);
+
+        assertFalse(cache.contains("offer1"));
+        assertFalse(cache.contains("offer2"));
+    }
+
+    @Test
+    public void testApplyTo() throws InterruptedException {
+        OfferAvailabilityCache cache = new OfferAvailabilityCache(AVAILABLE_TTL, NOT_AVAILABLE_TTL);
+        Offer offer = mock(Offer.class);
+        when(offer.getId()).thenReturn("offer1");
+        when(offer.getState()).thenReturn(Offer.State.UNKNOWN);
+
+        assertFalse(cache.applyTo(offer));
+
+        cache.put("offer1", Offer.State.AVAILABLE);
+        assertTrue(cache.applyTo(offer));
+        verify(offer).setState(Offer.State.AVAILABLE);
+
+        Thread.sleep(AVAILABLE_TTL + 100);
+        assertFalse(cache.applyTo(offer));
+        verify(offer, times(1)).setState(any(Offer.State.class));
+    }
+}
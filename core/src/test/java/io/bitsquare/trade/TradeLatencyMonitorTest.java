@@ -0,0 +1,111 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade;
+
+import io.bitsquare.offer.Offer;
+import io.bitsquare.trade.handlers.MessageHandler;
+import io.bitsquare.trade.listeners.OutgoingMessageListener;
+import io.bitsquare.trade.protocol.trade.messages.DepositTxPublishedMessage;
+
+import com.google.common.base.Charsets;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TradeLatencyMonitorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private TradeMessageService tradeMessageService;
+    private Trade trade;
+
+    @Before
+    public void setUp() {
+        tradeMessageService = mock(TradeMessageService.class);
+        Offer offer = mock(Offer.class);
+        when(offer.getId()).thenReturn("tradeId");
+        trade = new Trade(offer);
+    }
+
+    @Test
+    public void testDisabledMonitorDoesNotRecord() {
+        TradeLatencyMonitor monitor = new TradeLatencyMonitor(tradeMessageService, tempFolder.getRoot(), false);
+        monitor.track(trade);
+        trade.setState(Trade.State.DEPOSIT_PUBLISHED);
+
+        verify(tradeMessageService, never()).addMessageHandler(any(MessageHandler.class));
+        verify(tradeMessageService, never()).addOutgoingMessageListener(any(OutgoingMessageListener.class));
+        assertNull(trade.getTimeline());
+        assertTrue(monitor.getStatistics().isEmpty());
+    }
+
+    @Test
+    public void testStateChangesAndMessagesAreRecorded() {
+        TradeLatencyMonitor monitor = new TradeLatencyMonitor(tradeMessageService, tempFolder.getRoot(), true);
+        monitor.track(trade);
+
+        trade.setState(Trade.State.DEPOSIT_PUBLISHED);
+        trade.getTimeline().addMessage(TradeTimeline.Type.MESSAGE_SENT,
+                DepositTxPublishedMessage.class.getSimpleName(), 12);
+        trade.setState(Trade.State.DEPOSIT_CONFIRMED);
+
+        List<TradeTimeline.Event> events = trade.getTimeline().getEvents();
+        assertEquals(4, events.size());
+        assertEquals(TradeTimeline.Type.STATE, events.get(0).type);
+        assertEquals("OPEN", events.get(0).name);
+        assertEquals("DEPOSIT_CONFIRMED", events.get(3).name);
+
+        assertEquals(1, monitor.getStatistics().get("state OPEN -> DEPOSIT_PUBLISHED").getCount());
+        assertEquals(1, monitor.getStatistics().get("state DEPOSIT_PUBLISHED -> DEPOSIT_CONFIRMED").getCount());
+        assertEquals(12, monitor.getStatistics().get("send DepositTxPublishedMessage").getMax());
+        assertTrue(monitor.getTimelineAsJson("tradeId").contains("DEPOSIT_CONFIRMED"));
+
+        monitor.onTradeClosed(trade);
+        assertNull(monitor.getTimelineAsJson("tradeId"));
+        monitor.shutDown();
+    }
+
+    @Test
+    public void testTimelineOfOpenTradeIsExported() throws IOException {
+        TradeLatencyMonitor monitor = new TradeLatencyMonitor(tradeMessageService, tempFolder.getRoot(), true);
+        monitor.track(trade);
+        trade.setState(Trade.State.DEPOSIT_PUBLISHED);
+
+        // The trade stalls, so it never gets closed
+        monitor.shutDown();
+
+        File timelineFile = new File(monitor.getExportDir(), "tradeId.json");
+        assertTrue(timelineFile.exists());
+        assertTrue(new String(Files.readAllBytes(timelineFile.toPath()), Charsets.UTF_8)
+                .contains("DEPOSIT_PUBLISHED"));
+        assertTrue(new File(monitor.getExportDir(), TradeLatencyMonitor.STATISTICS_FILE_NAME).exists());
+    }
+}
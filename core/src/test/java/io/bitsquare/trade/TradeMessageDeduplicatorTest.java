@@ -0,0 +1,74 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade;
+
+import io.bitsquare.trade.protocol.trade.messages.TradeMessage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TradeMessageDeduplicatorTest {
+
+    @Test
+    public void testDuplicatesAreDetected() {
+        TradeMessageDeduplicator deduplicator = new TradeMessageDeduplicator();
+        TradeMessage message = createMessage("trade1");
+
+        assertFalse(deduplicator.isDuplicate(message));
+        assertTrue(deduplicator.isDuplicate(message));
+        assertFalse(deduplicator.isDuplicate(createMessage("trade1")));
+        assertFalse(deduplicator.isDuplicate(createMessage("trade2")));
+        assertEquals(1, deduplicator.getNumDuplicates());
+    }
+
+    @Test
+    public void testWindowIsBounded() {
+        TradeMessageDeduplicator deduplicator = new TradeMessageDeduplicator();
+        TradeMessage first = createMessage("trade1");
+        deduplicator.isDuplicate(first);
+        for (int i = 0; i < TradeMessageDeduplicator.WINDOW_SIZE; i++)
+            deduplicator.isDuplicate(createMessage("trade1"));
+
+        assertFalse(deduplicator.isDuplicate(first));
+    }
+
+    @Test
+    public void testSequenceNumbersPerTrade() {
+        TradeMessageDeduplicator deduplicator = new TradeMessageDeduplicator();
+        TradeMessage message1 = createMessage("trade1");
+        TradeMessage message2 = createMessage("trade1");
+        TradeMessage message3 = createMessage("trade2");
+
+        deduplicator.assignSequenceNumber(message1);
+        deduplicator.assignSequenceNumber(message2);
+        deduplicator.assignSequenceNumber(message3);
+        // a resent message keeps its number
+        deduplicator.assignSequenceNumber(message1);
+
+        assertEquals(1, message1.sequenceNumber);
+        assertEquals(2, message2.sequenceNumber);
+        assertEquals(1, message3.sequenceNumber);
+    }
+
+    private TradeMessage createMessage(String tradeId) {
+        TradeMessage message = new TradeMessage();
+        message.tradeId = tradeId;
+        return message;
+    }
+}
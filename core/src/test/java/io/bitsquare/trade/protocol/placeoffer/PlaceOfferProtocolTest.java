@@ -23,11 +23,19 @@ import io.bitsquare.btc.BitcoinNetwork;
 import io.bitsquare.btc.FeePolicy;
 import io.bitsquare.btc.UserAgent;
 import io.bitsquare.btc.WalletService;
+import io.bitsquare.common.timeout.TimeoutService;
+import io.bitsquare.crypto.EncryptionService;
 import io.bitsquare.locale.CountryUtil;
 import io.bitsquare.locale.LanguageUtil;
+import io.bitsquare.network.BootstrapNodes;
 import io.bitsquare.network.BootstrapState;
 import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.BootstrapCache;
 import io.bitsquare.network.tomp2p.BootstrappedPeerBuilder;
+import io.bitsquare.network.tomp2p.InboundMessageQueue;
+import io.bitsquare.network.tomp2p.MonitoredEventExecutorGroup;
+import io.bitsquare.network.tomp2p.PeerConnectionPool;
+import io.bitsquare.network.tomp2p.PeerMapCache;
 import io.bitsquare.network.tomp2p.TomP2PNode;
 import io.bitsquare.offer.Direction;
 import io.bitsquare.offer.Offer;
@@ -81,6 +89,8 @@ public class PlaceOfferProtocolTest {
     private Address address;
     private TomP2PNode tomP2PNode;
     private BootstrappedPeerBuilder bootstrappedPeerBuilder;
+    private InboundMessageQueue inboundMessageQueue;
+    private TimeoutService timeoutService;
 
     @Before
     public void setup() throws InterruptedException {
@@ -94,9 +104,16 @@ public class PlaceOfferProtocolTest {
         Node bootstrapNode = Node.at("localhost", "127.0.0.1");
         User user = new User();
         user.applyPersistedUser(null);
-        bootstrappedPeerBuilder = new BootstrappedPeerBuilder(Node.DEFAULT_PORT, false, bootstrapNode, "<unspecified>");
-        tomP2PNode = new TomP2PNode(bootstrappedPeerBuilder);
-        tradeMessageService = new TomP2PTradeMessageService(tomP2PNode);
+        bootstrappedPeerBuilder = new BootstrappedPeerBuilder(Node.DEFAULT_PORT, false, bootstrapNode, "<unspecified>",
+                MonitoredEventExecutorGroup.AUTOMATIC_SIZE, BootstrapNodes.DEFAULT_INSTANCES,
+                new BootstrapCache(persistence), new PeerMapCache(persistence));
+        inboundMessageQueue = new InboundMessageQueue(InboundMessageQueue.DEFAULT_WORKERS,
+                InboundMessageQueue.DEFAULT_QUEUE_CAPACITY, InboundMessageQueue.DEFAULT_MAX_MESSAGES_PER_SECOND);
+        tomP2PNode = new TomP2PNode(bootstrappedPeerBuilder,
+                new PeerConnectionPool(PeerConnectionPool.DEFAULT_MAX_SIZE, PeerConnectionPool.DEFAULT_IDLE_TIMEOUT),
+                inboundMessageQueue);
+        timeoutService = new TimeoutService();
+        tradeMessageService = new TomP2PTradeMessageService(tomP2PNode, timeoutService, new EncryptionService());
 
         Observable<BootstrapState> messageObservable = tomP2PNode.bootstrap(user.getMessageKeyPair(), tradeMessageService);
         messageObservable.publish();
@@ -158,6 +175,8 @@ public class PlaceOfferProtocolTest {
     public void shutDown() throws IOException, InterruptedException {
         walletService.shutDown();
         bootstrappedPeerBuilder.shutDown();
+        inboundMessageQueue.shutDown();
+        timeoutService.shutDown();
     }
 
 /*    @Test
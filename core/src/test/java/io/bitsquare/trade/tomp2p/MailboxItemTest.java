@@ -0,0 +1,39 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.trade.tomp2p;
+
+import io.bitsquare.util.DSAKeyUtil;
+
+import java.security.KeyPair;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MailboxItemTest {
+
+    @Test
+    public void testVerifySignature() throws Exception {
+        KeyPair keyPair = DSAKeyUtil.generateKeyPair();
+        byte[] content = {1, 2, 3};
+        byte[] signature = MailboxItem.sign(keyPair.getPrivate(), content);
+
+        assertTrue(MailboxItem.verify(keyPair.getPublic(), content, signature));
+        assertFalse(MailboxItem.verify(keyPair.getPublic(), new byte[]{1, 2, 4}, signature));
+        assertFalse(MailboxItem.verify(DSAKeyUtil.generateKeyPair().getPublic(), content, signature));
+    }
+}
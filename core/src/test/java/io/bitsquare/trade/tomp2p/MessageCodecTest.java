@@ -0,0 +1,94 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade.tomp2p;
+
+import io.bitsquare.network.MessagePriority;
+import io.bitsquare.trade.protocol.trade.messages.TradeMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageCodecTest {
+
+    @Test
+    public void testSmallMessageIsNotCompressed() throws Exception {
+        MessageCodec messageCodec = new MessageCodec();
+        TradeMessage message = createMessage("trade1");
+
+        MessageCodec.Envelope envelope = messageCodec.encode(message);
+        assertFalse(envelope.isCompressed());
+        assertEquals(message.messageId, ((TradeMessage) messageCodec.decode(envelope)).messageId);
+
+        // The envelope adds its own class descriptor, so on the wire a small message gets larger
+        MessageCodec.SizeStatistics sizeStatistics = messageCodec.getSizeStatistics().get("TradeMessage");
+        assertEquals(MessageCodec.serialize(envelope).length, sizeStatistics.getEncodedBytes());
+        assertTrue(sizeStatistics.getEncodedBytes() > sizeStatistics.getSerializedBytes());
+    }
+
+    @Test
+    public void testLargeMessageIsCompressed() throws Exception {
+        MessageCodec messageCodec = new MessageCodec();
+        StringBuilder tradeId = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            tradeId.append("trade");
+        TradeMessage message = createMessage(tradeId.toString());
+
+        MessageCodec.Envelope envelope = messageCodec.encode(message);
+        assertTrue(envelope.isCompressed());
+        assertEquals(tradeId.toString(), ((TradeMessage) messageCodec.decode(envelope)).tradeId);
+
+        MessageCodec.SizeStatistics sizeStatistics = messageCodec.getSizeStatistics().get("TradeMessage");
+        assertEquals(1, sizeStatistics.getCount());
+        assertEquals(MessageCodec.serialize(envelope).length, sizeStatistics.getEncodedBytes());
+        assertTrue(sizeStatistics.getEncodedBytes() < sizeStatistics.getSerializedBytes());
+    }
+
+    @Test
+    public void testCompressionCanBeDisabled() throws Exception {
+        MessageCodec messageCodec = new MessageCodec();
+        messageCodec.setCompressionThreshold(MessageCodec.COMPRESSION_DISABLED);
+        StringBuilder tradeId = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            tradeId.append("trade");
+
+        assertFalse(messageCodec.encode(createMessage(tradeId.toString())).isCompressed());
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecompressionBombIsRejected() throws Exception {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(byteArrayOutputStream)) {
+            deflaterOutputStream.write(new byte[MessageCodec.MAX_INFLATED_SIZE + 1]);
+        }
+
+        new MessageCodec().decode(new MessageCodec.Envelope(byteArrayOutputStream.toByteArray(), true,
+                MessagePriority.OTHER));
+    }
+
+    private TradeMessage createMessage(String tradeId) {
+        TradeMessage message = new TradeMessage();
+        message.tradeId = tradeId;
+        return message;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade.tomp2p;
+
+import io.bitsquare.network.MessagePriority;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageDispatchQueueTest {
+
+    // Drains scheduled on the executor, run by the test
+    private final Queue<Runnable> scheduledDrains = new ConcurrentLinkedQueue<>();
+    private final List<String> handled = new ArrayList<>();
+    private MessageDispatchQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new MessageDispatchQueue(MessageDispatchQueue.BATCH_SIZE * 2);
+        queue.setExecutor(scheduledDrains::add);
+    }
+
+    @Test
+    public void testHighestPriorityIsHandledFirst() throws InterruptedException {
+        queue.dispatch(MessagePriority.AVAILABILITY, () -> handled.add("availability1"));
+        queue.dispatch(MessagePriority.OTHER, () -> handled.add("other"));
+        queue.dispatch(MessagePriority.AVAILABILITY, () -> handled.add("availability2"));
+        queue.dispatch(MessagePriority.TRADE, () -> handled.add("trade"));
+
+        // only one drain is scheduled at a time
+        assertEquals(1, scheduledDrains.size());
+        scheduledDrains.poll().run();
+
+        assertEquals(4, handled.size());
+        assertEquals("trade", handled.get(0));
+        assertEquals("availability1", handled.get(1));
+        assertEquals("availability2", handled.get(2));
+        assertEquals("other", handled.get(3));
+        assertTrue(scheduledDrains.isEmpty());
+    }
+
+    @Test
+    public void testDrainIsLimitedToBatchSize() throws InterruptedException {
+        for (int i = 0; i < MessageDispatchQueue.BATCH_SIZE + 1; i++)
+            queue.dispatch(MessagePriority.AVAILABILITY, () -> handled.add("availability"));
+
+        scheduledDrains.poll().run();
+        assertEquals(MessageDispatchQueue.BATCH_SIZE, handled.size());
+        assertEquals(1, queue.getQueueLength());
+
+        // the rest is handled by the next drain
+        assertEquals(1, scheduledDrains.size());
+        queue.dispatch(MessagePriority.TRADE, () -> handled.add("trade"));
+        scheduledDrains.poll().run();
+        assertEquals("trade", handled.get(MessageDispatchQueue.BATCH_SIZE));
+        assertEquals(0, queue.getQueueLength());
+    }
+
+    @Test
+    public void testDispatchBlocksWhileQueueIsFull() throws InterruptedException {
+        for (int i = 0; i < MessageDispatchQueue.BATCH_SIZE * 2; i++)
+            queue.dispatch(MessagePriority.AVAILABILITY, () -> handled.add("availability"));
+
+        CountDownLatch dispatched = new CountDownLatch(1);
+        Thread worker = new Thread(() -> {
+            try {
+                queue.dispatch(MessagePriority.TRADE, () -> handled.add("trade"));
+                dispatched.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        worker.start();
+        assertFalse(dispatched.await(200, TimeUnit.MILLISECONDS));
+
+        scheduledDrains.poll().run();
+        assertTrue(dispatched.await(2, TimeUnit.SECONDS));
+        worker.join();
+
+        while (!scheduledDrains.isEmpty())
+            scheduledDrains.poll().run();
+
+        // the trade message waited for free capacity but jumped the remaining availability messages
+        assertEquals(MessageDispatchQueue.BATCH_SIZE * 2 + 1, handled.size());
+        assertTrue(handled.indexOf("trade") <= MessageDispatchQueue.BATCH_SIZE);
+    }
+}
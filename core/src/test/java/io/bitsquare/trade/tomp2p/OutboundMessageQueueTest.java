@@ -0,0 +1,174 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.trade.tomp2p;
+
+import io.bitsquare.common.timeout.TimeoutService;
+import io.bitsquare.network.tomp2p.TomP2PNode;
+import io.bitsquare.trade.protocol.trade.messages.TradeMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureListener;
+import net.tomp2p.futures.FutureDirect;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class OutboundMessageQueueTest {
+
+    private final PeerAddress peerAddress = new PeerAddress(Number160.ONE);
+    private final List<BaseFutureListener<BaseFuture>> sendListeners = new ArrayList<>();
+    private final List<FutureDirect> futureDirects = new ArrayList<>();
+    private final List<Boolean> results = new ArrayList<>();
+    private TomP2PNode tomP2PNode;
+    private TimeoutService timeoutService;
+    private OutboundMessageQueue queue;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        tomP2PNode = mock(TomP2PNode.class);
+        timeoutService = mock(TimeoutService.class);
+        when(tomP2PNode.sendData(any(PeerAddress.class), any())).thenAnswer(invocation -> {
+            FutureDirect futureDirect = mock(FutureDirect.class);
+            futureDirects.add(futureDirect);
+            when(futureDirect.addListener(any(BaseFutureListener.class))).thenAnswer(i -> {
+                sendListeners.add((BaseFutureListener<BaseFuture>) i.getArguments()[0]);
+                return futureDirect;
+            });
+            return futureDirect;
+        });
+        queue = new OutboundMessageQueue(tomP2PNode, timeoutService);
+    }
+
+    @Test
+    public void testMessagesOfSameTradeAreSentInOrder() throws Exception {
+        TradeMessage message1 = createMessage("trade1");
+        TradeMessage message2 = createMessage("trade1");
+        queue.add(peerAddress, message1, message1, 1, (success, latency) -> results.add(success));
+        queue.add(peerAddress, message2, message2, 1, (success, latency) -> results.add(success));
+
+        verify(tomP2PNode).sendData(peerAddress, message1);
+        verify(tomP2PNode, never()).sendData(peerAddress, message2);
+        assertEquals(2, queue.getQueueDepth());
+
+        complete(0, true);
+        verify(tomP2PNode).sendData(peerAddress, message2);
+        complete(1, true);
+
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(2, results.size());
+        assertEquals(2, queue.getDeliveryLatency().getCount());
+    }
+
+    @Test
+    public void testRetryingMessageDoesNotBlockOtherTrades() throws Exception {
+        TradeMessage message1 = createMessage("trade1");
+        TradeMessage message2 = createMessage("trade2");
+        queue.add(peerAddress, message1, message1, 2, (success, latency) -> results.add(success));
+        complete(0, false);
+        verify(timeoutService).arm(eq(OutboundMessageQueue.INITIAL_RETRY_DELAY), anyString(),
+                any(TimeoutService.TimeoutHandler.class));
+
+        queue.add(peerAddress, message2, message2, 1, (success, latency) -> results.add(success));
+        verify(tomP2PNode).sendData(peerAddress, message2);
+        complete(1, true);
+
+        assertEquals(1, queue.getQueueDepth());
+        assertEquals(1, results.size());
+        assertTrue(results.get(0));
+    }
+
+    @Test
+    public void testFailedMessageIsRetried() throws Exception {
+        ArgumentCaptor<TimeoutService.TimeoutHandler> retry =
+                ArgumentCaptor.forClass(TimeoutService.TimeoutHandler.class);
+        TradeMessage message = createMessage("trade1");
+        queue.add(peerAddress, message, message, 2, (success, latency) -> results.add(success));
+
+        complete(0, false);
+        verify(timeoutService).arm(eq(OutboundMessageQueue.INITIAL_RETRY_DELAY), anyString(), retry.capture());
+        assertTrue(results.isEmpty());
+
+        retry.getValue().handleTimeout(null);
+        verify(tomP2PNode, times(2)).sendData(peerAddress, message);
+        complete(1, false);
+
+        assertEquals(1, queue.getNumRetries());
+        assertEquals(1, queue.getNumFailedMessages());
+        assertEquals(1, results.size());
+        assertFalse(results.get(0));
+    }
+
+    @Test
+    public void testRejectedMessageIsRetried() throws Exception {
+        TradeMessage message = createMessage("trade1");
+        queue.add(peerAddress, message, message, 2, (success, latency) -> results.add(success));
+
+        when(futureDirects.get(0).object()).thenReturn(TomP2PNode.MESSAGE_REJECTED);
+        complete(0, true);
+
+        verify(timeoutService).arm(eq(OutboundMessageQueue.INITIAL_RETRY_DELAY), anyString(),
+                any(TimeoutService.TimeoutHandler.class));
+        assertEquals(1, queue.getNumRetries());
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void testPendingMessageIsCoalesced() throws Exception {
+        queue.setCoalescing(true);
+        TradeMessage message1 = createMessage("trade1");
+        TradeMessage message2 = createMessage("trade1");
+        TradeMessage message3 = createMessage("trade1");
+        queue.add(peerAddress, message1, message1, 1, (success, latency) -> results.add(success));
+        queue.add(peerAddress, message2, message2, 1, (success, latency) -> results.add(success));
+        queue.add(peerAddress, message3, message3, 1, (success, latency) -> results.add(success));
+
+        assertEquals(2, queue.getQueueDepth());
+        assertEquals(1, queue.getNumCoalescedMessages());
+
+        complete(0, true);
+        verify(tomP2PNode, never()).sendData(peerAddress, message2);
+        verify(tomP2PNode).sendData(peerAddress, message3);
+        complete(1, true);
+
+        // the handler of the replaced message gets the result of the newer one
+        assertEquals(3, results.size());
+    }
+
+    private void complete(int index, boolean success) throws Exception {
+        BaseFuture future = mock(BaseFuture.class);
+        when(future.isSuccess()).thenReturn(success);
+        sendListeners.get(index).operationComplete(future);
+    }
+
+    private TradeMessage createMessage(String tradeId) {
+        TradeMessage message = new TradeMessage();
+        message.tradeId = tradeId;
+        return message;
+    }
+}